@@ -0,0 +1,145 @@
+package org.elasticsearch.benchmark.acrossvariants;
+
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthStatus;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.io.FileSystemUtils;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.node.Node;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.elasticsearch.common.settings.ImmutableSettings.settingsBuilder;
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.elasticsearch.node.NodeBuilder.nodeBuilder;
+
+/**
+ * Embedded local nodes, in this JVM and on the local transport, that need no network,
+ * holding an index of a {@link VariantsCorpus}. Requests go through the first node.
+ * The analysis setup is the one of {@code AcrossVariantsAndQueryTest}, extended with:
+ * <ul>
+ * <li>{@value #INDEX_ANALYZER}, that indexes dash-separated words as a whole, as parts and glued,</li>
+ * <li>{@value #SEARCH_ANALYZER}, that decompounds the query words using the corpus parts as dictionary,
+ *     nesting the parts under the compound in the variant tree.</li>
+ * </ul>
+ */
+public class BenchmarkNode {
+
+    public static final String INDEX = "variants";
+    public static final String TYPE = "doc";
+    public static final String INDEX_ANALYZER = "variants_index";
+    public static final String SEARCH_ANALYZER = "variants_search";
+
+    private final File dataPath;
+    private final Node[] nodes;
+
+    public BenchmarkNode(String name, Settings settings) throws IOException {
+        this(name, settings, 1);
+    }
+
+    public BenchmarkNode(String name, Settings settings, int nodeCount) throws IOException {
+        this.dataPath = File.createTempFile("acrossvariants-benchmark", "");
+        if (!dataPath.delete() || !dataPath.mkdirs())
+            throw new IOException("Cannot create data directory [" + dataPath + "]");
+        this.nodes = new Node[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            nodes[i] = nodeBuilder().local(true).settings(settingsBuilder()
+                    .put("name", name + "-" + i)
+                    .put("cluster.name", name + "-" + dataPath.getName())
+                    .put("path.data", dataPath.getAbsolutePath())
+                    .put("gateway.type", "none")
+                    .put("http.enabled", false)
+                    .put("discovery.zen.ping.multicast.enabled", false)
+                    .put(settings.getByPrefix("node."))
+            ).node();
+        }
+        client().admin().cluster().prepareHealth().setWaitForNodes(Integer.toString(nodeCount)).get();
+    }
+
+    public Client client() {
+        return nodes[0].client();
+    }
+
+    public void createIndex(VariantsCorpus corpus, int fields, int shards) throws IOException {
+        Settings indexSettings = ImmutableSettings.settingsBuilder()
+                .loadFromClasspath("AcrossVariantsAndQueryTest-settings.json")
+                .put("index.number_of_shards", shards)
+                .put("index.number_of_replicas", 0)
+                .put("index.analysis.filter.variants_delimiter.type", "word_delimiter")
+                .put("index.analysis.filter.variants_delimiter.preserve_original", true)
+                .put("index.analysis.filter.variants_delimiter.catenate_words", true)
+                .put("index.analysis.filter.variants_decompounder.type", "dictionary_decompounder")
+                .putArray("index.analysis.filter.variants_decompounder.word_list", corpus.getParts())
+                .put("index.analysis.analyzer." + INDEX_ANALYZER + ".type", "custom")
+                .put("index.analysis.analyzer." + INDEX_ANALYZER + ".tokenizer", "whitespace")
+                .putArray("index.analysis.analyzer." + INDEX_ANALYZER + ".filter", "variants_delimiter", "index_stopwords")
+                .put("index.analysis.analyzer." + SEARCH_ANALYZER + ".type", "custom")
+                .put("index.analysis.analyzer." + SEARCH_ANALYZER + ".tokenizer", "whitespace")
+                .putArray("index.analysis.analyzer." + SEARCH_ANALYZER + ".filter", "variants_decompounder", "search_stopwords")
+                .build();
+        XContentBuilder mapping = jsonBuilder().startObject().startObject(TYPE)
+                .startObject("_all").field("enabled", false).endObject()
+                .startObject("_source").field("enabled", false).endObject()
+                .startObject("properties");
+        for (int i = 1; i <= fields; i++) {
+            mapping.startObject(field(i))
+                    .field("type", "string")
+                    .field("index", "analyzed")
+                    .field("index_analyzer", INDEX_ANALYZER)
+                    .field("search_analyzer", SEARCH_ANALYZER)
+                    .endObject();
+        }
+        mapping.endObject().endObject().endObject();
+        client().admin().indices().prepareCreate(INDEX).setSettings(indexSettings).addMapping(TYPE, mapping).get();
+        ClusterHealthStatus status = client().admin().cluster().prepareHealth(INDEX).setWaitForGreenStatus().get().getStatus();
+        if (status != ClusterHealthStatus.GREEN)
+            throw new IllegalStateException("Index [" + INDEX + "] is not green: " + status);
+    }
+
+    public void deleteIndex() {
+        client().admin().indices().prepareDelete(INDEX).get();
+    }
+
+    public static String field(int i) {
+        return "field" + i;
+    }
+
+    public static String[] fields(int count) {
+        String[] rtn = new String[count];
+        for (int i = 0; i < count; i++)
+            rtn[i] = field(i + 1);
+        return rtn;
+    }
+
+    /**
+     * Indexes {@code numDocs} documents, with {@code wordsPerField} compounds of up to {@code maxParts} parts in each field.
+     */
+    public void index(VariantsCorpus corpus, Random random, int numDocs, int fields, int wordsPerField, int maxParts) throws IOException {
+        BulkRequestBuilder bulk = client().prepareBulk();
+        for (int i = 0; i < numDocs; i++) {
+            XContentBuilder document = jsonBuilder().startObject();
+            for (int j = 1; j <= fields; j++)
+                document.field(field(j), corpus.fieldValue(random, wordsPerField, 1, maxParts, true));
+            bulk.add(client().prepareIndex(INDEX, TYPE, Integer.toString(i)).setSource(document.endObject()));
+            if (bulk.numberOfActions() >= 1000 || i == numDocs - 1) {
+                BulkResponse response = bulk.get();
+                if (response.hasFailures())
+                    throw new IllegalStateException(response.buildFailureMessage());
+                bulk = client().prepareBulk();
+            }
+        }
+        client().admin().indices().prepareRefresh(INDEX).get();
+    }
+
+    public void close() {
+        for (Node node : nodes)
+            node.close();
+        FileSystemUtils.deleteRecursively(dataPath);
+    }
+
+}
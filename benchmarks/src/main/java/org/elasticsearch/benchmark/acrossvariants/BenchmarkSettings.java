@@ -0,0 +1,29 @@
+package org.elasticsearch.benchmark.acrossvariants;
+
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+
+/**
+ * Command line options of the macro benchmarks, given as {@code --name=value}.
+ */
+public final class BenchmarkSettings {
+
+    private BenchmarkSettings() {
+    }
+
+    public static Settings parse(String[] args) {
+        ImmutableSettings.Builder builder = ImmutableSettings.settingsBuilder();
+        for (String arg : args) {
+            if (!arg.startsWith("--"))
+                throw new ElasticsearchIllegalArgumentException("Expected --name=value, got [" + arg + "]");
+            int equals = arg.indexOf('=');
+            if (equals < 0)
+                builder.put(arg.substring(2), true);
+            else
+                builder.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        return builder.build();
+    }
+
+}
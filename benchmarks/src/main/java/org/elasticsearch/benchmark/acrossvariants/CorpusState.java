@@ -0,0 +1,70 @@
+package org.elasticsearch.benchmark.acrossvariants;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.AcrossVariantsAndFilter;
+import org.apache.lucene.search.AcrossVariantsAndQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A RAMDirectory corpus, and an across variants query over it,
+ * along with the equivalent hand-built BooleanQuery.
+ */
+@State(Scope.Benchmark)
+public class CorpusState {
+
+    public static final long SEED = 0x5eedL;
+
+    @Param({ "100000" })
+    public int numDocs;
+
+    @Param({ "1", "4" })
+    public int compounds;
+
+    @Param({ "1", "3" })
+    public int parts;
+
+    public Directory directory;
+    public DirectoryReader reader;
+    public IndexSearcher searcher;
+    public VariantsQueryShape shape;
+    public Map<String, Float> fields;
+
+    public AcrossVariantsAndQuery query;
+    public AcrossVariantsAndFilter filter;
+    public Query booleanQuery;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        VariantsCorpus corpus = new VariantsCorpus(SEED, 500);
+        directory = corpus.index(numDocs, 8, parts);
+        reader = DirectoryReader.open(directory);
+        searcher = new IndexSearcher(reader);
+        // Query for popular compounds, so that there is something to score
+        shape = corpus.queryShape(0, compounds, parts);
+        fields = new LinkedHashMap<String, Float>();
+        for (String field : VariantsCorpus.FIELDS)
+            fields.put(field, 1.0f);
+        query = new AcrossVariantsAndQuery(fields, shape.getAnalyzer(), shape.getText());
+        filter = new AcrossVariantsAndFilter(fields.keySet(), shape.getAnalyzer(), shape.getText());
+        booleanQuery = shape.booleanQuery(VariantsCorpus.FIELDS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+        directory.close();
+    }
+
+}
@@ -0,0 +1,43 @@
+package org.elasticsearch.benchmark.acrossvariants;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of evaluating the filter on every segment, and iterating the matching documents.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+
+    @Benchmark
+    public int getDocIdSet(CorpusState state) throws IOException {
+        int count = 0;
+        for (AtomicReaderContext context : state.reader.leaves()) {
+            DocIdSet docIdSet = state.filter.getDocIdSet(context, context.reader().getLiveDocs());
+            if (docIdSet == null)
+                continue;
+            DocIdSetIterator iterator = docIdSet.iterator();
+            if (iterator == null)
+                continue;
+            while (iterator.nextDoc() != DocIdSetIterator.NO_MORE_DOCS)
+                count++;
+        }
+        return count;
+    }
+
+}
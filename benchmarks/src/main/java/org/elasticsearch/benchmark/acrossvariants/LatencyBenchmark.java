@@ -0,0 +1,148 @@
+package org.elasticsearch.benchmark.acrossvariants;
+
+import org.HdrHistogram.Histogram;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.AcrossVariantsQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end latency of the across_variants query, on an embedded local node.
+ * Indexes a synthetic corpus of compound words, then replays a query mix
+ * whose variant explosion rate is tunable, and reports the throughput and latency percentiles.
+ * Everything is seeded, so that two runs with the same options search the same data with the same queries.
+ * <p>
+ * Options, given as {@code --name=value}:
+ * {@code seed}, {@code vocabulary} (number of compound parts), {@code docs}, {@code fields}, {@code words_per_field},
+ * {@code max_parts}, {@code shards}, {@code queries}, {@code warmup}, {@code words_per_query},
+ * {@code explosion_rate} (probability of a query word to be a compound), {@code threads}, {@code size}.
+ */
+public class LatencyBenchmark {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    public static void main(String[] args) throws Exception {
+        Settings settings = BenchmarkSettings.parse(args);
+        long seed = settings.getAsLong("seed", CorpusState.SEED);
+        int vocabulary = settings.getAsInt("vocabulary", 2000);
+        int docs = settings.getAsInt("docs", 100000);
+        int fields = settings.getAsInt("fields", 3);
+        int wordsPerField = settings.getAsInt("words_per_field", 8);
+        int maxParts = settings.getAsInt("max_parts", 3);
+        int shards = settings.getAsInt("shards", 1);
+        int queries = settings.getAsInt("queries", 10000);
+        int warmup = settings.getAsInt("warmup", 2000);
+        int wordsPerQuery = settings.getAsInt("words_per_query", 3);
+        double explosionRate = settings.getAsDouble("explosion_rate", 0.5);
+        int threads = settings.getAsInt("threads", 1);
+        int size = settings.getAsInt("size", 10);
+
+        System.out.println(String.format(Locale.ROOT,
+                "seed[%d], vocabulary[%d], docs[%d], fields[%d], words_per_field[%d], max_parts[%d], shards[%d], queries[%d], warmup[%d], words_per_query[%d], explosion_rate[%.2f], threads[%d], size[%d]",
+                seed, vocabulary, docs, fields, wordsPerField, maxParts, shards, queries, warmup, wordsPerQuery, explosionRate, threads, size));
+
+        VariantsCorpus corpus = new VariantsCorpus(seed, vocabulary);
+        Random random = new Random(seed);
+        BenchmarkNode node = new BenchmarkNode("acrossvariants-latency", settings);
+        try {
+            long start = System.nanoTime();
+            node.createIndex(corpus, fields, shards);
+            node.index(corpus, random, docs, fields, wordsPerField, maxParts);
+            System.out.println(String.format(Locale.ROOT, "indexed[%d] in [%d]ms",
+                    docs, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+
+            List<String> mix = new ArrayList<String>(warmup + queries);
+            for (int i = 0; i < warmup + queries; i++)
+                mix.add(corpus.queryText(random, wordsPerQuery, explosionRate, maxParts));
+
+            List<QueryBuilder> queryMix = queries(BenchmarkNode.fields(fields), mix);
+            run(node.client(), queryMix.subList(0, warmup), threads, size);
+            Result result = run(node.client(), queryMix.subList(warmup, mix.size()), threads, size);
+            result.print(System.out);
+        } finally {
+            node.close();
+        }
+    }
+
+    static List<QueryBuilder> queries(String[] fields, List<String> texts) {
+        List<QueryBuilder> rtn = new ArrayList<QueryBuilder>(texts.size());
+        for (String text : texts)
+            rtn.add(new AcrossVariantsQueryBuilder().fields(fields).value(text).analyzer(BenchmarkNode.SEARCH_ANALYZER));
+        return rtn;
+    }
+
+    static Result run(final Client client, final List<QueryBuilder> queries, int threads, final int size) throws InterruptedException {
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicLong hits = new AtomicLong();
+        final Histogram[] histograms = new Histogram[threads];
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final Histogram histogram = histograms[i] = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+            workers[i] = new Thread("acrossvariants-benchmark-" + i) {
+                @Override
+                public void run() {
+                    for (int q = next.getAndIncrement(); q < queries.size(); q = next.getAndIncrement()) {
+                        long start = System.nanoTime();
+                        SearchResponse response = client.prepareSearch(BenchmarkNode.INDEX)
+                                .setQuery(queries.get(q))
+                                .setSize(size)
+                                .get();
+                        histogram.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start), HIGHEST_TRACKABLE_MICROS));
+                        hits.addAndGet(response.getHits().getTotalHits());
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers)
+            worker.start();
+        for (Thread worker : workers)
+            worker.join();
+        long tookNanos = System.nanoTime() - start;
+
+        Histogram total = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        for (Histogram histogram : histograms)
+            total.add(histogram);
+        return new Result(total, tookNanos, hits.get());
+    }
+
+    static class Result {
+
+        final Histogram latencies;
+        final long tookNanos;
+        final long hits;
+
+        Result(Histogram latencies, long tookNanos, long hits) {
+            this.latencies = latencies;
+            this.tookNanos = tookNanos;
+            this.hits = hits;
+        }
+
+        double throughput() {
+            return latencies.getTotalCount() / (tookNanos / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+
+        void print(java.io.PrintStream out) {
+            out.println(String.format(Locale.ROOT,
+                    "queries[%d], took[%d]ms, throughput[%.1f]q/s, avg_hits[%.1f], mean[%.3f]ms, p50[%.3f]ms, p99[%.3f]ms, p999[%.3f]ms, max[%.3f]ms",
+                    latencies.getTotalCount(), TimeUnit.NANOSECONDS.toMillis(tookNanos), throughput(),
+                    hits / (double) Math.max(1, latencies.getTotalCount()),
+                    latencies.getMean() / 1000.0,
+                    latencies.getValueAtPercentile(50.0) / 1000.0,
+                    latencies.getValueAtPercentile(99.0) / 1000.0,
+                    latencies.getValueAtPercentile(99.9) / 1000.0,
+                    latencies.getMaxValue() / 1000.0));
+        }
+
+    }
+
+}
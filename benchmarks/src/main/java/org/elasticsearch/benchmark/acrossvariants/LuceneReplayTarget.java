@@ -0,0 +1,127 @@
+package org.elasticsearch.benchmark.acrossvariants;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.AcrossVariantsAndFilter;
+import org.apache.lucene.search.AcrossVariantsAndQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.RAMDirectory;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Replays against a Lucene index in a RAMDirectory, without any node.
+ * The index is a copy of {@code lucene_index} if given (eg. a shard's index directory), the synthetic corpus otherwise.
+ * The analyzers are resolved with {@link VariantsAnalyzers#byName}.
+ */
+public class LuceneReplayTarget implements ReplayTarget {
+
+    private final VariantsCorpus corpus;
+    private final Directory directory;
+    private final DirectoryReader reader;
+    private final IndexSearcher searcher;
+    private final ConcurrentMap<String, Analyzer> analyzers = new ConcurrentHashMap<String, Analyzer>();
+
+    public LuceneReplayTarget(Settings settings) throws IOException {
+        long seed = settings.getAsLong("seed", CorpusState.SEED);
+        this.corpus = new VariantsCorpus(seed, settings.getAsInt("vocabulary", 2000));
+        String path = settings.get("lucene_index");
+        if (path != null) {
+            Directory source = FSDirectory.open(new File(path));
+            try {
+                this.directory = new RAMDirectory(source, IOContext.READ);
+            } finally {
+                source.close();
+            }
+        } else {
+            this.directory = new RAMDirectory();
+            int maxParts = settings.getAsInt("max_parts", 3);
+            corpus.index(directory, VariantsAnalyzers.index(), BenchmarkNode.fields(settings.getAsInt("fields", 3)), new Random(seed),
+                    settings.getAsInt("docs", 100000), settings.getAsInt("words_per_field", 8), 1, maxParts, true);
+        }
+        this.reader = DirectoryReader.open(directory);
+        this.searcher = new IndexSearcher(reader);
+    }
+
+    @Override
+    public long execute(QueryLogEntry entry, int size) throws Exception {
+        Map<String, Object> clause = entry.getClause();
+        Map<String, Float> fields = fields(clause.get("fields"));
+        Object value = clause.containsKey("value") ? clause.get("value") : clause.get("text");
+        if (value == null)
+            throw new ElasticsearchIllegalArgumentException("Line " + entry.getLine() + ": no value");
+        Analyzer analyzer = analyzer(XContentMapValues.nodeStringValue(clause.get("analyzer"), "whitespace"));
+        Query query;
+        if (QueryLogEntry.FILTER.equals(entry.getKind())) {
+            query = new ConstantScoreQuery(new AcrossVariantsAndFilter(fields.keySet(), analyzer, value.toString()));
+        } else {
+            AcrossVariantsAndQuery acrossVariants = new AcrossVariantsAndQuery(fields, analyzer, value.toString());
+            acrossVariants.setBoost(XContentMapValues.nodeFloatValue(clause.get("boost"), 1.0f));
+            acrossVariants.setUseDisMax(XContentMapValues.nodeBooleanValue(clause.get("use_dis_max"), false));
+            acrossVariants.setTieBreaker(XContentMapValues.nodeFloatValue(clause.get("tie_breaker"), 0.0f));
+            query = acrossVariants;
+        }
+        return searcher.search(query, Math.max(size, 1)).totalHits;
+    }
+
+    private Analyzer analyzer(String name) {
+        Analyzer rtn = analyzers.get(name);
+        if (rtn == null) {
+            Analyzer analyzer = VariantsAnalyzers.byName(name, corpus);
+            rtn = analyzers.putIfAbsent(name, analyzer);
+            if (rtn == null)
+                rtn = analyzer;
+        }
+        return rtn;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Float> fields(Object fields) {
+        Map<String, Float> rtn = new LinkedHashMap<String, Float>();
+        if (fields instanceof Map) {
+            for (Map.Entry<String, Object> field : ((Map<String, Object>) fields).entrySet())
+                rtn.put(field.getKey(), XContentMapValues.nodeFloatValue(field.getValue()));
+        } else if (fields instanceof List) {
+            for (Object field : (List<Object>) fields)
+                addFields(rtn, field.toString());
+        } else if (fields != null) {
+            addFields(rtn, fields.toString());
+        }
+        return rtn;
+    }
+
+    /**
+     * Same syntax as the query parser: {@code "field1^2,field2"}.
+     */
+    private static void addFields(Map<String, Float> fields, String value) {
+        for (String field : value.split(",")) {
+            int caret = field.indexOf('^');
+            if (caret < 0)
+                fields.put(field, 1.0f);
+            else
+                fields.put(field.substring(0, caret), Float.parseFloat(field.substring(caret + 1)));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+        directory.close();
+    }
+
+}
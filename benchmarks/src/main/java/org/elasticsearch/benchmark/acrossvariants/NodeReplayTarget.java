@@ -0,0 +1,56 @@
+package org.elasticsearch.benchmark.acrossvariants;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.query.AcrossVariantsQueryParser;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+/**
+ * Replays against an embedded local node.
+ * The node holds the synthetic corpus, unless {@code corpus} is false,
+ * in which case the {@code index} is expected to be recovered from the node's data path
+ * (eg. {@code --node.path.data=... --node.gateway.type=local --node.cluster.name=...}).
+ */
+public class NodeReplayTarget implements ReplayTarget {
+
+    private final BenchmarkNode node;
+    private final String index;
+
+    public NodeReplayTarget(Settings settings) throws IOException {
+        this.node = new BenchmarkNode("acrossvariants-replay", settings);
+        if (settings.getAsBoolean("corpus", true)) {
+            long seed = settings.getAsLong("seed", CorpusState.SEED);
+            int fields = settings.getAsInt("fields", 3);
+            VariantsCorpus corpus = new VariantsCorpus(seed, settings.getAsInt("vocabulary", 2000));
+            node.createIndex(corpus, fields, settings.getAsInt("shards", 1));
+            node.index(corpus, new Random(seed), settings.getAsInt("docs", 100000), fields,
+                    settings.getAsInt("words_per_field", 8), settings.getAsInt("max_parts", 3));
+            this.index = BenchmarkNode.INDEX;
+        } else {
+            this.index = settings.get("index", BenchmarkNode.INDEX);
+            node.client().admin().cluster().prepareHealth(index).setWaitForYellowStatus().get();
+        }
+    }
+
+    @Override
+    public long execute(QueryLogEntry entry, int size) throws Exception {
+        XContentBuilder query = jsonBuilder().startObject();
+        if (QueryLogEntry.FILTER.equals(entry.getKind()))
+            query.startObject("constant_score").startObject("filter");
+        query.field(AcrossVariantsQueryParser.NAME, entry.getClause());
+        if (QueryLogEntry.FILTER.equals(entry.getKind()))
+            query.endObject().endObject();
+        query.endObject();
+        return node.client().prepareSearch(index).setQuery(query).setSize(size).get().getHits().getTotalHits();
+    }
+
+    @Override
+    public void close() {
+        node.close();
+    }
+
+}
@@ -0,0 +1,87 @@
+package org.elasticsearch.benchmark.acrossvariants;
+
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.base.Charsets;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.index.query.AcrossVariantsQueryParser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A line of a query log: {@code {"across_variants": {...}}} or {@code {"query": {"across_variants": {...}}}}
+ * for a query, {@code {"filter": {"across_variants": {...}}}} for a filter.
+ */
+public class QueryLogEntry {
+
+    public static final String QUERY = "query";
+    public static final String FILTER = "filter";
+
+    private final int line;
+    private final String kind;
+    private final Map<String, Object> clause;
+
+    public QueryLogEntry(int line, String kind, Map<String, Object> clause) {
+        this.line = line;
+        this.kind = kind;
+        this.clause = clause;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static QueryLogEntry parse(int line, String json) {
+        Map<String, Object> body = XContentHelper.convertToMap(json.getBytes(Charsets.UTF_8), true).v2();
+        if (body.size() != 1)
+            throw new ElasticsearchIllegalArgumentException("Line " + line + ": expected a single top level key");
+        Map.Entry<String, Object> top = body.entrySet().iterator().next();
+        String kind = QUERY;
+        Object clause = top.getValue();
+        if (QUERY.equals(top.getKey()) || FILTER.equals(top.getKey())) {
+            kind = top.getKey();
+            if (!(clause instanceof Map) || ((Map<String, Object>) clause).size() != 1)
+                throw new ElasticsearchIllegalArgumentException("Line " + line + ": expected a single clause in [" + kind + "]");
+            top = ((Map<String, Object>) clause).entrySet().iterator().next();
+            clause = top.getValue();
+        }
+        if (!isAcrossVariants(top.getKey()) || !(clause instanceof Map))
+            throw new ElasticsearchIllegalArgumentException("Line " + line + ": not an across_variants clause [" + top.getKey() + "]");
+        return new QueryLogEntry(line, kind, (Map<String, Object>) clause);
+    }
+
+    private static boolean isAcrossVariants(String name) {
+        for (String candidate : AcrossVariantsQueryParser.NAMES) {
+            if (candidate.equals(name))
+                return true;
+        }
+        return false;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public Map<String, Object> getClause() {
+        return clause;
+    }
+
+    /**
+     * @return This entry, with the mode overrides applied. The {@code kind} override turns a query into a filter and vice-versa.
+     */
+    public QueryLogEntry withOverrides(Map<String, String> overrides) {
+        if (overrides.isEmpty())
+            return this;
+        Map<String, Object> rtn = new LinkedHashMap<String, Object>(clause);
+        String newKind = kind;
+        for (Map.Entry<String, String> override : overrides.entrySet()) {
+            if ("kind".equals(override.getKey()))
+                newKind = override.getValue();
+            else
+                rtn.put(override.getKey(), override.getValue());
+        }
+        return new QueryLogEntry(line, newKind, rtn);
+    }
+
+}
@@ -0,0 +1,315 @@
+package org.elasticsearch.benchmark.acrossvariants;
+
+import org.HdrHistogram.Histogram;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.base.Charsets;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.query.AcrossVariantsQueryParser;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+/**
+ * Replays a query log, one across_variants query or filter per line (see {@link QueryLogEntry}),
+ * against an embedded node ({@code --target=node}) or a RAMDirectory ({@code --target=lucene}).
+ * <p>
+ * Each line is executed {@code iterations} times in each of the {@code modes}, after {@code warmup_iterations}.
+ * A mode overrides parameters of every clause, eg. {@code --modes=bool,dismax --mode.dismax.use_dis_max=true},
+ * the {@code kind} override turning queries into filters. The result counts of the modes are compared,
+ * and so are those of a {@code baseline}, ie. the {@code output} of another run, eg. with another plugin version.
+ * <p>
+ * Reports, per mode, the throughput, the allocation rate of the whole JVM and the latency percentiles,
+ * and per query, in the {@code output} file (and on the standard output if {@code per_query}),
+ * the result count and the latency percentiles.
+ * The corpus options are the ones of {@link LatencyBenchmark}.
+ * {@code --generate=<count>} writes a synthetic query log for that corpus to {@code file}, instead of replaying it.
+ */
+public class QueryLogReplay {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+    private static final int MAX_REPORTED_DIFFS = 20;
+
+    public static void main(String[] args) throws Exception {
+        Settings settings = BenchmarkSettings.parse(args);
+        String file = settings.get("file");
+        if (file == null)
+            throw new ElasticsearchIllegalArgumentException("Missing --file=<query log>");
+        int generate = settings.getAsInt("generate", 0);
+        if (generate > 0) {
+            generate(settings, file, generate);
+            return;
+        }
+        String target = settings.get("target", "node");
+        int threads = settings.getAsInt("threads", 1);
+        int iterations = settings.getAsInt("iterations", 5);
+        int warmupIterations = settings.getAsInt("warmup_iterations", 1);
+        int size = settings.getAsInt("size", 10);
+        boolean perQuery = settings.getAsBoolean("per_query", false);
+
+        List<QueryLogEntry> entries = read(file);
+        Map<String, Map<String, String>> modes = new LinkedHashMap<String, Map<String, String>>();
+        for (String mode : settings.getAsArray("modes", new String[] { "default" }))
+            modes.put(mode, settings.getByPrefix("mode." + mode + ".").getAsMap());
+
+        System.out.println(String.format(Locale.ROOT, "file[%s], lines[%d], target[%s], threads[%d], iterations[%d], warmup_iterations[%d], modes%s",
+                file, entries.size(), target, threads, iterations, warmupIterations, modes));
+
+        ReplayTarget replayTarget;
+        if ("node".equals(target))
+            replayTarget = new NodeReplayTarget(settings);
+        else if ("lucene".equals(target))
+            replayTarget = new LuceneReplayTarget(settings);
+        else
+            throw new ElasticsearchIllegalArgumentException("Unknown target [" + target + "], expected node or lucene");
+
+        Map<String, QueryResult[]> results = new LinkedHashMap<String, QueryResult[]>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (Map.Entry<String, Map<String, String>> mode : modes.entrySet()) {
+                List<QueryLogEntry> modeEntries = new ArrayList<QueryLogEntry>(entries.size());
+                for (QueryLogEntry entry : entries)
+                    modeEntries.add(entry.withOverrides(mode.getValue()));
+                if (warmupIterations > 0)
+                    replay(executor, replayTarget, modeEntries, warmupIterations, size);
+                long allocatedBefore = allocatedBytes();
+                long start = System.nanoTime();
+                QueryResult[] modeResults = replay(executor, replayTarget, modeEntries, iterations, size);
+                long tookNanos = System.nanoTime() - start;
+                long allocated = allocatedBytes() - allocatedBefore;
+                results.put(mode.getKey(), modeResults);
+                printMode(mode.getKey(), modeResults, tookNanos, allocated);
+            }
+        } finally {
+            executor.shutdown();
+            replayTarget.close();
+        }
+
+        if (perQuery)
+            printPerQuery(new PrintWriter(new OutputStreamWriter(System.out, Charsets.UTF_8), true), results);
+        String output = settings.get("output");
+        if (output != null) {
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(output), Charsets.UTF_8));
+            try {
+                printPerQuery(writer, results);
+            } finally {
+                writer.close();
+            }
+        }
+        diffModes(results);
+        String baseline = settings.get("baseline");
+        if (baseline != null)
+            diffBaseline(baseline, results);
+    }
+
+    static void generate(Settings settings, String file, int count) throws IOException {
+        long seed = settings.getAsLong("seed", CorpusState.SEED);
+        VariantsCorpus corpus = new VariantsCorpus(seed, settings.getAsInt("vocabulary", 2000));
+        Random random = new Random(seed + 1);
+        String[] fields = BenchmarkNode.fields(settings.getAsInt("fields", 3));
+        int wordsPerQuery = settings.getAsInt("words_per_query", 3);
+        double explosionRate = settings.getAsDouble("explosion_rate", 0.5);
+        int maxParts = settings.getAsInt("max_parts", 3);
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8));
+        try {
+            for (int i = 0; i < count; i++) {
+                XContentBuilder clause = jsonBuilder().startObject().startObject(AcrossVariantsQueryParser.NAME)
+                        .field("fields", fields)
+                        .field("value", corpus.queryText(random, wordsPerQuery, explosionRate, maxParts))
+                        .field("analyzer", BenchmarkNode.SEARCH_ANALYZER)
+                        .endObject().endObject();
+                writer.println(clause.string());
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    static List<QueryLogEntry> read(String file) throws IOException {
+        List<QueryLogEntry> rtn = new ArrayList<QueryLogEntry>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
+        try {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                rtn.add(QueryLogEntry.parse(number, line));
+            }
+        } finally {
+            reader.close();
+        }
+        return rtn;
+    }
+
+    static QueryResult[] replay(ExecutorService executor, final ReplayTarget target, List<QueryLogEntry> entries, final int iterations, final int size) throws Exception {
+        QueryResult[] rtn = new QueryResult[entries.size()];
+        List<Future<?>> futures = new ArrayList<Future<?>>(entries.size());
+        for (int i = 0; i < rtn.length; i++) {
+            final QueryLogEntry entry = entries.get(i);
+            final QueryResult result = rtn[i] = new QueryResult(entry.getLine());
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < iterations; j++) {
+                        long start = System.nanoTime();
+                        try {
+                            result.hits = target.execute(entry, size);
+                        } catch (Exception e) {
+                            result.failure = e.toString();
+                            return;
+                        }
+                        result.latencies.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start), HIGHEST_TRACKABLE_MICROS));
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures)
+            future.get();
+        return rtn;
+    }
+
+    /**
+     * @return The number of bytes allocated by all the live threads, so far.
+     */
+    static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long rtn = 0;
+        for (long allocated : threadMXBean.getThreadAllocatedBytes(threadMXBean.getAllThreadIds())) {
+            if (allocated > 0)
+                rtn += allocated;
+        }
+        return rtn;
+    }
+
+    static void printMode(String mode, QueryResult[] results, long tookNanos, long allocatedBytes) {
+        Histogram total = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        int failures = 0;
+        for (QueryResult result : results) {
+            total.add(result.latencies);
+            if (result.failure != null)
+                failures++;
+        }
+        double seconds = tookNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        long executions = Math.max(1, total.getTotalCount());
+        System.out.println(String.format(Locale.ROOT,
+                "mode[%s], executions[%d], failures[%d], took[%d]ms, throughput[%.1f]q/s, alloc_rate[%.1f]MB/s, alloc_per_query[%.1f]KB, mean[%.3f]ms, p50[%.3f]ms, p99[%.3f]ms, p999[%.3f]ms, max[%.3f]ms",
+                mode, total.getTotalCount(), failures, TimeUnit.NANOSECONDS.toMillis(tookNanos), total.getTotalCount() / seconds,
+                allocatedBytes / seconds / (1024 * 1024), allocatedBytes / (double) executions / 1024,
+                total.getMean() / 1000.0,
+                total.getValueAtPercentile(50.0) / 1000.0,
+                total.getValueAtPercentile(99.0) / 1000.0,
+                total.getValueAtPercentile(99.9) / 1000.0,
+                total.getMaxValue() / 1000.0));
+        for (QueryResult result : results) {
+            if (result.failure != null) {
+                System.out.println(String.format(Locale.ROOT, "mode[%s], line[%d] failed: %s", mode, result.line, result.failure));
+                break;
+            }
+        }
+    }
+
+    static void printPerQuery(PrintWriter out, Map<String, QueryResult[]> results) {
+        out.println("line\tmode\thits\tp50_us\tp99_us\tmax_us");
+        for (Map.Entry<String, QueryResult[]> mode : results.entrySet()) {
+            for (QueryResult result : mode.getValue()) {
+                out.println(String.format(Locale.ROOT, "%d\t%s\t%d\t%d\t%d\t%d",
+                        result.line, mode.getKey(), result.hits(),
+                        result.latencies.getValueAtPercentile(50.0),
+                        result.latencies.getValueAtPercentile(99.0),
+                        result.latencies.getMaxValue()));
+            }
+        }
+        out.flush();
+    }
+
+    static void diffModes(Map<String, QueryResult[]> results) {
+        if (results.size() < 2)
+            return;
+        List<String> modes = new ArrayList<String>(results.keySet());
+        QueryResult[] reference = results.get(modes.get(0));
+        for (String mode : modes.subList(1, modes.size())) {
+            QueryResult[] other = results.get(mode);
+            int diffs = 0;
+            for (int i = 0; i < reference.length; i++) {
+                if (reference[i].hits() != other[i].hits()) {
+                    if (diffs++ < MAX_REPORTED_DIFFS)
+                        System.out.println(String.format(Locale.ROOT, "diff line[%d]: %s[%d] != %s[%d]",
+                                reference[i].line, modes.get(0), reference[i].hits(), mode, other[i].hits()));
+                }
+            }
+            System.out.println(String.format(Locale.ROOT, "modes[%s] vs [%s]: %d/%d result counts differ", modes.get(0), mode, diffs, reference.length));
+        }
+    }
+
+    static void diffBaseline(String baseline, Map<String, QueryResult[]> results) throws IOException {
+        Map<String, Long> baselineHits = new HashMap<String, Long>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(baseline), Charsets.UTF_8));
+        try {
+            String line = reader.readLine(); // header
+            while ((line = reader.readLine()) != null) {
+                String[] columns = line.split("\t");
+                baselineHits.put(columns[0] + "\t" + columns[1], Long.parseLong(columns[2]));
+            }
+        } finally {
+            reader.close();
+        }
+        int diffs = 0;
+        int compared = 0;
+        for (Map.Entry<String, QueryResult[]> mode : results.entrySet()) {
+            for (QueryResult result : mode.getValue()) {
+                Long expected = baselineHits.get(result.line + "\t" + mode.getKey());
+                if (expected == null)
+                    continue;
+                compared++;
+                long hits = result.hits();
+                if (expected != hits && diffs++ < MAX_REPORTED_DIFFS)
+                    System.out.println(String.format(Locale.ROOT, "diff line[%d] mode[%s]: baseline[%d] != current[%d]",
+                            result.line, mode.getKey(), expected, hits));
+            }
+        }
+        System.out.println(String.format(Locale.ROOT, "baseline[%s]: %d/%d result counts differ", baseline, diffs, compared));
+    }
+
+    static class QueryResult {
+
+        final int line;
+        final Histogram latencies = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        volatile long hits;
+        volatile String failure;
+
+        QueryResult(int line) {
+            this.line = line;
+        }
+
+        /**
+         * @return The number of hits, -1 on failure.
+         */
+        long hits() {
+            return failure == null ? hits : -1;
+        }
+
+    }
+
+}
@@ -0,0 +1,15 @@
+package org.elasticsearch.benchmark.acrossvariants;
+
+import java.io.Closeable;
+
+/**
+ * Where {@link QueryLogReplay} sends the queries.
+ */
+public interface ReplayTarget extends Closeable {
+
+    /**
+     * @return The total number of hits.
+     */
+    long execute(QueryLogEntry entry, int size) throws Exception;
+
+}
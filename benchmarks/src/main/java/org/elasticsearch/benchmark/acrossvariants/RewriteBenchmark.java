@@ -0,0 +1,36 @@
+package org.elasticsearch.benchmark.acrossvariants;
+
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.Query;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning the variant tree into boolean clauses.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RewriteBenchmark {
+
+    @Benchmark
+    public Query rewriteQuery(CorpusState state) throws IOException {
+        return state.query.rewrite(state.reader);
+    }
+
+    @Benchmark
+    public Filter rewriteFilter(CorpusState state) throws IOException {
+        return state.filter.rewrite();
+    }
+
+}
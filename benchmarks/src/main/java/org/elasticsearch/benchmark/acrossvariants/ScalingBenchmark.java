@@ -0,0 +1,165 @@
+package org.elasticsearch.benchmark.acrossvariants;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.search.AcrossVariantsTree;
+import org.elasticsearch.common.base.Charsets;
+import org.elasticsearch.common.base.Strings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.AcrossVariantsFilterBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.elasticsearch.index.query.QueryBuilders.constantScoreQuery;
+
+/**
+ * Throughput and latency of a fixed across_variants load, for 1 to N embedded nodes
+ * on the local transport, and a variable number of shards.
+ * <p>
+ * The query is parsed, hence analyzed, on every shard, and the filter is rewritten on every segment.
+ * To make those overheads visible, the cost of a single analysis of the query mix is measured aside,
+ * and reported relatively to the latency, multiplied by the number of shards.
+ * <p>
+ * Options, given as {@code --name=value}, in addition to the corpus and load ones of {@link LatencyBenchmark}:
+ * {@code nodes} and {@code shards}, comma separated lists of the configurations to run,
+ * {@code kinds}, {@code query} and/or {@code filter},
+ * and {@code output}, a CSV file each run appends its rows to, labelled with {@code label}, to track them over releases.
+ */
+public class ScalingBenchmark {
+
+    private static final int BAR_WIDTH = 50;
+
+    public static void main(String[] args) throws Exception {
+        Settings settings = BenchmarkSettings.parse(args);
+        long seed = settings.getAsLong("seed", CorpusState.SEED);
+        int vocabulary = settings.getAsInt("vocabulary", 2000);
+        int docs = settings.getAsInt("docs", 100000);
+        int fields = settings.getAsInt("fields", 3);
+        int wordsPerField = settings.getAsInt("words_per_field", 8);
+        int maxParts = settings.getAsInt("max_parts", 3);
+        int queries = settings.getAsInt("queries", 5000);
+        int warmup = settings.getAsInt("warmup", 1000);
+        int wordsPerQuery = settings.getAsInt("words_per_query", 3);
+        double explosionRate = settings.getAsDouble("explosion_rate", 0.5);
+        int threads = settings.getAsInt("threads", 4);
+        int size = settings.getAsInt("size", 10);
+        String[] nodeCounts = settings.getAsArray("nodes", new String[] { "1", "2", "4" });
+        String[] shardCounts = settings.getAsArray("shards", new String[] { "1", "2", "4", "8" });
+        String[] kinds = settings.getAsArray("kinds", new String[] { QueryLogEntry.QUERY, QueryLogEntry.FILTER });
+        String label = settings.get("label", "current");
+        String output = settings.get("output");
+
+        VariantsCorpus corpus = new VariantsCorpus(seed, vocabulary);
+        Random random = new Random(seed + 1);
+        List<String> mix = new ArrayList<String>(warmup + queries);
+        for (int i = 0; i < warmup + queries; i++)
+            mix.add(corpus.queryText(random, wordsPerQuery, explosionRate, maxParts));
+        String[] fieldNames = BenchmarkNode.fields(fields);
+        double analysisMicros = analysisMicros(VariantsAnalyzers.search(corpus), mix);
+
+        System.out.println(String.format(Locale.ROOT,
+                "label[%s], docs[%d], fields[%d], queries[%d], warmup[%d], words_per_query[%d], explosion_rate[%.2f], threads[%d], analysis[%.1f]us",
+                label, docs, fields, queries, warmup, wordsPerQuery, explosionRate, threads, analysisMicros));
+        System.out.println("nodes,shards,kind,throughput,mean_ms,p50_ms,p99_ms,p999_ms,max_ms,analysis_pct");
+
+        List<String> rows = new ArrayList<String>();
+        List<String> bars = new ArrayList<String>();
+        List<Double> throughputs = new ArrayList<Double>();
+        for (String nodeCount : nodeCounts) {
+            int nodes = Integer.parseInt(nodeCount.trim());
+            BenchmarkNode node = new BenchmarkNode("acrossvariants-scaling", settings, nodes);
+            try {
+                for (String shardCount : shardCounts) {
+                    int shards = Integer.parseInt(shardCount.trim());
+                    node.createIndex(corpus, fields, shards);
+                    node.index(corpus, new Random(seed), docs, fields, wordsPerField, maxParts);
+                    for (String kind : kinds) {
+                        List<QueryBuilder> load = load(kind.trim(), fieldNames, mix);
+                        LatencyBenchmark.run(node.client(), load.subList(0, warmup), threads, size);
+                        LatencyBenchmark.Result result = LatencyBenchmark.run(node.client(), load.subList(warmup, load.size()), threads, size);
+                        double meanMicros = result.latencies.getMean();
+                        String row = String.format(Locale.ROOT, "%d,%d,%s,%.1f,%.3f,%.3f,%.3f,%.3f,%.3f,%.1f",
+                                nodes, shards, kind.trim(), result.throughput(),
+                                meanMicros / 1000.0,
+                                result.latencies.getValueAtPercentile(50.0) / 1000.0,
+                                result.latencies.getValueAtPercentile(99.0) / 1000.0,
+                                result.latencies.getValueAtPercentile(99.9) / 1000.0,
+                                result.latencies.getMaxValue() / 1000.0,
+                                meanMicros > 0 ? 100.0 * analysisMicros * shards / meanMicros : 0.0);
+                        System.out.println(row);
+                        rows.add(row);
+                        bars.add(String.format(Locale.ROOT, "%d node(s), %2d shard(s), %-6s", nodes, shards, kind.trim()));
+                        throughputs.add(result.throughput());
+                    }
+                    node.deleteIndex();
+                }
+            } finally {
+                node.close();
+            }
+        }
+
+        chart(bars, throughputs);
+        if (output != null)
+            append(output, label, rows);
+    }
+
+    static List<QueryBuilder> load(String kind, String[] fields, List<String> texts) {
+        if (QueryLogEntry.QUERY.equals(kind))
+            return LatencyBenchmark.queries(fields, texts);
+        List<QueryBuilder> rtn = new ArrayList<QueryBuilder>(texts.size());
+        for (String text : texts)
+            rtn.add(constantScoreQuery(new AcrossVariantsFilterBuilder().fields(fields).value(text).analyzer(BenchmarkNode.SEARCH_ANALYZER)));
+        return rtn;
+    }
+
+    /**
+     * @return The mean time to build the variant tree of a query of the mix, analysis included.
+     */
+    static double analysisMicros(Analyzer analyzer, List<String> texts) throws IOException {
+        // Once to warm up, once to measure
+        long took = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            long start = System.nanoTime();
+            for (String text : texts)
+                AcrossVariantsTree.build(analyzer, new StringReader(text));
+            took = System.nanoTime() - start;
+        }
+        return TimeUnit.NANOSECONDS.toMicros(took) / (double) texts.size();
+    }
+
+    static void chart(List<String> labels, List<Double> throughputs) {
+        double max = 0;
+        for (double throughput : throughputs)
+            max = Math.max(max, throughput);
+        System.out.println();
+        System.out.println("throughput (q/s)");
+        for (int i = 0; i < labels.size(); i++) {
+            int width = max > 0 ? (int) Math.round(BAR_WIDTH * throughputs.get(i) / max) : 0;
+            System.out.println(String.format(Locale.ROOT, "%s |%s %.1f", labels.get(i), Strings.padStart("", width, '#'), throughputs.get(i)));
+        }
+    }
+
+    static void append(String output, String label, List<String> rows) throws IOException {
+        boolean header = !new File(output).exists();
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(output, true), Charsets.UTF_8));
+        try {
+            if (header)
+                writer.println("label,nodes,shards,kind,throughput,mean_ms,p50_ms,p99_ms,p999_ms,max_ms,analysis_pct");
+            for (String row : rows)
+                writer.println(label + "," + row);
+        } finally {
+            writer.close();
+        }
+    }
+
+}
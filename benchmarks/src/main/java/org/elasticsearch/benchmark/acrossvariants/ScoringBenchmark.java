@@ -0,0 +1,36 @@
+package org.elasticsearch.benchmark.acrossvariants;
+
+import org.apache.lucene.search.TopDocs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Top 10 search with the across variants query, compared to the equivalent hand-built BooleanQuery.
+ * The difference is the overhead of the variant tree at search time.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoringBenchmark {
+
+    @Benchmark
+    public TopDocs acrossVariants(CorpusState state) throws IOException {
+        return state.searcher.search(state.query, 10);
+    }
+
+    @Benchmark
+    public TopDocs booleanQuery(CorpusState state) throws IOException {
+        return state.searcher.search(state.booleanQuery, 10);
+    }
+
+}
@@ -0,0 +1,57 @@
+package org.elasticsearch.benchmark.acrossvariants;
+
+import org.apache.lucene.search.AcrossVariantsAndQuery;
+import org.apache.lucene.search.AcrossVariantsTree;
+import org.apache.lucene.search.AcrossVariantsTree.TermNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building the variant tree, the analysis being replayed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TreeBuildBenchmark {
+
+    @Param({ "1", "4", "16" })
+    public int compounds;
+
+    @Param({ "1", "3" })
+    public int parts;
+
+    private VariantsQueryShape shape;
+
+    @Setup
+    public void setup() {
+        shape = new VariantsCorpus(CorpusState.SEED, 500).queryShape(0, compounds, parts);
+    }
+
+    @Benchmark
+    public TermNode buildTree() throws IOException {
+        return AcrossVariantsTree.build(shape.getAnalyzer(), new StringReader(shape.getText()));
+    }
+
+    @Benchmark
+    public AcrossVariantsAndQuery newQuery() throws IOException {
+        return new AcrossVariantsAndQuery(Collections.singleton(VariantsCorpus.FIELDS[0]), shape.getAnalyzer(), shape.getText());
+    }
+
+}
@@ -0,0 +1,86 @@
+package org.elasticsearch.benchmark.acrossvariants;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.compound.DictionaryCompoundWordTokenFilter;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.analysis.core.StopFilter;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.miscellaneous.WordDelimiterFilter;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.apache.lucene.util.Version;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Lucene equivalents of the analyzers {@link BenchmarkNode} defines,
+ * for the benchmarks that run without a node.
+ */
+public final class VariantsAnalyzers {
+
+    private static final Version VERSION = Version.LUCENE_4_9;
+
+    private VariantsAnalyzers() {
+    }
+
+    /**
+     * @return The {@value BenchmarkNode#INDEX_ANALYZER} analyzer.
+     */
+    public static Analyzer index() {
+        final CharArraySet stopwords = new CharArraySet(VERSION, Arrays.asList("stopword", "index"), false);
+        return new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName, Reader reader) {
+                Tokenizer source = new WhitespaceTokenizer(VERSION, reader);
+                TokenStream sink = new WordDelimiterFilter(VERSION, source,
+                        WordDelimiterFilter.GENERATE_WORD_PARTS | WordDelimiterFilter.GENERATE_NUMBER_PARTS
+                                | WordDelimiterFilter.SPLIT_ON_CASE_CHANGE | WordDelimiterFilter.SPLIT_ON_NUMERICS
+                                | WordDelimiterFilter.STEM_ENGLISH_POSSESSIVE
+                                | WordDelimiterFilter.PRESERVE_ORIGINAL | WordDelimiterFilter.CATENATE_WORDS,
+                        null);
+                sink = new StopFilter(VERSION, sink, stopwords);
+                return new TokenStreamComponents(source, sink);
+            }
+        };
+    }
+
+    /**
+     * @return The {@value BenchmarkNode#SEARCH_ANALYZER} analyzer, decompounding with the corpus parts.
+     */
+    public static Analyzer search(VariantsCorpus corpus) {
+        final CharArraySet dictionary = new CharArraySet(VERSION, Arrays.asList(corpus.getParts()), false);
+        final CharArraySet stopwords = new CharArraySet(VERSION, Arrays.asList("stopword", "search"), false);
+        return new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName, Reader reader) {
+                Tokenizer source = new WhitespaceTokenizer(VERSION, reader);
+                TokenStream sink = new DictionaryCompoundWordTokenFilter(VERSION, source, dictionary);
+                sink = new StopFilter(VERSION, sink, stopwords);
+                return new TokenStreamComponents(source, sink);
+            }
+        };
+    }
+
+    /**
+     * @return The analyzer of the given name, among the variants analyzers and a few builtin ones.
+     */
+    public static Analyzer byName(String name, VariantsCorpus corpus) {
+        if (name == null || "whitespace".equals(name))
+            return new WhitespaceAnalyzer(VERSION);
+        if ("standard".equals(name))
+            return new StandardAnalyzer(VERSION);
+        if ("keyword".equals(name))
+            return new KeywordAnalyzer();
+        if (BenchmarkNode.INDEX_ANALYZER.equals(name))
+            return index();
+        if (BenchmarkNode.SEARCH_ANALYZER.equals(name))
+            return search(corpus);
+        throw new ElasticsearchIllegalArgumentException("Unknown analyzer [" + name + "]");
+    }
+
+}
@@ -0,0 +1,157 @@
+package org.elasticsearch.benchmark.acrossvariants;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Deterministic synthetic corpus of compound words.
+ * Each compound is made of a few parts, and is written in the documents
+ * either glued ("wifi"), split ("wi fi") or dash-separated ("wi-fi"),
+ * the very case the across variants query is made for.
+ * Compound popularity is skewed, so that a few leaves are frequent and most are rare.
+ */
+public class VariantsCorpus {
+
+    public static final String[] FIELDS = { "title", "body" };
+
+    private final long seed;
+    private final String[] parts;
+
+    public VariantsCorpus(long seed, int partCount) {
+        this.seed = seed;
+        this.parts = new String[partCount];
+        Random random = new Random(seed);
+        Set<String> seen = new HashSet<String>(partCount);
+        for (int i = 0; i < partCount; ) {
+            // Parts of at least 3 letters, so that a dictionary decompounder
+            // does not find a part in about every glued compound
+            int length = 3 + random.nextInt(4);
+            StringBuilder sb = new StringBuilder(length);
+            for (int j = 0; j < length; j++)
+                sb.append((char) ('a' + random.nextInt(26)));
+            String part = sb.toString();
+            if (seen.add(part))
+                parts[i++] = part;
+        }
+    }
+
+    /**
+     * @return The parts of the {@code index}-th compound.
+     */
+    public String[] compound(int index, int partsPerCompound) {
+        String[] rtn = new String[partsPerCompound];
+        for (int i = 0; i < partsPerCompound; i++)
+            rtn[i] = parts[(index * partsPerCompound + i) % parts.length];
+        return rtn;
+    }
+
+    public int compoundCount() {
+        return parts.length;
+    }
+
+    public String[] getParts() {
+        return parts;
+    }
+
+    /**
+     * @return A random compound, skewed toward the first ones, of {@code minParts} to {@code maxParts} parts.
+     */
+    public String[] randomCompound(Random random, int minParts, int maxParts) {
+        // Cubic skew toward the first compounds
+        double r = random.nextDouble();
+        int partsPerCompound = minParts == maxParts ? minParts : minParts + random.nextInt(maxParts - minParts + 1);
+        return compound((int) (r * r * r * compoundCount()), partsPerCompound);
+    }
+
+    /**
+     * @return {@code words} random compounds, each written glued, split or, if {@code dashes}, dash-separated.
+     */
+    public String fieldValue(Random random, int words, int minParts, int maxParts, boolean dashes) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            String[] compound = randomCompound(random, minParts, maxParts);
+            int form = dashes ? random.nextInt(3) : random.nextInt(2);
+            for (int k = 0; k < compound.length; k++) {
+                if (k > 0 && form == 1) sb.append(' ');
+                else if (k > 0 && form == 2) sb.append('-');
+                sb.append(compound[k]);
+            }
+            sb.append(' ');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return The text of a query of {@code words} words. With a probability of {@code explosionRate},
+     *         a word is a compound of 2 to {@code maxParts} parts, glued or dash-separated,
+     *         that a decompounding analyzer turns into alternative variants.
+     *         Otherwise it is a single part.
+     */
+    public String queryText(Random random, int words, double explosionRate, int maxParts) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) sb.append(' ');
+            String[] compound = random.nextDouble() < explosionRate && maxParts > 1
+                    ? randomCompound(random, 2, maxParts)
+                    : randomCompound(random, 1, 1);
+            boolean dashed = random.nextBoolean();
+            for (int k = 0; k < compound.length; k++) {
+                if (k > 0 && dashed) sb.append('-');
+                sb.append(compound[k]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Indexes {@code numDocs} documents, with {@code wordsPerField} compounds in each field.
+     */
+    public Directory index(int numDocs, int wordsPerField, int partsPerCompound) throws IOException {
+        Directory directory = new RAMDirectory();
+        index(directory, new WhitespaceAnalyzer(Version.LUCENE_4_9), FIELDS, new Random(seed), numDocs, wordsPerField, partsPerCompound, partsPerCompound, false);
+        return directory;
+    }
+
+    /**
+     * Indexes {@code numDocs} documents, with {@code wordsPerField} compounds of {@code minParts} to {@code maxParts} parts in each field.
+     * Given the same random, produces the same documents as {@link BenchmarkNode#index}.
+     */
+    public void index(Directory directory, Analyzer analyzer, String[] fields, Random random, int numDocs, int wordsPerField, int minParts, int maxParts, boolean dashes) throws IOException {
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_4_9, analyzer));
+        try {
+            for (int i = 0; i < numDocs; i++) {
+                Document document = new Document();
+                for (String field : fields)
+                    document.add(new TextField(field, fieldValue(random, wordsPerField, minParts, maxParts, dashes), Field.Store.NO));
+                writer.addDocument(document);
+            }
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @return A query made of {@code compounds} compounds, starting with the {@code first}-th one.
+     */
+    public VariantsQueryShape queryShape(int first, int compounds, int partsPerCompound) {
+        String[][] rtn = new String[compounds][];
+        for (int i = 0; i < compounds; i++)
+            rtn[i] = compound(first + i, partsPerCompound);
+        return new VariantsQueryShape(rtn);
+    }
+
+}
@@ -0,0 +1,114 @@
+package org.elasticsearch.benchmark.acrossvariants;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.elasticsearch.test.integration.ReplayAnalyzer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A query made of compounds, typed with dashes ("wi-fi"),
+ * and the tokens a decompounding analyzer would produce for it:
+ * the glued compound, then each part at the same position, within the compound's offsets.
+ * The analysis is replayed, so that benchmarks only measure the tree and query costs.
+ */
+public class VariantsQueryShape {
+
+    private final String[][] compounds;
+    private final String text;
+    private final ReplayAnalyzer analyzer;
+
+    public VariantsQueryShape(String[][] compounds) {
+        this.compounds = compounds;
+        List<String> tokens = new ArrayList<String>();
+        List<Integer> positionIncrements = new ArrayList<Integer>();
+        List<Integer> startOffsets = new ArrayList<Integer>();
+        List<Integer> endOffsets = new ArrayList<Integer>();
+        StringBuilder sb = new StringBuilder();
+        for (String[] compound : compounds) {
+            if (sb.length() > 0)
+                sb.append(' ');
+            int start = sb.length();
+            int firstPart = tokens.size();
+            tokens.add(glue(compound));
+            positionIncrements.add(1);
+            startOffsets.add(start);
+            endOffsets.add(-1);
+            for (int i = 0; i < compound.length; i++) {
+                if (i > 0)
+                    sb.append('-');
+                if (compound.length > 1) {
+                    tokens.add(compound[i]);
+                    positionIncrements.add(0);
+                    startOffsets.add(sb.length());
+                    endOffsets.add(sb.length() + compound[i].length());
+                }
+                sb.append(compound[i]);
+            }
+            endOffsets.set(firstPart, sb.length());
+        }
+        this.text = sb.toString();
+        this.analyzer = new ReplayAnalyzer(tokens.toArray(new String[tokens.size()]),
+                toArray(positionIncrements), toArray(startOffsets), toArray(endOffsets));
+    }
+
+    private static String glue(String[] compound) {
+        StringBuilder sb = new StringBuilder();
+        for (String part : compound)
+            sb.append(part);
+        return sb.toString();
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] rtn = new int[list.size()];
+        for (int i = 0; i < rtn.length; i++)
+            rtn[i] = list.get(i);
+        return rtn;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public ReplayAnalyzer getAnalyzer() {
+        return analyzer;
+    }
+
+    /**
+     * @return The query the across variants query rewrites into, built by hand.
+     */
+    public Query booleanQuery(String... fields) {
+        List<Query> nodes = new ArrayList<Query>(compounds.length);
+        for (String[] compound : compounds) {
+            List<Query> alternatives = new ArrayList<Query>(fields.length + 1);
+            for (String field : fields)
+                alternatives.add(new TermQuery(new Term(field, glue(compound))));
+            if (compound.length > 1) {
+                List<Query> parts = new ArrayList<Query>(compound.length);
+                for (String part : compound) {
+                    List<Query> partAlternatives = new ArrayList<Query>(fields.length);
+                    for (String field : fields)
+                        partAlternatives.add(new TermQuery(new Term(field, part)));
+                    parts.add(combine(partAlternatives, BooleanClause.Occur.SHOULD));
+                }
+                alternatives.add(combine(parts, BooleanClause.Occur.MUST));
+            }
+            nodes.add(combine(alternatives, BooleanClause.Occur.SHOULD));
+        }
+        return combine(nodes, BooleanClause.Occur.MUST);
+    }
+
+    private static Query combine(List<Query> queries, BooleanClause.Occur occur) {
+        if (queries.size() == 1)
+            return queries.get(0);
+        BooleanQuery rtn = new BooleanQuery(true);
+        for (Query query : queries)
+            rtn.add(query, occur);
+        return rtn;
+    }
+
+}
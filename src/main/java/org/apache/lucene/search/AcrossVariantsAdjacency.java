@@ -0,0 +1,269 @@
+package org.apache.lucene.search;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.AcrossVariantsTree.TermNode;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Verifies that the parts of a node appear in this order within the same field, adjacently or with up to some slop,
+ * reading the positions of their writings on a given document only.
+ * Each part matches either one of its writings at a position, or its own parts adjacently.
+ * The parts are the split parts of a compound node, or the top level nodes of the tree for a phrase.
+ * Meant as the confirmation step of a conjunction of the parts, that only gives candidates.
+ * A field indexed without positions cannot tell, it confirms every candidate.
+ */
+public class AcrossVariantsAdjacency {
+
+    private final Part[] parts;
+    private final String[] fields;
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    private final String[] terms;
+    private final int slop;
+
+    /**
+     * @param node A compound node, whose children are its parts, in order.
+     * @param fields The fields the parts may appear in.
+     */
+    public AcrossVariantsAdjacency(TermNode node, Collection<String> fields) {
+        this(node, fields, 0);
+    }
+
+    /**
+     * @param slop The number of positions the parts may be apart from each other, in total,
+     *             the parts of the parts still being adjacent.
+     */
+    public AcrossVariantsAdjacency(TermNode node, Collection<String> fields, int slop) {
+        this.slop = slop;
+        Map<String, Integer> termIds = new HashMap<String, Integer>();
+        this.parts = parts(node, termIds);
+        this.fields = fields.toArray(new String[fields.size()]);
+        this.terms = new String[termIds.size()];
+        for (Map.Entry<String, Integer> termId : termIds.entrySet())
+            terms[termId.getValue()] = termId.getKey();
+    }
+
+    private static Part[] parts(TermNode node, Map<String, Integer> termIds) {
+        List<TermNode> children = node.getChildren();
+        Part[] rtn = new Part[children.size()];
+        for (int i = 0; i < rtn.length; i++) {
+            TermNode child = children.get(i);
+            List<String> writings = child.writings();
+            int[] ids = new int[writings.size()];
+            for (int j = 0; j < ids.length; j++) {
+                Integer id = termIds.get(writings.get(j));
+                if (id == null) {
+                    id = termIds.size();
+                    termIds.put(writings.get(j), id);
+                }
+                ids[j] = id;
+            }
+            rtn[i] = new Part(ids, child.getChildren().isEmpty() ? null : parts(child, termIds));
+        }
+        return rtn;
+    }
+
+    /**
+     * @return The verifier of the segment, {@code null} if no document of the segment can be confirmed.
+     */
+    public Verifier verifier(AtomicReaderContext context) throws IOException {
+        DocsAndPositionsEnum[][] positions = new DocsAndPositionsEnum[fields.length][];
+        boolean unverifiable = false;
+        boolean any = false;
+        for (int i = 0; i < fields.length; i++) {
+            Terms fieldTerms = context.reader().terms(fields[i]);
+            if (fieldTerms == null)
+                continue;
+            if (!fieldTerms.hasPositions()) {
+                unverifiable = true;
+                continue;
+            }
+            TermsEnum termsEnum = fieldTerms.iterator(null);
+            positions[i] = new DocsAndPositionsEnum[terms.length];
+            for (int j = 0; j < terms.length; j++) {
+                if (termsEnum.seekExact(new BytesRef(terms[j])))
+                    positions[i][j] = termsEnum.docsAndPositions(null, null, DocsAndPositionsEnum.FLAG_NONE);
+            }
+            any = true;
+        }
+        if (!any && !unverifiable)
+            return null;
+        return new Verifier(positions, unverifiable);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AcrossVariantsAdjacency)) return false;
+        AcrossVariantsAdjacency that = (AcrossVariantsAdjacency) o;
+        return slop == that.slop && Arrays.equals(parts, that.parts) && Arrays.equals(fields, that.fields) && Arrays.equals(terms, that.terms);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * (31 * Arrays.hashCode(parts) + Arrays.hashCode(fields)) + Arrays.hashCode(terms)) + slop;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("adjacent(");
+        toString(sb, parts);
+        sb.append(')');
+        if (slop > 0)
+            sb.append('~').append(slop);
+        return sb.toString();
+    }
+
+    private void toString(StringBuilder sb, Part[] parts) {
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0)
+                sb.append(' ');
+            sb.append(terms[parts[i].terms[0]]);
+        }
+    }
+
+    private static class Part {
+
+        final int[] terms;
+        final Part[] parts;
+
+        Part(int[] terms, Part[] parts) {
+            this.terms = terms;
+            this.parts = parts;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Part)) return false;
+            Part that = (Part) o;
+            return Arrays.equals(terms, that.terms) && Arrays.equals(parts, that.parts);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(terms) + Arrays.hashCode(parts);
+        }
+
+    }
+
+    /**
+     * Confirms the documents of a segment, which must be asked for in increasing order.
+     */
+    public class Verifier {
+
+        private final DocsAndPositionsEnum[][] positions;
+        private final boolean unverifiable;
+        private final List<BitSet> termPositions = new ArrayList<BitSet>();
+
+        Verifier(DocsAndPositionsEnum[][] positions, boolean unverifiable) {
+            this.positions = positions;
+            this.unverifiable = unverifiable;
+            for (int i = 0; i < terms.length; i++)
+                termPositions.add(null);
+        }
+
+        public boolean matches(int doc) throws IOException {
+            if (unverifiable)
+                return true;
+            for (DocsAndPositionsEnum[] fieldPositions : positions) {
+                if (fieldPositions != null && matches(fieldPositions, doc))
+                    return true;
+            }
+            return false;
+        }
+
+        private boolean matches(DocsAndPositionsEnum[] fieldPositions, int doc) throws IOException {
+            int length = 0;
+            for (int i = 0; i < fieldPositions.length; i++) {
+                DocsAndPositionsEnum termEnum = fieldPositions[i];
+                BitSet bits = null;
+                if (termEnum != null && termEnum.docID() < doc)
+                    termEnum.advance(doc);
+                if (termEnum != null && termEnum.docID() == doc) {
+                    bits = new BitSet();
+                    for (int freq = termEnum.freq(); freq > 0; freq--)
+                        bits.set(termEnum.nextPosition());
+                    length = Math.max(length, bits.length() + 1);
+                }
+                termPositions.set(i, bits);
+            }
+            return length > 0 && ends(parts, null, slop, length) != null;
+        }
+
+        /**
+         * @param starts The slop already used to reach each position the parts may start at, {@code null} for any position.
+         * @param slop The slop the parts may use on top of the one of their start.
+         * @return The slop used to reach each position following the parts, {@link #UNREACHED} where they do not end,
+         *         {@code null} if they end nowhere.
+         */
+        private int[] ends(Part[] parts, int[] starts, int slop, int length) {
+            int[] rtn = starts;
+            for (int i = 0; i < parts.length; i++) {
+                if (i > 0 && slop > 0)
+                    spread(rtn, slop);
+                rtn = ends(parts[i], rtn, length);
+                if (rtn == null)
+                    break;
+            }
+            return rtn;
+        }
+
+        private int[] ends(Part part, int[] starts, int length) {
+            int[] rtn = null;
+            for (int term : part.terms) {
+                BitSet bits = termPositions.get(term);
+                if (bits == null)
+                    continue;
+                for (int position = bits.nextSetBit(0); position >= 0; position = bits.nextSetBit(position + 1)) {
+                    int used = starts == null ? 0 : starts[position];
+                    if (used == UNREACHED)
+                        continue;
+                    if (rtn == null)
+                        rtn = unreached(length);
+                    rtn[position + 1] = Math.min(rtn[position + 1], used);
+                }
+            }
+            if (part.parts != null) {
+                int[] partsEnds = ends(part.parts, starts, 0, length);
+                if (rtn == null)
+                    return partsEnds;
+                if (partsEnds != null) {
+                    for (int i = 0; i < length; i++)
+                        rtn[i] = Math.min(rtn[i], partsEnds[i]);
+                }
+            }
+            return rtn;
+        }
+
+        /**
+         * Lets the next part start further, using one more slop per skipped position.
+         */
+        private void spread(int[] ends, int slop) {
+            for (int i = 1; i < ends.length; i++) {
+                if (ends[i - 1] < slop)
+                    ends[i] = Math.min(ends[i], ends[i - 1] + 1);
+            }
+        }
+
+        private int[] unreached(int length) {
+            int[] rtn = new int[length];
+            Arrays.fill(rtn, UNREACHED);
+            return rtn;
+        }
+
+    }
+
+}
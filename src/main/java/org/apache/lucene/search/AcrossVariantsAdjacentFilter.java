@@ -0,0 +1,111 @@
+package org.apache.lucene.search;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+
+/**
+ * Matches the documents of a filter, the conjunction of the parts of a node,
+ * whose parts the adjacency confirms.
+ * The filter only approximates the matches, the positions get read for its candidates only.
+ */
+public class AcrossVariantsAdjacentFilter extends Filter {
+
+    private final Filter filter;
+    private final AcrossVariantsAdjacency adjacency;
+
+    public AcrossVariantsAdjacentFilter(Filter filter, AcrossVariantsAdjacency adjacency) {
+        this.filter = filter;
+        this.adjacency = adjacency;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    public AcrossVariantsAdjacency getAdjacency() {
+        return adjacency;
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(final AtomicReaderContext context, Bits acceptDocs) throws IOException {
+        final DocIdSet set = filter.getDocIdSet(context, acceptDocs);
+        if (set == null)
+            return null;
+        return new DocIdSet() {
+            @Override
+            public DocIdSetIterator iterator() throws IOException {
+                DocIdSetIterator iterator = set.iterator();
+                if (iterator == null)
+                    return null;
+                // The verifier only moves forward, one per iterator
+                final AcrossVariantsAdjacency.Verifier verifier = adjacency.verifier(context);
+                if (verifier == null)
+                    return null;
+                return new AdjacentIterator(iterator, verifier);
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AcrossVariantsAdjacentFilter)) return false;
+        AcrossVariantsAdjacentFilter that = (AcrossVariantsAdjacentFilter) o;
+        return filter.equals(that.filter) && adjacency.equals(that.adjacency);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * filter.hashCode() + adjacency.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return adjacency + "{" + filter + "}";
+    }
+
+    /**
+     * Confirms each document the iterator of the filter approximates.
+     */
+    private static class AdjacentIterator extends DocIdSetIterator {
+
+        private final DocIdSetIterator iterator;
+        private final AcrossVariantsAdjacency.Verifier verifier;
+        private int doc = -1;
+
+        AdjacentIterator(DocIdSetIterator iterator, AcrossVariantsAdjacency.Verifier verifier) {
+            this.iterator = iterator;
+            this.verifier = verifier;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            return doc = confirm(iterator.nextDoc());
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            return doc = confirm(iterator.advance(target));
+        }
+
+        private int confirm(int doc) throws IOException {
+            while (doc != NO_MORE_DOCS && !verifier.matches(doc))
+                doc = iterator.nextDoc();
+            return doc;
+        }
+
+        @Override
+        public long cost() {
+            return iterator.cost();
+        }
+
+    }
+
+}
@@ -0,0 +1,180 @@
+package org.apache.lucene.search;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.ToStringUtils;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Matches the documents of a query, the conjunction of the parts of a node,
+ * whose parts the adjacency confirms.
+ * The query only approximates the matches, the positions get read for its candidates only.
+ * Scores like the query.
+ */
+public class AcrossVariantsAdjacentQuery extends Query {
+
+    private final Query query;
+    private final AcrossVariantsAdjacency adjacency;
+
+    public AcrossVariantsAdjacentQuery(Query query, AcrossVariantsAdjacency adjacency) {
+        this.query = query;
+        this.adjacency = adjacency;
+    }
+
+    public Query getQuery() {
+        return query;
+    }
+
+    public AcrossVariantsAdjacency getAdjacency() {
+        return adjacency;
+    }
+
+    @Override
+    public Query rewrite(IndexReader reader) throws IOException {
+        Query rewritten = query.rewrite(reader);
+        if (rewritten == query)
+            return this;
+        Query rtn = new AcrossVariantsAdjacentQuery(rewritten, adjacency);
+        rtn.setBoost(getBoost());
+        return rtn;
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher) throws IOException {
+        return new AdjacentWeight(query.createWeight(searcher));
+    }
+
+    @Override
+    public void extractTerms(Set<Term> terms) {
+        query.extractTerms(terms);
+    }
+
+    @Override
+    public String toString(String field) {
+        return adjacency + "{" + query.toString(field) + "}" + ToStringUtils.boost(getBoost());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!super.equals(o)) return false;
+        AcrossVariantsAdjacentQuery that = (AcrossVariantsAdjacentQuery) o;
+        return query.equals(that.query) && adjacency.equals(that.adjacency);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        result = 31 * result + query.hashCode();
+        result = 31 * result + adjacency.hashCode();
+        return result;
+    }
+
+    private class AdjacentWeight extends Weight {
+
+        private final Weight weight;
+
+        AdjacentWeight(Weight weight) {
+            this.weight = weight;
+        }
+
+        @Override
+        public Query getQuery() {
+            return AcrossVariantsAdjacentQuery.this;
+        }
+
+        @Override
+        public float getValueForNormalization() throws IOException {
+            return weight.getValueForNormalization() * getBoost() * getBoost();
+        }
+
+        @Override
+        public void normalize(float norm, float topLevelBoost) {
+            weight.normalize(norm, topLevelBoost * getBoost());
+        }
+
+        @Override
+        public Scorer scorer(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+            Scorer scorer = weight.scorer(context, acceptDocs);
+            if (scorer == null)
+                return null;
+            AcrossVariantsAdjacency.Verifier verifier = adjacency.verifier(context);
+            if (verifier == null)
+                return null;
+            return new AdjacentScorer(this, scorer, verifier);
+        }
+
+        @Override
+        public Explanation explain(AtomicReaderContext context, int doc) throws IOException {
+            Explanation explanation = weight.explain(context, doc);
+            if (!explanation.isMatch())
+                return explanation;
+            AcrossVariantsAdjacency.Verifier verifier = adjacency.verifier(context);
+            if (verifier == null || !verifier.matches(doc)) {
+                ComplexExplanation rtn = new ComplexExplanation(false, 0.0f, "no " + adjacency + " in any field");
+                rtn.addDetail(explanation);
+                return rtn;
+            }
+            return explanation;
+        }
+
+    }
+
+    /**
+     * Confirms each document the scorer of the query approximates.
+     */
+    private static class AdjacentScorer extends Scorer {
+
+        private final Scorer scorer;
+        private final AcrossVariantsAdjacency.Verifier verifier;
+        private int doc = -1;
+
+        AdjacentScorer(Weight weight, Scorer scorer, AcrossVariantsAdjacency.Verifier verifier) {
+            super(weight);
+            this.scorer = scorer;
+            this.verifier = verifier;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            return doc = confirm(scorer.nextDoc());
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            return doc = confirm(scorer.advance(target));
+        }
+
+        private int confirm(int doc) throws IOException {
+            while (doc != NO_MORE_DOCS && !verifier.matches(doc))
+                doc = scorer.nextDoc();
+            return doc;
+        }
+
+        @Override
+        public float score() throws IOException {
+            return scorer.score();
+        }
+
+        @Override
+        public int freq() throws IOException {
+            return scorer.freq();
+        }
+
+        @Override
+        public long cost() {
+            return scorer.cost();
+        }
+
+    }
+
+}
@@ -1,14 +1,17 @@
 package org.apache.lucene.search;
 
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
-import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
-import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.index.AtomicReader;
 import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.search.AcrossVariantsTree.TermNode;
 import org.apache.lucene.util.Bits;
 import org.apache.lucene.queries.TermFilter;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.ThreadInterruptedException;
 import org.elasticsearch.ElasticsearchIllegalArgumentException;
 import org.elasticsearch.common.lucene.search.XBooleanFilter;
 
@@ -17,11 +20,13 @@ import java.io.Reader;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
 
 /**
  * Take each token from the analyzer,
@@ -47,13 +52,40 @@ public class AcrossVariantsAndFilter extends Filter {
     private final Analyzer searchAnalyzer;
     private final String text;
     private final FilterProvider filterProvider;
+    private final AcrossVariantsLimits limits;
+    private final AcrossVariantsDegradation degradation;
     protected TermNode termTree;
+    private AcrossVariantsProfile profile;
+    private AcrossVariantsMemoryAccountant memoryAccountant;
+    private Map<String, AcrossVariantsGlue> glues;
+    private String combinedField;
+    private int[] combinedBits;
+    private float[] combinedBoosts;
+    private AcrossVariantsBloomFilters bloomFilters;
+    private AcrossVariantsSegmentExecutor segmentExecutor;
+    private String execution = AcrossVariantsPlan.ENGINE_REWRITE;
+    private float cutoffFrequency = -1;
+    private boolean adjacentParts;
+    private final AcrossVariantsEngineUsage engineUsage = new AcrossVariantsEngineUsage();
+    private volatile Filter rewritten;
+    private volatile Precomputed precomputed;
 
     public AcrossVariantsAndFilter(Collection<String> fields, Analyzer searchAnalyzer, String text) throws IOException {
         this(fields, searchAnalyzer, text, TermFilterProvider.INSTANCE);
     }
 
     public AcrossVariantsAndFilter(Collection<String> fields, Analyzer searchAnalyzer, String text, FilterProvider filterProvider) throws IOException {
+        this(fields, searchAnalyzer, text, filterProvider, AcrossVariantsLimits.UNLIMITED);
+    }
+
+    public AcrossVariantsAndFilter(Collection<String> fields, Analyzer searchAnalyzer, String text, FilterProvider filterProvider, AcrossVariantsLimits limits) throws IOException {
+        this(fields, searchAnalyzer, text, filterProvider, limits, null);
+    }
+
+    /**
+     * @param termTree The tree the text already got analyzed into, {@code null} to analyze it.
+     */
+    public AcrossVariantsAndFilter(Collection<String> fields, Analyzer searchAnalyzer, String text, FilterProvider filterProvider, AcrossVariantsLimits limits, TermNode termTree) throws IOException {
         this.fields = fields;
         this.searchAnalyzer = searchAnalyzer;
         if (this.searchAnalyzer == null) {
@@ -61,7 +93,9 @@ public class AcrossVariantsAndFilter extends Filter {
         }
         this.text = text;
         this.filterProvider = filterProvider;
-        this.termTree = buildTree(new StringReader(text));
+        this.limits = limits;
+        this.degradation = new AcrossVariantsDegradation();
+        this.termTree = termTree != null ? termTree : buildTree(new StringReader(text));
     }
 
     private static Map<String, Float> mapizeFields(Collection<String> fields) {
@@ -73,42 +107,220 @@ public class AcrossVariantsAndFilter extends Filter {
     }
 
     protected TermNode buildTree(Reader input) throws IOException {
-        TermNode root = new TermNode(null);
+        return AcrossVariantsTree.build(searchAnalyzer, input, limits, degradation);
+    }
 
-        // Logic similar to QueryParser#getFieldQuery
-        final TokenStream source = searchAnalyzer.tokenStream(null, input);
-        try {
-            source.reset();
-
-            final CharTermAttribute termAtt = source.addAttribute(CharTermAttribute.class);
-            final OffsetAttribute offsetAtt = source.addAttribute(OffsetAttribute.class);
-            final PositionIncrementAttribute posIncrAtt = source.addAttribute(PositionIncrementAttribute.class);
-            int pos = 0;
-            List<PositionedTerm> collectedTokens = new ArrayList<PositionedTerm>();
-            while (source.incrementToken()) {
-                pos += posIncrAtt.getPositionIncrement();
-                collectedTokens.add(new PositionedTerm(termAtt.toString(), offsetAtt.startOffset(), offsetAtt.endOffset(), pos));
-            }
-            source.end();
+    /**
+     * Builds the filter the tree expands into.
+     * Past the writings or the leaves limit, each node matches a set of terms per field,
+     * which gives the same documents.
+     */
+    public Filter rewrite() throws IOException {
+        return rewrite(null);
+    }
 
-            Collections.sort(collectedTokens);
-            for (PositionedTerm term : collectedTokens)
-                root.add(term);
-        } finally {
-            source.close();
+    /**
+     * @param reader Used to find the nodes above the cutoff frequency, which get matched as post filters, may be {@code null}.
+     */
+    public Filter rewrite(IndexReader reader) throws IOException {
+        boolean termsSets = false;
+        int maxWritings = limits.getMaxWritings();
+        int maxLeaves = limits.getMaxLeaves();
+        if ((maxWritings >= 0 || maxLeaves >= 0) && filterProvider == TermFilterProvider.INSTANCE) {
+            int writings = AcrossVariantsTree.countWritings(termTree);
+            int leavesPerWriting = combinedField != null ? 1 : fields.size();
+            if ((maxWritings >= 0 && writings > maxWritings) || (maxLeaves >= 0 && (long) writings * leavesPerWriting > maxLeaves)) {
+                degradation.setTermsSets();
+                termsSets = true;
+            }
         }
+        Set<TermNode> highFrequencyNodes = null;
+        if (cutoffFrequency >= 0 && reader != null) {
+            highFrequencyNodes = AcrossVariantsTree.highFrequencyNodes(termTree, reader, fields, cutoffFrequency);
+            if (highFrequencyNodes.isEmpty())
+                highFrequencyNodes = null;
+        }
+        if (termsSets || highFrequencyNodes != null)
+            return termTree.visit(new TreeVisitor(termsSets, highFrequencyNodes));
+        return termTree.visit(TREE_VISITOR);
+    }
 
-        return root;
+    /**
+     * The rewritten filter does not depend on the segment,
+     * build it once and share it across segments.
+     */
+    private Filter rewritten(AtomicReaderContext context) throws IOException {
+        Filter rtn = rewritten;
+        if (rtn == null) {
+            rtn = rewrite(cutoffFrequency >= 0 ? ReaderUtil.getTopLevelContext(context).reader() : null);
+            if (memoryAccountant != null)
+                memoryAccountant.addEstimateBytes(AcrossVariantsRamUsage.sizeOf(rtn), "across_variants filter");
+            rtn = execute(rtn);
+            rewritten = rtn;
+        }
+        return rtn;
     }
 
-    public Filter rewrite() throws IOException {
-        return termTree.visit(TREE_VISITOR);
+    /**
+     * Unless the rewrite engine is requested, a filter compiling into a native tree gets executed by the scorer or the bitset engine,
+     * picked per segment.
+     */
+    private Filter execute(Filter rewritten) {
+        if (!AcrossVariantsPlan.ENGINE_REWRITE.equals(execution) && AcrossVariantsNativeTree.isNative(rewritten))
+            return new AcrossVariantsNativeFilter((XBooleanFilter) rewritten, execution, engineUsage);
+        engineUsage.used(AcrossVariantsPlan.ENGINE_REWRITE);
+        return rewritten;
     }
 
     public Collection<String> getFields() {
         return fields;
     }
 
+    public void setProfile(AcrossVariantsProfile profile) {
+        this.profile = profile;
+    }
+
+    public AcrossVariantsProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * @param memoryAccountant Charged with the estimated size of the rewritten filter.
+     */
+    public void setMemoryAccountant(AcrossVariantsMemoryAccountant memoryAccountant) {
+        this.memoryAccountant = memoryAccountant;
+    }
+
+    public AcrossVariantsMemoryAccountant getMemoryAccountant() {
+        return memoryAccountant;
+    }
+
+    /**
+     * @param glues The glue of the fields indexing the glued forms of adjacent tokens.
+     *              A node their glue covers in every field is matched with its writings alone, not with its subspans.
+     */
+    public void setGlues(Map<String, AcrossVariantsGlue> glues) {
+        this.glues = glues;
+    }
+
+    public Map<String, AcrossVariantsGlue> getGlues() {
+        return glues;
+    }
+
+    /**
+     * @param bloomFilters The per segment Bloom filters the term leaves skip the segments without their term with,
+     *                     {@code null} to seek every segment. Only used with the default filter provider.
+     */
+    public void setBloomFilters(AcrossVariantsBloomFilters bloomFilters) {
+        this.bloomFilters = bloomFilters;
+    }
+
+    public AcrossVariantsBloomFilters getBloomFilters() {
+        return bloomFilters;
+    }
+
+    /**
+     * @param segmentExecutor Computes the doc id sets of the other segments of a reader in parallel,
+     *                        as soon as the first one is asked for, {@code null} to compute them sequentially.
+     */
+    public void setSegmentExecutor(AcrossVariantsSegmentExecutor segmentExecutor) {
+        this.segmentExecutor = segmentExecutor;
+    }
+
+    public AcrossVariantsSegmentExecutor getSegmentExecutor() {
+        return segmentExecutor;
+    }
+
+    /**
+     * @param combinedField A field combining every filtered field, whose positions carry the bitmask of the fields holding the term,
+     *                      so that each writing is matched out of a single postings list, {@code null} for none.
+     * @param bits The bit of each filtered field in the combined field.
+     */
+    public void setCombinedField(String combinedField, Map<String, Integer> bits) {
+        this.combinedField = combinedField;
+        if (combinedField == null) {
+            combinedBits = null;
+            combinedBoosts = null;
+            return;
+        }
+        combinedBits = new int[fields.size()];
+        combinedBoosts = new float[fields.size()];
+        int i = 0;
+        for (String field : fields) {
+            Integer bit = bits.get(field);
+            if (bit == null)
+                throw new ElasticsearchIllegalArgumentException("[" + field + "] is not part of the combined field [" + combinedField + "]");
+            combinedBits[i] = bit;
+            combinedBoosts[i] = 1.0f;
+            i++;
+        }
+    }
+
+    public String getCombinedField() {
+        return combinedField;
+    }
+
+    /**
+     * @param execution {@value AcrossVariantsPlanner#EXECUTION_AUTO} to let the {@link AcrossVariantsPlanner} pick the cheapest engine,
+     *                  or the engine to execute with, defaults to {@value AcrossVariantsPlan#ENGINE_REWRITE}.
+     */
+    public void setExecution(String execution) {
+        if (!AcrossVariantsPlanner.isExecution(execution))
+            throw new ElasticsearchIllegalArgumentException("Unknown execution [" + execution + "]");
+        this.execution = execution;
+    }
+
+    public String getExecution() {
+        return execution;
+    }
+
+    /**
+     * @return Which engines the filter got executed with, updated by the execution.
+     */
+    public AcrossVariantsEngineUsage getEngineUsage() {
+        return engineUsage;
+    }
+
+    /**
+     * @param cutoffFrequency The document frequency, as a fraction of the documents if below 1, as a number of documents otherwise,
+     *                        above which a node whose every writing is only gets checked against the documents its siblings match,
+     *                        negative to disable.
+     */
+    public void setCutoffFrequency(float cutoffFrequency) {
+        this.cutoffFrequency = cutoffFrequency;
+    }
+
+    public float getCutoffFrequency() {
+        return cutoffFrequency;
+    }
+
+    /**
+     * @param adjacentParts Whether the parts of a compound node must appear adjacently, in order and within the same field,
+     *                      which the positions confirm for the documents matching all of them only.
+     */
+    public void setAdjacentParts(boolean adjacentParts) {
+        this.adjacentParts = adjacentParts;
+    }
+
+    public boolean getAdjacentParts() {
+        return adjacentParts;
+    }
+
+    public TermNode getTermTree() {
+        return termTree;
+    }
+
+    public AcrossVariantsLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * @return How the filter got degraded to stay within its limits, updated by the rewrite.
+     */
+    public AcrossVariantsDegradation getDegradation() {
+        return degradation;
+    }
+
     public Analyzer getSearchAnalyzer() {
         return searchAnalyzer;
     }
@@ -138,179 +350,119 @@ public class AcrossVariantsAndFilter extends Filter {
 
     @Override
     public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
-        return rewrite().getDocIdSet(context, acceptDocs);
+        if (profile == null)
+            return getDocIdSet(rewritten(context), context, acceptDocs);
+        long start = System.nanoTime();
+        Filter rewritten = rewritten(context);
+        long rewrittenAt = System.nanoTime();
+        DocIdSet rtn = getDocIdSet(rewritten, context, acceptDocs);
+        profile.addRewriteNanos(rewrittenAt - start);
+        profile.addExecutionNanos(System.nanoTime() - rewrittenAt);
+        collectDocFreqs(context.reader());
+        return rtn;
     }
 
-    public static class TermFilterProvider implements FilterProvider {
-
-        public static final TermFilterProvider INSTANCE = new TermFilterProvider();
-
-        @Override
-        public Filter filterTerm(String field, String term) {
-            return new TermFilter(new Term(field, term));
+    /**
+     * With a segment executor, the first segment of a reader asked for gets computed right away,
+     * while the other ones get submitted, the next calls waiting for their result.
+     */
+    private DocIdSet getDocIdSet(Filter rewritten, AtomicReaderContext context, Bits acceptDocs) throws IOException {
+        if (segmentExecutor == null)
+            return rewritten.getDocIdSet(context, acceptDocs);
+        IndexReaderContext topReaderContext = ReaderUtil.getTopLevelContext(context);
+        Precomputed current = precomputed;
+        if (current == null || current.topReaderContext != topReaderContext) {
+            List<AtomicReaderContext> leaves = topReaderContext.leaves();
+            precomputed = new Precomputed(topReaderContext,
+                    leaves.size() > 1 ? segmentExecutor.submit(rewritten, leaves, context.ord, memoryAccountant) : null);
+            return rewritten.getDocIdSet(context, acceptDocs);
+        }
+        Future<DocIdSet> future = current.docIdSets == null ? null : current.docIdSets.get(context.ord);
+        if (future == null || future.isCancelled())
+            return rewritten.getDocIdSet(context, acceptDocs);
+        try {
+            return BitsFilteredDocIdSet.wrap(future.get(), acceptDocs);
+        } catch (CancellationException e) {
+            return rewritten.getDocIdSet(context, acceptDocs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ThreadInterruptedException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException(cause);
         }
-
     }
 
-    protected static class PositionedTerm implements Comparable<PositionedTerm> {
-
-        public final String term;
-        public final int startOffset;
-        public final int endOffset;
-        public final int position;
+    /**
+     * Cancels the doc id sets still being computed for segments that did not get asked for, once the search is done.
+     */
+    public void cancelPending() {
+        Precomputed current = precomputed;
+        precomputed = null;
+        if (current != null && current.docIdSets != null)
+            AcrossVariantsSegmentExecutor.cancel(current.docIdSets);
+    }
 
-        public PositionedTerm(String term, int startOffset, int endOffset, int position) {
-            this.term = term;
-            this.startOffset = startOffset;
-            this.endOffset = endOffset;
-            this.position = position;
+    private void collectDocFreqs(AtomicReader reader) throws IOException {
+        List<String> writings = AcrossVariantsTree.collectWritings(termTree);
+        for (String field : fields) {
+            for (String writing : writings) {
+                Term term = new Term(field, writing);
+                profile.addDocFreq(term, reader.docFreq(term));
+            }
         }
+    }
 
-        @Override
-        public String toString() {
-            if (term == null)
-                return "null";
-            StringBuilder sb = new StringBuilder();
-            sb.append('"');
-            sb.append(term);
-            sb.append("\":[");
-            sb.append(position);
-            sb.append(',');
-            sb.append(startOffset);
-            sb.append(':');
-            sb.append(endOffset);
-            sb.append(']');
-            return sb.toString();
-        }
+    /**
+     * The doc id sets being computed for the segments of a reader.
+     */
+    private static class Precomputed {
 
-        @Override
-        public int compareTo(PositionedTerm o) {
-            if (o == null)
-                return 1;
-            int diff = this.position - o.position;
-            if (diff == 0)
-                diff = this.startOffset - o.startOffset;
-            if (diff == 0)
-                diff = o.endOffset - this.endOffset;
-            return diff;
-        }
+        final IndexReaderContext topReaderContext;
+        final List<Future<DocIdSet>> docIdSets;
 
-        public boolean contains(PositionedTerm o) {
-            return this.position == o.position
-                    && this.startOffset <= o.startOffset
-                    && this.endOffset >= o.endOffset;
+        Precomputed(IndexReaderContext topReaderContext, List<Future<DocIdSet>> docIdSets) {
+            this.topReaderContext = topReaderContext;
+            this.docIdSets = docIdSets;
         }
 
     }
 
-    protected static class TermNode implements Comparable<Object> {
-
-        protected final PositionedTerm term;
-        protected List<String> alternateWritings;
-        protected List<TermNode> children;
-
-        public TermNode(PositionedTerm term) {
-            this.term = term;
-            this.alternateWritings = null;
-            this.children = null;
-        }
-
-        public TermNode add(PositionedTerm term) {
-            if (children == null) {
-                TermNode newNode = new TermNode(term);
-                addChild(newNode);
-                return newNode;
-            } else {
-                int index = Collections.binarySearch(children, term);
-                if (index >= 0) {
-                    // Exact match (but for the term text)
-                    // The two terms nest inside each other
-                    // Add the new term as an alternate writing
-                    TermNode node = children.get(index);
-                    if (node.alternateWritings == null)
-                        node.alternateWritings = new ArrayList<String>();
-                    node.alternateWritings.add(term.term);
-                    return node;
-                } else {
-                    index = -index - 1;
-                    if (index > 0) {
-                        // New term may be nestable in the previous element,
-                        // or it can be the other way around
-                        TermNode prev = children.get(index - 1);
-                        if (prev.term.contains(term)) {
-                            return prev.add(term);
-                        }
-                    }
-                    TermNode newNode = new TermNode(term);
-                    children.add(index, newNode);
-                    return newNode;
-                }
-            }
-        }
+    public static class TermFilterProvider implements FilterProvider {
 
-        public void addChild(TermNode child) {
-            if (children == null)
-                children = new ArrayList<TermNode>();
-            children.add(child);
-        }
+        public static final TermFilterProvider INSTANCE = new TermFilterProvider();
 
         @Override
-        public String toString() {
-            StringBuilder sb = new StringBuilder();
-            sb.append('<');
-            if (alternateWritings != null) {
-                for (String alternateWriting : alternateWritings) {
-                    sb.append('"');
-                    sb.append(alternateWriting);
-                    sb.append("\"|");
-                }
-            }
-            sb.append(term);
-            sb.append('>');
-            if (children == null)
-                sb.append("[]");
-            else
-                sb.append(children);
-            return sb.toString();
+        public Filter filterTerm(String field, String term) {
+            return new TermFilter(new Term(field, term));
         }
 
-        @Override
-        public int compareTo(Object o) {
-            if (o instanceof TermNode)
-                return compareTo((TermNode)o);
-            if (o instanceof PositionedTerm)
-                return compareTo((PositionedTerm)o);
-            throw new IllegalArgumentException("Can only compare to TermNode or PositionedTerm");
-        }
+    }
 
-        public int compareTo(TermNode o) {
-            return this.compareTo(o.term);
-        }
+    protected class TreeVisitor implements TermNode.Visitor<Filter> {
 
-        public int compareTo(PositionedTerm o) {
-            if (this.term == null)
-                return 1;
-            return this.term.compareTo(o);
-        }
+        private final boolean termsSets;
+        private final Set<TermNode> highFrequencyNodes;
 
-        public <T> T visit(Visitor<T> visitor) {
-            List<T> childrenOutput = null;
-            if (children != null && !children.isEmpty()) {
-                childrenOutput = new ArrayList<T>(children.size());
-                for (TermNode child : children)
-                    childrenOutput.add(child.visit(visitor));
-            }
-            return visitor.visit(this, childrenOutput);
+        public TreeVisitor() {
+            this(false, null);
         }
 
-        protected static interface Visitor<T> {
-            public T visit(TermNode node, List<T> childrenOutput);
+        /**
+         * @param termsSets Whether to match a set of terms per field, instead of a filter per writing.
+         * @param highFrequencyNodes The nodes to only check against the documents their siblings match, may be {@code null}.
+         */
+        public TreeVisitor(boolean termsSets, Set<TermNode> highFrequencyNodes) {
+            this.termsSets = termsSets;
+            this.highFrequencyNodes = highFrequencyNodes;
         }
 
-    }
-
-    protected class TreeVisitor implements TermNode.Visitor<Filter> {
-
         public Filter buildAndFilter(List<Filter> filters) {
             if (filters.size() == 1) return filters.get(0);
             XBooleanFilter rtn = new XBooleanFilter();
@@ -319,6 +471,32 @@ public class AcrossVariantsAndFilter extends Filter {
             return rtn;
         }
 
+        private Filter filterTerm(String field, String writing) {
+            if (bloomFilters != null && filterProvider == TermFilterProvider.INSTANCE)
+                return bloomFilters.termFilter(new Term(field, writing));
+            return filterProvider.filterTerm(field, writing);
+        }
+
+        private Filter filterCombined(String writing) {
+            return new QueryWrapperFilter(new AcrossVariantsCombinedQuery(new Term(combinedField, writing), combinedBits, combinedBoosts));
+        }
+
+        /**
+         * The high frequency children of the node become post filters, as long as some other child drives the conjunction.
+         */
+        private Filter buildChildrenFilter(TermNode node, List<Filter> childrenOutput) {
+            if (highFrequencyNodes == null)
+                return buildAndFilter(childrenOutput);
+            List<TermNode> children = node.getChildren();
+            List<Filter> required = new ArrayList<Filter>(children.size());
+            List<Filter> postFilters = new ArrayList<Filter>(children.size());
+            for (int i = 0; i < children.size(); i++)
+                (highFrequencyNodes.contains(children.get(i)) ? postFilters : required).add(childrenOutput.get(i));
+            if (required.isEmpty() || postFilters.isEmpty())
+                return buildAndFilter(childrenOutput);
+            return new AcrossVariantsPostFilter(buildAndFilter(required), postFilters.toArray(new Filter[postFilters.size()]));
+        }
+
         public Filter buildOrFilter(List<Filter> filters) {
             if (filters.size() == 1) return filters.get(0);
             XBooleanFilter rtn = new XBooleanFilter();
@@ -331,7 +509,7 @@ public class AcrossVariantsAndFilter extends Filter {
         public Filter visit(TermNode node, List<Filter> childrenOutput) {
             Filter childrenFilter = null;
             if (childrenOutput != null && !childrenOutput.isEmpty()) {
-                childrenFilter = buildAndFilter(childrenOutput);
+                childrenFilter = buildChildrenFilter(node, childrenOutput);
             }
 
             if (node.term == null) {
@@ -343,23 +521,41 @@ public class AcrossVariantsAndFilter extends Filter {
 
             } else {
 
-                List<Filter> nodeFilters = new LinkedList<Filter>();
+                int writings = 1 + (node.alternateWritings == null ? 0 : node.alternateWritings.size());
+                List<Filter> nodeFilters = new ArrayList<Filter>(fields.size() * writings + 1);
 
-                for (String field : fields) {
-                    Filter filter = filterProvider.filterTerm(field, node.term.term);
+                if (combinedField != null && !termsSets) {
+                    nodeFilters.add(filterCombined(node.term.term));
+                    if (node.alternateWritings != null) {
+                        for (String alternateWriting : node.alternateWritings)
+                            nodeFilters.add(filterCombined(alternateWriting));
+                    }
+                } else for (String field : fields) {
+                    if (termsSets && writings > 1) {
+                        BytesRef[] terms = new BytesRef[writings];
+                        terms[0] = new BytesRef(node.term.term);
+                        for (int i = 1; i < writings; i++)
+                            terms[i] = new BytesRef(node.alternateWritings.get(i - 1));
+                        nodeFilters.add(new AcrossVariantsTermsFilter(field, terms));
+                        continue;
+                    }
+                    Filter filter = filterTerm(field, node.term.term);
                     if (filter != null)
                         nodeFilters.add(filter);
                     if (node.alternateWritings != null) {
                         for (String alternateWriting : node.alternateWritings) {
-                            filter = filterProvider.filterTerm(field, alternateWriting);
+                            filter = filterTerm(field, alternateWriting);
                             if (filter != null)
                                 nodeFilters.add(filter);
                         }
                     }
                 }
 
-                if (childrenFilter != null)
+                if (childrenFilter != null && !AcrossVariantsGlue.coversAll(glues, fields, node)) {
+                    if (adjacentParts && childrenOutput.size() > 1)
+                        childrenFilter = new AcrossVariantsAdjacentFilter(childrenFilter, new AcrossVariantsAdjacency(node, fields));
                     nodeFilters.add(childrenFilter);
+                }
 
                 return buildOrFilter(nodeFilters);
 
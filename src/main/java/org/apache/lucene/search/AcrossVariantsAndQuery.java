@@ -1,22 +1,24 @@
 package org.apache.lucene.search;
 
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
-import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
-import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.search.AcrossVariantsTree.TermNode;
+import org.apache.lucene.util.BytesRef;
 import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.lucene.search.Queries;
+import org.elasticsearch.common.lucene.search.XBooleanFilter;
 
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -39,16 +41,61 @@ public class AcrossVariantsAndQuery extends Query {
         public Query queryTerm(String field, String term);
     }
 
+    /**
+     * Tells at execution time whether the search only collects the top hits by score, ranked by the query itself,
+     * so that the documents that cannot enter them may be skipped.
+     * A query nested into another one must not skip any, the outer query needing all of its matches and scores.
+     */
+    public static interface TopKCheck {
+        public boolean onlyTopHits(Query query, int topK);
+    }
+
+    /**
+     * Tells at execution time whether the search only collects the matches of the query itself,
+     * so that the existence mode may stop at the first document of each segment.
+     * A query nested into another one, or whose matches get filtered once collected, must match every document.
+     */
+    public static interface ExistenceCheck {
+        public boolean onlyMatches(Query query);
+    }
+
     protected final TreeVisitor TREE_VISITOR = new TreeVisitor();
 
     private final Map<String, Float> boostedFields;
     private final Analyzer searchAnalyzer;
     private final String text;
     private final QueryProvider queryProvider;
-    private float boost;
+    private final AcrossVariantsLimits limits;
+    private final AcrossVariantsDegradation degradation;
     private boolean useDisMax = false;
     private float tieBreaker = 0.0f;
+    private float cutoffFrequency = -1;
+    private String minimumShouldMatch;
+    private int topK;
+    private TopKCheck topKCheck;
+    private ExistenceCheck existenceCheck;
+    private Collection<String> filterFields = Collections.emptyList();
+    private AcrossVariantsAndFilter.FilterProvider filterFieldsProvider = AcrossVariantsAndFilter.TermFilterProvider.INSTANCE;
+    private boolean scoring = true;
+    private boolean existence;
+    private boolean adjacentParts;
+    private boolean phrase;
+    private int slop;
+    private boolean typeAhead;
+    private AcrossVariantsPrefixCache prefixCache;
+    private String session;
+    private AcrossVariantsSessionCache sessionCache;
     protected TermNode termTree;
+    private AcrossVariantsProfile profile;
+    private AcrossVariantsMemoryAccountant memoryAccountant;
+    private volatile boolean accounted;
+    private Map<String, AcrossVariantsGlue> glues;
+    private String combinedField;
+    private int[] combinedBits;
+    private float[] combinedBoosts;
+    private AcrossVariantsBloomFilters bloomFilters;
+    private String execution = AcrossVariantsPlan.ENGINE_REWRITE;
+    private final AcrossVariantsEngineUsage engineUsage = new AcrossVariantsEngineUsage();
 
     public AcrossVariantsAndQuery(Collection<String> fields, Analyzer searchAnalyzer, String text) throws IOException {
         this(mapizeFields(fields), searchAnalyzer, text);
@@ -63,6 +110,10 @@ public class AcrossVariantsAndQuery extends Query {
     }
 
     public AcrossVariantsAndQuery(Map<String, Float> boostedFields, Analyzer searchAnalyzer, String text, QueryProvider queryProvider) throws IOException {
+        this(boostedFields, searchAnalyzer, text, queryProvider, AcrossVariantsLimits.UNLIMITED);
+    }
+
+    public AcrossVariantsAndQuery(Map<String, Float> boostedFields, Analyzer searchAnalyzer, String text, QueryProvider queryProvider, AcrossVariantsLimits limits) throws IOException {
         this.boostedFields = boostedFields;
         this.searchAnalyzer = searchAnalyzer;
         if (this.searchAnalyzer == null) {
@@ -70,7 +121,8 @@ public class AcrossVariantsAndQuery extends Query {
         }
         this.text = text;
         this.queryProvider = queryProvider;
-        this.boost = 1.0f;
+        this.limits = limits;
+        this.degradation = new AcrossVariantsDegradation();
         this.termTree = buildTree(new StringReader(text));
     }
 
@@ -83,43 +135,255 @@ public class AcrossVariantsAndQuery extends Query {
     }
 
     protected TermNode buildTree(Reader input) throws IOException {
-        TermNode root = new TermNode(null);
-
-        // Logic similar to QueryParser#getFieldQuery
-        final TokenStream source = searchAnalyzer.tokenStream(null, input);
-        try {
-            source.reset();
-
-            final CharTermAttribute termAtt = source.addAttribute(CharTermAttribute.class);
-            final OffsetAttribute offsetAtt = source.addAttribute(OffsetAttribute.class);
-            final PositionIncrementAttribute posIncrAtt = source.addAttribute(PositionIncrementAttribute.class);
-            int pos = 0;
-            List<PositionedTerm> collectedTokens = new ArrayList<PositionedTerm>();
-            while (source.incrementToken()) {
-                pos += posIncrAtt.getPositionIncrement();
-                collectedTokens.add(new PositionedTerm(termAtt.toString(), offsetAtt.startOffset(), offsetAtt.endOffset(), pos));
+        return AcrossVariantsTree.build(searchAnalyzer, input, limits, degradation);
+    }
+
+    @Override
+    public Query rewrite(IndexReader reader) throws IOException {
+        long start = profile == null ? 0 : System.nanoTime();
+        Query rtn = !scoring || existence ? rewriteUnscored(reader) : rewriteScored(reader);
+        if (profile != null) {
+            long rewrittenAt = System.nanoTime();
+            profile.addRewriteNanos(rewrittenAt - start);
+            profile.startExecution(rewrittenAt);
+            if (reader != null)
+                collectDocFreqs(reader);
+        }
+        return rtn;
+    }
+
+    private Query rewriteScored(IndexReader reader) throws IOException {
+        Query built = buildQuery(reader);
+        Query rtn = phrase(execute(built.rewrite(reader)));
+        BooleanClause[] sessionClauses = sessionClauses(built);
+        if (sessionClauses != null)
+            rtn = new FilteredQuery(rtn, completedFilter(sessionClauses), FilteredQuery.LEAP_FROG_FILTER_FIRST_STRATEGY);
+        return rtn;
+    }
+
+    /**
+     * Without scores, matches the documents of the equivalent across variants filter, that only iterates over doc ids,
+     * or of the query when there is no equivalent filter, without ever scoring them.
+     * In existence mode, only the first document of each segment is matched, when the search allows it.
+     * Within a session, only the last top level node gets matched, against the cached documents of the other ones.
+     */
+    private Query rewriteUnscored(IndexReader reader) throws IOException {
+        boolean firstOnly = existence && (existenceCheck == null || existenceCheck.onlyMatches(this));
+        Filter filter;
+        BooleanClause[] sessionClauses = session == null ? null : sessionClauses(buildQuery(reader));
+        if (sessionClauses != null) {
+            Query last = sessionClauses[sessionClauses.length - 1].getQuery();
+            filter = new QueryWrapperFilter(new FilteredQuery(last, completedFilter(sessionClauses), FilteredQuery.LEAP_FROG_FILTER_FIRST_STRATEGY));
+        } else if (queryProvider == TermQueryProvider.INSTANCE && minimumShouldMatch == null && cutoffFrequency < 0 && !typeAhead) {
+            List<String> fields = new ArrayList<String>(boostedFields.size() + filterFields.size());
+            fields.addAll(boostedFields.keySet());
+            fields.addAll(filterFields);
+            AcrossVariantsAndFilter andFilter = new AcrossVariantsAndFilter(fields, searchAnalyzer, text,
+                    AcrossVariantsAndFilter.TermFilterProvider.INSTANCE, limits, termTree);
+            andFilter.setGlues(glues);
+            andFilter.setBloomFilters(bloomFilters);
+            andFilter.setMemoryAccountant(memoryAccountant);
+            andFilter.setAdjacentParts(adjacentParts);
+            if (combinedField != null && filterFields.isEmpty()) {
+                Map<String, Integer> bits = new HashMap<String, Integer>();
+                int i = 0;
+                for (String field : boostedFields.keySet())
+                    bits.put(field, combinedBits[i++]);
+                andFilter.setCombinedField(combinedField, bits);
             }
-            source.end();
+            // The lazy scorer engine stops reading the postings at the first document
+            andFilter.setExecution(firstOnly && !AcrossVariantsPlan.ENGINE_REWRITE.equals(execution) ? AcrossVariantsPlan.ENGINE_SCORER : execution);
+            filter = andFilter;
+        } else {
+            filter = new QueryWrapperFilter(execute(buildQuery(reader).rewrite(reader)));
+        }
+        if (phrase && termTree.getChildren().size() > 1)
+            filter = new AcrossVariantsAdjacentFilter(filter, phraseAdjacency());
+        if (firstOnly)
+            filter = new AcrossVariantsExistenceFilter(filter);
+        Query rtn = new ConstantScoreQuery(filter);
+        rtn.setBoost(getBoost());
+        return rtn;
+    }
+
+    /**
+     * Within a session, the top level nodes but the last one, that the user has completed,
+     * only get matched once per session and segment, while the last one is still being typed.
+     * @return The clauses of the conjunction of the top level nodes, {@code null} if the session does not apply.
+     */
+    private BooleanClause[] sessionClauses(Query built) {
+        if (session == null || sessionCache == null || minimumShouldMatch != null || cutoffFrequency >= 0
+                || termTree.getChildren().size() < 2 || !(built instanceof BooleanQuery))
+            return null;
+        BooleanClause[] clauses = ((BooleanQuery) built).getClauses();
+        return clauses.length == termTree.getChildren().size() ? clauses : null;
+    }
+
+    /**
+     * The completed query identifies the completed top level nodes along with everything they were built from,
+     * fields, glues, query provider, degradation...
+     * @return The documents of the completed top level nodes, cached for the session.
+     */
+    private Filter completedFilter(BooleanClause[] sessionClauses) {
+        BooleanQuery completed = new BooleanQuery(true);
+        for (int i = 0; i < sessionClauses.length - 1; i++)
+            completed.add(sessionClauses[i].getQuery(), BooleanClause.Occur.MUST);
+        return sessionCache.filter(session, completed);
+    }
+
+    /**
+     * Picks how the rewritten query gets executed.
+     * Unless the rewrite engine is requested, a query compiling into a native tree gets executed by the scorer or the bitset engine,
+     * picked per segment, as the boolean rewrite costs the same plus its per level weights and scorers.
+     */
+    private Query execute(Query rewritten) {
+        if (!AcrossVariantsPlan.ENGINE_REWRITE.equals(execution) && AcrossVariantsNativeTree.isNative(rewritten))
+            return new AcrossVariantsNativeQuery((BooleanQuery) rewritten, execution, engineUsage,
+                    topK > 0 && (topKCheck == null || topKCheck.onlyTopHits(this, topK)) ? topK : 0);
+        engineUsage.used(AcrossVariantsPlan.ENGINE_REWRITE);
+        return rewritten;
+    }
+
+    /**
+     * In phrase mode, the executed query only approximates the documents holding the top level nodes in order,
+     * which their positions confirm.
+     */
+    private Query phrase(Query executed) {
+        if (!phrase || termTree.getChildren().size() < 2)
+            return executed;
+        return new AcrossVariantsAdjacentQuery(executed, phraseAdjacency());
+    }
 
-            Collections.sort(collectedTokens);
-            for (PositionedTerm term : collectedTokens)
-                root.add(term);
-        } finally {
-            source.close();
+    private AcrossVariantsAdjacency phraseAdjacency() {
+        return new AcrossVariantsAdjacency(termTree, adjacencyFields(), slop);
+    }
+
+    /**
+     * The source fields rather than the combined field, whose positions mix them.
+     */
+    private Collection<String> adjacencyFields() {
+        if (filterFields.isEmpty())
+            return boostedFields.keySet();
+        List<String> rtn = new ArrayList<String>(boostedFields.size() + filterFields.size());
+        rtn.addAll(boostedFields.keySet());
+        rtn.addAll(filterFields);
+        return rtn;
+    }
+
+    /**
+     * Builds the query the tree expands into, degraded if it exceeds the limits.
+     * With a cutoff frequency, the nodes above it only score the documents matched by their siblings.
+     * @param reader Used to find the writings with the lowest idf, may be {@code null}.
+     */
+    protected Query buildQuery(IndexReader reader) throws IOException {
+        TreeVisitor visitor = TREE_VISITOR;
+        Map<TermNode, List<String>> keptWritings = null;
+        boolean termsSets = false;
+        int maxWritings = limits.getMaxWritings();
+        int maxLeaves = limits.getMaxLeaves();
+        if (maxWritings >= 0 || maxLeaves >= 0) {
+            int writings = AcrossVariantsTree.countWritings(termTree);
+            if (maxWritings >= 0 && writings > maxWritings) {
+                keptWritings = dropLowIdfWritings(reader, writings - maxWritings);
+                writings -= degradation.getDroppedWritings();
+            }
+            int leavesPerWriting = combinedField != null ? 1 : boostedFields.size();
+            termsSets = maxLeaves >= 0 && (long) writings * leavesPerWriting > maxLeaves
+                    && queryProvider == TermQueryProvider.INSTANCE;
+            if (termsSets)
+                degradation.setTermsSets();
+        }
+        Set<TermNode> highFrequencyNodes = null;
+        if (cutoffFrequency >= 0 && reader != null) {
+            highFrequencyNodes = AcrossVariantsTree.highFrequencyNodes(termTree, reader, boostedFields.keySet(), cutoffFrequency);
+            if (highFrequencyNodes.isEmpty())
+                highFrequencyNodes = null;
         }
+        if (keptWritings != null || termsSets || highFrequencyNodes != null)
+            visitor = new TreeVisitor(keptWritings, termsSets, highFrequencyNodes);
+        Query rtn = termTree.visit(visitor);
+        rtn.setBoost(getBoost());
+        // The query gets built the same way by every rewrite, account for it once
+        if (memoryAccountant != null && !accounted) {
+            memoryAccountant.addEstimateBytes(AcrossVariantsRamUsage.sizeOf(rtn), "across_variants query");
+            accounted = true;
+        }
+        return rtn;
+    }
 
-        return root;
+    /**
+     * Drops the writings with the highest document frequency first, as they have the longest postings.
+     * A node without subspans always keeps at least one writing.
+     * @return The writings kept by each node that lost some.
+     */
+    private Map<TermNode, List<String>> dropLowIdfWritings(IndexReader reader, int count) throws IOException {
+        final Map<String, Integer> docFreqs = new HashMap<String, Integer>();
+        final List<Object[]> candidates = new ArrayList<Object[]>();
+        collectCandidates(termTree, reader, docFreqs, candidates);
+        // Stable sort, equally frequent writings are dropped from the last ones
+        Collections.reverse(candidates);
+        Collections.sort(candidates, new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] o1, Object[] o2) {
+                return docFreqs.get((String) o2[1]).compareTo(docFreqs.get((String) o1[1]));
+            }
+        });
+        Map<TermNode, List<String>> keptWritings = new IdentityHashMap<TermNode, List<String>>();
+        int dropped = 0;
+        for (Object[] candidate : candidates) {
+            if (dropped >= count)
+                break;
+            TermNode node = (TermNode) candidate[0];
+            List<String> kept = keptWritings.get(node);
+            if (kept == null) {
+                kept = node.writings();
+                keptWritings.put(node, kept);
+            }
+            if (kept.size() > 1 || !node.getChildren().isEmpty()) {
+                kept.remove(candidate[1]);
+                dropped++;
+            }
+        }
+        degradation.setDroppedWritings(dropped);
+        return keptWritings;
     }
 
-    @Override
-    public Query rewrite(IndexReader reader) throws IOException {
-        Query rtn = termTree.visit(TREE_VISITOR);
-        rtn.setBoost(boost);
-        return rtn.rewrite(reader);
+    private void collectCandidates(TermNode node, IndexReader reader, Map<String, Integer> docFreqs, List<Object[]> output) throws IOException {
+        for (String writing : node.writings()) {
+            if (!docFreqs.containsKey(writing)) {
+                int docFreq = 0;
+                if (reader != null) {
+                    for (String field : boostedFields.keySet())
+                        docFreq += reader.docFreq(new Term(field, writing));
+                }
+                docFreqs.put(writing, docFreq);
+            }
+            output.add(new Object[] { node, writing });
+        }
+        for (TermNode child : node.getChildren())
+            collectCandidates(child, reader, docFreqs, output);
     }
 
-    public void setBoost(float boost) {
-        this.boost = boost;
+    /**
+     * Describes how this query would run against the given reader, without executing it.
+     */
+    public AcrossVariantsPlan plan(IndexReader reader) throws IOException {
+        AcrossVariantsPlan plan = new AcrossVariantsPlan(termTree, boostedFields, reader);
+        Query executedQuery = buildQuery(reader).rewrite(reader);
+        plan.setExecutedQuery(executedQuery);
+        plan.setEngine(AcrossVariantsPlanner.choose(execution, plan.getShape(), true, AcrossVariantsNativeTree.isNative(executedQuery)));
+        plan.setDegradation(degradation);
+        return plan;
+    }
+
+    private void collectDocFreqs(IndexReader reader) throws IOException {
+        List<String> writings = AcrossVariantsTree.collectWritings(termTree);
+        for (String field : boostedFields.keySet()) {
+            for (String writing : writings) {
+                Term term = new Term(field, writing);
+                profile.addDocFreq(term, reader.docFreq(term));
+            }
+        }
     }
 
     public void setUseDisMax(boolean useDisMax) {
@@ -138,6 +402,201 @@ public class AcrossVariantsAndQuery extends Query {
         return tieBreaker;
     }
 
+    /**
+     * @param execution {@value AcrossVariantsPlanner#EXECUTION_AUTO} to let the {@link AcrossVariantsPlanner} pick the cheapest engine,
+     *                  or the engine to execute with, defaults to {@value AcrossVariantsPlan#ENGINE_REWRITE}.
+     */
+    public void setExecution(String execution) {
+        if (!AcrossVariantsPlanner.isExecution(execution))
+            throw new ElasticsearchIllegalArgumentException("Unknown execution [" + execution + "]");
+        this.execution = execution;
+    }
+
+    public String getExecution() {
+        return execution;
+    }
+
+    /**
+     * @return Which engines the query got executed with, updated by the rewrite and the execution.
+     */
+    public AcrossVariantsEngineUsage getEngineUsage() {
+        return engineUsage;
+    }
+
+    /**
+     * @param cutoffFrequency The document frequency, as a fraction of the documents if below 1, as a number of documents otherwise,
+     *                        above which a node whose every writing is leaves the conjunction of its siblings,
+     *                        only scoring the documents they match, negative to disable.
+     */
+    public void setCutoffFrequency(float cutoffFrequency) {
+        this.cutoffFrequency = cutoffFrequency;
+    }
+
+    public float getCutoffFrequency() {
+        return cutoffFrequency;
+    }
+
+    /**
+     * @param minimumShouldMatch How many of the top level nodes must match, eg. "75%" or "3<-1", {@code null} for all of them.
+     *                           The executed disjunction skips the documents with too few matching nodes.
+     */
+    public void setMinimumShouldMatch(String minimumShouldMatch) {
+        this.minimumShouldMatch = minimumShouldMatch;
+    }
+
+    public String getMinimumShouldMatch() {
+        return minimumShouldMatch;
+    }
+
+    /**
+     * @param topK The number of top hits by score the searches collect, so that the scorer engine skips the documents
+     *             that cannot enter them, 0 to score every matching document.
+     *             The total number of hits then becomes a lower bound, and other collectors miss the skipped documents.
+     */
+    public void setTopK(int topK) {
+        if (topK < 0)
+            throw new ElasticsearchIllegalArgumentException("top_k must not be negative, got [" + topK + "]");
+        this.topK = topK;
+    }
+
+    public int getTopK() {
+        return topK;
+    }
+
+    /**
+     * @param topKCheck Tells whether the search only collects the top hits by score, the top k being ignored otherwise,
+     *                  {@code null} to always skip the documents that cannot enter them.
+     */
+    public void setTopKCheck(TopKCheck topKCheck) {
+        this.topKCheck = topKCheck;
+    }
+
+    /**
+     * @param existenceCheck Tells whether the search only collects the matches of the query, the existence mode only skipping documents then,
+     *                       {@code null} to always skip the documents past the first one of each segment.
+     */
+    public void setExistenceCheck(ExistenceCheck existenceCheck) {
+        this.existenceCheck = existenceCheck;
+    }
+
+    /**
+     * @param filterFields Fields the writings may match in without contributing to the score,
+     *                     as a constant score filter merged into the alternatives of each node.
+     */
+    public void setFilterFields(Collection<String> filterFields) {
+        setFilterFields(filterFields, AcrossVariantsAndFilter.TermFilterProvider.INSTANCE);
+    }
+
+    /**
+     * @param filterFieldsProvider Provides the filter of each writing on the filter fields, eg. a cached one.
+     */
+    public void setFilterFields(Collection<String> filterFields, AcrossVariantsAndFilter.FilterProvider filterFieldsProvider) {
+        this.filterFields = filterFields;
+        this.filterFieldsProvider = filterFieldsProvider;
+    }
+
+    public Collection<String> getFilterFields() {
+        return filterFields;
+    }
+
+    /**
+     * @param scoring Whether the matching documents need a score, otherwise they get matched by doc ids only,
+     *                with a constant score.
+     */
+    public void setScoring(boolean scoring) {
+        this.scoring = scoring;
+    }
+
+    public boolean getScoring() {
+        return scoring;
+    }
+
+    /**
+     * @param existence Whether to only tell if some document matches,
+     *                  stopping each segment at its first matching document, without scoring it.
+     */
+    public void setExistence(boolean existence) {
+        this.existence = existence;
+    }
+
+    public boolean getExistence() {
+        return existence;
+    }
+
+    /**
+     * @param adjacentParts Whether the parts of a compound node must appear adjacently, in order and within the same field,
+     *                      which the positions confirm for the documents matching all of them only.
+     */
+    public void setAdjacentParts(boolean adjacentParts) {
+        this.adjacentParts = adjacentParts;
+    }
+
+    public boolean getAdjacentParts() {
+        return adjacentParts;
+    }
+
+    /**
+     * @param phrase Whether the top level nodes must appear in order within the same field, each through any of its writings
+     *               or its parts adjacently, which the positions confirm for the documents matching all of them only.
+     */
+    public void setPhrase(boolean phrase) {
+        this.phrase = phrase;
+    }
+
+    public boolean getPhrase() {
+        return phrase;
+    }
+
+    /**
+     * @param slop The number of positions the top level nodes of a phrase may be apart from each other, in total.
+     */
+    public void setSlop(int slop) {
+        if (slop < 0)
+            throw new ElasticsearchIllegalArgumentException("slop must not be negative, got [" + slop + "]");
+        this.slop = slop;
+    }
+
+    public int getSlop() {
+        return slop;
+    }
+
+    /**
+     * @param typeAhead Whether the last top level node is still being typed, so that its writings match as prefixes,
+     *                  out of a single automaton per field, every other node matching exactly.
+     *                  Not supported along with the phrase mode.
+     */
+    public void setTypeAhead(boolean typeAhead) {
+        this.typeAhead = typeAhead;
+    }
+
+    public boolean getTypeAhead() {
+        return typeAhead;
+    }
+
+    /**
+     * @param prefixCache Keeps the documents of the short prefixes of the type ahead mode per segment, may be {@code null}.
+     */
+    public void setPrefixCache(AcrossVariantsPrefixCache prefixCache) {
+        this.prefixCache = prefixCache;
+    }
+
+    public AcrossVariantsPrefixCache getPrefixCache() {
+        return prefixCache;
+    }
+
+    /**
+     * @param session The id of the client session the query is part of, eg. the keystrokes of a user, {@code null} for none.
+     * @param sessionCache Keeps the documents of the completed top level nodes of each session, may be {@code null}.
+     */
+    public void setSession(String session, AcrossVariantsSessionCache sessionCache) {
+        this.session = session;
+        this.sessionCache = sessionCache;
+    }
+
+    public String getSession() {
+        return session;
+    }
+
     public Set<String> getFields() {
         return boostedFields.keySet();
     }
@@ -146,6 +605,93 @@ public class AcrossVariantsAndQuery extends Query {
         return boostedFields;
     }
 
+    public void setProfile(AcrossVariantsProfile profile) {
+        this.profile = profile;
+    }
+
+    public AcrossVariantsProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * @param memoryAccountant Charged with the estimated size of the built query.
+     */
+    public void setMemoryAccountant(AcrossVariantsMemoryAccountant memoryAccountant) {
+        this.memoryAccountant = memoryAccountant;
+    }
+
+    public AcrossVariantsMemoryAccountant getMemoryAccountant() {
+        return memoryAccountant;
+    }
+
+    /**
+     * @param glues The glue of the fields indexing the glued forms of adjacent tokens.
+     *              A node their glue covers in every field is matched with its writings alone, not with its subspans.
+     */
+    public void setGlues(Map<String, AcrossVariantsGlue> glues) {
+        this.glues = glues;
+    }
+
+    public Map<String, AcrossVariantsGlue> getGlues() {
+        return glues;
+    }
+
+    /**
+     * @param bloomFilters The per segment Bloom filters the term leaves skip the segments without their term with,
+     *                     {@code null} to seek every segment. Only used with the default query provider.
+     */
+    public void setBloomFilters(AcrossVariantsBloomFilters bloomFilters) {
+        this.bloomFilters = bloomFilters;
+    }
+
+    public AcrossVariantsBloomFilters getBloomFilters() {
+        return bloomFilters;
+    }
+
+    /**
+     * @param combinedField A field combining every queried field, whose positions carry the bitmask of the fields holding the term,
+     *                      so that each writing is matched out of a single postings list, {@code null} for none.
+     * @param bits The bit of each queried field in the combined field.
+     */
+    public void setCombinedField(String combinedField, Map<String, Integer> bits) {
+        this.combinedField = combinedField;
+        if (combinedField == null) {
+            combinedBits = null;
+            combinedBoosts = null;
+            return;
+        }
+        combinedBits = new int[boostedFields.size()];
+        combinedBoosts = new float[boostedFields.size()];
+        int i = 0;
+        for (Map.Entry<String, Float> boostedField : boostedFields.entrySet()) {
+            Integer bit = bits.get(boostedField.getKey());
+            if (bit == null)
+                throw new ElasticsearchIllegalArgumentException("[" + boostedField.getKey() + "] is not part of the combined field [" + combinedField + "]");
+            combinedBits[i] = bit;
+            combinedBoosts[i] = boostedField.getValue();
+            i++;
+        }
+    }
+
+    public String getCombinedField() {
+        return combinedField;
+    }
+
+    public TermNode getTermTree() {
+        return termTree;
+    }
+
+    public AcrossVariantsLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * @return How the query got degraded to stay within its limits, updated by the rewrite.
+     */
+    public AcrossVariantsDegradation getDegradation() {
+        return degradation;
+    }
+
     public Analyzer getSearchAnalyzer() {
         return searchAnalyzer;
     }
@@ -171,13 +717,54 @@ public class AcrossVariantsAndQuery extends Query {
         sb.append("]:\"");
         sb.append(text);
         sb.append("\"");
-        if (boost != 1.0f) {
+        if (getBoost() != 1.0f) {
             sb.append('^');
-            sb.append(boost);
+            sb.append(getBoost());
         }
         return sb.toString();
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!super.equals(o)) return false;
+        AcrossVariantsAndQuery that = (AcrossVariantsAndQuery) o;
+        return useDisMax == that.useDisMax
+                && Float.floatToIntBits(tieBreaker) == Float.floatToIntBits(that.tieBreaker)
+                && Float.floatToIntBits(cutoffFrequency) == Float.floatToIntBits(that.cutoffFrequency)
+                && (minimumShouldMatch == null ? that.minimumShouldMatch == null : minimumShouldMatch.equals(that.minimumShouldMatch))
+                && boostedFields.equals(that.boostedFields)
+                && searchAnalyzer == that.searchAnalyzer
+                && text.equals(that.text)
+                && queryProvider == that.queryProvider
+                && limits.equals(that.limits)
+                && (glues == null ? that.glues == null : glues.equals(that.glues))
+                && (combinedField == null ? that.combinedField == null : combinedField.equals(that.combinedField))
+                && Arrays.equals(combinedBits, that.combinedBits)
+                && topK == that.topK
+                && filterFields.equals(that.filterFields)
+                && scoring == that.scoring
+                && existence == that.existence
+                && adjacentParts == that.adjacentParts
+                && phrase == that.phrase
+                && slop == that.slop
+                && typeAhead == that.typeAhead
+                && prefixCache == that.prefixCache
+                && (session == null ? that.session == null : session.equals(that.session))
+                && filterFieldsProvider == that.filterFieldsProvider
+                && execution.equals(that.execution);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        result = 31 * result + boostedFields.hashCode();
+        result = 31 * result + text.hashCode();
+        result = 31 * result + (useDisMax ? 1 : 0);
+        result = 31 * result + Float.floatToIntBits(tieBreaker);
+        return result;
+    }
+
     public static class TermQueryProvider implements QueryProvider {
 
         public static final TermQueryProvider INSTANCE = new TermQueryProvider();
@@ -189,170 +776,75 @@ public class AcrossVariantsAndQuery extends Query {
 
     }
 
-    protected static class PositionedTerm implements Comparable<PositionedTerm> {
+    protected class TreeVisitor implements TermNode.Visitor<Query> {
 
-        public final String term;
-        public final int startOffset;
-        public final int endOffset;
-        public final int position;
+        private final Map<TermNode, List<String>> keptWritings;
+        private final boolean termsSets;
+        private final Set<TermNode> highFrequencyNodes;
 
-        public PositionedTerm(String term, int startOffset, int endOffset, int position) {
-            this.term = term;
-            this.startOffset = startOffset;
-            this.endOffset = endOffset;
-            this.position = position;
+        public TreeVisitor() {
+            this(null, false, null);
         }
 
-        @Override
-        public String toString() {
-            if (term == null)
-                return "null";
-            StringBuilder sb = new StringBuilder();
-            sb.append('"');
-            sb.append(term);
-            sb.append("\":[");
-            sb.append(position);
-            sb.append(',');
-            sb.append(startOffset);
-            sb.append(':');
-            sb.append(endOffset);
-            sb.append(']');
-            return sb.toString();
+        /**
+         * @param keptWritings The writings to use for the given nodes, instead of all of their writings.
+         * @param termsSets Whether to match a set of terms per field, instead of a query per writing.
+         * @param highFrequencyNodes The nodes to only score the documents their siblings match with, may be {@code null}.
+         */
+        public TreeVisitor(Map<TermNode, List<String>> keptWritings, boolean termsSets, Set<TermNode> highFrequencyNodes) {
+            this.keptWritings = keptWritings;
+            this.termsSets = termsSets;
+            this.highFrequencyNodes = highFrequencyNodes;
         }
 
-        @Override
-        public int compareTo(PositionedTerm o) {
-            if (o == null)
-                return 1;
-            int diff = this.position - o.position;
-            if (diff == 0)
-                diff = this.startOffset - o.startOffset;
-            if (diff == 0)
-                diff = o.endOffset - this.endOffset;
-            return diff;
-        }
-
-        public boolean contains(PositionedTerm o) {
-            return this.position == o.position
-                    && this.startOffset <= o.startOffset
-                    && this.endOffset >= o.endOffset;
-        }
-
-    }
-
-    protected static class TermNode implements Comparable<Object> {
-
-        protected final PositionedTerm term;
-        protected List<String> alternateWritings;
-        protected List<TermNode> children;
-
-        public TermNode(PositionedTerm term) {
-            this.term = term;
-            this.alternateWritings = null;
-            this.children = null;
+        public Query buildAndQuery(List<Query> queries) {
+            if (queries.size() == 1) return queries.get(0);
+            BooleanQuery rtn = new BooleanQuery(true);
+            for (Query query : queries)
+                rtn.add(query, BooleanClause.Occur.MUST);
+            return rtn;
         }
 
-        public TermNode add(PositionedTerm term) {
-            if (children == null) {
-                TermNode newNode = new TermNode(term);
-                addChild(newNode);
-                return newNode;
-            } else {
-                int index = Collections.binarySearch(children, term);
-                if (index >= 0) {
-                    // Exact match (but for the term text)
-                    // The two terms nest inside each other
-                    // Add the new term as an alternate writing
-                    TermNode node = children.get(index);
-                    if (node.alternateWritings == null)
-                        node.alternateWritings = new ArrayList<String>();
-                    node.alternateWritings.add(term.term);
-                    return node;
-                } else {
-                    index = -index - 1;
-                    if (index > 0) {
-                        // New term may be nestable in the previous element,
-                        // or it can be the other way around
-                        TermNode prev = children.get(index - 1);
-                        if (prev.term.contains(term)) {
-                            return prev.add(term);
-                        }
-                    }
-                    TermNode newNode = new TermNode(term);
-                    children.add(index, newNode);
-                    return newNode;
+        /**
+         * The high frequency children of the node are optional, as long as some other child is required.
+         * The minimum should match of the root relaxes its required children into a disjunction.
+         */
+        private Query buildChildrenQuery(TermNode node, List<Query> childrenOutput) {
+            List<TermNode> children = node.getChildren();
+            int optional = 0;
+            if (highFrequencyNodes != null) {
+                for (TermNode child : children) {
+                    if (highFrequencyNodes.contains(child))
+                        optional++;
                 }
+                if (optional == children.size())
+                    optional = 0;
             }
-        }
-
-        public void addChild(TermNode child) {
-            if (children == null)
-                children = new ArrayList<TermNode>();
-            children.add(child);
-        }
-
-        @Override
-        public String toString() {
-            StringBuilder sb = new StringBuilder();
-            sb.append('<');
-            if (alternateWritings != null) {
-                for (String alternateWriting : alternateWritings) {
-                    sb.append('"');
-                    sb.append(alternateWriting);
-                    sb.append("\"|");
-                }
+            int required = children.size() - optional;
+            int minimumRequired = required;
+            if (node.term == null && minimumShouldMatch != null)
+                minimumRequired = Math.max(1, Queries.calculateMinShouldMatch(required, minimumShouldMatch));
+            if (optional == 0 && minimumRequired == required)
+                return buildAndQuery(childrenOutput);
+            BooleanQuery rtn = new BooleanQuery(true);
+            BooleanQuery relaxed = null;
+            if (minimumRequired < required) {
+                relaxed = new BooleanQuery(true);
+                if (minimumRequired > 1)
+                    relaxed.setMinimumNumberShouldMatch(minimumRequired);
+                if (optional == 0)
+                    rtn = relaxed;
+                else
+                    rtn.add(relaxed, BooleanClause.Occur.MUST);
             }
-            sb.append(term);
-            sb.append('>');
-            if (children == null)
-                sb.append("[]");
-            else
-                sb.append(children);
-            return sb.toString();
-        }
-
-        @Override
-        public int compareTo(Object o) {
-            if (o instanceof TermNode)
-                return compareTo((TermNode)o);
-            if (o instanceof PositionedTerm)
-                return compareTo((PositionedTerm)o);
-            throw new IllegalArgumentException("Can only compare to TermNode or PositionedTerm");
-        }
-
-        public int compareTo(TermNode o) {
-            return this.compareTo(o.term);
-        }
-
-        public int compareTo(PositionedTerm o) {
-            if (this.term == null)
-                return 1;
-            return this.term.compareTo(o);
-        }
-
-        public <T> T visit(Visitor<T> visitor) {
-            List<T> childrenOutput = null;
-            if (children != null && !children.isEmpty()) {
-                childrenOutput = new ArrayList<T>(children.size());
-                for (TermNode child : children)
-                    childrenOutput.add(child.visit(visitor));
+            for (int i = 0; i < children.size(); i++) {
+                if (optional > 0 && highFrequencyNodes.contains(children.get(i)))
+                    rtn.add(childrenOutput.get(i), BooleanClause.Occur.SHOULD);
+                else if (relaxed != null)
+                    relaxed.add(childrenOutput.get(i), BooleanClause.Occur.SHOULD);
+                else
+                    rtn.add(childrenOutput.get(i), BooleanClause.Occur.MUST);
             }
-            return visitor.visit(this, childrenOutput);
-        }
-
-        protected static interface Visitor<T> {
-            public T visit(TermNode node, List<T> childrenOutput);
-        }
-
-    }
-
-    protected class TreeVisitor implements TermNode.Visitor<Query> {
-
-        public Query buildAndQuery(List<Query> queries) {
-            if (queries.size() == 1) return queries.get(0);
-            BooleanQuery rtn = new BooleanQuery(true);
-            for (Query query : queries)
-                rtn.add(query, BooleanClause.Occur.MUST);
             return rtn;
         }
 
@@ -368,11 +860,76 @@ public class AcrossVariantsAndQuery extends Query {
             }
         }
 
+        private Query queryCombined(String writing) {
+            return new AcrossVariantsCombinedQuery(new Term(combinedField, writing), combinedBits, combinedBoosts);
+        }
+
+        /**
+         * Matches the writings on any filter field, scoring nothing and reading no norms.
+         */
+        private Query queryFilterFields(List<String> writings) {
+            Filter filter;
+            if (filterFields.size() == 1 && writings.size() == 1) {
+                filter = filterFieldsProvider.filterTerm(filterFields.iterator().next(), writings.get(0));
+            } else {
+                XBooleanFilter disjunction = new XBooleanFilter();
+                for (String field : filterFields) {
+                    for (String writing : writings)
+                        disjunction.add(filterFieldsProvider.filterTerm(field, writing), BooleanClause.Occur.SHOULD);
+                }
+                filter = disjunction;
+            }
+            Query query = new ConstantScoreQuery(filter);
+            query.setBoost(0);
+            return query;
+        }
+
+        /**
+         * Matches the writings as prefixes, on every field, with a constant score per field.
+         */
+        private List<Query> queryPrefixes(List<String> writings) {
+            List<Query> rtn = new ArrayList<Query>(boostedFields.size() + 1);
+            for (Map.Entry<String, Float> boostedField : boostedFields.entrySet()) {
+                Query query = new ConstantScoreQuery(new AcrossVariantsPrefixFilter(boostedField.getKey(), writings, prefixCache));
+                query.setBoost(boostedField.getValue());
+                rtn.add(query);
+            }
+            if (!filterFields.isEmpty()) {
+                Filter filter;
+                if (filterFields.size() == 1) {
+                    filter = new AcrossVariantsPrefixFilter(filterFields.iterator().next(), writings, prefixCache);
+                } else {
+                    XBooleanFilter disjunction = new XBooleanFilter();
+                    for (String field : filterFields)
+                        disjunction.add(new AcrossVariantsPrefixFilter(field, writings, prefixCache), BooleanClause.Occur.SHOULD);
+                    filter = disjunction;
+                }
+                Query query = new ConstantScoreQuery(filter);
+                query.setBoost(0);
+                rtn.add(query);
+            }
+            return rtn;
+        }
+
+        private boolean isTypedNode(TermNode node) {
+            if (!typeAhead)
+                return false;
+            List<TermNode> nodes = termTree.getChildren();
+            return nodes.get(nodes.size() - 1) == node;
+        }
+
+        private Query queryTerm(String field, String writing, float boost) {
+            Query query = bloomFilters != null && queryProvider == TermQueryProvider.INSTANCE
+                    ? bloomFilters.termQuery(new Term(field, writing)) : queryProvider.queryTerm(field, writing);
+            query.setBoost(boost);
+            return query;
+        }
+
         @Override
         public Query visit(TermNode node, List<Query> childrenOutput) {
             Query childrenQuery = null;
             if (childrenOutput != null && !childrenOutput.isEmpty()) {
-                childrenQuery = buildAndQuery(childrenOutput);
+                childrenQuery = buildChildrenQuery(node, childrenOutput);
             }
 
             if (node.term == null) {
@@ -384,25 +941,58 @@ public class AcrossVariantsAndQuery extends Query {
 
             } else {
 
-                List<Query> nodeQueries = new LinkedList<Query>();
-
-                for (Map.Entry<String, Float> boostedField : boostedFields.entrySet()) {
-                    String field = boostedField.getKey();
-                    float boost = boostedField.getValue();
-                    Query query = queryProvider.queryTerm(field, node.term.term);
-                    query.setBoost(boost);
-                    nodeQueries.add(query);
-                    if (node.alternateWritings != null) {
-                        for (String alternateWriting : node.alternateWritings) {
-                            query = queryProvider.queryTerm(field, alternateWriting);
+                List<String> writings = keptWritings == null ? null : keptWritings.get(node);
+                int writingsCount = writings != null ? writings.size()
+                        : 1 + (node.alternateWritings == null ? 0 : node.alternateWritings.size());
+                List<Query> nodeQueries = new ArrayList<Query>(boostedFields.size() * writingsCount + 1);
+
+                if (isTypedNode(node)) {
+                    nodeQueries.addAll(queryPrefixes(writings != null ? writings : node.writings()));
+                } else if (combinedField != null && !termsSets) {
+                    if (writings != null) {
+                        for (String writing : writings)
+                            nodeQueries.add(queryCombined(writing));
+                    } else {
+                        nodeQueries.add(queryCombined(node.term.term));
+                        if (node.alternateWritings != null) {
+                            for (String alternateWriting : node.alternateWritings)
+                                nodeQueries.add(queryCombined(alternateWriting));
+                        }
+                    }
+                } else {
+                    for (Map.Entry<String, Float> boostedField : boostedFields.entrySet()) {
+                        String field = boostedField.getKey();
+                        float boost = boostedField.getValue();
+                        if (termsSets && writingsCount > 1) {
+                            if (writings == null)
+                                writings = node.writings();
+                            BytesRef[] terms = new BytesRef[writingsCount];
+                            for (int i = 0; i < terms.length; i++)
+                                terms[i] = new BytesRef(writings.get(i));
+                            Query query = new ConstantScoreQuery(new AcrossVariantsTermsFilter(field, terms));
                             query.setBoost(boost);
                             nodeQueries.add(query);
+                        } else if (writings != null) {
+                            for (String writing : writings)
+                                nodeQueries.add(queryTerm(field, writing, boost));
+                        } else {
+                            nodeQueries.add(queryTerm(field, node.term.term, boost));
+                            if (node.alternateWritings != null) {
+                                for (String alternateWriting : node.alternateWritings)
+                                    nodeQueries.add(queryTerm(field, alternateWriting, boost));
+                            }
                         }
                     }
                 }
 
-                if (childrenQuery != null)
+                if (!filterFields.isEmpty() && !isTypedNode(node))
+                    nodeQueries.add(queryFilterFields(writings != null ? writings : node.writings()));
+
+                if (childrenQuery != null && !AcrossVariantsGlue.coversAll(glues, boostedFields.keySet(), node)) {
+                    if (adjacentParts && childrenOutput.size() > 1)
+                        childrenQuery = new AcrossVariantsAdjacentQuery(childrenQuery, new AcrossVariantsAdjacency(node, adjacencyFields()));
                     nodeQueries.add(childrenQuery);
+                }
 
                 return buildOrQuery(nodeQueries);
 
@@ -0,0 +1,254 @@
+package org.apache.lucene.search;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.queries.TermFilter;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.util.BloomFilter;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Keeps a Bloom filter of the terms of each field of each segment, built on first use and dropped when the segment core closes,
+ * so that the term leaves of the across variants queries and filters skip the segments where their term is definitely absent,
+ * without seeking the terms dictionary.
+ * Glued and alternate writings are usually missing from most fields, and a negative seek costs about as much as a positive one.
+ * Given an executor, the Bloom filters get built on it, the segments getting seeked as usual meanwhile, rather than on the first searches.
+ * Once the memory budget is used, new segments get seeked as usual.
+ */
+public class AcrossVariantsBloomFilters {
+
+    /**
+     * A segment whose field has more terms gets no Bloom filter, its terms dictionary gets seeked as usual.
+     */
+    private final int maxTerms;
+    private final double fpp;
+    private final Executor executor;
+
+    private final AcrossVariantsSegmentCache<String, Entry> cache;
+
+    /**
+     * The segment core and field pairs whose Bloom filter is being built on the executor.
+     */
+    private final Set<List<Object>> building = ConcurrentCollections.newConcurrentSet();
+
+    /**
+     * @param maxTerms The maximum number of terms of a field in a segment to build a Bloom filter for.
+     * @param fpp The expected false positive probability.
+     */
+    public AcrossVariantsBloomFilters(int maxTerms, double fpp) {
+        this(maxTerms, fpp, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * @param maxSizeInBytes The maximum memory held by the Bloom filters.
+     * @param executor The executor to build the Bloom filters on, {@code null} to build them on first use.
+     */
+    public AcrossVariantsBloomFilters(int maxTerms, double fpp, long maxSizeInBytes, Executor executor) {
+        this.maxTerms = maxTerms;
+        this.fpp = fpp;
+        this.executor = executor;
+        this.cache = new AcrossVariantsSegmentCache<String, Entry>(maxSizeInBytes) {
+            @Override
+            protected long sizeInBytes(Entry entry) {
+                return entry.sizeInBytes();
+            }
+        };
+    }
+
+    /**
+     * @return Whether the segment may hold the term, {@code false} only if it definitely does not.
+     */
+    public boolean mightContain(AtomicReader reader, Term term) throws IOException {
+        Entry entry = entry(reader, term.field());
+        return entry.bloomFilter == null ? entry.hasTerms : entry.bloomFilter.mightContain(term.bytes());
+    }
+
+    private Entry entry(AtomicReader reader, String field) throws IOException {
+        Entry entry = cache.get(reader, field);
+        if (entry != null)
+            return entry;
+        if (executor == null)
+            return build(reader, field);
+        buildLater(reader, field);
+        return Entry.UNFILTERED;
+    }
+
+    private Entry build(AtomicReader reader, String field) throws IOException {
+        // A Bloom filter over the budget is not built again, its segment gets seeked as usual
+        return cache.put(reader, field, build(reader.terms(field)), Entry.UNFILTERED);
+    }
+
+    /**
+     * Builds the Bloom filter of the field of the segment on the executor, once at a time, holding the segment open meanwhile.
+     */
+    private void buildLater(final AtomicReader reader, final String field) {
+        final List<Object> key = Arrays.<Object>asList(reader.getCoreCacheKey(), field);
+        if (!building.add(key))
+            return;
+        if (!reader.tryIncRef()) {
+            building.remove(key);
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (cache.get(reader, field) == null)
+                            build(reader, field);
+                    } catch (IOException e) {
+                        // Built again on the next use
+                    } finally {
+                        release(reader, key);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            release(reader, key);
+        }
+    }
+
+    private void release(AtomicReader reader, List<Object> key) {
+        building.remove(key);
+        try {
+            reader.decRef();
+        } catch (IOException e) {
+            // Closing the segment failed, as it would have for its last search
+        }
+    }
+
+    private Entry build(Terms terms) throws IOException {
+        if (terms == null)
+            return Entry.NO_TERMS;
+        long size = terms.size();
+        if (size > maxTerms || size == -1)
+            return Entry.UNFILTERED;
+        BloomFilter bloomFilter = BloomFilter.create((int) Math.max(size, 1), fpp);
+        TermsEnum termsEnum = terms.iterator(null);
+        for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next())
+            bloomFilter.put(term);
+        return new Entry(bloomFilter, true);
+    }
+
+    /**
+     * @return The number of cached segments.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return The memory held by the cached Bloom filters.
+     */
+    public long sizeInBytes() {
+        return cache.sizeInBytes();
+    }
+
+    /**
+     * @return A term query skipping the segments where the term is definitely absent.
+     */
+    public Query termQuery(Term term) {
+        return new BloomTermQuery(term);
+    }
+
+    /**
+     * @return A term filter skipping the segments where the term is definitely absent.
+     */
+    public Filter termFilter(Term term) {
+        return new BloomTermFilter(term);
+    }
+
+    private static class Entry {
+
+        static final Entry NO_TERMS = new Entry(null, false);
+        static final Entry UNFILTERED = new Entry(null, true);
+
+        final BloomFilter bloomFilter;
+        final boolean hasTerms;
+
+        Entry(BloomFilter bloomFilter, boolean hasTerms) {
+            this.bloomFilter = bloomFilter;
+            this.hasTerms = hasTerms;
+        }
+
+        long sizeInBytes() {
+            return bloomFilter == null ? 0 : bloomFilter.getSizeInBytes();
+        }
+
+    }
+
+    /**
+     * Only seeks the segments which may hold the term, when building its per segment states.
+     */
+    private class BloomTermQuery extends TermQuery {
+
+        BloomTermQuery(Term term) {
+            super(term);
+        }
+
+        @Override
+        public Weight createWeight(IndexSearcher searcher) throws IOException {
+            IndexReaderContext context = searcher.getTopReaderContext();
+            Term term = getTerm();
+            TermContext termContext = new TermContext(context);
+            for (AtomicReaderContext leaf : context.leaves()) {
+                if (!mightContain(leaf.reader(), term))
+                    continue;
+                Terms terms = leaf.reader().terms(term.field());
+                TermsEnum termsEnum = terms.iterator(null);
+                if (termsEnum.seekExact(term.bytes()))
+                    termContext.register(termsEnum.termState(), leaf.ord, termsEnum.docFreq(), termsEnum.totalTermFreq());
+            }
+            TermQuery query = new TermQuery(term, termContext);
+            query.setBoost(getBoost());
+            return query.createWeight(searcher);
+        }
+
+    }
+
+    private class BloomTermFilter extends Filter {
+
+        private final TermFilter filter;
+
+        BloomTermFilter(Term term) {
+            this.filter = new TermFilter(term);
+        }
+
+        @Override
+        public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+            if (!mightContain(context.reader(), filter.getTerm()))
+                return null;
+            return filter.getDocIdSet(context, acceptDocs);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof BloomTermFilter && filter.equals(((BloomTermFilter) o).filter));
+        }
+
+        @Override
+        public int hashCode() {
+            return filter.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return filter.toString();
+        }
+
+    }
+
+}
@@ -0,0 +1,274 @@
+package org.apache.lucene.search;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.similarities.DefaultSimilarity;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteArrayDataOutput;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.ToStringUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Matches a term in any of some source fields, out of the single postings list of a combined field
+ * whose positions carry the bitmask of the source fields holding the term there.
+ * <p>
+ * Scores like a {@link TermQuery} on the combined field, without length norms,
+ * the term frequency being the sum, over the matched source fields, of their boost times the square root of their frequency.
+ */
+public class AcrossVariantsCombinedQuery extends Query {
+
+    private static final DefaultSimilarity SIMILARITY = new DefaultSimilarity();
+
+    private final Term term;
+    private final int[] bits;
+    private final float[] boosts;
+    private final int mask;
+
+    /**
+     * @param term The term in the combined field.
+     * @param bits The bits of the source fields to match.
+     * @param boosts The boost of each source field.
+     */
+    public AcrossVariantsCombinedQuery(Term term, int[] bits, float[] boosts) {
+        if (bits.length != boosts.length)
+            throw new IllegalArgumentException("As many boosts as bits are expected");
+        this.term = term;
+        this.bits = bits;
+        this.boosts = boosts;
+        int mask = 0;
+        for (int bit : bits)
+            mask |= 1 << bit;
+        this.mask = mask;
+    }
+
+    /**
+     * @return The payload of a position of the combined field.
+     */
+    public static BytesRef encodeMask(int mask) {
+        byte[] bytes = new byte[5];
+        ByteArrayDataOutput output = new ByteArrayDataOutput(bytes);
+        try {
+            output.writeVInt(mask);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return new BytesRef(bytes, 0, output.getPosition());
+    }
+
+    public static int decodeMask(BytesRef payload, ByteArrayDataInput input) {
+        if (payload == null || payload.length == 0)
+            return 0;
+        input.reset(payload.bytes, payload.offset, payload.length);
+        return input.readVInt();
+    }
+
+    public Term getTerm() {
+        return term;
+    }
+
+    public int getMask() {
+        return mask;
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher) throws IOException {
+        return new CombinedWeight(searcher);
+    }
+
+    @Override
+    public void extractTerms(Set<Term> terms) {
+        terms.add(term);
+    }
+
+    @Override
+    public String toString(String field) {
+        StringBuilder sb = new StringBuilder();
+        if (!term.field().equals(field)) {
+            sb.append(term.field());
+            sb.append(':');
+        }
+        sb.append(term.text());
+        sb.append('{');
+        for (int i = 0; i < bits.length; i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append(bits[i]);
+            if (boosts[i] != 1.0f) {
+                sb.append('^');
+                sb.append(boosts[i]);
+            }
+        }
+        sb.append('}');
+        sb.append(ToStringUtils.boost(getBoost()));
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!super.equals(o)) return false;
+        AcrossVariantsCombinedQuery that = (AcrossVariantsCombinedQuery) o;
+        return term.equals(that.term)
+                && Arrays.equals(bits, that.bits)
+                && Arrays.equals(boosts, that.boosts);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        result = 31 * result + term.hashCode();
+        result = 31 * result + Arrays.hashCode(bits);
+        result = 31 * result + Arrays.hashCode(boosts);
+        return result;
+    }
+
+    private class CombinedWeight extends Weight {
+
+        private final float idf;
+        private float queryWeight;
+        private float value;
+
+        CombinedWeight(IndexSearcher searcher) throws IOException {
+            IndexReader reader = searcher.getIndexReader();
+            this.idf = SIMILARITY.idf(reader.docFreq(term), reader.maxDoc());
+        }
+
+        @Override
+        public Query getQuery() {
+            return AcrossVariantsCombinedQuery.this;
+        }
+
+        @Override
+        public float getValueForNormalization() {
+            queryWeight = idf * getBoost();
+            return queryWeight * queryWeight;
+        }
+
+        @Override
+        public void normalize(float norm, float topLevelBoost) {
+            queryWeight = idf * getBoost() * norm * topLevelBoost;
+            value = queryWeight * idf;
+        }
+
+        @Override
+        public Scorer scorer(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+            Terms terms = context.reader().terms(term.field());
+            if (terms == null)
+                return null;
+            TermsEnum termsEnum = terms.iterator(null);
+            if (!termsEnum.seekExact(term.bytes()))
+                return null;
+            DocsAndPositionsEnum postings = termsEnum.docsAndPositions(acceptDocs, null, DocsAndPositionsEnum.FLAG_PAYLOADS);
+            if (postings == null)
+                throw new IllegalStateException("field \"" + term.field() + "\" was indexed without position data");
+            return new CombinedScorer(this, postings, value);
+        }
+
+        @Override
+        public Explanation explain(AtomicReaderContext context, int doc) throws IOException {
+            Scorer scorer = scorer(context, context.reader().getLiveDocs());
+            if (scorer != null && scorer.advance(doc) == doc) {
+                ComplexExplanation rtn = new ComplexExplanation(true, scorer.score(), "weight(" + getQuery() + " in " + doc + "), product of:");
+                rtn.addDetail(new Explanation(value, "value, idf^2 times boost and queryNorm, with idf(docFreq) " + idf));
+                rtn.addDetail(new Explanation(scorer.score() / value, "sum of the boosted sqrt(freq) of the matched fields"));
+                return rtn;
+            }
+            return new ComplexExplanation(false, 0.0f, "no matching term in the queried fields");
+        }
+
+    }
+
+    /**
+     * Skips the documents where the term only appears in other source fields.
+     */
+    private class CombinedScorer extends Scorer {
+
+        private final DocsAndPositionsEnum postings;
+        private final float value;
+        private final int[] freqs;
+        private final ByteArrayDataInput input = new ByteArrayDataInput();
+        private int doc = -1;
+
+        CombinedScorer(Weight weight, DocsAndPositionsEnum postings, float value) {
+            super(weight);
+            this.postings = postings;
+            this.value = value;
+            this.freqs = new int[bits.length];
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            return doc = matching(postings.nextDoc());
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            return doc = matching(postings.advance(target));
+        }
+
+        private int matching(int doc) throws IOException {
+            while (doc != NO_MORE_DOCS && !collectFreqs())
+                doc = postings.nextDoc();
+            return doc;
+        }
+
+        /**
+         * @return Whether the current document holds the term in any queried field.
+         */
+        private boolean collectFreqs() throws IOException {
+            Arrays.fill(freqs, 0);
+            boolean rtn = false;
+            for (int i = postings.freq(); i > 0; i--) {
+                postings.nextPosition();
+                int positionMask = decodeMask(postings.getPayload(), input);
+                if ((positionMask & mask) == 0)
+                    continue;
+                for (int j = 0; j < bits.length; j++) {
+                    if ((positionMask & (1 << bits[j])) != 0)
+                        freqs[j]++;
+                }
+                rtn = true;
+            }
+            return rtn;
+        }
+
+        @Override
+        public int freq() throws IOException {
+            int rtn = 0;
+            for (int freq : freqs)
+                rtn += freq;
+            return rtn;
+        }
+
+        @Override
+        public float score() throws IOException {
+            float rtn = 0;
+            for (int i = 0; i < freqs.length; i++) {
+                if (freqs[i] > 0)
+                    rtn += boosts[i] * (float) Math.sqrt(freqs[i]);
+            }
+            return rtn * value;
+        }
+
+        @Override
+        public long cost() {
+            return postings.cost();
+        }
+
+    }
+
+}
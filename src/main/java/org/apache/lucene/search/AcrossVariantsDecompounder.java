@@ -0,0 +1,321 @@
+package org.apache.lucene.search;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IntsRef;
+import org.apache.lucene.util.UnicodeUtil;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.NoOutputs;
+import org.apache.lucene.util.fst.Util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Splits glued compounds, eg. {@code wifimonitoring}, into the words of a dictionary held in an FST.
+ * The parts are emitted at the position of the compound, with offsets inside of its own,
+ * so that the variant tree nests them as a conjunction alternative to the compound.
+ * <p>
+ * A compound is split into the fewest parts, preferring the longest first part,
+ * and each part is split again the same way, so that the variants always nest.
+ * Tokens whose offsets do not span their text, eg. from a stemmer, are left untouched.
+ */
+public final class AcrossVariantsDecompounder {
+
+    private final FST<Object> fst;
+    private final int words;
+    private final int minSubwordSize;
+    private final int maxParts;
+
+    private AcrossVariantsDecompounder(FST<Object> fst, int words, int minSubwordSize, int maxParts) {
+        this.fst = fst;
+        this.words = words;
+        this.minSubwordSize = minSubwordSize;
+        this.maxParts = maxParts;
+    }
+
+    /**
+     * @param minSubwordSize Shorter words are ignored.
+     * @param maxParts A compound splitting into more parts is left untouched.
+     */
+    public static AcrossVariantsDecompounder build(Iterable<String> words, int minSubwordSize, int maxParts) throws IOException {
+        List<IntsRef> inputs = new ArrayList<IntsRef>();
+        for (String word : words) {
+            if (word.length() >= minSubwordSize)
+                inputs.add(Util.toUTF32(word, new IntsRef()));
+        }
+        IntsRef[] sorted = inputs.toArray(new IntsRef[inputs.size()]);
+        Arrays.sort(sorted);
+        Builder<Object> builder = newBuilder();
+        IntsRef previous = null;
+        int count = 0;
+        for (IntsRef input : sorted) {
+            if (input.equals(previous))
+                continue;
+            builder.add(input, NoOutputs.getSingleton().getNoOutput());
+            previous = input;
+            count++;
+        }
+        return new AcrossVariantsDecompounder(builder.finish(), count, minSubwordSize, maxParts);
+    }
+
+    /**
+     * Builds the dictionary out of the terms of a field.
+     * @param minDocFreq Rarer terms, often typos or compounds themselves, are ignored.
+     */
+    public static AcrossVariantsDecompounder build(Terms terms, int minDocFreq, int minSubwordSize, int maxParts) throws IOException {
+        Builder<Object> builder = newBuilder();
+        int count = 0;
+        if (terms != null) {
+            IntsRef scratch = new IntsRef();
+            TermsEnum termsEnum = terms.iterator(null);
+            // UTF-8 order is the code point order the FST expects
+            for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+                if (termsEnum.docFreq() < minDocFreq)
+                    continue;
+                UnicodeUtil.UTF8toUTF32(term, scratch);
+                if (scratch.length < minSubwordSize)
+                    continue;
+                builder.add(scratch, NoOutputs.getSingleton().getNoOutput());
+                count++;
+            }
+        }
+        return new AcrossVariantsDecompounder(builder.finish(), count, minSubwordSize, maxParts);
+    }
+
+    private static Builder<Object> newBuilder() {
+        return new Builder<Object>(FST.INPUT_TYPE.BYTE4, NoOutputs.getSingleton());
+    }
+
+    /**
+     * @return The number of words of the dictionary.
+     */
+    public int size() {
+        return words;
+    }
+
+    public long ramBytesUsed() {
+        return fst == null ? 0 : fst.ramBytesUsed();
+    }
+
+    public boolean contains(String word) throws IOException {
+        if (fst == null)
+            return false;
+        FST.BytesReader reader = fst.getBytesReader();
+        FST.Arc<Object> arc = fst.getFirstArc(new FST.Arc<Object>());
+        for (int i = 0; i < word.length(); ) {
+            int codePoint = word.codePointAt(i);
+            if (fst.findTargetArc(codePoint, arc, arc, reader) == null)
+                return false;
+            i += Character.charCount(codePoint);
+        }
+        return arc.isFinal();
+    }
+
+    /**
+     * Splits the given text, and its parts, recursively.
+     * @return The {@code [start, end[} char ranges of the parts, the parts of a split preceding the splits of its parts.
+     */
+    public List<int[]> decompose(char[] buffer, int offset, int length) throws IOException {
+        List<int[]> rtn = new ArrayList<int[]>();
+        if (fst == null || length < 2 * minSubwordSize)
+            return rtn;
+        int[][] ends = wordEnds(buffer, offset, length);
+        decompose(ends, 0, length, rtn);
+        return rtn;
+    }
+
+    /**
+     * @return For each char index, the ends of the dictionary words starting there.
+     */
+    private int[][] wordEnds(char[] buffer, int offset, int length) throws IOException {
+        int[][] rtn = new int[length][];
+        FST.BytesReader reader = fst.getBytesReader();
+        FST.Arc<Object> first = fst.getFirstArc(new FST.Arc<Object>());
+        FST.Arc<Object> arc = new FST.Arc<Object>();
+        int[] scratch = new int[length];
+        for (int start = 0; start < length; start++) {
+            int count = 0;
+            arc.copyFrom(first);
+            for (int i = start; i < length; ) {
+                int codePoint = Character.codePointAt(buffer, offset + i, offset + length);
+                if (fst.findTargetArc(codePoint, arc, arc, reader) == null)
+                    break;
+                i += Character.charCount(codePoint);
+                if (arc.isFinal() && i - start >= minSubwordSize)
+                    scratch[count++] = i;
+            }
+            rtn[start] = count == 0 ? null : Arrays.copyOf(scratch, count);
+        }
+        return rtn;
+    }
+
+    private void decompose(int[][] ends, int start, int end, List<int[]> output) {
+        // Fewest parts covering [i, end[, and the end of the first of them
+        int[] parts = new int[end - start + 1];
+        int[] next = new int[end - start + 1];
+        for (int i = end - 1; i >= start; i--) {
+            int[] wordEnds = ends[i];
+            if (wordEnds == null)
+                continue;
+            // Longest words first, so that ties favor them
+            for (int j = wordEnds.length - 1; j >= 0; j--) {
+                int wordEnd = wordEnds[j];
+                if (wordEnd > end || (i == start && wordEnd == end))
+                    continue;
+                int count = wordEnd == end ? 0 : parts[wordEnd - start];
+                if (count == 0 && wordEnd != end)
+                    continue;
+                if (parts[i - start] == 0 || count + 1 < parts[i - start]) {
+                    parts[i - start] = count + 1;
+                    next[i - start] = wordEnd;
+                }
+            }
+        }
+        if (parts[0] == 0 || parts[0] > maxParts)
+            return;
+        int first = output.size();
+        for (int i = start; i < end; i = next[i - start])
+            output.add(new int[] { i, next[i - start] });
+        int last = output.size();
+        for (int i = first; i < last; i++) {
+            int[] part = output.get(i);
+            if (part[1] - part[0] >= 2 * minSubwordSize)
+                decompose(ends, part[0], part[1], output);
+        }
+    }
+
+    public TokenStream filter(TokenStream input) {
+        return new DecompoundFilter(input);
+    }
+
+    /**
+     * @return The given analyzer, followed by this decompounder.
+     */
+    public Analyzer wrap(final Analyzer analyzer) {
+        // Not the reuse strategy of the analyzer: a delegating one would cache the wrapped components in place of its own
+        return new AnalyzerWrapper(Analyzer.PER_FIELD_REUSE_STRATEGY) {
+            @Override
+            protected Analyzer getWrappedAnalyzer(String fieldName) {
+                return analyzer;
+            }
+
+            @Override
+            protected TokenStreamComponents wrapComponents(String fieldName, TokenStreamComponents components) {
+                return new TokenStreamComponents(components.getTokenizer(), filter(components.getTokenStream()));
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "decompounder[words=" + words + ",min_subword_size=" + minSubwordSize + ",max_parts=" + maxParts + "]";
+    }
+
+    /**
+     * Buffers the tokens of a position, then emits them followed by the parts of their splits
+     * that the upstream analysis did not already produce.
+     */
+    private final class DecompoundFilter extends TokenFilter {
+
+        private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+        private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+        private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+
+        private final List<State> pending = new ArrayList<State>();
+        private final Set<String> seen = new HashSet<String>();
+        private State lookahead;
+        private boolean exhausted;
+        private int emitted;
+
+        DecompoundFilter(TokenStream input) {
+            super(input);
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            if (emitted >= pending.size() && !fillPosition())
+                return false;
+            restoreState(pending.get(emitted++));
+            return true;
+        }
+
+        private boolean fillPosition() throws IOException {
+            pending.clear();
+            seen.clear();
+            emitted = 0;
+            if (lookahead != null) {
+                restoreState(lookahead);
+                lookahead = null;
+            } else if (exhausted || !input.incrementToken()) {
+                exhausted = true;
+                return false;
+            }
+            do {
+                pending.add(captureState());
+                seen.add(key(termAtt.toString(), offsetAtt.startOffset(), offsetAtt.endOffset()));
+                if (!input.incrementToken()) {
+                    exhausted = true;
+                    break;
+                }
+                if (posIncAtt.getPositionIncrement() != 0) {
+                    lookahead = captureState();
+                    break;
+                }
+            } while (true);
+
+            int tokens = pending.size();
+            for (int t = 0; t < tokens; t++) {
+                restoreState(pending.get(t));
+                int startOffset = offsetAtt.startOffset();
+                int length = termAtt.length();
+                if (offsetAtt.endOffset() - startOffset != length)
+                    continue;
+                List<int[]> parts = decompose(termAtt.buffer(), 0, length);
+                if (parts.isEmpty())
+                    continue;
+                String text = termAtt.toString();
+                for (int[] part : parts) {
+                    String partText = text.substring(part[0], part[1]);
+                    if (!seen.add(key(partText, startOffset + part[0], startOffset + part[1])))
+                        continue;
+                    restoreState(pending.get(t));
+                    termAtt.setEmpty().append(partText);
+                    offsetAtt.setOffset(startOffset + part[0], startOffset + part[1]);
+                    posIncAtt.setPositionIncrement(0);
+                    pending.add(captureState());
+                }
+            }
+            return true;
+        }
+
+        private String key(String text, int startOffset, int endOffset) {
+            return text + '[' + startOffset + ':' + endOffset + ']';
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            pending.clear();
+            seen.clear();
+            lookahead = null;
+            exhausted = false;
+            emitted = 0;
+        }
+
+    }
+
+}
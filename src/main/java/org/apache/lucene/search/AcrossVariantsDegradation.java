@@ -0,0 +1,73 @@
+package org.apache.lucene.search;
+
+/**
+ * Records how a query or filter got degraded to stay within its {@link AcrossVariantsLimits}:
+ * <ul>
+ *     <li>tokens past the limit, or past the analysis time budget, are dropped
+ *         along with the rest of their position, relaxing the conjunction;</li>
+ *     <li>past the writings limit, the query drops the writings with the lowest idf,
+ *         that have the longest postings;</li>
+ *     <li>past the leaves limit, each node matches a set of terms per field,
+ *         instead of one term query per writing and per field, losing the per-writing scoring.</li>
+ * </ul>
+ */
+public class AcrossVariantsDegradation {
+
+    private volatile boolean tokensTruncated;
+    private volatile boolean analysisTimedOut;
+    private volatile int droppedWritings;
+    private volatile boolean termsSets;
+
+    public boolean isDegraded() {
+        return tokensTruncated || analysisTimedOut || droppedWritings > 0 || termsSets;
+    }
+
+    public boolean isTokensTruncated() {
+        return tokensTruncated;
+    }
+
+    void setTokensTruncated() {
+        this.tokensTruncated = true;
+    }
+
+    public boolean isAnalysisTimedOut() {
+        return analysisTimedOut;
+    }
+
+    void setAnalysisTimedOut() {
+        this.analysisTimedOut = true;
+    }
+
+    public int getDroppedWritings() {
+        return droppedWritings;
+    }
+
+    void setDroppedWritings(int droppedWritings) {
+        this.droppedWritings = droppedWritings;
+    }
+
+    public boolean isTermsSets() {
+        return termsSets;
+    }
+
+    void setTermsSets() {
+        this.termsSets = true;
+    }
+
+    @Override
+    public String toString() {
+        if (!isDegraded())
+            return "none";
+        StringBuilder sb = new StringBuilder();
+        if (tokensTruncated)
+            sb.append("tokens_truncated");
+        if (analysisTimedOut)
+            sb.append(sb.length() > 0 ? "," : "").append("analysis_timed_out");
+        if (droppedWritings > 0)
+            sb.append(sb.length() > 0 ? "," : "").append("dropped_writings:").append(droppedWritings);
+        if (termsSets)
+            sb.append(sb.length() > 0 ? "," : "").append("terms_sets");
+        return sb.toString();
+    }
+
+}
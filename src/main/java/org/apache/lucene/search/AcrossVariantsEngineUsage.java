@@ -0,0 +1,46 @@
+package org.apache.lucene.search;
+
+/**
+ * Records which engines an across variants query or filter got executed with, see {@link AcrossVariantsPlanner}.
+ * The scorer and bitset engines get picked per segment, an execution may use both.
+ */
+public class AcrossVariantsEngineUsage {
+
+    private volatile boolean rewrite;
+    private volatile boolean scorer;
+    private volatile boolean bitset;
+
+    public boolean isRewrite() {
+        return rewrite;
+    }
+
+    public boolean isScorer() {
+        return scorer;
+    }
+
+    public boolean isBitset() {
+        return bitset;
+    }
+
+    void used(String engine) {
+        if (AcrossVariantsPlan.ENGINE_SCORER.equals(engine))
+            scorer = true;
+        else if (AcrossVariantsPlan.ENGINE_BITSET.equals(engine))
+            bitset = true;
+        else
+            rewrite = true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (rewrite)
+            sb.append(AcrossVariantsPlan.ENGINE_REWRITE);
+        if (scorer)
+            sb.append(sb.length() > 0 ? "," : "").append(AcrossVariantsPlan.ENGINE_SCORER);
+        if (bitset)
+            sb.append(sb.length() > 0 ? "," : "").append(AcrossVariantsPlan.ENGINE_BITSET);
+        return sb.length() > 0 ? sb.toString() : "none";
+    }
+
+}
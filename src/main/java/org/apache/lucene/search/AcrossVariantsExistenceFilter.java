@@ -0,0 +1,93 @@
+package org.apache.lucene.search;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+
+/**
+ * Matches at most the first document of each segment a filter matches that the caller accepts,
+ * to tell whether there is any matching document without iterating over all of them.
+ * The caller moving to the next document accepted the current one, while a conjunction advancing it rejected it.
+ * Only meant as the whole query of a search, possibly filtered: nested into a disjunction or an exclusion,
+ * the documents past the first one would be missing.
+ */
+public class AcrossVariantsExistenceFilter extends Filter {
+
+    private final Filter filter;
+
+    public AcrossVariantsExistenceFilter(Filter filter) {
+        this.filter = filter;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+        final DocIdSet set = filter.getDocIdSet(context, acceptDocs);
+        if (set == null)
+            return null;
+        return new DocIdSet() {
+            @Override
+            public DocIdSetIterator iterator() throws IOException {
+                DocIdSetIterator iterator = set.iterator();
+                return iterator == null ? null : new FirstDocIterator(iterator);
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AcrossVariantsExistenceFilter)) return false;
+        return filter.equals(((AcrossVariantsExistenceFilter) o).filter);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * filter.hashCode() + 1;
+    }
+
+    @Override
+    public String toString() {
+        return "exists(" + filter + ")";
+    }
+
+    private static class FirstDocIterator extends DocIdSetIterator {
+
+        private final DocIdSetIterator iterator;
+        private int doc = -1;
+
+        FirstDocIterator(DocIdSetIterator iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            // Stop past the first accepted document
+            if (doc != -1)
+                return doc = NO_MORE_DOCS;
+            return doc = iterator.nextDoc();
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            // The current document, if any, got rejected
+            return doc = iterator.advance(target);
+        }
+
+        @Override
+        public long cost() {
+            return Math.min(1, iterator.cost());
+        }
+
+    }
+
+}
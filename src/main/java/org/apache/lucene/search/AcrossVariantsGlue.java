@@ -0,0 +1,208 @@
+package org.apache.lucene.search;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.apache.lucene.search.AcrossVariantsTree.TermNode;
+import org.apache.lucene.util.AttributeSource.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Glues adjacent tokens at index time, eg. {@code wi fi} also gets indexed as {@code wifi},
+ * so that the variant tree can match a compound with its glued writing alone,
+ * rather than with the conjunction of its parts.
+ * <p>
+ * The glued forms are emitted at the position of their first part, with offsets spanning all of them.
+ * Only the first token of each position gets glued, stacked tokens are left alone.
+ */
+public final class AcrossVariantsGlue {
+
+    private final CharArraySet words;
+    private final int maxParts;
+
+    /**
+     * @param words The only glued forms to emit, {@code null} to emit them all.
+     * @param maxParts The maximum number of tokens glued together.
+     */
+    public AcrossVariantsGlue(CharArraySet words, int maxParts) {
+        this.words = words;
+        this.maxParts = maxParts;
+    }
+
+    public int getMaxParts() {
+        return maxParts;
+    }
+
+    private boolean accepts(CharSequence glued) {
+        return words == null || words.contains(glued);
+    }
+
+    /**
+     * @return Whether the index holds the glued writing of the given node wherever its subspans are adjacent,
+     *         so that matching its writings is enough.
+     *         Only leaf subspans with a single writing qualify, as only the actual tokens get glued.
+     */
+    public boolean covers(TermNode node) {
+        List<TermNode> children = node.getChildren();
+        if (node.isRoot() || children.size() < 2 || children.size() > maxParts)
+            return false;
+        StringBuilder glued = new StringBuilder();
+        for (int i = 0; i < children.size(); i++) {
+            TermNode child = children.get(i);
+            if (!child.getChildren().isEmpty() || !child.getAlternateWritings().isEmpty())
+                return false;
+            glued.append(child.getTerm().term);
+        }
+        if (!accepts(glued))
+            return false;
+        String writing = glued.toString();
+        return node.getTerm().term.equals(writing) || node.getAlternateWritings().contains(writing);
+    }
+
+    /**
+     * @return Whether every field holds the glued writing of the given node.
+     */
+    public static boolean coversAll(Map<String, AcrossVariantsGlue> glues, Collection<String> fields, TermNode node) {
+        if (glues == null || glues.size() < fields.size())
+            return false;
+        for (String field : fields) {
+            AcrossVariantsGlue glue = glues.get(field);
+            if (glue == null || !glue.covers(node))
+                return false;
+        }
+        return true;
+    }
+
+    public TokenStream filter(TokenStream input) {
+        return new GlueFilter(input);
+    }
+
+    @Override
+    public String toString() {
+        return "glue[words=" + (words == null ? "*" : String.valueOf(words.size())) + ",max_parts=" + maxParts + "]";
+    }
+
+    /**
+     * The tokens of a position, and the text and offsets of the first of them.
+     */
+    private static final class Position {
+
+        final List<State> states = new ArrayList<State>(1);
+        String text;
+        int startOffset;
+        int endOffset;
+        int positionIncrement;
+
+    }
+
+    /**
+     * Looks ahead {@code maxParts - 1} positions, then emits the tokens of the first one,
+     * followed by the glued forms starting there.
+     */
+    private final class GlueFilter extends TokenFilter {
+
+        private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+        private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+        private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+
+        private final LinkedList<Position> positions = new LinkedList<Position>();
+        private final List<State> pending = new ArrayList<State>();
+        private final StringBuilder glued = new StringBuilder();
+        private State lookahead;
+        private boolean exhausted;
+        private int emitted;
+
+        GlueFilter(TokenStream input) {
+            super(input);
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            if (emitted >= pending.size() && !nextPosition())
+                return false;
+            restoreState(pending.get(emitted++));
+            return true;
+        }
+
+        private boolean nextPosition() throws IOException {
+            pending.clear();
+            emitted = 0;
+            while (positions.size() < maxParts && readPosition()) {
+            }
+            if (positions.isEmpty())
+                return false;
+
+            Position first = positions.removeFirst();
+            pending.addAll(first.states);
+            glued.setLength(0);
+            glued.append(first.text);
+            // At most maxParts - 1 positions are looked ahead
+            for (Position next : positions) {
+                if (next.positionIncrement != 1)
+                    break;
+                glued.append(next.text);
+                if (!accepts(glued))
+                    continue;
+                restoreState(first.states.get(0));
+                termAtt.setEmpty().append(glued);
+                offsetAtt.setOffset(first.startOffset, next.endOffset);
+                posIncAtt.setPositionIncrement(0);
+                pending.add(captureState());
+            }
+            return true;
+        }
+
+        /**
+         * Reads the tokens of the next position.
+         * @return Whether there was one.
+         */
+        private boolean readPosition() throws IOException {
+            if (lookahead != null) {
+                restoreState(lookahead);
+                lookahead = null;
+            } else if (exhausted || !input.incrementToken()) {
+                exhausted = true;
+                return false;
+            }
+            Position position = new Position();
+            position.text = termAtt.toString();
+            position.startOffset = offsetAtt.startOffset();
+            position.endOffset = offsetAtt.endOffset();
+            position.positionIncrement = posIncAtt.getPositionIncrement();
+            do {
+                position.states.add(captureState());
+                if (!input.incrementToken()) {
+                    exhausted = true;
+                    break;
+                }
+                if (posIncAtt.getPositionIncrement() != 0) {
+                    lookahead = captureState();
+                    break;
+                }
+            } while (true);
+            positions.add(position);
+            return true;
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            positions.clear();
+            pending.clear();
+            lookahead = null;
+            exhausted = false;
+            emitted = 0;
+        }
+
+    }
+
+}
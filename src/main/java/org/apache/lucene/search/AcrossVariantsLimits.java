@@ -0,0 +1,75 @@
+package org.apache.lucene.search;
+
+/**
+ * Caps the size of a variant tree and of what it expands into,
+ * a negative value disables a limit.
+ * Exceeding a limit degrades the query or filter instead of failing it,
+ * see {@link AcrossVariantsDegradation}.
+ */
+public class AcrossVariantsLimits {
+
+    public static final AcrossVariantsLimits UNLIMITED = new AcrossVariantsLimits(-1, -1, -1, -1);
+
+    private final int maxTokens;
+    private final int maxWritings;
+    private final int maxLeaves;
+    private final long analysisTimeoutNanos;
+
+    public AcrossVariantsLimits(int maxTokens, int maxWritings, int maxLeaves, long analysisTimeoutNanos) {
+        this.maxTokens = maxTokens;
+        this.maxWritings = maxWritings;
+        this.maxLeaves = maxLeaves;
+        this.analysisTimeoutNanos = analysisTimeoutNanos;
+    }
+
+    /**
+     * @return Maximum number of tokens kept from the analysis.
+     */
+    public int getMaxTokens() {
+        return maxTokens;
+    }
+
+    /**
+     * @return Maximum number of writings in the tree, all nodes together.
+     */
+    public int getMaxWritings() {
+        return maxWritings;
+    }
+
+    /**
+     * @return Maximum number of term leaves, ie. writings times fields.
+     */
+    public int getMaxLeaves() {
+        return maxLeaves;
+    }
+
+    public long getAnalysisTimeoutNanos() {
+        return analysisTimeoutNanos;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        AcrossVariantsLimits that = (AcrossVariantsLimits) o;
+        return maxTokens == that.maxTokens
+                && maxWritings == that.maxWritings
+                && maxLeaves == that.maxLeaves
+                && analysisTimeoutNanos == that.analysisTimeoutNanos;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = maxTokens;
+        result = 31 * result + maxWritings;
+        result = 31 * result + maxLeaves;
+        result = 31 * result + (int) (analysisTimeoutNanos ^ (analysisTimeoutNanos >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "max_tokens[" + maxTokens + "], max_writings[" + maxWritings + "], max_leaves[" + maxLeaves + "], analysis_timeout_nanos[" + analysisTimeoutNanos + "]";
+    }
+
+}
@@ -0,0 +1,282 @@
+package org.apache.lucene.search;
+
+import org.apache.lucene.search.AcrossVariantsNativeTree.Node;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Collects the documents of a native tree that may enter the top hits, skipping the others with MaxScore:
+ * each top level node is a disjunction of clauses whose maximum scores are known,
+ * a document can only beat the lowest score of the top hits so far
+ * if it matches the node through a clause other than its lowest scoring ones,
+ * given the maximum scores of the other top level nodes it must also match.
+ * The documents only matching those lowest scoring clauses, the non essential ones, are skipped,
+ * and the non essential clauses only get advanced to the documents the essential ones lead to, for scoring.
+ * The total number of hits then becomes a lower bound.
+ */
+final class AcrossVariantsMaxScoreScorer extends BulkScorer {
+
+    private final Group[] groups;
+    private final double maxScore;
+    private final TopScores topScores;
+    private final FakeScorer scorer = new FakeScorer();
+    private float threshold = Float.NEGATIVE_INFINITY;
+    private boolean exhausted;
+    private int target;
+
+    private AcrossVariantsMaxScoreScorer(Group[] groups, TopScores topScores) {
+        this.groups = groups;
+        this.topScores = topScores;
+        double sum = 0;
+        for (Group group : groups)
+            sum += group.maxScore;
+        this.maxScore = sum;
+        // The cheapest node leads the conjunction
+        Arrays.sort(groups, new Comparator<Group>() {
+            @Override
+            public int compare(Group o1, Group o2) {
+                return Long.compare(o1.cost, o2.cost);
+            }
+        });
+        updateThreshold(topScores.threshold());
+    }
+
+    /**
+     * @return Whether the tree is a conjunction of top level nodes, or a single node, that the clauses can be found of.
+     */
+    static boolean isPrunable(Node root) {
+        return !root.isLeaf() && (root.conjunction || root.minimumShouldMatch <= 1);
+    }
+
+    /**
+     * @param leaves The scorers of the leaves on the segment, {@code null} for those without any document.
+     * @param leafMaxScores The maximum score of each leaf, infinite if unknown.
+     * @return The scorer, {@code null} if the segment has no matching document.
+     */
+    static BulkScorer create(Node root, Scorer[] leaves, Weight weight, float[] leafMaxScores, TopScores topScores) throws IOException {
+        Node[] nodes = root.conjunction ? root.children : new Node[] { root };
+        Group[] groups = new Group[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            Node node = nodes[i];
+            Node[] clauseNodes = !node.isLeaf() && !node.conjunction && node.minimumShouldMatch <= 1 ? node.children : new Node[] { node };
+            List<Clause> clauses = new ArrayList<Clause>(clauseNodes.length);
+            for (Node clauseNode : clauseNodes) {
+                Scorer clauseScorer = AcrossVariantsNativeTree.scorer(clauseNode, leaves, weight);
+                if (clauseScorer != null)
+                    clauses.add(new Clause(clauseScorer, maxScore(clauseNode, leafMaxScores)));
+            }
+            if (clauses.isEmpty())
+                return null;
+            groups[i] = new Group(clauses.toArray(new Clause[clauses.size()]));
+        }
+        return new AcrossVariantsMaxScoreScorer(groups, topScores);
+    }
+
+    private static float maxScore(Node node, float[] leafMaxScores) {
+        if (node.isLeaf())
+            return leafMaxScores[node.index];
+        float rtn = 0;
+        for (Node child : node.children)
+            rtn += maxScore(child, leafMaxScores);
+        return rtn;
+    }
+
+    /**
+     * Moves the lowest scoring clauses of each node out of the essential ones, as far as the threshold allows.
+     */
+    private void updateThreshold(float threshold) {
+        this.threshold = threshold;
+        for (Group group : groups) {
+            double allowance = threshold - (maxScore - group.maxScore);
+            double sum = 0;
+            int firstEssential = 0;
+            while (firstEssential < group.clauses.length && sum + group.clauses[firstEssential].maxScore <= allowance)
+                sum += group.clauses[firstEssential++].maxScore;
+            if (firstEssential == group.clauses.length) {
+                // No document is left that could beat the threshold
+                exhausted = true;
+                return;
+            }
+            group.firstEssential = firstEssential;
+        }
+    }
+
+    @Override
+    public boolean score(Collector collector, int max) throws IOException {
+        collector.setScorer(scorer);
+        while (!exhausted) {
+            int doc = nextCandidate(target);
+            if (doc >= max) {
+                target = doc;
+                return doc != DocIdSetIterator.NO_MORE_DOCS;
+            }
+            float score = score(doc);
+            scorer.doc = doc;
+            scorer.score = score;
+            collector.collect(doc);
+            target = doc + 1;
+            if (score > threshold) {
+                float updated = topScores.insert(score);
+                if (updated > threshold)
+                    updateThreshold(updated);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Leapfrogs the essential clauses of the nodes to the first document they all are on.
+     */
+    private int nextCandidate(int target) throws IOException {
+        outer:
+        while (true) {
+            int doc = groups[0].next(target);
+            if (doc == DocIdSetIterator.NO_MORE_DOCS)
+                return doc;
+            for (int i = 1; i < groups.length; i++) {
+                int groupDoc = groups[i].next(doc);
+                if (groupDoc != doc) {
+                    if (groupDoc == DocIdSetIterator.NO_MORE_DOCS)
+                        return groupDoc;
+                    target = groupDoc;
+                    continue outer;
+                }
+            }
+            return doc;
+        }
+    }
+
+    /**
+     * Scores the document with every clause on it, advancing the non essential ones.
+     */
+    private float score(int doc) throws IOException {
+        float rtn = 0;
+        for (Group group : groups) {
+            double groupScore = 0;
+            for (Clause clause : group.clauses) {
+                Scorer clauseScorer = clause.scorer;
+                if (clauseScorer.docID() < doc)
+                    clauseScorer.advance(doc);
+                if (clauseScorer.docID() == doc)
+                    groupScore += clauseScorer.score();
+            }
+            rtn += (float) groupScore;
+        }
+        return rtn;
+    }
+
+    private static class Clause {
+
+        final Scorer scorer;
+        final float maxScore;
+
+        Clause(Scorer scorer, float maxScore) {
+            this.scorer = scorer;
+            this.maxScore = maxScore;
+        }
+
+    }
+
+    /**
+     * A top level node, its clauses sorted by increasing maximum score.
+     */
+    private static class Group {
+
+        final Clause[] clauses;
+        final double maxScore;
+        final long cost;
+        int firstEssential;
+
+        Group(Clause[] clauses) {
+            Arrays.sort(clauses, new Comparator<Clause>() {
+                @Override
+                public int compare(Clause o1, Clause o2) {
+                    return Float.compare(o1.maxScore, o2.maxScore);
+                }
+            });
+            this.clauses = clauses;
+            double sum = 0;
+            long cost = 0;
+            for (Clause clause : clauses) {
+                sum += clause.maxScore;
+                cost += clause.scorer.cost();
+            }
+            this.maxScore = sum;
+            this.cost = cost;
+        }
+
+        /**
+         * @return The first document from the given one on that an essential clause is on.
+         */
+        int next(int target) throws IOException {
+            int rtn = DocIdSetIterator.NO_MORE_DOCS;
+            for (int i = firstEssential; i < clauses.length; i++) {
+                Scorer clauseScorer = clauses[i].scorer;
+                int doc = clauseScorer.docID();
+                if (doc < target)
+                    doc = clauseScorer.advance(target);
+                if (doc < rtn)
+                    rtn = doc;
+            }
+            return rtn;
+        }
+
+    }
+
+    /**
+     * The lowest score of the top hits collected so far, shared by the segments of a search.
+     */
+    static final class TopScores {
+
+        private final float[] heap;
+        private int size;
+
+        TopScores(int topK) {
+            this.heap = new float[topK];
+        }
+
+        /**
+         * @return The score a document has to beat to enter the top hits, negative infinity until there are enough hits.
+         */
+        synchronized float threshold() {
+            return size < heap.length ? Float.NEGATIVE_INFINITY : heap[0];
+        }
+
+        /**
+         * @return The updated threshold.
+         */
+        synchronized float insert(float score) {
+            if (size < heap.length) {
+                // Sift up
+                int i = size++;
+                while (i > 0 && heap[(i - 1) / 2] > score) {
+                    heap[i] = heap[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                heap[i] = score;
+            } else if (score > heap[0]) {
+                // Sift down
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size)
+                        break;
+                    if (child + 1 < size && heap[child + 1] < heap[child])
+                        child++;
+                    if (heap[child] >= score)
+                        break;
+                    heap[i] = heap[child];
+                    i = child;
+                }
+                heap[i] = score;
+            }
+            return threshold();
+        }
+
+    }
+
+}
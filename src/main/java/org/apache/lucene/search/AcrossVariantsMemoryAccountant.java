@@ -0,0 +1,16 @@
+package org.apache.lucene.search;
+
+/**
+ * Accounts for the memory held by the variant tree and the query or filter it expands into,
+ * as estimated by {@link AcrossVariantsRamUsage}.
+ */
+public interface AcrossVariantsMemoryAccountant {
+
+    /**
+     * @param bytes The estimated size of the structure that was just built.
+     * @param label What got built, for error messages.
+     * @throws RuntimeException If the structure cannot be afforded, which rejects the query.
+     */
+    public void addEstimateBytes(long bytes, String label);
+
+}
@@ -0,0 +1,110 @@
+package org.apache.lucene.search;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.AcrossVariantsNativeTree.Node;
+import org.apache.lucene.util.Bits;
+import org.elasticsearch.common.lucene.search.XBooleanFilter;
+
+import java.io.IOException;
+
+/**
+ * Executes the boolean filter an across variants filter expands into as a single native tree,
+ * picking the scorer or the bitset engine per segment, see {@link AcrossVariantsPlanner}.
+ * The scorer engine gives a lazy iterator, that only reads the postings of the leaves up to where it gets advanced.
+ */
+public class AcrossVariantsNativeFilter extends Filter {
+
+    private final XBooleanFilter filter;
+    private final String execution;
+    private final AcrossVariantsEngineUsage engineUsage;
+    private final Node root;
+    private final Filter[] leaves;
+
+    /**
+     * @param filter A boolean filter which compiles into a native tree.
+     * @param execution {@value AcrossVariantsPlanner#EXECUTION_AUTO}, or the engine to use on every segment.
+     * @param engineUsage Records the engines used, may be {@code null}.
+     */
+    public AcrossVariantsNativeFilter(XBooleanFilter filter, String execution, AcrossVariantsEngineUsage engineUsage) {
+        this.filter = filter;
+        this.execution = execution;
+        this.engineUsage = engineUsage;
+        AcrossVariantsNativeTree.FilterCompiler compiler = new AcrossVariantsNativeTree.FilterCompiler();
+        this.root = compiler.compile(filter);
+        this.leaves = compiler.leaves.toArray(new Filter[compiler.leaves.size()]);
+    }
+
+    public XBooleanFilter getFilter() {
+        return filter;
+    }
+
+    public String getExecution() {
+        return execution;
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+        DocIdSet[] sets = new DocIdSet[leaves.length];
+        DocIdSetIterator[] iterators = new DocIdSetIterator[leaves.length];
+        for (int i = 0; i < leaves.length; i++) {
+            sets[i] = leaves[i].getDocIdSet(context, acceptDocs);
+            iterators[i] = sets[i] == null ? null : sets[i].iterator();
+        }
+        int maxDoc = context.reader().maxDoc();
+        String engine = AcrossVariantsPlanner.choose(execution, AcrossVariantsNativeTree.shape(root, iterators, maxDoc), false, true);
+        if (engineUsage != null)
+            engineUsage.used(engine);
+        if (AcrossVariantsPlan.ENGINE_BITSET.equals(engine))
+            return AcrossVariantsNativeTree.bits(root, iterators, maxDoc, null);
+        return new LazyDocIdSet(sets, iterators);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AcrossVariantsNativeFilter)) return false;
+        AcrossVariantsNativeFilter that = (AcrossVariantsNativeFilter) o;
+        return filter.equals(that.filter) && execution.equals(that.execution);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * filter.hashCode() + execution.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return filter.toString();
+    }
+
+    /**
+     * Iterates over the scorer tree of the leaves, the first iterator reusing the leaf iterators the engine got picked with.
+     */
+    private class LazyDocIdSet extends DocIdSet {
+
+        private final DocIdSet[] sets;
+        private DocIdSetIterator[] iterators;
+
+        LazyDocIdSet(DocIdSet[] sets, DocIdSetIterator[] iterators) {
+            this.sets = sets;
+            this.iterators = iterators;
+        }
+
+        @Override
+        public DocIdSetIterator iterator() throws IOException {
+            DocIdSetIterator[] leafIterators = iterators;
+            iterators = null;
+            if (leafIterators == null) {
+                leafIterators = new DocIdSetIterator[sets.length];
+                for (int i = 0; i < sets.length; i++)
+                    leafIterators[i] = sets[i] == null ? null : sets[i].iterator();
+            }
+            Scorer[] scorers = new Scorer[leafIterators.length];
+            for (int i = 0; i < leafIterators.length; i++)
+                scorers[i] = leafIterators[i] == null ? null : new AcrossVariantsNativeTree.IteratorScorer(leafIterators[i]);
+            return AcrossVariantsNativeTree.scorer(root, scorers, null);
+        }
+
+    }
+
+}
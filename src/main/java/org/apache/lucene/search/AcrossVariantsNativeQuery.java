@@ -0,0 +1,416 @@
+package org.apache.lucene.search;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.AcrossVariantsNativeTree.Node;
+import org.apache.lucene.search.similarities.DefaultSimilarity;
+import org.apache.lucene.search.similarities.PerFieldSimilarityWrapper;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Executes the boolean query an across variants query rewrites into as a single native tree,
+ * picking the scorer or the bitset engine per segment, see {@link AcrossVariantsPlanner}.
+ * Scores the same as the boolean query.
+ * With a top k, the searches collecting the top hits by score skip the documents that cannot enter them,
+ * see {@link AcrossVariantsMaxScoreScorer}.
+ */
+public class AcrossVariantsNativeQuery extends Query {
+
+    private final BooleanQuery query;
+    private final String execution;
+    private final AcrossVariantsEngineUsage engineUsage;
+    private final int topK;
+
+    /**
+     * @param query A boolean query which compiles into a native tree.
+     * @param execution {@value AcrossVariantsPlanner#EXECUTION_AUTO}, or the engine to use on every segment.
+     * @param engineUsage Records the engines used, may be {@code null}.
+     */
+    public AcrossVariantsNativeQuery(BooleanQuery query, String execution, AcrossVariantsEngineUsage engineUsage) {
+        this(query, execution, engineUsage, 0);
+    }
+
+    /**
+     * @param topK The number of top hits the searches collect, 0 to score every matching document.
+     */
+    public AcrossVariantsNativeQuery(BooleanQuery query, String execution, AcrossVariantsEngineUsage engineUsage, int topK) {
+        this.query = query;
+        this.execution = execution;
+        this.engineUsage = engineUsage;
+        this.topK = topK;
+    }
+
+    public BooleanQuery getQuery() {
+        return query;
+    }
+
+    public String getExecution() {
+        return execution;
+    }
+
+    public int getTopK() {
+        return topK;
+    }
+
+    @Override
+    public Query rewrite(IndexReader reader) throws IOException {
+        // Built out of an already rewritten query
+        return this;
+    }
+
+    @Override
+    public void extractTerms(Set<Term> terms) {
+        query.extractTerms(terms);
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher) throws IOException {
+        return new NativeWeight(searcher);
+    }
+
+    @Override
+    public String toString(String field) {
+        return query.toString(field);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!super.equals(o)) return false;
+        AcrossVariantsNativeQuery that = (AcrossVariantsNativeQuery) o;
+        return query.equals(that.query) && execution.equals(that.execution) && topK == that.topK;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * (31 * super.hashCode() + query.hashCode()) + execution.hashCode()) + topK;
+    }
+
+    /**
+     * The highest length norm of each field of each segment, which only the default similarity decodes, out of a fixed table.
+     * Each takes a pass over the norms of the segment, once rather than per query.
+     */
+    private static final AcrossVariantsSegmentCache<String, Float> MAX_NORMS = new AcrossVariantsSegmentCache<String, Float>(Long.MAX_VALUE) {
+        @Override
+        protected long sizeInBytes(Float value) {
+            // Negligible next to the segment
+            return 0;
+        }
+    };
+
+    private class NativeWeight extends Weight {
+
+        /**
+         * Keeps the float sums of the scores below the maximum scores.
+         */
+        private static final float MAX_SCORE_SLACK = 1.0001f;
+
+        private final Node root;
+        private final Weight[] weights;
+        private final float[] leafBoosts;
+        private final AcrossVariantsMaxScoreScorer.TopScores topScores;
+        /**
+         * Maximum score of each leaf before normalization, without its term frequency factor and length norm, infinite if unknown.
+         */
+        private float[] maxScores;
+        /**
+         * The term of each leaf whose term frequency factor and length norm get bounded per segment, {@code null} if there is no such factor.
+         */
+        private Term[] maxScoreTerms;
+        private DefaultSimilarity[] similarities;
+        private float[] normalizations;
+
+        NativeWeight(IndexSearcher searcher) throws IOException {
+            AcrossVariantsNativeTree.QueryCompiler compiler = new AcrossVariantsNativeTree.QueryCompiler();
+            this.root = compiler.compile(query, 1f);
+            this.weights = new Weight[compiler.leaves.size()];
+            this.leafBoosts = new float[weights.length];
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] = compiler.leaves.get(i).createWeight(searcher);
+                leafBoosts[i] = compiler.leafBoosts.get(i);
+            }
+            if (topK > 0 && !AcrossVariantsPlan.ENGINE_BITSET.equals(execution) && AcrossVariantsMaxScoreScorer.isPrunable(root)) {
+                this.topScores = new AcrossVariantsMaxScoreScorer.TopScores(topK);
+                computeMaxScores(searcher, compiler.leaves);
+            } else {
+                this.topScores = null;
+            }
+        }
+
+        /**
+         * Bounds the score of the term leaves scored with the default similarity out of their idf,
+         * the term frequency factor and the length norm being bounded per segment.
+         * Constant score leaves score their boost, other leaves are unbounded.
+         */
+        private void computeMaxScores(IndexSearcher searcher, List<Query> leaves) throws IOException {
+            maxScores = new float[leaves.size()];
+            maxScoreTerms = new Term[maxScores.length];
+            similarities = new DefaultSimilarity[maxScores.length];
+            normalizations = new float[maxScores.length];
+            for (int i = 0; i < maxScores.length; i++) {
+                Query leaf = leaves.get(i);
+                maxScores[i] = Float.POSITIVE_INFINITY;
+                if (leaf instanceof ConstantScoreQuery) {
+                    maxScores[i] = leaf.getBoost();
+                } else if (leaf instanceof TermQuery) {
+                    Term term = ((TermQuery) leaf).getTerm();
+                    Similarity similarity = searcher.getSimilarity();
+                    if (similarity instanceof PerFieldSimilarityWrapper)
+                        similarity = ((PerFieldSimilarityWrapper) similarity).get(term.field());
+                    if (similarity.getClass() != DefaultSimilarity.class)
+                        continue;
+                    DefaultSimilarity defaultSimilarity = (DefaultSimilarity) similarity;
+                    TermStatistics termStatistics = searcher.termStatistics(term, TermContext.build(searcher.getTopReaderContext(), term));
+                    float idf = defaultSimilarity.idf(termStatistics.docFreq(), searcher.collectionStatistics(term.field()).maxDoc());
+                    maxScores[i] = idf * idf * leaf.getBoost();
+                    maxScoreTerms[i] = term;
+                    similarities[i] = defaultSimilarity;
+                }
+            }
+        }
+
+        /**
+         * Bounds the term frequency factor and the length norm of the term leaves up front, so that no skipped document could have beaten them,
+         * whatever the index time boosts or the tokens stacked at a same position:
+         * the frequency of a term is at most its total frequency in the segment, minus one per other document holding it,
+         * and its length norm at most the highest one of the field in the segment, which reads the norms once per field and segment.
+         * @return The maximum score of each leaf on the segment.
+         */
+        private float[] leafMaxScores(AtomicReaderContext context) throws IOException {
+            AtomicReader reader = context.reader();
+            float[] rtn = new float[maxScores.length];
+            for (int i = 0; i < rtn.length; i++) {
+                rtn[i] = maxScores[i] * normalizations[i] * MAX_SCORE_SLACK;
+                Term term = maxScoreTerms[i];
+                if (term == null)
+                    continue;
+                Terms fieldTerms = reader.terms(term.field());
+                TermsEnum termsEnum = fieldTerms == null ? null : fieldTerms.iterator(null);
+                if (termsEnum == null || !termsEnum.seekExact(term.bytes())) {
+                    // No scorer gets built for the leaf
+                    rtn[i] = 0;
+                    continue;
+                }
+                long totalTermFreq = termsEnum.totalTermFreq();
+                if (totalTermFreq >= 0)
+                    rtn[i] *= similarities[i].tf(totalTermFreq - termsEnum.docFreq() + 1);
+                Float maxNorm = MAX_NORMS.get(reader, term.field());
+                if (maxNorm == null)
+                    maxNorm = MAX_NORMS.put(reader, term.field(), maxNorm(reader, term.field(), similarities[i]));
+                rtn[i] *= maxNorm;
+            }
+            return rtn;
+        }
+
+        /**
+         * @return The highest length norm of the field in the segment, 1 if it has no norms.
+         */
+        private float maxNorm(AtomicReader reader, String field, DefaultSimilarity similarity) throws IOException {
+            NumericDocValues norms = reader.getNormValues(field);
+            if (norms == null)
+                return 1;
+            float rtn = 0;
+            for (int doc = reader.maxDoc() - 1; doc >= 0; doc--)
+                rtn = Math.max(rtn, similarity.decodeNormValue(norms.get(doc)));
+            return rtn;
+        }
+
+        @Override
+        public Query getQuery() {
+            return AcrossVariantsNativeQuery.this;
+        }
+
+        @Override
+        public float getValueForNormalization() throws IOException {
+            float sum = 0;
+            for (int i = 0; i < weights.length; i++)
+                sum += weights[i].getValueForNormalization() * leafBoosts[i] * leafBoosts[i];
+            return sum * getBoost() * getBoost();
+        }
+
+        @Override
+        public void normalize(float norm, float topLevelBoost) {
+            topLevelBoost *= getBoost();
+            for (int i = 0; i < weights.length; i++) {
+                weights[i].normalize(norm, topLevelBoost * leafBoosts[i]);
+                if (normalizations != null)
+                    normalizations[i] = norm * topLevelBoost * leafBoosts[i];
+            }
+        }
+
+        private Scorer[] leafScorers(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+            Scorer[] rtn = new Scorer[weights.length];
+            for (int i = 0; i < weights.length; i++)
+                rtn[i] = weights[i].scorer(context, acceptDocs);
+            return rtn;
+        }
+
+        @Override
+        public Scorer scorer(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+            Scorer[] leaves = leafScorers(context, acceptDocs);
+            int maxDoc = context.reader().maxDoc();
+            String engine = AcrossVariantsPlanner.choose(execution, AcrossVariantsNativeTree.shape(root, leaves, maxDoc), true, true);
+            if (engineUsage != null)
+                engineUsage.used(engine);
+            if (!AcrossVariantsPlan.ENGINE_BITSET.equals(engine))
+                return AcrossVariantsNativeTree.scorer(root, leaves, this);
+            FixedBitSet[] innerBits = new FixedBitSet[root.index + 1];
+            FixedBitSet matches = AcrossVariantsNativeTree.bits(root, leaves, maxDoc, innerBits);
+            int cardinality = matches.cardinality();
+            if (cardinality == 0)
+                return null;
+            return new BitsetScorer(this, root, matches, cardinality, innerBits, leaves, context, acceptDocs);
+        }
+
+        @Override
+        public BulkScorer bulkScorer(AtomicReaderContext context, boolean scoreDocsInOrder, Bits acceptDocs) throws IOException {
+            if (topScores == null)
+                return super.bulkScorer(context, scoreDocsInOrder, acceptDocs);
+            if (engineUsage != null)
+                engineUsage.used(AcrossVariantsPlan.ENGINE_SCORER);
+            return AcrossVariantsMaxScoreScorer.create(root, leafScorers(context, acceptDocs), this, leafMaxScores(context), topScores);
+        }
+
+        @Override
+        public Explanation explain(AtomicReaderContext context, int doc) throws IOException {
+            return explain(root, context, doc);
+        }
+
+        private Explanation explain(Node node, AtomicReaderContext context, int doc) throws IOException {
+            if (node.isLeaf())
+                return weights[node.index].explain(context, doc);
+            ComplexExplanation rtn = new ComplexExplanation();
+            rtn.setDescription("sum of:");
+            float sum = 0;
+            int matches = 0;
+            for (Node child : node.children) {
+                Explanation explanation = explain(child, context, doc);
+                if (explanation.isMatch()) {
+                    rtn.addDetail(explanation);
+                    sum += explanation.getValue();
+                    matches++;
+                } else if (node.conjunction) {
+                    ComplexExplanation noMatch = new ComplexExplanation(false, 0.0f, "no match on required clause");
+                    noMatch.addDetail(explanation);
+                    return noMatch;
+                }
+            }
+            if (rtn.getDetails() == null)
+                return new ComplexExplanation(false, 0.0f, "no matching clause");
+            if (matches < node.minimumShouldMatch)
+                return new ComplexExplanation(false, 0.0f, "Failure to match minimum number of optional clauses: " + node.minimumShouldMatch);
+            rtn.setMatch(true);
+            rtn.setValue(sum);
+            return rtn;
+        }
+
+    }
+
+    /**
+     * Iterates over the documents of the bitset of the root,
+     * scoring each with the leaves matching it, which get advanced to it.
+     * The leaves that filled the bitsets got consumed: they get opened again once a matching document needs them,
+     * while the ones the bitsets skipped, eg. past an empty leaf of a conjunction, get reused as is.
+     */
+    private static class BitsetScorer extends Scorer {
+
+        private final NativeWeight nativeWeight;
+        private final Node root;
+        private final FixedBitSet matches;
+        private final int cardinality;
+        private final FixedBitSet[] innerBits;
+        private final Scorer[] leaves;
+        private final boolean[] consumed;
+        private final AtomicReaderContext context;
+        private final Bits acceptDocs;
+        private int doc = -1;
+
+        BitsetScorer(NativeWeight weight, Node root, FixedBitSet matches, int cardinality, FixedBitSet[] innerBits,
+                     Scorer[] leaves, AtomicReaderContext context, Bits acceptDocs) {
+            super(weight);
+            this.nativeWeight = weight;
+            this.root = root;
+            this.matches = matches;
+            this.cardinality = cardinality;
+            this.innerBits = innerBits;
+            this.leaves = leaves;
+            this.consumed = new boolean[leaves.length];
+            for (int i = 0; i < leaves.length; i++)
+                consumed[i] = leaves[i] != null && leaves[i].docID() != -1;
+            this.context = context;
+            this.acceptDocs = acceptDocs;
+        }
+
+        private Scorer leaf(int index) throws IOException {
+            if (consumed[index]) {
+                consumed[index] = false;
+                leaves[index] = nativeWeight.weights[index].scorer(context, acceptDocs);
+            }
+            return leaves[index];
+        }
+
+        @Override
+        public float score() throws IOException {
+            return (float) score(root);
+        }
+
+        private double score(Node node) throws IOException {
+            if (node.isLeaf()) {
+                Scorer leaf = leaf(node.index);
+                if (leaf == null)
+                    return 0;
+                if (leaf.docID() < doc)
+                    leaf.advance(doc);
+                return leaf.docID() == doc ? leaf.score() : 0;
+            }
+            double rtn = 0;
+            for (Node child : node.children) {
+                // The children of a conjunction all match
+                if (child.isLeaf() || node.conjunction || innerBits[child.index].get(doc))
+                    rtn += score(child);
+            }
+            return rtn;
+        }
+
+        @Override
+        public int freq() throws IOException {
+            return 1;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            return advance(doc + 1);
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            int next = target < matches.length() ? matches.nextSetBit(target) : -1;
+            doc = next == -1 ? NO_MORE_DOCS : next;
+            return doc;
+        }
+
+        @Override
+        public long cost() {
+            return cardinality;
+        }
+
+    }
+
+}
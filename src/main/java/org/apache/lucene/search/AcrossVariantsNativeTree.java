@@ -0,0 +1,318 @@
+package org.apache.lucene.search;
+
+import org.apache.lucene.queries.FilterClause;
+import org.apache.lucene.util.FixedBitSet;
+import org.elasticsearch.common.lucene.search.XBooleanFilter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The conjunctions and disjunctions an across variants query or filter expands into, compiled into a single tree,
+ * so that each segment gets executed by one scorer or one set of bitsets for the whole tree,
+ * instead of by a weight, a scorer and a coordinator per level of nested boolean queries.
+ * A boolean query or filter of only required or only optional clauses, without coord, becomes a node,
+ * anything else, eg. a term or a dis max query, becomes a leaf.
+ * A disjunction may require a minimum number of its clauses to match.
+ */
+final class AcrossVariantsNativeTree {
+
+    private AcrossVariantsNativeTree() {
+    }
+
+    static final class Node {
+
+        final boolean conjunction;
+        final Node[] children;
+        /**
+         * Index of the leaf, or of the inner node.
+         */
+        final int index;
+        /**
+         * Number of children a disjunction requires to match, 0 or 1 for any of them.
+         */
+        final int minimumShouldMatch;
+
+        Node(boolean conjunction, Node[] children, int index) {
+            this(conjunction, children, index, 0);
+        }
+
+        Node(boolean conjunction, Node[] children, int index, int minimumShouldMatch) {
+            this.conjunction = conjunction;
+            this.children = children;
+            this.index = index;
+            this.minimumShouldMatch = minimumShouldMatch;
+        }
+
+        boolean isLeaf() {
+            return children == null;
+        }
+
+    }
+
+    /**
+     * @return Whether the query compiles into an inner node, rather than a single leaf.
+     */
+    static boolean isNative(Query query) {
+        if (!(query instanceof BooleanQuery))
+            return false;
+        BooleanQuery booleanQuery = (BooleanQuery) query;
+        if (!booleanQuery.isCoordDisabled())
+            return false;
+        BooleanClause[] clauses = booleanQuery.getClauses();
+        if (clauses.length == 0)
+            return false;
+        for (BooleanClause clause : clauses) {
+            if (clause.getOccur() != clauses[0].getOccur() || clause.isProhibited())
+                return false;
+        }
+        return booleanQuery.getMinimumNumberShouldMatch() == 0 || clauses[0].getOccur() == BooleanClause.Occur.SHOULD;
+    }
+
+    /**
+     * @return Whether the filter compiles into an inner node, rather than a single leaf.
+     */
+    static boolean isNative(Filter filter) {
+        if (!(filter instanceof XBooleanFilter))
+            return false;
+        List<FilterClause> clauses = ((XBooleanFilter) filter).clauses();
+        if (clauses.isEmpty())
+            return false;
+        for (FilterClause clause : clauses) {
+            if (clause.getOccur() != clauses.get(0).getOccur() || clause.getOccur() == BooleanClause.Occur.MUST_NOT)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compiles a query, collecting its leaves along with the product of the boosts of their ancestors.
+     */
+    static class QueryCompiler {
+
+        final List<Query> leaves = new ArrayList<Query>();
+        final List<Float> leafBoosts = new ArrayList<Float>();
+        int innerNodes;
+
+        Node compile(Query query, float boost) {
+            if (!isNative(query)) {
+                leaves.add(query);
+                leafBoosts.add(boost);
+                return new Node(false, null, leaves.size() - 1);
+            }
+            BooleanQuery booleanQuery = (BooleanQuery) query;
+            BooleanClause[] clauses = booleanQuery.getClauses();
+            Node[] children = new Node[clauses.length];
+            for (int i = 0; i < clauses.length; i++)
+                children[i] = compile(clauses[i].getQuery(), boost * booleanQuery.getBoost());
+            return new Node(clauses[0].isRequired(), children, innerNodes++, booleanQuery.getMinimumNumberShouldMatch());
+        }
+
+    }
+
+    /**
+     * Compiles a filter, collecting its leaves.
+     */
+    static class FilterCompiler {
+
+        final List<Filter> leaves = new ArrayList<Filter>();
+        int innerNodes;
+
+        Node compile(Filter filter) {
+            if (!isNative(filter)) {
+                leaves.add(filter);
+                return new Node(false, null, leaves.size() - 1);
+            }
+            List<FilterClause> clauses = ((XBooleanFilter) filter).clauses();
+            Node[] children = new Node[clauses.size()];
+            for (int i = 0; i < children.length; i++)
+                children[i] = compile(clauses.get(i).getFilter());
+            return new Node(clauses.get(0).getOccur() == BooleanClause.Occur.MUST, children, innerNodes++);
+        }
+
+    }
+
+    /**
+     * @param leaves The iterators of the leaves on the segment, {@code null} for those without any document.
+     * @return What the costs of the engines on the segment get derived from.
+     */
+    static AcrossVariantsPlanner.Shape shape(Node root, DocIdSetIterator[] leaves, int maxDoc) {
+        ShapeBuilder builder = new ShapeBuilder();
+        long matches = builder.collect(root, 1, leaves, maxDoc);
+        return new AcrossVariantsPlanner.Shape(maxDoc, builder.leaves, builder.innerNodes, builder.postings, builder.heapPostings, matches);
+    }
+
+    private static class ShapeBuilder {
+
+        int leaves;
+        int innerNodes;
+        long postings;
+        double heapPostings;
+
+        /**
+         * @param width The number of clauses of the disjunction the node is part of, 1 for a conjunction.
+         * @return An upper bound of the number of documents matching the node.
+         */
+        long collect(Node node, int width, DocIdSetIterator[] iterators, int maxDoc) {
+            if (node.isLeaf()) {
+                DocIdSetIterator iterator = iterators[node.index];
+                long cost = iterator == null ? 0 : iterator.cost();
+                leaves++;
+                postings += cost;
+                heapPostings += cost * AcrossVariantsPlanner.Shape.heapFactor(width);
+                return Math.min(cost, maxDoc);
+            }
+            innerNodes++;
+            int childrenWidth = node.conjunction ? 1 : node.children.length;
+            long rtn = node.conjunction ? Long.MAX_VALUE : 0;
+            for (Node child : node.children) {
+                long childMatches = collect(child, childrenWidth, iterators, maxDoc);
+                rtn = node.conjunction ? Math.min(rtn, childMatches) : rtn + childMatches;
+            }
+            // Each match of a minimum should match disjunction accounts for that many postings
+            if (node.minimumShouldMatch > 1)
+                rtn /= node.minimumShouldMatch;
+            return Math.min(rtn, maxDoc);
+        }
+
+    }
+
+    /**
+     * Scorer engine: a single tree of conjunction and disjunction scorers, leapfrogging the leaves.
+     * A minimum should match disjunction only stops on the documents enough of its children are on,
+     * skipping the documents of its sparsest children with too few matches.
+     * @param leaves The scorers of the leaves on the segment, {@code null} for those without any document.
+     * @return The scorer of the node, {@code null} if it matches no document.
+     */
+    static Scorer scorer(Node node, Scorer[] leaves, Weight weight) throws IOException {
+        if (node.isLeaf())
+            return leaves[node.index];
+        Scorer[] children = new Scorer[node.children.length];
+        int count = 0;
+        for (Node child : node.children) {
+            Scorer scorer = scorer(child, leaves, weight);
+            if (scorer != null)
+                children[count++] = scorer;
+            else if (node.conjunction)
+                return null;
+        }
+        if (count == 0 || count < node.minimumShouldMatch)
+            return null;
+        if (count == 1)
+            return children[0];
+        if (count < children.length)
+            children = Arrays.copyOf(children, count);
+        if (node.conjunction || count == node.minimumShouldMatch)
+            return new ConjunctionScorer(weight, children);
+        float[] coord = new float[count + 1];
+        Arrays.fill(coord, 1f);
+        if (node.minimumShouldMatch > 1)
+            return new MinShouldMatchSumScorer(weight, Arrays.asList(children), node.minimumShouldMatch, coord);
+        return new DisjunctionSumScorer(weight, children, coord);
+    }
+
+    /**
+     * Bitset engine: the postings of the leaves get OR-ed or AND-ed into a bitset per inner node.
+     * @param leaves The iterators of the leaves on the segment, {@code null} for those without any document, consumed.
+     * @param innerBits Receives the bitset of each inner node, by index, may be {@code null}.
+     * @return The documents matching the inner node.
+     */
+    static FixedBitSet bits(Node node, DocIdSetIterator[] leaves, int maxDoc, FixedBitSet[] innerBits) throws IOException {
+        if (node.minimumShouldMatch > 1)
+            return minimumShouldMatchBits(node, leaves, maxDoc, innerBits);
+        FixedBitSet rtn = new FixedBitSet(maxDoc);
+        boolean first = true;
+        for (Node child : node.children) {
+            if (child.isLeaf()) {
+                DocIdSetIterator iterator = leaves[child.index];
+                if (iterator == null) {
+                    if (node.conjunction) {
+                        rtn.clear(0, maxDoc);
+                        break;
+                    }
+                } else if (node.conjunction && !first) {
+                    rtn.and(iterator);
+                } else {
+                    rtn.or(iterator);
+                }
+            } else {
+                FixedBitSet childBits = bits(child, leaves, maxDoc, innerBits);
+                if (node.conjunction && !first)
+                    rtn.and(childBits);
+                else
+                    rtn.or(childBits);
+            }
+            first = false;
+        }
+        if (innerBits != null)
+            innerBits[node.index] = rtn;
+        return rtn;
+    }
+
+    /**
+     * Counts the children matching each document, keeping the documents enough of them match.
+     */
+    private static FixedBitSet minimumShouldMatchBits(Node node, DocIdSetIterator[] leaves, int maxDoc, FixedBitSet[] innerBits) throws IOException {
+        FixedBitSet rtn = new FixedBitSet(maxDoc);
+        int[] counts = new int[maxDoc];
+        for (Node child : node.children) {
+            DocIdSetIterator iterator = child.isLeaf() ? leaves[child.index] : bits(child, leaves, maxDoc, innerBits).iterator();
+            if (iterator == null)
+                continue;
+            for (int doc = iterator.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = iterator.nextDoc()) {
+                if (++counts[doc] == node.minimumShouldMatch)
+                    rtn.set(doc);
+            }
+        }
+        if (innerBits != null)
+            innerBits[node.index] = rtn;
+        return rtn;
+    }
+
+    /**
+     * Presents the iterator of a filter leaf as a scorer, to be combined by the conjunction and disjunction scorers.
+     */
+    static class IteratorScorer extends Scorer {
+
+        private final DocIdSetIterator iterator;
+
+        IteratorScorer(DocIdSetIterator iterator) {
+            super(null);
+            this.iterator = iterator;
+        }
+
+        @Override
+        public float score() throws IOException {
+            return 0;
+        }
+
+        @Override
+        public int freq() throws IOException {
+            return 1;
+        }
+
+        @Override
+        public int docID() {
+            return iterator.docID();
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            return iterator.nextDoc();
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            return iterator.advance(target);
+        }
+
+        @Override
+        public long cost() {
+            return iterator.cost();
+        }
+
+    }
+
+}
@@ -0,0 +1,173 @@
+package org.apache.lucene.search;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.AcrossVariantsTree.TermNode;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes how an across variants query would run against a given reader,
+ * without executing it.
+ * The estimated cost is the number of postings the leaves would have to read,
+ * the estimated matches is an upper bound of the number of matching documents,
+ * computed as a sum for disjunctions and a minimum for conjunctions.
+ * The engine is the one the {@link AcrossVariantsPlanner} picks for the whole reader,
+ * the execution may still pick another one for some segments.
+ */
+public class AcrossVariantsPlan {
+
+    public static final String ENGINE_REWRITE = "rewrite";
+    public static final String ENGINE_SCORER = "scorer";
+    public static final String ENGINE_BITSET = "bitset";
+
+    private final TermNode tree;
+    private final int maxDoc;
+    private final int segments;
+    private final Map<String, Map<String, Integer>> docFreqs;
+    private long estimatedCost;
+    private long estimatedMatches;
+    private int leaves;
+    private int innerNodes;
+    private double heapPostings;
+    private String engine;
+    private Query executedQuery;
+    private AcrossVariantsDegradation degradation;
+
+    public AcrossVariantsPlan(TermNode tree, Map<String, Float> boostedFields, IndexReader reader) throws IOException {
+        this.tree = tree;
+        this.maxDoc = reader.maxDoc();
+        this.segments = reader.leaves().size();
+        this.docFreqs = new LinkedHashMap<String, Map<String, Integer>>(boostedFields.size());
+        List<String> writings = AcrossVariantsTree.collectWritings(tree);
+        for (String field : boostedFields.keySet()) {
+            Map<String, Integer> fieldDocFreqs = new LinkedHashMap<String, Integer>(writings.size());
+            for (String writing : writings) {
+                if (!fieldDocFreqs.containsKey(writing))
+                    fieldDocFreqs.put(writing, reader.docFreq(new Term(field, writing)));
+            }
+            docFreqs.put(field, fieldDocFreqs);
+        }
+        this.estimatedMatches = estimateMatches(tree);
+        this.engine = ENGINE_REWRITE;
+    }
+
+    private long estimateMatches(TermNode node) {
+        long childrenMatches = -1;
+        for (TermNode child : node.getChildren()) {
+            long childMatches = estimateMatches(child);
+            childrenMatches = childrenMatches < 0 ? childMatches : Math.min(childrenMatches, childMatches);
+        }
+        if (node.isRoot()) {
+            if (node.getChildren().size() > 1)
+                innerNodes++;
+            return Math.max(childrenMatches, 0);
+        }
+        long matches = Math.max(childrenMatches, 0);
+        List<String> writings = node.writings();
+        int width = writings.size() * docFreqs.size() + (node.getChildren().isEmpty() ? 0 : 1);
+        double heapFactor = AcrossVariantsPlanner.Shape.heapFactor(width);
+        for (String writing : writings) {
+            for (Map<String, Integer> fieldDocFreqs : docFreqs.values()) {
+                int docFreq = fieldDocFreqs.get(writing);
+                estimatedCost += docFreq;
+                heapPostings += docFreq * heapFactor;
+                matches += docFreq;
+                leaves++;
+            }
+        }
+        if (width > 1)
+            innerNodes++;
+        if (node.getChildren().size() > 1)
+            innerNodes++;
+        return Math.min(matches, maxDoc);
+    }
+
+    public TermNode getTree() {
+        return tree;
+    }
+
+    public int getMaxDoc() {
+        return maxDoc;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    /**
+     * @return The document frequency of each writing, per field.
+     */
+    public Map<String, Map<String, Integer>> getDocFreqs() {
+        return docFreqs;
+    }
+
+    public int getLeaves() {
+        return leaves;
+    }
+
+    /**
+     * @return Number of term dictionary lookups: one per leaf and per segment.
+     */
+    public long getTermSeeks() {
+        return (long) leaves * segments;
+    }
+
+    public long getEstimatedCost() {
+        return estimatedCost;
+    }
+
+    public long getEstimatedMatches() {
+        return estimatedMatches;
+    }
+
+    /**
+     * @return What the costs of the engines get derived from, for the whole reader.
+     */
+    public AcrossVariantsPlanner.Shape getShape() {
+        return new AcrossVariantsPlanner.Shape(maxDoc, leaves, innerNodes, estimatedCost, heapPostings, estimatedMatches);
+    }
+
+    /**
+     * @return The estimated cost of each engine, for the whole reader, see {@link AcrossVariantsPlanner}.
+     */
+    public Map<String, Double> getEngineCosts() {
+        AcrossVariantsPlanner.Shape shape = getShape();
+        Map<String, Double> rtn = new LinkedHashMap<String, Double>();
+        rtn.put(ENGINE_REWRITE, AcrossVariantsPlanner.rewriteCost(shape));
+        rtn.put(ENGINE_SCORER, AcrossVariantsPlanner.scorerCost(shape));
+        rtn.put(ENGINE_BITSET, AcrossVariantsPlanner.bitsetCost(shape, true));
+        return rtn;
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    void setEngine(String engine) {
+        this.engine = engine;
+    }
+
+    public Query getExecutedQuery() {
+        return executedQuery;
+    }
+
+    void setExecutedQuery(Query executedQuery) {
+        this.executedQuery = executedQuery;
+    }
+
+    /**
+     * @return How the executed query got degraded to stay within the limits.
+     */
+    public AcrossVariantsDegradation getDegradation() {
+        return degradation;
+    }
+
+    void setDegradation(AcrossVariantsDegradation degradation) {
+        this.degradation = degradation;
+    }
+
+}
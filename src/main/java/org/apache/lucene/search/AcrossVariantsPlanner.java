@@ -0,0 +1,126 @@
+package org.apache.lucene.search;
+
+/**
+ * Picks the cheapest engine to execute an across variants query or filter with,
+ * out of the document frequencies of its leaves, the number of documents, and the shape of its tree:
+ * <ul>
+ *     <li>{@value AcrossVariantsPlan#ENGINE_REWRITE}: the tree gets rewritten into nested boolean queries or filters,
+ *         each level creating its own weights and scorers, or bitsets;</li>
+ *     <li>{@value AcrossVariantsPlan#ENGINE_SCORER}: a single scorer leapfrogs the postings of the leaves of the whole tree,
+ *         which pays a heap operation per posting of a disjunction, best when the leaves are rare;</li>
+ *     <li>{@value AcrossVariantsPlan#ENGINE_BITSET}: the postings of the leaves get OR-ed and AND-ed into a bitset per node,
+ *         which pays a pass over the bitsets of the segment per node, best when the leaves are dense.
+ *         Scoring then advances the leaves to the matching documents only.</li>
+ * </ul>
+ * The costs are in units of a posting read through a heap, they only need to rank the engines.
+ * The boolean rewrite reads the same postings as the scorer engine, through extra objects per leaf,
+ * so {@value #EXECUTION_AUTO} only picks among the native engines, its cost being reported by the plan.
+ */
+public final class AcrossVariantsPlanner {
+
+    public static final String EXECUTION_AUTO = "auto";
+
+    /**
+     * Setting up a leaf: seeking its term and creating its weight and scorer.
+     */
+    static final double LEAF_COST = 32;
+    /**
+     * Extra objects a leaf gets wrapped into by the boolean rewrite: clause, weight and scorer of its level.
+     */
+    static final double REWRITE_LEAF_COST = 48;
+    /**
+     * Reading a posting straight into a bitset, without going through a heap.
+     */
+    static final double BITSET_POSTING_COST = 0.25;
+    /**
+     * Combining 64 documents of two bitsets.
+     */
+    static final double BITSET_WORD_COST = 1;
+    /**
+     * Advancing a leaf to a matching document to score it.
+     */
+    static final double ADVANCE_COST = 2;
+
+    private AcrossVariantsPlanner() {
+    }
+
+    /**
+     * @return Whether the given execution is either an engine or {@value #EXECUTION_AUTO}.
+     */
+    public static boolean isExecution(String execution) {
+        return EXECUTION_AUTO.equals(execution)
+                || AcrossVariantsPlan.ENGINE_REWRITE.equals(execution)
+                || AcrossVariantsPlan.ENGINE_SCORER.equals(execution)
+                || AcrossVariantsPlan.ENGINE_BITSET.equals(execution);
+    }
+
+    public static double rewriteCost(Shape shape) {
+        return scorerCost(shape) + shape.leaves * REWRITE_LEAF_COST;
+    }
+
+    public static double scorerCost(Shape shape) {
+        return shape.heapPostings + shape.leaves * LEAF_COST;
+    }
+
+    /**
+     * @param scoring Whether the matching documents get scored, which creates a second scorer per leaf.
+     */
+    public static double bitsetCost(Shape shape, boolean scoring) {
+        double rtn = shape.postings * BITSET_POSTING_COST + shape.innerNodes * (shape.maxDoc / 64.0) * BITSET_WORD_COST + shape.leaves * LEAF_COST;
+        if (scoring)
+            rtn += shape.leaves * LEAF_COST + (double) shape.matches * shape.leaves * ADVANCE_COST;
+        return rtn;
+    }
+
+    /**
+     * @param execution The requested execution, an engine is used as is when available.
+     * @param nativeAvailable Whether the tree compiles into native nodes, so that the scorer and bitset engines may be used.
+     * @return The cheapest available engine.
+     */
+    public static String choose(String execution, Shape shape, boolean scoring, boolean nativeAvailable) {
+        if (!nativeAvailable)
+            return AcrossVariantsPlan.ENGINE_REWRITE;
+        if (!EXECUTION_AUTO.equals(execution))
+            return execution;
+        return bitsetCost(shape, scoring) < scorerCost(shape) ? AcrossVariantsPlan.ENGINE_BITSET : AcrossVariantsPlan.ENGINE_SCORER;
+    }
+
+    /**
+     * What the costs get derived from, for a whole reader or a single segment.
+     */
+    public static class Shape {
+
+        final int maxDoc;
+        final int leaves;
+        final int innerNodes;
+        final long postings;
+        final double heapPostings;
+        final long matches;
+
+        /**
+         * @param maxDoc The number of documents.
+         * @param leaves The number of leaves.
+         * @param innerNodes The number of conjunctions and disjunctions.
+         * @param postings The number of postings of all leaves.
+         * @param heapPostings The postings of each leaf times the log of the width of its disjunction.
+         * @param matches An upper bound of the number of matching documents.
+         */
+        public Shape(int maxDoc, int leaves, int innerNodes, long postings, double heapPostings, long matches) {
+            this.maxDoc = maxDoc;
+            this.leaves = leaves;
+            this.innerNodes = innerNodes;
+            this.postings = postings;
+            this.heapPostings = heapPostings;
+            this.matches = matches;
+        }
+
+        /**
+         * @return The number of heap operations to read a posting out of a disjunction of the given width.
+         */
+        public static double heapFactor(int width) {
+            return Math.log(1 + width) / Math.log(2);
+        }
+
+    }
+
+}
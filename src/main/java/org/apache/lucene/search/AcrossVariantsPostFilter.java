@@ -0,0 +1,138 @@
+package org.apache.lucene.search;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Matches the documents of a filter that every post filter matches as well,
+ * only advancing the post filters to the documents of the filter, rather than reading all of their documents.
+ * Meant for post filters matching most documents, eg. the nodes of an across variants filter above its cutoff frequency.
+ */
+public class AcrossVariantsPostFilter extends Filter {
+
+    private final Filter filter;
+    private final Filter[] postFilters;
+
+    public AcrossVariantsPostFilter(Filter filter, Filter[] postFilters) {
+        this.filter = filter;
+        this.postFilters = postFilters;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    public Filter[] getPostFilters() {
+        return postFilters;
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+        final DocIdSet set = filter.getDocIdSet(context, acceptDocs);
+        if (set == null)
+            return null;
+        final DocIdSet[] postSets = new DocIdSet[postFilters.length];
+        for (int i = 0; i < postFilters.length; i++) {
+            // The deleted documents are already out of the filter
+            postSets[i] = postFilters[i].getDocIdSet(context, null);
+            if (postSets[i] == null)
+                return null;
+        }
+        return new DocIdSet() {
+            @Override
+            public DocIdSetIterator iterator() throws IOException {
+                DocIdSetIterator iterator = set.iterator();
+                if (iterator == null)
+                    return null;
+                DocIdSetIterator[] postIterators = new DocIdSetIterator[postSets.length];
+                for (int i = 0; i < postSets.length; i++) {
+                    postIterators[i] = postSets[i].iterator();
+                    if (postIterators[i] == null)
+                        return null;
+                }
+                return new PostFilteredIterator(iterator, postIterators);
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AcrossVariantsPostFilter)) return false;
+        AcrossVariantsPostFilter that = (AcrossVariantsPostFilter) o;
+        return filter.equals(that.filter) && Arrays.equals(postFilters, that.postFilters);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * filter.hashCode() + Arrays.hashCode(postFilters);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(filter);
+        for (Filter postFilter : postFilters)
+            sb.append(" +post(").append(postFilter).append(')');
+        return sb.toString();
+    }
+
+    private static class PostFilteredIterator extends DocIdSetIterator {
+
+        private final DocIdSetIterator iterator;
+        private final DocIdSetIterator[] postIterators;
+        private int doc = -1;
+
+        PostFilteredIterator(DocIdSetIterator iterator, DocIdSetIterator[] postIterators) {
+            this.iterator = iterator;
+            this.postIterators = postIterators;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            return doc = verify(iterator.nextDoc());
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            return doc = verify(iterator.advance(target));
+        }
+
+        /**
+         * @return The first document from the given one on that every post filter matches.
+         */
+        private int verify(int candidate) throws IOException {
+            outer:
+            while (candidate != NO_MORE_DOCS) {
+                for (DocIdSetIterator postIterator : postIterators) {
+                    int postDoc = postIterator.docID();
+                    if (postDoc < candidate)
+                        postDoc = postIterator.advance(candidate);
+                    if (postDoc == NO_MORE_DOCS)
+                        return NO_MORE_DOCS;
+                    if (postDoc > candidate) {
+                        candidate = iterator.advance(postDoc);
+                        continue outer;
+                    }
+                }
+                return candidate;
+            }
+            return NO_MORE_DOCS;
+        }
+
+        @Override
+        public long cost() {
+            return iterator.cost();
+        }
+
+    }
+
+}
@@ -0,0 +1,90 @@
+package org.apache.lucene.search;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.util.FixedBitSet;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Keeps the documents of the short prefixes of each field of each segment, built on first use and dropped when the segment core closes,
+ * so that the type ahead queries do not expand the same short prefixes, which match the most terms, on every keystroke.
+ * Once the memory budget is used, the documents of new prefixes get computed on each use instead.
+ */
+public class AcrossVariantsPrefixCache {
+
+    private static final Entry NO_DOCS = new Entry(null);
+
+    /**
+     * Prefixes that are longer expand into few terms, and are not cached.
+     */
+    private final int maxLength;
+
+    /**
+     * Keyed on the filters rather than their strings, which cannot tell apart prefixes holding their separators.
+     */
+    private final AcrossVariantsSegmentCache<AcrossVariantsPrefixFilter, Entry> cache;
+
+    /**
+     * @param maxLength The maximum length of the cached prefixes.
+     * @param maxSizeInBytes The maximum memory held by the cached documents.
+     */
+    public AcrossVariantsPrefixCache(int maxLength, long maxSizeInBytes) {
+        this.maxLength = maxLength;
+        this.cache = new AcrossVariantsSegmentCache<AcrossVariantsPrefixFilter, Entry>(maxSizeInBytes) {
+            @Override
+            protected long sizeInBytes(Entry entry) {
+                return entry.sizeInBytes();
+            }
+        };
+    }
+
+    /**
+     * @return Whether the documents of the prefixes get cached.
+     */
+    public boolean isCached(Collection<String> prefixes) {
+        for (String prefix : prefixes) {
+            if (prefix.length() > maxLength)
+                return false;
+        }
+        return true;
+    }
+
+    FixedBitSet docs(AtomicReader reader, AcrossVariantsPrefixFilter filter) throws IOException {
+        Entry entry = cache.get(reader, filter);
+        if (entry == null) {
+            FixedBitSet docs = filter.docs(reader);
+            entry = cache.put(reader, filter, docs == null ? NO_DOCS : new Entry(docs));
+        }
+        return entry.docs;
+    }
+
+    /**
+     * @return The number of cached segments.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return The memory held by the cached documents.
+     */
+    public long sizeInBytes() {
+        return cache.sizeInBytes();
+    }
+
+    private static class Entry {
+
+        final FixedBitSet docs;
+
+        Entry(FixedBitSet docs) {
+            this.docs = docs;
+        }
+
+        long sizeInBytes() {
+            return docs == null ? 0 : docs.ramBytesUsed();
+        }
+
+    }
+
+}
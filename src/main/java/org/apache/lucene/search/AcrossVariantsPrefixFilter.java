@@ -0,0 +1,118 @@
+package org.apache.lucene.search;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.BasicAutomata;
+import org.apache.lucene.util.automaton.BasicOperations;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Matches the documents holding a term starting with any of some prefixes, in a field,
+ * out of a single automaton over the terms dictionary of each segment.
+ * The documents of short prefixes, which expand into the most terms, may be kept per segment by a cache.
+ */
+public class AcrossVariantsPrefixFilter extends Filter {
+
+    private final String field;
+    private final SortedSet<String> prefixes;
+    private final AcrossVariantsPrefixCache cache;
+    private volatile CompiledAutomaton automaton;
+
+    /**
+     * @param cache The cache of the documents of the short prefixes, may be {@code null}.
+     */
+    public AcrossVariantsPrefixFilter(String field, Collection<String> prefixes, AcrossVariantsPrefixCache cache) {
+        this.field = field;
+        this.prefixes = new TreeSet<String>(prefixes);
+        this.cache = cache;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public SortedSet<String> getPrefixes() {
+        return prefixes;
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+        FixedBitSet docs = cache != null && cache.isCached(prefixes)
+                ? cache.docs(context.reader(), this) : docs(context.reader());
+        if (docs == null)
+            return null;
+        // The cached documents include the deleted ones
+        return BitsFilteredDocIdSet.wrap(docs, acceptDocs);
+    }
+
+    /**
+     * @return The documents of the segment holding a term with any of the prefixes, deleted or not, {@code null} if none.
+     */
+    FixedBitSet docs(AtomicReader reader) throws IOException {
+        Terms terms = reader.terms(field);
+        if (terms == null)
+            return null;
+        TermsEnum termsEnum = automaton().getTermsEnum(terms);
+        FixedBitSet rtn = null;
+        DocsEnum docsEnum = null;
+        for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+            docsEnum = termsEnum.docs(null, docsEnum, DocsEnum.FLAG_NONE);
+            if (rtn == null)
+                rtn = new FixedBitSet(reader.maxDoc());
+            rtn.or(docsEnum);
+        }
+        return rtn;
+    }
+
+    private CompiledAutomaton automaton() {
+        CompiledAutomaton rtn = automaton;
+        if (rtn == null) {
+            List<Automaton> automata = new ArrayList<Automaton>(prefixes.size());
+            for (String prefix : prefixes)
+                automata.add(BasicOperations.concatenate(BasicAutomata.makeString(prefix), BasicAutomata.makeAnyString()));
+            automaton = rtn = new CompiledAutomaton(BasicOperations.union(automata));
+        }
+        return rtn;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AcrossVariantsPrefixFilter)) return false;
+        AcrossVariantsPrefixFilter that = (AcrossVariantsPrefixFilter) o;
+        return field.equals(that.field) && prefixes.equals(that.prefixes) && cache == that.cache;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * field.hashCode() + prefixes.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(field).append(':');
+        boolean first = true;
+        for (String prefix : prefixes) {
+            if (first) first = false;
+            else sb.append('|');
+            sb.append(prefix).append('*');
+        }
+        return sb.toString();
+    }
+
+}
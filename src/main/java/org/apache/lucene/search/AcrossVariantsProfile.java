@@ -0,0 +1,118 @@
+package org.apache.lucene.search;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.AcrossVariantsTree.TermNode;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the timing of each phase of an across variants query or filter,
+ * along with the document frequency of each leaf, for the slow log.
+ * Phases may run concurrently for filters (one call per segment),
+ * hence the atomic counters.
+ * The scorers of a query are not timed one document at a time: a query executes
+ * from the end of its rewrite until the end of the search phase.
+ */
+public class AcrossVariantsProfile {
+
+    private final AtomicLong analysisNanos = new AtomicLong();
+    private final AtomicLong rewriteNanos = new AtomicLong();
+    private final AtomicLong executionNanos = new AtomicLong();
+    private final AtomicLong executionStartNanos = new AtomicLong();
+    private final Map<Term, Long> docFreqs = new LinkedHashMap<Term, Long>();
+
+    public void addAnalysisNanos(long nanos) {
+        analysisNanos.addAndGet(nanos);
+    }
+
+    public void addRewriteNanos(long nanos) {
+        rewriteNanos.addAndGet(nanos);
+    }
+
+    public void addExecutionNanos(long nanos) {
+        executionNanos.addAndGet(nanos);
+    }
+
+    public long getAnalysisNanos() {
+        return analysisNanos.get();
+    }
+
+    public long getRewriteNanos() {
+        return rewriteNanos.get();
+    }
+
+    public long getExecutionNanos() {
+        return executionNanos.get();
+    }
+
+    /**
+     * Marks the end of the rewrite of a query, whose scorers then execute until the end of the search phase.
+     */
+    public void startExecution(long nanos) {
+        executionStartNanos.set(nanos);
+    }
+
+    /**
+     * Accounts for the execution of the query, if any, at the end of the search phase.
+     */
+    public void endPhase(long nanos) {
+        long start = executionStartNanos.getAndSet(0);
+        if (start != 0)
+            executionNanos.addAndGet(nanos - start);
+    }
+
+    /**
+     * @return The time spent in the across variants clause itself, by analysis, rewrite and execution.
+     */
+    public long getTookNanos() {
+        return analysisNanos.get() + rewriteNanos.get() + executionNanos.get();
+    }
+
+    public synchronized void addDocFreq(Term term, long docFreq) {
+        Long previous = docFreqs.get(term);
+        docFreqs.put(term, previous == null ? docFreq : previous + docFreq);
+    }
+
+    public synchronized Map<Term, Long> getDocFreqs() {
+        return new LinkedHashMap<Term, Long>(docFreqs);
+    }
+
+    /**
+     * Counts the nodes, writings and leaves of a tree queried against the given number of fields.
+     * Clauses counts every boolean clause the tree expands into, nested conjunctions included.
+     */
+    public static class TreeCounts {
+
+        private final int fieldCount;
+        public int nodes;
+        public int writings;
+        public int leaves;
+        public int clauses;
+        public int depth;
+
+        public TreeCounts(TermNode root, int fieldCount) {
+            this.fieldCount = fieldCount;
+            this.clauses = root.getChildren().size();
+            for (TermNode child : root.getChildren())
+                walk(child, 1);
+        }
+
+        private void walk(TermNode node, int level) {
+            int nodeWritings = node.writings().size();
+            nodes++;
+            writings += nodeWritings;
+            leaves += nodeWritings * fieldCount;
+            clauses += nodeWritings * fieldCount;
+            depth = Math.max(depth, level);
+            if (!node.getChildren().isEmpty()) {
+                clauses += 1 + node.getChildren().size();
+                for (TermNode child : node.getChildren())
+                    walk(child, level + 1);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,117 @@
+package org.apache.lucene.search;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queries.FilterClause;
+import org.apache.lucene.queries.TermFilter;
+import org.apache.lucene.search.AcrossVariantsTree.PositionedTerm;
+import org.apache.lucene.search.AcrossVariantsTree.TermNode;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.lucene.search.XBooleanFilter;
+
+import java.util.ArrayList;
+
+import static org.apache.lucene.util.RamUsageEstimator.NUM_BYTES_ARRAY_HEADER;
+import static org.apache.lucene.util.RamUsageEstimator.NUM_BYTES_CHAR;
+import static org.apache.lucene.util.RamUsageEstimator.NUM_BYTES_INT;
+import static org.apache.lucene.util.RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+import static org.apache.lucene.util.RamUsageEstimator.alignObjectSize;
+import static org.apache.lucene.util.RamUsageEstimator.shallowSizeOf;
+import static org.apache.lucene.util.RamUsageEstimator.shallowSizeOfInstance;
+
+/**
+ * Estimates the heap held by the variant tree and by the queries and filters it expands into,
+ * without walking the object graph reflectively.
+ * Field names are interned, hence shared, and not accounted for.
+ * Leaves of an unknown type, eg. given by a script, only count for their shallow size.
+ */
+public final class AcrossVariantsRamUsage {
+
+    private static final long ARRAY_LIST = shallowSizeOfInstance(ArrayList.class) + alignObjectSize(NUM_BYTES_ARRAY_HEADER);
+    private static final long STRING = shallowSizeOfInstance(String.class);
+    private static final long TERM_NODE = shallowSizeOfInstance(TermNode.class);
+    private static final long POSITIONED_TERM = shallowSizeOfInstance(PositionedTerm.class);
+    private static final long TERM = shallowSizeOfInstance(Term.class) + shallowSizeOfInstance(BytesRef.class);
+    private static final long TERM_QUERY = shallowSizeOfInstance(TermQuery.class) + TERM;
+    private static final long BOOLEAN_QUERY = shallowSizeOfInstance(BooleanQuery.class) + ARRAY_LIST;
+    private static final long BOOLEAN_CLAUSE = shallowSizeOfInstance(BooleanClause.class) + NUM_BYTES_OBJECT_REF;
+    private static final long DISJUNCTION_MAX_QUERY = shallowSizeOfInstance(DisjunctionMaxQuery.class) + ARRAY_LIST;
+    private static final long CONSTANT_SCORE_QUERY = shallowSizeOfInstance(ConstantScoreQuery.class);
+    private static final long TERM_FILTER = shallowSizeOfInstance(TermFilter.class) + TERM;
+    private static final long BYTES_REF = shallowSizeOfInstance(BytesRef.class);
+    private static final long TERMS_FILTER = shallowSizeOfInstance(AcrossVariantsTermsFilter.class);
+    private static final long BOOLEAN_FILTER = shallowSizeOfInstance(XBooleanFilter.class) + ARRAY_LIST;
+    private static final long FILTER_CLAUSE = shallowSizeOfInstance(FilterClause.class) + NUM_BYTES_OBJECT_REF;
+
+    private AcrossVariantsRamUsage() {
+    }
+
+    public static long sizeOf(TermNode node) {
+        long rtn = TERM_NODE;
+        if (node.term != null)
+            rtn += POSITIONED_TERM + sizeOf(node.term.term);
+        if (node.alternateWritings != null) {
+            rtn += ARRAY_LIST + node.alternateWritings.size() * NUM_BYTES_OBJECT_REF;
+            for (int i = 0; i < node.alternateWritings.size(); i++)
+                rtn += sizeOf(node.alternateWritings.get(i));
+        }
+        if (node.children != null) {
+            rtn += ARRAY_LIST + node.children.size() * NUM_BYTES_OBJECT_REF;
+            for (int i = 0; i < node.children.size(); i++)
+                rtn += sizeOf(node.children.get(i));
+        }
+        return rtn;
+    }
+
+    public static long sizeOf(Query query) {
+        if (query instanceof TermQuery)
+            return TERM_QUERY + sizeOfBytes(((TermQuery) query).getTerm().bytes().length);
+        if (query instanceof BooleanQuery) {
+            BooleanClause[] clauses = ((BooleanQuery) query).getClauses();
+            long rtn = BOOLEAN_QUERY;
+            for (BooleanClause clause : clauses)
+                rtn += BOOLEAN_CLAUSE + sizeOf(clause.getQuery());
+            return rtn;
+        }
+        if (query instanceof DisjunctionMaxQuery) {
+            long rtn = DISJUNCTION_MAX_QUERY;
+            for (Query disjunct : (DisjunctionMaxQuery) query)
+                rtn += NUM_BYTES_OBJECT_REF + sizeOf(disjunct);
+            return rtn;
+        }
+        if (query instanceof ConstantScoreQuery) {
+            ConstantScoreQuery constantScoreQuery = (ConstantScoreQuery) query;
+            return CONSTANT_SCORE_QUERY + (constantScoreQuery.getFilter() != null
+                    ? sizeOf(constantScoreQuery.getFilter())
+                    : sizeOf(constantScoreQuery.getQuery()));
+        }
+        return shallowSizeOf(query);
+    }
+
+    public static long sizeOf(Filter filter) {
+        if (filter instanceof TermFilter)
+            return TERM_FILTER + sizeOfBytes(((TermFilter) filter).getTerm().bytes().length);
+        if (filter instanceof XBooleanFilter) {
+            long rtn = BOOLEAN_FILTER;
+            for (FilterClause clause : (XBooleanFilter) filter)
+                rtn += FILTER_CLAUSE + sizeOf(clause.getFilter());
+            return rtn;
+        }
+        if (filter instanceof AcrossVariantsTermsFilter) {
+            BytesRef[] terms = ((AcrossVariantsTermsFilter) filter).getTerms();
+            long rtn = TERMS_FILTER + alignObjectSize(NUM_BYTES_ARRAY_HEADER + (long) NUM_BYTES_OBJECT_REF * terms.length);
+            for (BytesRef term : terms)
+                rtn += BYTES_REF + alignObjectSize(NUM_BYTES_ARRAY_HEADER + term.length);
+            return rtn;
+        }
+        return shallowSizeOf(filter);
+    }
+
+    private static long sizeOf(String string) {
+        return STRING + alignObjectSize(NUM_BYTES_ARRAY_HEADER + (long) NUM_BYTES_CHAR * string.length());
+    }
+
+    private static long sizeOfBytes(int length) {
+        return alignObjectSize(NUM_BYTES_ARRAY_HEADER + length);
+    }
+
+}
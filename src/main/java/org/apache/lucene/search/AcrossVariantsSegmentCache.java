@@ -0,0 +1,138 @@
+package org.apache.lucene.search;
+
+import org.apache.lucene.index.AtomicReader;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps values per segment core and key, dropped when the segment core closes, within a memory budget,
+ * for the per segment caches of the across variants queries and filters.
+ * The values are built by the callers, concurrent first uses possibly both building, only one value getting kept.
+ * Once the memory budget is used, new values are not kept, and get built on each use instead.
+ */
+public abstract class AcrossVariantsSegmentCache<K, V> {
+
+    private final long maxSizeInBytes;
+
+    private final ConcurrentMap<Object, ConcurrentMap<K, V>> cache = ConcurrentCollections.newConcurrentMap();
+    private final AtomicLong sizeInBytes = new AtomicLong();
+
+    private final AtomicReader.CoreClosedListener evicter = new AtomicReader.CoreClosedListener() {
+        @Override
+        public void onClose(Object ownerCoreCacheKey) {
+            ConcurrentMap<K, V> values = cache.remove(ownerCoreCacheKey);
+            if (values != null) {
+                // Whoever removes a value releases it, a concurrent put possibly rolling its own back
+                for (Map.Entry<K, V> entry : values.entrySet()) {
+                    if (values.remove(entry.getKey(), entry.getValue()))
+                        sizeInBytes.addAndGet(-sizeInBytes(entry.getValue()));
+                }
+            }
+        }
+    };
+
+    /**
+     * @param maxSizeInBytes The maximum memory held by the values.
+     */
+    protected AcrossVariantsSegmentCache(long maxSizeInBytes) {
+        this.maxSizeInBytes = maxSizeInBytes;
+    }
+
+    /**
+     * @return The memory held by the value.
+     */
+    protected abstract long sizeInBytes(V value);
+
+    /**
+     * @return The value of the key on the segment, {@code null} if not cached.
+     */
+    public V get(AtomicReader reader, K key) {
+        ConcurrentMap<K, V> values = cache.get(reader.getCoreCacheKey());
+        return values == null ? null : values.get(key);
+    }
+
+    /**
+     * Keeps the value of the key on the segment, if the memory budget allows it.
+     * @return The kept value, the one of a concurrent first use if it got kept first.
+     */
+    public V put(AtomicReader reader, K key, V value) {
+        return put(reader, key, value, null);
+    }
+
+    /**
+     * @param overBudget Kept instead of the value when it does not fit the memory budget, so that it does not get built on each use,
+     *                   of no size, {@code null} to keep nothing.
+     */
+    public V put(AtomicReader reader, K key, V value, V overBudget) {
+        Object coreKey = reader.getCoreCacheKey();
+        ConcurrentMap<K, V> values = cache.get(coreKey);
+        if (values == null) {
+            values = ConcurrentCollections.newConcurrentMap();
+            ConcurrentMap<K, V> existing = cache.putIfAbsent(coreKey, values);
+            if (existing != null)
+                values = existing;
+            else
+                reader.addCoreClosedListener(evicter);
+        }
+        long size = sizeInBytes(value);
+        if (!reserve(size)) {
+            if (overBudget == null)
+                return value;
+            value = overBudget;
+            size = 0;
+        }
+        V existing = values.putIfAbsent(key, value);
+        if (existing != null) {
+            sizeInBytes.addAndGet(-size);
+            return existing;
+        }
+        if (cache.get(coreKey) != values && values.remove(key, value)) {
+            // The segment closed concurrently
+            sizeInBytes.addAndGet(-size);
+        }
+        return value;
+    }
+
+    /**
+     * Drops the values of the key on every segment.
+     */
+    public void remove(K key) {
+        for (ConcurrentMap<K, V> values : cache.values()) {
+            V value = values.remove(key);
+            if (value != null)
+                sizeInBytes.addAndGet(-sizeInBytes(value));
+        }
+    }
+
+    /**
+     * Takes some of the memory budget, at once so that concurrent uses cannot exceed it together.
+     * @return Whether the budget had enough left.
+     */
+    private boolean reserve(long size) {
+        while (true) {
+            long current = sizeInBytes.get();
+            if (current + size > maxSizeInBytes)
+                return false;
+            if (sizeInBytes.compareAndSet(current, current + size))
+                return true;
+        }
+    }
+
+    /**
+     * @return The number of segments with cached values.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return The memory held by the values.
+     */
+    public long sizeInBytes() {
+        return sizeInBytes.get();
+    }
+
+}
@@ -0,0 +1,162 @@
+package org.apache.lucene.search;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.elasticsearch.common.lucene.docset.DocIdSets;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Computes the doc id sets of a filter for the segments of a reader in parallel, on a bounded pool,
+ * while the search thread goes through the segments sequentially.
+ * Each task holds a permit while queued or running, a filter whose segments do not all get a permit is computed sequentially instead.
+ * The tasks of the segments the search never asks for get cancelled once the search is done, giving their permits back.
+ */
+public class AcrossVariantsSegmentExecutor {
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final int minSegments;
+
+    private final AtomicLong parallel = new AtomicLong();
+    private final AtomicLong saturated = new AtomicLong();
+
+    /**
+     * @param executor The pool computing the doc id sets.
+     * @param queueSize The maximum number of segments queued or being computed at once, across all filters.
+     * @param minSegments The minimum number of segments of a reader for its filters to get computed in parallel.
+     */
+    public AcrossVariantsSegmentExecutor(ExecutorService executor, int queueSize, int minSegments) {
+        this.executor = executor;
+        this.permits = new Semaphore(queueSize);
+        this.minSegments = minSegments;
+    }
+
+    /**
+     * @param filter The filter to compute the doc id sets of, for all documents, live or not.
+     * @param leaves The segments of the reader.
+     * @param skip The segment the caller computes itself.
+     * @param accountant Charged with the materialized doc id sets, may be {@code null}.
+     * @return The pending doc id set of each segment, by ord, {@code null} for the skipped one,
+     *         or {@code null} if the filter should be computed sequentially.
+     */
+    public List<Future<DocIdSet>> submit(Filter filter, List<AtomicReaderContext> leaves, int skip, AcrossVariantsMemoryAccountant accountant) {
+        if (leaves.size() < minSegments)
+            return null;
+        int tasks = leaves.size() - 1;
+        if (!permits.tryAcquire(tasks)) {
+            saturated.incrementAndGet();
+            return null;
+        }
+        List<Future<DocIdSet>> rtn = new ArrayList<Future<DocIdSet>>(Collections.<Future<DocIdSet>>nCopies(leaves.size(), null));
+        int submitted = 0;
+        try {
+            for (AtomicReaderContext leaf : leaves) {
+                if (leaf.ord == skip)
+                    continue;
+                SegmentTask task = new SegmentTask(filter, leaf, accountant);
+                executor.execute(task);
+                rtn.set(leaf.ord, task);
+                submitted++;
+            }
+        } catch (RejectedExecutionException e) {
+            // Shutting down, the submitted tasks still run and release their own permits
+            permits.release(tasks - submitted);
+            return null;
+        }
+        parallel.incrementAndGet();
+        return rtn;
+    }
+
+    /**
+     * Cancels the tasks that did not start yet, without interrupting the running ones,
+     * as interrupting a thread reading an index closes its file channels.
+     * The running ones still charge their accountant, possibly once the search is done.
+     */
+    public static void cancel(List<Future<DocIdSet>> docIdSets) {
+        for (Future<DocIdSet> docIdSet : docIdSets) {
+            if (docIdSet != null)
+                docIdSet.cancel(false);
+        }
+    }
+
+    /**
+     * @return The doc id set of the filter for the segment, for all documents, in a form that is cheap to iterate more than once.
+     */
+    public static DocIdSet materialize(Filter filter, AtomicReaderContext leaf, AcrossVariantsMemoryAccountant accountant) throws IOException {
+        DocIdSet rtn = DocIdSets.toCacheable(leaf.reader(), filter.getDocIdSet(leaf, null));
+        if (accountant != null)
+            accountant.addEstimateBytes(DocIdSets.sizeInBytes(rtn), "across_variants segment doc id set");
+        return rtn;
+    }
+
+    /**
+     * @return The number of filters computed in parallel.
+     */
+    public long getParallel() {
+        return parallel.get();
+    }
+
+    /**
+     * @return The number of filters computed sequentially because the pool was saturated.
+     */
+    public long getSaturated() {
+        return saturated.get();
+    }
+
+    /**
+     * @return The number of permits left.
+     */
+    public int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+
+    /**
+     * Gives its permit back once done, whether computed, failed or cancelled.
+     * A computed or failed task gives it back before its result is set, so that the permit is back once the search got the result.
+     */
+    private class SegmentTask extends FutureTask<DocIdSet> {
+
+        private final AtomicBoolean holdsPermit;
+
+        SegmentTask(final Filter filter, final AtomicReaderContext leaf, final AcrossVariantsMemoryAccountant accountant) {
+            this(filter, leaf, accountant, new AtomicBoolean(true));
+        }
+
+        private SegmentTask(final Filter filter, final AtomicReaderContext leaf, final AcrossVariantsMemoryAccountant accountant, final AtomicBoolean holdsPermit) {
+            super(new Callable<DocIdSet>() {
+                @Override
+                public DocIdSet call() throws Exception {
+                    try {
+                        return materialize(filter, leaf, accountant);
+                    } finally {
+                        releasePermit(holdsPermit);
+                    }
+                }
+            });
+            this.holdsPermit = holdsPermit;
+        }
+
+        @Override
+        protected void done() {
+            releasePermit(holdsPermit);
+        }
+
+    }
+
+    private void releasePermit(AtomicBoolean holdsPermit) {
+        if (holdsPermit.compareAndSet(true, false))
+            permits.release();
+    }
+
+}
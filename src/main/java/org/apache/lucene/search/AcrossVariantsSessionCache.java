@@ -0,0 +1,170 @@
+package org.apache.lucene.search;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps, per client session, the documents of each segment matching the completed tokens of the last query of the session,
+ * so that while the user types the last token, the next queries only match it against them,
+ * rather than evaluating the completed tokens again.
+ * A session expires some time after its last use, or as soon as its completed tokens, or anything they are matched with, change.
+ * The documents of a segment are dropped when its core closes.
+ * Once the memory budget is used, the documents of new segments get computed on each use instead.
+ */
+public class AcrossVariantsSessionCache {
+
+    private final long ttlNanos;
+
+    private final ConcurrentMap<String, Session> sessions = ConcurrentCollections.newConcurrentMap();
+    private final AcrossVariantsSegmentCache<Session, FixedBitSet> docs;
+    private final AtomicLong nextExpiry;
+
+    /**
+     * @param ttlNanos The time a session is kept for after its last use.
+     * @param maxSizeInBytes The maximum memory held by the documents of all the sessions.
+     */
+    public AcrossVariantsSessionCache(long ttlNanos, long maxSizeInBytes) {
+        this.ttlNanos = ttlNanos;
+        this.docs = new AcrossVariantsSegmentCache<Session, FixedBitSet>(maxSizeInBytes) {
+            @Override
+            protected long sizeInBytes(FixedBitSet docs) {
+                return docs.ramBytesUsed();
+            }
+        };
+        this.nextExpiry = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * @param sessionId The id of the session, provided by the client.
+     * @param completed Matches the completed tokens, and identifies them through its equality,
+     *                  a query without one only getting cached until the next query of the session.
+     * @return A filter matching the documents of the completed tokens, cached for the session.
+     */
+    public Filter filter(String sessionId, Query completed) {
+        return new SessionFilter(sessionId, completed);
+    }
+
+    FixedBitSet docs(String sessionId, Query completed, AtomicReaderContext context) throws IOException {
+        long now = System.nanoTime();
+        // At most once per time to live, whether the sessions get used or not
+        long expiry = nextExpiry.get();
+        if (now - expiry >= 0 && nextExpiry.compareAndSet(expiry, now + ttlNanos))
+            expire(now);
+        Session session = sessions.get(sessionId);
+        if (session == null || !session.completed.equals(completed) || session.isExpired(now)) {
+            Session fresh = new Session(completed, now);
+            Session replaced = sessions.put(sessionId, fresh);
+            if (replaced != null)
+                docs.remove(replaced);
+            if (session != null)
+                docs.remove(session);
+            session = fresh;
+        }
+        session.lastUse = now;
+
+        FixedBitSet rtn = docs.get(context.reader(), session);
+        if (rtn == null) {
+            rtn = docs.put(context.reader(), session, docs(completed, context));
+            // Concurrently expired or replaced
+            if (sessions.get(sessionId) != session)
+                docs.remove(session);
+        }
+        return rtn;
+    }
+
+    /**
+     * @return The documents of the completed tokens, deleted or not.
+     */
+    private static FixedBitSet docs(Query completed, AtomicReaderContext context) throws IOException {
+        FixedBitSet rtn = new FixedBitSet(context.reader().maxDoc());
+        DocIdSet set = new QueryWrapperFilter(completed).getDocIdSet(context, null);
+        if (set != null) {
+            DocIdSetIterator iterator = set.iterator();
+            if (iterator != null)
+                rtn.or(iterator);
+        }
+        return rtn;
+    }
+
+    private void expire(long now) {
+        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+            // Not a session concurrently replaced with a fresh one
+            if (entry.getValue().isExpired(now) && sessions.remove(entry.getKey(), entry.getValue()))
+                docs.remove(entry.getValue());
+        }
+    }
+
+    /**
+     * @return The number of live sessions.
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * @return The memory held by the documents of the sessions.
+     */
+    public long sizeInBytes() {
+        return docs.sizeInBytes();
+    }
+
+    private class Session {
+
+        final Query completed;
+        volatile long lastUse;
+
+        Session(Query completed, long now) {
+            this.completed = completed;
+            this.lastUse = now;
+        }
+
+        boolean isExpired(long now) {
+            return now - lastUse > ttlNanos;
+        }
+
+    }
+
+    private class SessionFilter extends Filter {
+
+        private final String sessionId;
+        private final Query completed;
+
+        SessionFilter(String sessionId, Query completed) {
+            this.sessionId = sessionId;
+            this.completed = completed;
+        }
+
+        @Override
+        public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+            // The cached documents include the deleted ones
+            return BitsFilteredDocIdSet.wrap(docs(sessionId, completed, context), acceptDocs);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SessionFilter)) return false;
+            SessionFilter that = (SessionFilter) o;
+            return sessionId.equals(that.sessionId) && completed.equals(that.completed);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * sessionId.hashCode() + completed.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "session(" + sessionId + ":" + completed + ")";
+        }
+
+    }
+
+}
@@ -0,0 +1,85 @@
+package org.apache.lucene.search;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Matches the documents containing any of the writings of a term.
+ * Lucene's terms filter calls nextDoc() again once the postings of a term are exhausted
+ * when none of their documents are accepted, which this filter never does.
+ */
+public class AcrossVariantsTermsFilter extends Filter {
+
+    private final String field;
+    private final BytesRef[] terms;
+
+    public AcrossVariantsTermsFilter(String field, BytesRef[] terms) {
+        this.field = field;
+        this.terms = terms.clone();
+        Arrays.sort(this.terms);
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public BytesRef[] getTerms() {
+        return terms;
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+        AtomicReader reader = context.reader();
+        Terms fieldTerms = reader.terms(field);
+        if (fieldTerms == null)
+            return null;
+        TermsEnum termsEnum = fieldTerms.iterator(null);
+        DocsEnum docs = null;
+        FixedBitSet result = null;
+        for (BytesRef term : terms) {
+            if (!termsEnum.seekExact(term))
+                continue;
+            docs = termsEnum.docs(acceptDocs, docs, DocsEnum.FLAG_NONE);
+            for (int doc = docs.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docs.nextDoc()) {
+                if (result == null)
+                    result = new FixedBitSet(reader.maxDoc());
+                result.set(doc);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AcrossVariantsTermsFilter)) return false;
+        AcrossVariantsTermsFilter that = (AcrossVariantsTermsFilter) o;
+        return field.equals(that.field) && Arrays.equals(terms, that.terms);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * field.hashCode() + Arrays.hashCode(terms);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (BytesRef term : terms) {
+            if (sb.length() > 0)
+                sb.append(' ');
+            sb.append(field).append(':').append(term.utf8ToString());
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,354 @@
+package org.apache.lucene.search;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The variant tree shared by {@link AcrossVariantsAndQuery} and {@link AcrossVariantsAndFilter}.
+ * The root node has no term, its children are the top level spans, that must all match.
+ * Each node holds its alternate writings, and its children
+ * are the subspans that, ANDed together, form another alternative.
+ */
+public final class AcrossVariantsTree {
+
+    private AcrossVariantsTree() {
+    }
+
+    public static TermNode build(Analyzer analyzer, Reader input) throws IOException {
+        return build(analyzer, input, AcrossVariantsLimits.UNLIMITED, new AcrossVariantsDegradation());
+    }
+
+    /**
+     * Builds the tree, keeping at most {@link AcrossVariantsLimits#getMaxTokens()} tokens
+     * and analyzing for at most {@link AcrossVariantsLimits#getAnalysisTimeoutNanos()}.
+     * Past either limit, the rest of the stream is dropped, as well as the tokens
+     * already collected for the position that got cut, so that no node misses some of its subspans.
+     */
+    public static TermNode build(Analyzer analyzer, Reader input, AcrossVariantsLimits limits, AcrossVariantsDegradation degradation) throws IOException {
+        TermNode root = new TermNode(null);
+        int maxTokens = limits.getMaxTokens();
+        long timeout = limits.getAnalysisTimeoutNanos();
+        long deadline = timeout < 0 ? 0 : System.nanoTime() + timeout;
+
+        // Logic similar to QueryParser#getFieldQuery
+        final TokenStream source = analyzer.tokenStream(null, input);
+        try {
+            source.reset();
+
+            final CharTermAttribute termAtt = source.addAttribute(CharTermAttribute.class);
+            final OffsetAttribute offsetAtt = source.addAttribute(OffsetAttribute.class);
+            final PositionIncrementAttribute posIncrAtt = source.addAttribute(PositionIncrementAttribute.class);
+            int pos = 0;
+            boolean truncated = false;
+            List<PositionedTerm> collectedTokens = new ArrayList<PositionedTerm>();
+            while (source.incrementToken()) {
+                pos += posIncrAtt.getPositionIncrement();
+                if (maxTokens >= 0 && collectedTokens.size() >= maxTokens) {
+                    degradation.setTokensTruncated();
+                    truncated = true;
+                } else if (timeout >= 0 && System.nanoTime() - deadline >= 0) {
+                    degradation.setAnalysisTimedOut();
+                    truncated = true;
+                }
+                if (truncated) {
+                    while (!collectedTokens.isEmpty() && collectedTokens.get(collectedTokens.size() - 1).position == pos)
+                        collectedTokens.remove(collectedTokens.size() - 1);
+                    break;
+                }
+                collectedTokens.add(new PositionedTerm(termAtt.toString(), offsetAtt.startOffset(), offsetAtt.endOffset(), pos));
+            }
+            // The stream may only be ended once exhausted
+            if (!truncated)
+                source.end();
+
+            Collections.sort(collectedTokens);
+            for (PositionedTerm term : collectedTokens)
+                root.add(term);
+        } finally {
+            source.close();
+        }
+
+        return root;
+    }
+
+    /**
+     * @return Every writing of every node of the tree, in depth first order.
+     */
+    public static List<String> collectWritings(TermNode root) {
+        List<String> rtn = new ArrayList<String>();
+        collectWritings(root, rtn);
+        return rtn;
+    }
+
+    private static void collectWritings(TermNode node, List<String> output) {
+        if (node.term != null) {
+            output.add(node.term.term);
+            if (node.alternateWritings != null)
+                output.addAll(node.alternateWritings);
+        }
+        if (node.children != null) {
+            for (TermNode child : node.children)
+                collectWritings(child, output);
+        }
+    }
+
+    /**
+     * @param cutoffFrequency A maximum document frequency, as a fraction of the documents if below 1, as a number of documents otherwise.
+     * @return The nodes whose every writing is in more documents than the cutoff frequency, in some of the given fields.
+     */
+    public static Set<TermNode> highFrequencyNodes(TermNode root, IndexReader reader, Collection<String> fields, float cutoffFrequency) throws IOException {
+        int maxDocFreq = cutoffFrequency >= 1 ? (int) cutoffFrequency : (int) Math.ceil(cutoffFrequency * reader.maxDoc());
+        Set<TermNode> rtn = Collections.newSetFromMap(new IdentityHashMap<TermNode, Boolean>());
+        collectHighFrequencyNodes(root, reader, fields, maxDocFreq, rtn);
+        return rtn;
+    }
+
+    private static void collectHighFrequencyNodes(TermNode node, IndexReader reader, Collection<String> fields, int maxDocFreq, Set<TermNode> output) throws IOException {
+        if (node.term != null && isHighFrequency(node, reader, fields, maxDocFreq))
+            output.add(node);
+        if (node.children != null) {
+            for (TermNode child : node.children)
+                collectHighFrequencyNodes(child, reader, fields, maxDocFreq, output);
+        }
+    }
+
+    private static boolean isHighFrequency(TermNode node, IndexReader reader, Collection<String> fields, int maxDocFreq) throws IOException {
+        for (String writing : node.writings()) {
+            boolean high = false;
+            for (String field : fields) {
+                if (reader.docFreq(new Term(field, writing)) > maxDocFreq) {
+                    high = true;
+                    break;
+                }
+            }
+            if (!high)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of writings of the whole tree, without collecting them.
+     */
+    public static int countWritings(TermNode node) {
+        int rtn = 0;
+        if (node.term != null)
+            rtn += 1 + (node.alternateWritings == null ? 0 : node.alternateWritings.size());
+        if (node.children != null) {
+            for (int i = 0; i < node.children.size(); i++)
+                rtn += countWritings(node.children.get(i));
+        }
+        return rtn;
+    }
+
+    public static class PositionedTerm implements Comparable<PositionedTerm> {
+
+        public final String term;
+        public final int startOffset;
+        public final int endOffset;
+        public final int position;
+
+        public PositionedTerm(String term, int startOffset, int endOffset, int position) {
+            this.term = term;
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
+            this.position = position;
+        }
+
+        @Override
+        public String toString() {
+            if (term == null)
+                return "null";
+            StringBuilder sb = new StringBuilder();
+            sb.append('"');
+            sb.append(term);
+            sb.append("\":[");
+            sb.append(position);
+            sb.append(',');
+            sb.append(startOffset);
+            sb.append(':');
+            sb.append(endOffset);
+            sb.append(']');
+            return sb.toString();
+        }
+
+        @Override
+        public int compareTo(PositionedTerm o) {
+            if (o == null)
+                return 1;
+            int diff = this.position - o.position;
+            if (diff == 0)
+                diff = this.startOffset - o.startOffset;
+            if (diff == 0)
+                diff = o.endOffset - this.endOffset;
+            return diff;
+        }
+
+        public boolean contains(PositionedTerm o) {
+            return this.position == o.position
+                    && this.startOffset <= o.startOffset
+                    && this.endOffset >= o.endOffset;
+        }
+
+    }
+
+    public static class TermNode implements Comparable<Object> {
+
+        protected final PositionedTerm term;
+        protected List<String> alternateWritings;
+        protected List<TermNode> children;
+
+        public TermNode(PositionedTerm term) {
+            this.term = term;
+            this.alternateWritings = null;
+            this.children = null;
+        }
+
+        public TermNode add(PositionedTerm term) {
+            if (children == null) {
+                TermNode newNode = new TermNode(term);
+                addChild(newNode);
+                return newNode;
+            } else {
+                int index = Collections.binarySearch(children, term);
+                if (index >= 0) {
+                    // Exact match (but for the term text)
+                    // The two terms nest inside each other
+                    // Add the new term as an alternate writing
+                    TermNode node = children.get(index);
+                    node.addAlternateWriting(term.term);
+                    return node;
+                } else {
+                    index = -index - 1;
+                    if (index > 0) {
+                        // New term may be nestable in the previous element,
+                        // or it can be the other way around
+                        TermNode prev = children.get(index - 1);
+                        if (prev.term.contains(term)) {
+                            return prev.add(term);
+                        }
+                    }
+                    TermNode newNode = new TermNode(term);
+                    children.add(index, newNode);
+                    return newNode;
+                }
+            }
+        }
+
+        public void addChild(TermNode child) {
+            if (children == null)
+                children = new ArrayList<TermNode>();
+            children.add(child);
+        }
+
+        public void addAlternateWriting(String writing) {
+            if (alternateWritings == null)
+                alternateWritings = new ArrayList<String>();
+            alternateWritings.add(writing);
+        }
+
+        public PositionedTerm getTerm() {
+            return term;
+        }
+
+        public List<String> getAlternateWritings() {
+            if (alternateWritings == null)
+                return Collections.emptyList();
+            return alternateWritings;
+        }
+
+        public List<TermNode> getChildren() {
+            if (children == null)
+                return Collections.emptyList();
+            return children;
+        }
+
+        public boolean isRoot() {
+            return term == null;
+        }
+
+        /**
+         * @return The main writing followed by the alternate writings,
+         *         empty for the root node.
+         */
+        public List<String> writings() {
+            if (term == null)
+                return Collections.emptyList();
+            int size = 1 + (alternateWritings == null ? 0 : alternateWritings.size());
+            List<String> rtn = new ArrayList<String>(size);
+            rtn.add(term.term);
+            if (alternateWritings != null)
+                rtn.addAll(alternateWritings);
+            return rtn;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append('<');
+            if (alternateWritings != null) {
+                for (String alternateWriting : alternateWritings) {
+                    sb.append('"');
+                    sb.append(alternateWriting);
+                    sb.append("\"|");
+                }
+            }
+            sb.append(term);
+            sb.append('>');
+            if (children == null)
+                sb.append("[]");
+            else
+                sb.append(children);
+            return sb.toString();
+        }
+
+        @Override
+        public int compareTo(Object o) {
+            if (o instanceof TermNode)
+                return compareTo((TermNode)o);
+            if (o instanceof PositionedTerm)
+                return compareTo((PositionedTerm)o);
+            throw new IllegalArgumentException("Can only compare to TermNode or PositionedTerm");
+        }
+
+        public int compareTo(TermNode o) {
+            return this.compareTo(o.term);
+        }
+
+        public int compareTo(PositionedTerm o) {
+            if (this.term == null)
+                return 1;
+            return this.term.compareTo(o);
+        }
+
+        public <T> T visit(Visitor<T> visitor) {
+            List<T> childrenOutput = null;
+            if (children != null && !children.isEmpty()) {
+                childrenOutput = new ArrayList<T>(children.size());
+                for (TermNode child : children)
+                    childrenOutput.add(child.visit(visitor));
+            }
+            return visitor.visit(this, childrenOutput);
+        }
+
+        public static interface Visitor<T> {
+            public T visit(TermNode node, List<T> childrenOutput);
+        }
+
+    }
+
+}
@@ -0,0 +1,24 @@
+package org.elasticsearch.action.acrossvariants.plan;
+
+import org.elasticsearch.action.admin.indices.IndicesAction;
+import org.elasticsearch.client.IndicesAdminClient;
+
+public class AcrossVariantsPlanAction extends IndicesAction<AcrossVariantsPlanRequest, AcrossVariantsPlanResponse, AcrossVariantsPlanRequestBuilder> {
+
+    public static final AcrossVariantsPlanAction INSTANCE = new AcrossVariantsPlanAction();
+    public static final String NAME = "indices/across_variants/plan";
+
+    private AcrossVariantsPlanAction() {
+        super(NAME);
+    }
+
+    @Override
+    public AcrossVariantsPlanResponse newResponse() {
+        return new AcrossVariantsPlanResponse();
+    }
+
+    @Override
+    public AcrossVariantsPlanRequestBuilder newRequestBuilder(IndicesAdminClient client) {
+        return new AcrossVariantsPlanRequestBuilder(client);
+    }
+}
@@ -0,0 +1,63 @@
+package org.elasticsearch.action.acrossvariants.plan;
+
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.support.broadcast.BroadcastOperationRequest;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.query.QueryBuilder;
+
+import java.io.IOException;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+/**
+ * Asks each shard how it would run an across variants query, without executing it.
+ * The source is the query itself, ie. {@code {"across_variants": {...}}}.
+ */
+public class AcrossVariantsPlanRequest extends BroadcastOperationRequest<AcrossVariantsPlanRequest> {
+
+    private BytesReference source;
+
+    AcrossVariantsPlanRequest() {
+    }
+
+    public AcrossVariantsPlanRequest(String... indices) {
+        super(indices);
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        ActionRequestValidationException validationException = super.validate();
+        if (source == null)
+            validationException = addValidationError("across_variants query is missing", validationException);
+        return validationException;
+    }
+
+    public BytesReference source() {
+        return source;
+    }
+
+    public AcrossVariantsPlanRequest source(BytesReference source) {
+        this.source = source;
+        return this;
+    }
+
+    public AcrossVariantsPlanRequest source(QueryBuilder query) {
+        this.source = query.buildAsBytes();
+        return this;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        source = in.readBytesReference();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeBytesReference(source);
+    }
+
+}
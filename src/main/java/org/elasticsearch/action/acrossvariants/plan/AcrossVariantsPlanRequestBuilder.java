@@ -0,0 +1,29 @@
+package org.elasticsearch.action.acrossvariants.plan;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.broadcast.BroadcastOperationRequestBuilder;
+import org.elasticsearch.client.IndicesAdminClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.index.query.AcrossVariantsQueryBuilder;
+
+public class AcrossVariantsPlanRequestBuilder extends BroadcastOperationRequestBuilder<AcrossVariantsPlanRequest, AcrossVariantsPlanResponse, AcrossVariantsPlanRequestBuilder, IndicesAdminClient> {
+
+    public AcrossVariantsPlanRequestBuilder(IndicesAdminClient client) {
+        super(client, new AcrossVariantsPlanRequest());
+    }
+
+    public AcrossVariantsPlanRequestBuilder setQuery(AcrossVariantsQueryBuilder query) {
+        request.source(query);
+        return this;
+    }
+
+    public AcrossVariantsPlanRequestBuilder setSource(BytesReference source) {
+        request.source(source);
+        return this;
+    }
+
+    @Override
+    protected void doExecute(ActionListener<AcrossVariantsPlanResponse> listener) {
+        client.execute(AcrossVariantsPlanAction.INSTANCE, request, listener);
+    }
+}
@@ -0,0 +1,85 @@
+package org.elasticsearch.action.acrossvariants.plan;
+
+import org.elasticsearch.action.ShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastOperationResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The plan of an across variants query, on each shard.
+ * The variant tree only depends on the analysis, it is hence reported once.
+ */
+public class AcrossVariantsPlanResponse extends BroadcastOperationResponse implements ToXContent {
+
+    private List<ShardAcrossVariantsPlanResponse> shardPlans;
+
+    AcrossVariantsPlanResponse() {
+    }
+
+    AcrossVariantsPlanResponse(List<ShardAcrossVariantsPlanResponse> shardPlans, int totalShards, int successfulShards, int failedShards, List<ShardOperationFailedException> shardFailures) {
+        super(totalShards, successfulShards, failedShards, shardFailures);
+        this.shardPlans = shardPlans;
+    }
+
+    public List<ShardAcrossVariantsPlanResponse> getShardPlans() {
+        return shardPlans;
+    }
+
+    public long getEstimatedCost() {
+        long rtn = 0;
+        for (ShardAcrossVariantsPlanResponse shardPlan : shardPlans)
+            rtn += shardPlan.getEstimatedCost();
+        return rtn;
+    }
+
+    public long getEstimatedMatches() {
+        long rtn = 0;
+        for (ShardAcrossVariantsPlanResponse shardPlan : shardPlans)
+            rtn += shardPlan.getEstimatedMatches();
+        return rtn;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        if (!shardPlans.isEmpty()) {
+            builder.field("tree");
+            ShardAcrossVariantsPlanResponse.treeToXContent(shardPlans.get(0).getTree(), builder);
+        }
+        builder.field("estimated_cost", getEstimatedCost());
+        builder.field("estimated_matches", getEstimatedMatches());
+        builder.startArray("shards");
+        for (ShardAcrossVariantsPlanResponse shardPlan : shardPlans) {
+            builder.startObject();
+            shardPlan.toXContent(builder, params);
+            builder.endObject();
+        }
+        builder.endArray();
+        return builder;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        int size = in.readVInt();
+        shardPlans = new ArrayList<ShardAcrossVariantsPlanResponse>(size);
+        for (int i = 0; i < size; i++) {
+            ShardAcrossVariantsPlanResponse shardPlan = new ShardAcrossVariantsPlanResponse();
+            shardPlan.readFrom(in);
+            shardPlans.add(shardPlan);
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVInt(shardPlans.size());
+        for (ShardAcrossVariantsPlanResponse shardPlan : shardPlans)
+            shardPlan.writeTo(out);
+    }
+}
@@ -0,0 +1,37 @@
+package org.elasticsearch.action.acrossvariants.plan;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationRequest;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+
+class ShardAcrossVariantsPlanRequest extends BroadcastShardOperationRequest {
+
+    private BytesReference source;
+
+    ShardAcrossVariantsPlanRequest() {
+    }
+
+    ShardAcrossVariantsPlanRequest(String index, int shardId, AcrossVariantsPlanRequest request) {
+        super(index, shardId, request);
+        this.source = request.source();
+    }
+
+    public BytesReference source() {
+        return source;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        source = in.readBytesReference();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeBytesReference(source);
+    }
+}
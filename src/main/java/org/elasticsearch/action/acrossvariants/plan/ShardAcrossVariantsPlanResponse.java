@@ -0,0 +1,248 @@
+package org.elasticsearch.action.acrossvariants.plan;
+
+import org.apache.lucene.search.AcrossVariantsPlan;
+import org.apache.lucene.search.AcrossVariantsTree.PositionedTerm;
+import org.apache.lucene.search.AcrossVariantsTree.TermNode;
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The plan of an across variants query on a single shard.
+ */
+public class ShardAcrossVariantsPlanResponse extends BroadcastShardOperationResponse implements ToXContent {
+
+    private TermNode tree;
+    private int maxDoc;
+    private int segments;
+    private int leaves;
+    private long termSeeks;
+    private long estimatedCost;
+    private long estimatedMatches;
+    private String engine;
+    private Map<String, Double> engineCosts;
+    private String executedQuery;
+    private String degradation;
+    private Map<String, Map<String, Integer>> docFreqs;
+
+    ShardAcrossVariantsPlanResponse() {
+    }
+
+    ShardAcrossVariantsPlanResponse(String index, int shardId, AcrossVariantsPlan plan) {
+        super(index, shardId);
+        this.tree = plan.getTree();
+        this.maxDoc = plan.getMaxDoc();
+        this.segments = plan.getSegments();
+        this.leaves = plan.getLeaves();
+        this.termSeeks = plan.getTermSeeks();
+        this.estimatedCost = plan.getEstimatedCost();
+        this.estimatedMatches = plan.getEstimatedMatches();
+        this.engine = plan.getEngine();
+        this.engineCosts = plan.getEngineCosts();
+        this.executedQuery = String.valueOf(plan.getExecutedQuery());
+        this.degradation = String.valueOf(plan.getDegradation());
+        this.docFreqs = plan.getDocFreqs();
+    }
+
+    public TermNode getTree() {
+        return tree;
+    }
+
+    public int getMaxDoc() {
+        return maxDoc;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    public int getLeaves() {
+        return leaves;
+    }
+
+    public long getTermSeeks() {
+        return termSeeks;
+    }
+
+    public long getEstimatedCost() {
+        return estimatedCost;
+    }
+
+    public long getEstimatedMatches() {
+        return estimatedMatches;
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    /**
+     * @return The estimated cost of each engine, the cheapest available one being picked by the {@code auto} execution.
+     */
+    public Map<String, Double> getEngineCosts() {
+        return engineCosts;
+    }
+
+    public String getExecutedQuery() {
+        return executedQuery;
+    }
+
+    /**
+     * @return How the executed query got degraded to stay within the limits, {@code none} if it was not.
+     */
+    public String getDegradation() {
+        return degradation;
+    }
+
+    /**
+     * @return The document frequency of each writing, per field.
+     */
+    public Map<String, Map<String, Integer>> getDocFreqs() {
+        return docFreqs;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.field("index", getIndex());
+        builder.field("shard", getShardId());
+        builder.field("max_doc", maxDoc);
+        builder.field("segments", segments);
+        builder.field("leaves", leaves);
+        builder.field("term_seeks", termSeeks);
+        builder.field("estimated_cost", estimatedCost);
+        builder.field("estimated_matches", estimatedMatches);
+        builder.startObject("plan");
+        builder.field("engine", engine);
+        builder.startObject("engine_costs");
+        for (Map.Entry<String, Double> engineCost : engineCosts.entrySet())
+            builder.field(engineCost.getKey(), engineCost.getValue());
+        builder.endObject();
+        builder.field("query", executedQuery);
+        builder.field("degradation", degradation);
+        builder.endObject();
+        builder.startObject("doc_freqs");
+        for (Map.Entry<String, Map<String, Integer>> field : docFreqs.entrySet()) {
+            builder.startObject(field.getKey());
+            for (Map.Entry<String, Integer> writing : field.getValue().entrySet())
+                builder.field(writing.getKey(), writing.getValue());
+            builder.endObject();
+        }
+        builder.endObject();
+        return builder;
+    }
+
+    public static void treeToXContent(TermNode node, XContentBuilder builder) throws IOException {
+        builder.startObject();
+        PositionedTerm term = node.getTerm();
+        if (term != null) {
+            builder.field("writings", node.writings());
+            builder.field("position", term.position);
+            builder.field("start_offset", term.startOffset);
+            builder.field("end_offset", term.endOffset);
+        }
+        if (!node.getChildren().isEmpty()) {
+            builder.startArray("children");
+            for (TermNode child : node.getChildren())
+                treeToXContent(child, builder);
+            builder.endArray();
+        }
+        builder.endObject();
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        tree = readTree(in);
+        maxDoc = in.readVInt();
+        segments = in.readVInt();
+        leaves = in.readVInt();
+        termSeeks = in.readVLong();
+        estimatedCost = in.readVLong();
+        estimatedMatches = in.readVLong();
+        engine = in.readString();
+        int engines = in.readVInt();
+        engineCosts = new LinkedHashMap<String, Double>(engines);
+        for (int i = 0; i < engines; i++)
+            engineCosts.put(in.readString(), in.readDouble());
+        executedQuery = in.readString();
+        degradation = in.readString();
+        int fields = in.readVInt();
+        docFreqs = new LinkedHashMap<String, Map<String, Integer>>(fields);
+        for (int i = 0; i < fields; i++) {
+            String field = in.readString();
+            int writings = in.readVInt();
+            Map<String, Integer> fieldDocFreqs = new LinkedHashMap<String, Integer>(writings);
+            for (int j = 0; j < writings; j++)
+                fieldDocFreqs.put(in.readString(), in.readVInt());
+            docFreqs.put(field, fieldDocFreqs);
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        writeTree(tree, out);
+        out.writeVInt(maxDoc);
+        out.writeVInt(segments);
+        out.writeVInt(leaves);
+        out.writeVLong(termSeeks);
+        out.writeVLong(estimatedCost);
+        out.writeVLong(estimatedMatches);
+        out.writeString(engine);
+        out.writeVInt(engineCosts.size());
+        for (Map.Entry<String, Double> engineCost : engineCosts.entrySet()) {
+            out.writeString(engineCost.getKey());
+            out.writeDouble(engineCost.getValue());
+        }
+        out.writeString(executedQuery);
+        out.writeString(degradation);
+        out.writeVInt(docFreqs.size());
+        for (Map.Entry<String, Map<String, Integer>> field : docFreqs.entrySet()) {
+            out.writeString(field.getKey());
+            out.writeVInt(field.getValue().size());
+            for (Map.Entry<String, Integer> writing : field.getValue().entrySet()) {
+                out.writeString(writing.getKey());
+                out.writeVInt(writing.getValue());
+            }
+        }
+    }
+
+    private static TermNode readTree(StreamInput in) throws IOException {
+        TermNode node;
+        if (in.readBoolean()) {
+            node = new TermNode(new PositionedTerm(in.readString(), in.readVInt(), in.readVInt(), in.readVInt()));
+            int alternateWritings = in.readVInt();
+            for (int i = 0; i < alternateWritings; i++)
+                node.addAlternateWriting(in.readString());
+        } else {
+            node = new TermNode(null);
+        }
+        int children = in.readVInt();
+        for (int i = 0; i < children; i++)
+            node.addChild(readTree(in));
+        return node;
+    }
+
+    private static void writeTree(TermNode node, StreamOutput out) throws IOException {
+        PositionedTerm term = node.getTerm();
+        out.writeBoolean(term != null);
+        if (term != null) {
+            out.writeString(term.term);
+            out.writeVInt(term.startOffset);
+            out.writeVInt(term.endOffset);
+            out.writeVInt(term.position);
+            out.writeVInt(node.getAlternateWritings().size());
+            for (String alternateWriting : node.getAlternateWritings())
+                out.writeString(alternateWriting);
+        }
+        out.writeVInt(node.getChildren().size());
+        for (TermNode child : node.getChildren())
+            writeTree(child, out);
+    }
+}
@@ -0,0 +1,135 @@
+package org.elasticsearch.action.acrossvariants.plan;
+
+import org.apache.lucene.search.AcrossVariantsAndQuery;
+import org.apache.lucene.search.Query;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.action.ShardOperationFailedException;
+import org.elasticsearch.action.support.DefaultShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.TransportBroadcastOperationAction;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.block.ClusterBlockException;
+import org.elasticsearch.cluster.block.ClusterBlockLevel;
+import org.elasticsearch.cluster.routing.GroupShardsIterator;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.service.IndexService;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.index.shard.service.IndexShard;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+
+/**
+ * Parses the across variants query on each shard and plans it against the shard's reader,
+ * the query is never executed.
+ */
+public class TransportAcrossVariantsPlanAction extends TransportBroadcastOperationAction<AcrossVariantsPlanRequest, AcrossVariantsPlanResponse, ShardAcrossVariantsPlanRequest, ShardAcrossVariantsPlanResponse> {
+
+    private final IndicesService indicesService;
+
+    @Inject
+    public TransportAcrossVariantsPlanAction(Settings settings, ThreadPool threadPool, ClusterService clusterService, TransportService transportService, IndicesService indicesService) {
+        super(settings, AcrossVariantsPlanAction.NAME, threadPool, clusterService, transportService);
+        this.indicesService = indicesService;
+    }
+
+    @Override
+    protected String executor() {
+        return ThreadPool.Names.SEARCH;
+    }
+
+    @Override
+    protected AcrossVariantsPlanRequest newRequest() {
+        return new AcrossVariantsPlanRequest();
+    }
+
+    @Override
+    protected ShardAcrossVariantsPlanRequest newShardRequest() {
+        return new ShardAcrossVariantsPlanRequest();
+    }
+
+    @Override
+    protected ShardAcrossVariantsPlanRequest newShardRequest(int numShards, ShardRouting shard, AcrossVariantsPlanRequest request) {
+        return new ShardAcrossVariantsPlanRequest(shard.index(), shard.id(), request);
+    }
+
+    @Override
+    protected ShardAcrossVariantsPlanResponse newShardResponse() {
+        return new ShardAcrossVariantsPlanResponse();
+    }
+
+    @Override
+    protected GroupShardsIterator shards(ClusterState clusterState, AcrossVariantsPlanRequest request, String[] concreteIndices) {
+        // One copy of each shard is enough, prefer the local ones
+        Map<String, Set<String>> routingMap = clusterState.metaData().resolveSearchRouting(null, request.indices());
+        return clusterService.operationRouting().searchShards(clusterState, request.indices(), concreteIndices, routingMap, "_local");
+    }
+
+    @Override
+    protected ClusterBlockException checkGlobalBlock(ClusterState state, AcrossVariantsPlanRequest request) {
+        return state.blocks().globalBlockedException(ClusterBlockLevel.READ);
+    }
+
+    @Override
+    protected ClusterBlockException checkRequestBlock(ClusterState state, AcrossVariantsPlanRequest request, String[] concreteIndices) {
+        return state.blocks().indicesBlockedException(ClusterBlockLevel.READ, concreteIndices);
+    }
+
+    @Override
+    protected AcrossVariantsPlanResponse newResponse(AcrossVariantsPlanRequest request, AtomicReferenceArray shardsResponses, ClusterState clusterState) {
+        int successfulShards = 0;
+        int failedShards = 0;
+        List<ShardOperationFailedException> shardFailures = null;
+        List<ShardAcrossVariantsPlanResponse> shardPlans = new ArrayList<ShardAcrossVariantsPlanResponse>();
+        for (int i = 0; i < shardsResponses.length(); i++) {
+            Object shardResponse = shardsResponses.get(i);
+            if (shardResponse == null) {
+                // simply ignore non active shards
+            } else if (shardResponse instanceof BroadcastShardOperationFailedException) {
+                failedShards++;
+                if (shardFailures == null) {
+                    shardFailures = newArrayList();
+                }
+                shardFailures.add(new DefaultShardOperationFailedException((BroadcastShardOperationFailedException) shardResponse));
+            } else {
+                shardPlans.add((ShardAcrossVariantsPlanResponse) shardResponse);
+                successfulShards++;
+            }
+        }
+        return new AcrossVariantsPlanResponse(shardPlans, shardsResponses.length(), successfulShards, failedShards, shardFailures);
+    }
+
+    @Override
+    protected ShardAcrossVariantsPlanResponse shardOperation(ShardAcrossVariantsPlanRequest request) throws ElasticsearchException {
+        IndexService indexService = indicesService.indexServiceSafe(request.index());
+        IndexShard indexShard = indexService.shardSafe(request.shardId());
+        ShardId shardId = new ShardId(request.index(), request.shardId());
+
+        Query query = indexService.queryParserService().parse(request.source()).query();
+        if (!(query instanceof AcrossVariantsAndQuery))
+            throw new ElasticsearchIllegalArgumentException("Can only plan an across_variants query, got [" + query + "]");
+
+        Engine.Searcher searcher = indexShard.acquireSearcher("across_variants_plan");
+        try {
+            return new ShardAcrossVariantsPlanResponse(request.index(), request.shardId(), ((AcrossVariantsAndQuery) query).plan(searcher.reader()));
+        } catch (IOException e) {
+            throw new BroadcastShardOperationFailedException(shardId, "Failed to plan the across_variants query", e);
+        } finally {
+            searcher.close();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package org.elasticsearch.action.acrossvariants.stats;
+
+import org.elasticsearch.action.admin.cluster.ClusterAction;
+import org.elasticsearch.client.ClusterAdminClient;
+
+public class AcrossVariantsStatsAction extends ClusterAction<AcrossVariantsStatsRequest, AcrossVariantsStatsResponse, AcrossVariantsStatsRequestBuilder> {
+
+    public static final AcrossVariantsStatsAction INSTANCE = new AcrossVariantsStatsAction();
+    public static final String NAME = "cluster/nodes/across_variants/stats";
+
+    private AcrossVariantsStatsAction() {
+        super(NAME);
+    }
+
+    @Override
+    public AcrossVariantsStatsResponse newResponse() {
+        return new AcrossVariantsStatsResponse();
+    }
+
+    @Override
+    public AcrossVariantsStatsRequestBuilder newRequestBuilder(ClusterAdminClient client) {
+        return new AcrossVariantsStatsRequestBuilder(client);
+    }
+}
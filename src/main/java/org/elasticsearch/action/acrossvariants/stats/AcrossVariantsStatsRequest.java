@@ -0,0 +1,13 @@
+package org.elasticsearch.action.acrossvariants.stats;
+
+import org.elasticsearch.action.support.nodes.NodesOperationRequest;
+
+public class AcrossVariantsStatsRequest extends NodesOperationRequest<AcrossVariantsStatsRequest> {
+
+    public AcrossVariantsStatsRequest() {
+    }
+
+    public AcrossVariantsStatsRequest(String... nodesIds) {
+        super(nodesIds);
+    }
+}
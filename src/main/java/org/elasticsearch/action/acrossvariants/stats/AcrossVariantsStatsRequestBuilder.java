@@ -0,0 +1,17 @@
+package org.elasticsearch.action.acrossvariants.stats;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.nodes.NodesOperationRequestBuilder;
+import org.elasticsearch.client.ClusterAdminClient;
+
+public class AcrossVariantsStatsRequestBuilder extends NodesOperationRequestBuilder<AcrossVariantsStatsRequest, AcrossVariantsStatsResponse, AcrossVariantsStatsRequestBuilder> {
+
+    public AcrossVariantsStatsRequestBuilder(ClusterAdminClient client) {
+        super(client, new AcrossVariantsStatsRequest());
+    }
+
+    @Override
+    protected void doExecute(ActionListener<AcrossVariantsStatsResponse> listener) {
+        client.execute(AcrossVariantsStatsAction.INSTANCE, request, listener);
+    }
+}
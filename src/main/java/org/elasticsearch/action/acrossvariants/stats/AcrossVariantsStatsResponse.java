@@ -0,0 +1,53 @@
+package org.elasticsearch.action.acrossvariants.stats;
+
+import org.elasticsearch.action.support.nodes.NodesOperationResponse;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+
+public class AcrossVariantsStatsResponse extends NodesOperationResponse<NodeAcrossVariantsStats> implements ToXContent {
+
+    AcrossVariantsStatsResponse() {
+    }
+
+    public AcrossVariantsStatsResponse(ClusterName clusterName, NodeAcrossVariantsStats[] nodes) {
+        super(clusterName, nodes);
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        nodes = new NodeAcrossVariantsStats[in.readVInt()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new NodeAcrossVariantsStats();
+            nodes[i].readFrom(in);
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVInt(nodes.length);
+        for (NodeAcrossVariantsStats node : nodes) {
+            node.writeTo(out);
+        }
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.field("cluster_name", getClusterName().value());
+        builder.startObject("nodes");
+        for (NodeAcrossVariantsStats node : this) {
+            builder.startObject(node.getNode().id(), XContentBuilder.FieldCaseConversion.NONE);
+            builder.field("name", node.getNode().name(), XContentBuilder.FieldCaseConversion.NONE);
+            node.getStats().toXContent(builder, params);
+            builder.endObject();
+        }
+        builder.endObject();
+        return builder;
+    }
+}
@@ -0,0 +1,38 @@
+package org.elasticsearch.action.acrossvariants.stats;
+
+import org.elasticsearch.action.support.nodes.NodeOperationResponse;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.indices.acrossvariants.AcrossVariantsStats;
+
+import java.io.IOException;
+
+public class NodeAcrossVariantsStats extends NodeOperationResponse {
+
+    private AcrossVariantsStats stats;
+
+    NodeAcrossVariantsStats() {
+    }
+
+    public NodeAcrossVariantsStats(DiscoveryNode node, AcrossVariantsStats stats) {
+        super(node);
+        this.stats = stats;
+    }
+
+    public AcrossVariantsStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        stats = AcrossVariantsStats.readAcrossVariantsStats(in);
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        stats.writeTo(out);
+    }
+}
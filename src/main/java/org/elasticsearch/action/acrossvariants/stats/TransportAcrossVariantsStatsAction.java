@@ -0,0 +1,87 @@
+package org.elasticsearch.action.acrossvariants.stats;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.support.nodes.NodeOperationRequest;
+import org.elasticsearch.action.support.nodes.TransportNodesOperationAction;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.indices.acrossvariants.AcrossVariantsStatsService;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Gathers the across variants statistics of each node.
+ */
+public class TransportAcrossVariantsStatsAction extends TransportNodesOperationAction<AcrossVariantsStatsRequest, AcrossVariantsStatsResponse, TransportAcrossVariantsStatsAction.NodeAcrossVariantsStatsRequest, NodeAcrossVariantsStats> {
+
+    private final AcrossVariantsStatsService statsService;
+
+    @Inject
+    public TransportAcrossVariantsStatsAction(Settings settings, ClusterName clusterName, ThreadPool threadPool, ClusterService clusterService, TransportService transportService, AcrossVariantsStatsService statsService) {
+        super(settings, AcrossVariantsStatsAction.NAME, clusterName, threadPool, clusterService, transportService);
+        this.statsService = statsService;
+    }
+
+    @Override
+    protected String executor() {
+        return ThreadPool.Names.MANAGEMENT;
+    }
+
+    @Override
+    protected AcrossVariantsStatsRequest newRequest() {
+        return new AcrossVariantsStatsRequest();
+    }
+
+    @Override
+    protected AcrossVariantsStatsResponse newResponse(AcrossVariantsStatsRequest request, AtomicReferenceArray responses) {
+        final List<NodeAcrossVariantsStats> nodeStats = new ArrayList<NodeAcrossVariantsStats>();
+        for (int i = 0; i < responses.length(); i++) {
+            Object resp = responses.get(i);
+            if (resp instanceof NodeAcrossVariantsStats) {
+                nodeStats.add((NodeAcrossVariantsStats) resp);
+            }
+        }
+        return new AcrossVariantsStatsResponse(clusterName, nodeStats.toArray(new NodeAcrossVariantsStats[nodeStats.size()]));
+    }
+
+    @Override
+    protected NodeAcrossVariantsStatsRequest newNodeRequest() {
+        return new NodeAcrossVariantsStatsRequest();
+    }
+
+    @Override
+    protected NodeAcrossVariantsStatsRequest newNodeRequest(String nodeId, AcrossVariantsStatsRequest request) {
+        return new NodeAcrossVariantsStatsRequest(nodeId, request);
+    }
+
+    @Override
+    protected NodeAcrossVariantsStats newNodeResponse() {
+        return new NodeAcrossVariantsStats();
+    }
+
+    @Override
+    protected NodeAcrossVariantsStats nodeOperation(NodeAcrossVariantsStatsRequest request) throws ElasticsearchException {
+        return new NodeAcrossVariantsStats(clusterService.localNode(), statsService.stats());
+    }
+
+    @Override
+    protected boolean accumulateExceptions() {
+        return false;
+    }
+
+    static class NodeAcrossVariantsStatsRequest extends NodeOperationRequest {
+
+        NodeAcrossVariantsStatsRequest() {
+        }
+
+        NodeAcrossVariantsStatsRequest(String nodeId, AcrossVariantsStatsRequest request) {
+            super(request, nodeId);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.elasticsearch.index.analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.apache.lucene.search.AcrossVariantsGlue;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.inject.assistedinject.Assisted;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.settings.IndexSettings;
+
+/**
+ * Indexes the glued forms of adjacent tokens, optionally limited to a word list,
+ * so that the across variants queries and filters on the field can match a compound with a single term.
+ * Meant for the index analyzer only, as the last filter of the chain, so that the glued forms are normalized like their parts.
+ */
+public class AcrossVariantsGlueTokenFilterFactory extends AbstractTokenFilterFactory {
+
+    public static final String NAME = "across_variants_glue";
+    public static final String WORD_LIST = "word_list";
+    public static final String MAX_PARTS = "max_parts";
+
+    public static final int DEFAULT_MAX_PARTS = 2;
+
+    private final AcrossVariantsGlue glue;
+
+    @Inject
+    public AcrossVariantsGlueTokenFilterFactory(Index index, @IndexSettings Settings indexSettings, Environment environment, @Assisted String name, @Assisted Settings settings) {
+        super(index, indexSettings, name, settings);
+        int maxParts = settings.getAsInt(MAX_PARTS, DEFAULT_MAX_PARTS);
+        if (maxParts < 2)
+            throw new ElasticsearchIllegalArgumentException("[" + NAME + "] token filter [" + name + "] requires [" + MAX_PARTS + "] to be at least 2");
+        CharArraySet words = Analysis.getWordSet(environment, settings, WORD_LIST, version);
+        this.glue = new AcrossVariantsGlue(words, maxParts);
+    }
+
+    @Override
+    public TokenStream create(TokenStream tokenStream) {
+        return glue.filter(tokenStream);
+    }
+
+    public AcrossVariantsGlue glue() {
+        return glue;
+    }
+
+    /**
+     * @return The glue of the given analyzer, {@code null} if its chain has no glue token filter.
+     */
+    public static AcrossVariantsGlue glue(Analyzer analyzer) {
+        if (analyzer instanceof NamedAnalyzer)
+            analyzer = ((NamedAnalyzer) analyzer).analyzer();
+        if (!(analyzer instanceof CustomAnalyzer))
+            return null;
+        AcrossVariantsGlue rtn = null;
+        for (TokenFilterFactory tokenFilter : ((CustomAnalyzer) analyzer).tokenFilters()) {
+            if (tokenFilter instanceof AcrossVariantsGlueTokenFilterFactory)
+                rtn = ((AcrossVariantsGlueTokenFilterFactory) tokenFilter).glue();
+        }
+        return rtn;
+    }
+
+}
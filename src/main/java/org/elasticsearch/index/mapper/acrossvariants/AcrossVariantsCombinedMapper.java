@@ -0,0 +1,298 @@
+package org.elasticsearch.index.mapper.acrossvariants;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PayloadAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.search.AcrossVariantsCombinedQuery;
+import org.elasticsearch.common.collect.ImmutableList;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.mapper.DocumentMapper;
+import org.elasticsearch.index.mapper.FieldMapperListener;
+import org.elasticsearch.index.mapper.InternalMapper;
+import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.index.mapper.MapperParsingException;
+import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.index.mapper.MergeContext;
+import org.elasticsearch.index.mapper.MergeMappingException;
+import org.elasticsearch.index.mapper.ObjectMapperListener;
+import org.elasticsearch.index.mapper.ParseContext;
+import org.elasticsearch.index.mapper.RootMapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Indexes the terms of some source fields once, into a hidden combined field,
+ * each position carrying the bitmask of the source fields holding the term there,
+ * so that the across variants queries and filters can match a term in any of them out of a single postings list.
+ * <p>
+ * The source fields are overlaid: the n-th position of each of them is the n-th position of the combined field.
+ * Enabled with {@code _across_variants: { fields: [...] }} in the mapping of a type.
+ */
+public class AcrossVariantsCombinedMapper implements Mapper, InternalMapper, RootMapper {
+
+    public static final String NAME = "_across_variants";
+    public static final String FIELDS = "fields";
+    public static final int MAX_FIELDS = 31;
+
+    public static final FieldType FIELD_TYPE = new FieldType();
+
+    static {
+        FIELD_TYPE.setIndexed(true);
+        FIELD_TYPE.setTokenized(true);
+        FIELD_TYPE.setStored(false);
+        FIELD_TYPE.setOmitNorms(true);
+        FIELD_TYPE.setIndexOptions(FieldInfo.IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+        FIELD_TYPE.freeze();
+    }
+
+    public static class Builder extends Mapper.Builder<Builder, AcrossVariantsCombinedMapper> {
+
+        private final List<String> fields = new ArrayList<String>();
+
+        public Builder() {
+            super(NAME);
+            this.builder = this;
+        }
+
+        public Builder field(String field) {
+            fields.add(field);
+            return this;
+        }
+
+        @Override
+        public AcrossVariantsCombinedMapper build(BuilderContext context) {
+            return new AcrossVariantsCombinedMapper(fields);
+        }
+
+    }
+
+    public static class TypeParser implements Mapper.TypeParser {
+
+        @Override
+        public Mapper.Builder<?, ?> parse(String name, Map<String, Object> node, ParserContext parserContext) throws MapperParsingException {
+            Builder builder = new Builder();
+            for (Map.Entry<String, Object> entry : node.entrySet()) {
+                if (FIELDS.equals(entry.getKey())) {
+                    if (!(entry.getValue() instanceof List))
+                        throw new MapperParsingException("[" + NAME + "] expects a list of [" + FIELDS + "]");
+                    for (Object field : (List<?>) entry.getValue())
+                        builder.field(field.toString());
+                }
+            }
+            if (builder.fields.size() > MAX_FIELDS)
+                throw new MapperParsingException("[" + NAME + "] combines at most " + MAX_FIELDS + " fields");
+            return builder;
+        }
+
+    }
+
+    private final ImmutableList<String> fields;
+
+    public AcrossVariantsCombinedMapper(List<String> fields) {
+        this.fields = ImmutableList.copyOf(fields);
+    }
+
+    /**
+     * @return The source fields, the bit of each being its index.
+     */
+    public List<String> fields() {
+        return fields;
+    }
+
+    /**
+     * @return The bit of the given source field, -1 if it is not combined.
+     */
+    public int bit(String field) {
+        return fields.indexOf(field);
+    }
+
+    /**
+     * @return The bit of each given field, {@code null} unless every given type combines all of them the same way.
+     */
+    public static Map<String, Integer> bits(MapperService mapperService, Collection<String> types, Collection<String> fields) {
+        if (types.isEmpty())
+            return null;
+        List<String> combined = null;
+        for (String type : types) {
+            DocumentMapper docMapper = mapperService.documentMapper(type);
+            AcrossVariantsCombinedMapper mapper = docMapper == null ? null : docMapper.rootMapper(AcrossVariantsCombinedMapper.class);
+            if (mapper == null || mapper.fields.isEmpty() || (combined != null && !combined.equals(mapper.fields)))
+                return null;
+            combined = mapper.fields;
+        }
+        Map<String, Integer> rtn = new HashMap<String, Integer>();
+        for (String field : fields) {
+            int bit = combined.indexOf(field);
+            if (bit < 0)
+                return null;
+            rtn.put(field, bit);
+        }
+        return rtn;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public void preParse(ParseContext context) throws IOException {
+    }
+
+    @Override
+    public void postParse(ParseContext context) throws IOException {
+        if (fields.isEmpty())
+            return;
+        List<CombinedToken> tokens = new ArrayList<CombinedToken>();
+        Analyzer analyzer = context.docMapper().indexAnalyzer();
+        for (int bit = 0; bit < fields.size(); bit++) {
+            String field = fields.get(bit);
+            int position = -1;
+            for (IndexableField value : context.rootDoc().getFields(field)) {
+                if (!value.fieldType().indexed() || value.stringValue() == null)
+                    continue;
+                position = analyze(analyzer, field, value.stringValue(), 1 << bit, position, tokens);
+                position += analyzer.getPositionIncrementGap(field);
+            }
+        }
+        if (tokens.isEmpty())
+            return;
+        Collections.sort(tokens);
+        context.rootDoc().add(new Field(NAME, new CombinedTokenStream(tokens), FIELD_TYPE));
+    }
+
+    /**
+     * @return The last position of the value.
+     */
+    private static int analyze(Analyzer analyzer, String field, String value, int mask, int position, List<CombinedToken> output) throws IOException {
+        TokenStream stream = analyzer.tokenStream(field, value);
+        try {
+            CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute posIncAtt = stream.addAttribute(PositionIncrementAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                position += posIncAtt.getPositionIncrement();
+                output.add(new CombinedToken(termAtt.toString(), Math.max(position, 0), mask));
+            }
+            stream.end();
+        } finally {
+            stream.close();
+        }
+        return position;
+    }
+
+    @Override
+    public boolean includeInObject() {
+        return false;
+    }
+
+    @Override
+    public void parse(ParseContext context) throws IOException {
+        // Nothing to parse, built out of the other fields
+    }
+
+    @Override
+    public void merge(Mapper mergeWith, MergeContext mergeContext) throws MergeMappingException {
+        if (!(mergeWith instanceof AcrossVariantsCombinedMapper))
+            return;
+        if (!fields.equals(((AcrossVariantsCombinedMapper) mergeWith).fields))
+            mergeContext.addConflict("[" + NAME + "] combined fields may not change, as they are already indexed with their bits");
+    }
+
+    @Override
+    public void traverse(FieldMapperListener fieldMapperListener) {
+    }
+
+    @Override
+    public void traverse(ObjectMapperListener objectMapperListener) {
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(NAME);
+        builder.field(FIELDS, fields);
+        builder.endObject();
+        return builder;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static class CombinedToken implements Comparable<CombinedToken> {
+
+        final String term;
+        final int position;
+        int mask;
+
+        CombinedToken(String term, int position, int mask) {
+            this.term = term;
+            this.position = position;
+            this.mask = mask;
+        }
+
+        @Override
+        public int compareTo(CombinedToken o) {
+            int diff = position - o.position;
+            if (diff == 0)
+                diff = term.compareTo(o.term);
+            return diff;
+        }
+
+    }
+
+    /**
+     * Emits the sorted tokens, merging the same term at the same position into one with the union of their masks.
+     */
+    private static class CombinedTokenStream extends TokenStream {
+
+        private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+        private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+        private final PayloadAttribute payloadAtt = addAttribute(PayloadAttribute.class);
+
+        private final List<CombinedToken> tokens;
+        private int index;
+        private int position;
+
+        CombinedTokenStream(List<CombinedToken> tokens) {
+            this.tokens = tokens;
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            if (index >= tokens.size())
+                return false;
+            clearAttributes();
+            CombinedToken token = tokens.get(index++);
+            int mask = token.mask;
+            while (index < tokens.size() && tokens.get(index).position == token.position && tokens.get(index).term.equals(token.term))
+                mask |= tokens.get(index++).mask;
+            termAtt.append(token.term);
+            posIncAtt.setPositionIncrement(token.position - position);
+            payloadAtt.setPayload(AcrossVariantsCombinedQuery.encodeMask(mask));
+            position = token.position;
+            return true;
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            index = 0;
+            position = -1;
+        }
+
+    }
+
+}
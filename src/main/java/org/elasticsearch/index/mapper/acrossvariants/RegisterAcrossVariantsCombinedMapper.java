@@ -0,0 +1,18 @@
+package org.elasticsearch.index.mapper.acrossvariants;
+
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.AbstractIndexComponent;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.index.settings.IndexSettings;
+
+public class RegisterAcrossVariantsCombinedMapper extends AbstractIndexComponent {
+
+    @Inject
+    public RegisterAcrossVariantsCombinedMapper(Index index, @IndexSettings Settings indexSettings, MapperService mapperService) {
+        super(index, indexSettings);
+
+        mapperService.documentMapperParser().putRootTypeParser(AcrossVariantsCombinedMapper.NAME, new AcrossVariantsCombinedMapper.TypeParser());
+    }
+}
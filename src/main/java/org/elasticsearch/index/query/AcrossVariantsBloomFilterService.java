@@ -0,0 +1,54 @@
+package org.elasticsearch.index.query;
+
+import org.apache.lucene.search.AcrossVariantsBloomFilters;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.index.AbstractIndexComponent;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.settings.IndexSettings;
+import org.elasticsearch.threadpool.ThreadPool;
+
+/**
+ * Holds the per segment Bloom filters the across variants queries and filters of an index skip absent terms with.
+ * Disabled by default, as each queried field of each segment then costs a pass over its terms, and about a byte per term.
+ * The Bloom filters get built on the generic thread pool.
+ */
+public class AcrossVariantsBloomFilterService extends AbstractIndexComponent {
+
+    public static final String INDEX_ACROSS_VARIANTS_BLOOM_FILTER = "index.across_variants.bloom_filter";
+    public static final String ENABLED = "enabled";
+    public static final String MAX_TERMS = "max_terms";
+    public static final String FPP = "fpp";
+    public static final String MAX_SIZE = "max_size";
+
+    public static final int DEFAULT_MAX_TERMS = 1 << 20;
+    public static final double DEFAULT_FPP = 0.01;
+    public static final ByteSizeValue DEFAULT_MAX_SIZE = new ByteSizeValue(50, ByteSizeUnit.MB);
+
+    private final AcrossVariantsBloomFilters bloomFilters;
+
+    @Inject
+    public AcrossVariantsBloomFilterService(Index index, @IndexSettings Settings indexSettings, ThreadPool threadPool) {
+        super(index, indexSettings);
+
+        Settings settings = indexSettings.getByPrefix(INDEX_ACROSS_VARIANTS_BLOOM_FILTER + ".");
+        double fpp = settings.getAsDouble(FPP, DEFAULT_FPP);
+        if (fpp <= 0 || fpp >= 1)
+            throw new ElasticsearchIllegalArgumentException("[" + INDEX_ACROSS_VARIANTS_BLOOM_FILTER + "." + FPP + "] must be between 0 and 1, exclusive");
+        this.bloomFilters = settings.getAsBoolean(ENABLED, false)
+                ? new AcrossVariantsBloomFilters(settings.getAsInt(MAX_TERMS, DEFAULT_MAX_TERMS), fpp,
+                        settings.getAsBytesSize(MAX_SIZE, DEFAULT_MAX_SIZE).bytes(), threadPool.executor(ThreadPool.Names.GENERIC))
+                : null;
+    }
+
+    /**
+     * @return The Bloom filters of the index, {@code null} if disabled.
+     */
+    public AcrossVariantsBloomFilters bloomFilters() {
+        return bloomFilters;
+    }
+
+}
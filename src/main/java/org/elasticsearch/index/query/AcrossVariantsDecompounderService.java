@@ -0,0 +1,212 @@
+package org.elasticsearch.index.query;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.search.AcrossVariantsDecompounder;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.inject.Injector;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.AbstractIndexComponent;
+import org.elasticsearch.index.CloseableIndexComponent;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.analysis.Analysis;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.service.IndexService;
+import org.elasticsearch.index.settings.IndexSettings;
+import org.elasticsearch.index.shard.IndexShardState;
+import org.elasticsearch.index.shard.service.IndexShard;
+import org.elasticsearch.indices.IndicesLifecycle;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Holds the dictionary the across variants queries and filters of an index decompound glued tokens with,
+ * so that they get variants without a dedicated analysis chain.
+ * The dictionary is either a configured word list, built once,
+ * or the terms of a field, built from a local shard on the generic thread pool once the shard starts, and rebuilt periodically,
+ * the queries using the current dictionary, if any, meanwhile.
+ * Without either, the analyzers are left untouched.
+ */
+public class AcrossVariantsDecompounderService extends AbstractIndexComponent implements CloseableIndexComponent {
+
+    public static final String INDEX_ACROSS_VARIANTS_DECOMPOUNDER = "index.across_variants.decompounder";
+    public static final String WORD_LIST = "word_list";
+    public static final String FIELD = "field";
+    public static final String MIN_DOC_FREQ = "min_doc_freq";
+    public static final String MIN_SUBWORD_SIZE = "min_subword_size";
+    public static final String MAX_PARTS = "max_parts";
+    public static final String REFRESH_INTERVAL = "refresh_interval";
+
+    public static final int DEFAULT_MIN_DOC_FREQ = 2;
+    public static final int DEFAULT_MIN_SUBWORD_SIZE = 2;
+    public static final int DEFAULT_MAX_PARTS = 4;
+    public static final TimeValue DEFAULT_REFRESH_INTERVAL = TimeValue.timeValueHours(1);
+
+    private final Injector injector;
+    private final ThreadPool threadPool;
+    private final IndicesLifecycle indicesLifecycle;
+    private final String field;
+    private final int minDocFreq;
+    private final int minSubwordSize;
+    private final int maxParts;
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile Dictionary dictionary;
+    private volatile boolean closed;
+    private final ScheduledFuture<?> scheduledRefresh;
+
+    private final Runnable refresher = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
+
+    private final IndicesLifecycle.Listener shardStartedListener = new IndicesLifecycle.Listener() {
+        @Override
+        public void afterIndexShardStarted(IndexShard indexShard) {
+            if (dictionary == null && indexShard.shardId().index().equals(index()))
+                threadPool.generic().execute(refresher);
+        }
+    };
+
+    @Inject
+    public AcrossVariantsDecompounderService(Index index, @IndexSettings Settings indexSettings, Environment environment, Injector injector,
+                                             final ThreadPool threadPool, IndicesLifecycle indicesLifecycle) throws IOException {
+        super(index, indexSettings);
+        this.injector = injector;
+        this.threadPool = threadPool;
+        this.indicesLifecycle = indicesLifecycle;
+
+        Settings settings = indexSettings.getByPrefix(INDEX_ACROSS_VARIANTS_DECOMPOUNDER + ".");
+        this.field = settings.get(FIELD);
+        this.minDocFreq = settings.getAsInt(MIN_DOC_FREQ, DEFAULT_MIN_DOC_FREQ);
+        this.minSubwordSize = settings.getAsInt(MIN_SUBWORD_SIZE, DEFAULT_MIN_SUBWORD_SIZE);
+        this.maxParts = settings.getAsInt(MAX_PARTS, DEFAULT_MAX_PARTS);
+        TimeValue refreshInterval = settings.getAsTime(REFRESH_INTERVAL, DEFAULT_REFRESH_INTERVAL);
+
+        List<String> words = Analysis.getWordList(environment, settings, WORD_LIST);
+        if (words != null && field != null)
+            throw new ElasticsearchIllegalArgumentException("[" + INDEX_ACROSS_VARIANTS_DECOMPOUNDER + "] takes either a [" + WORD_LIST + "] or a [" + FIELD + "], not both");
+        if (words != null) {
+            AcrossVariantsDecompounder decompounder = AcrossVariantsDecompounder.build(words, minSubwordSize, maxParts);
+            logger.debug("built across_variants {} out of the word list", decompounder);
+            this.dictionary = new Dictionary(decompounder);
+        }
+
+        if (field != null) {
+            indicesLifecycle.addListener(shardStartedListener);
+            // The scheduler thread only hands the refresh over to the generic thread pool
+            this.scheduledRefresh = refreshInterval.millis() > 0 ? threadPool.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    threadPool.generic().execute(refresher);
+                }
+            }, refreshInterval) : null;
+        } else {
+            this.scheduledRefresh = null;
+        }
+    }
+
+    /**
+     * @return The given analyzer, followed by the decompounder of the index if any.
+     */
+    public Analyzer wrap(Analyzer analyzer) {
+        Dictionary dictionary = this.dictionary;
+        if (dictionary == null)
+            return analyzer;
+        return dictionary.wrap(analyzer);
+    }
+
+    /**
+     * @return The decompounder of the index, {@code null} if none is configured or available yet.
+     */
+    public AcrossVariantsDecompounder decompounder() {
+        Dictionary dictionary = this.dictionary;
+        return dictionary == null ? null : dictionary.decompounder;
+    }
+
+    /**
+     * Rebuilds the dictionary out of the terms of the field, once at a time, keeping the current one if the build fails.
+     */
+    private void refresh() {
+        if (closed || !refreshing.compareAndSet(false, true))
+            return;
+        try {
+            Dictionary refreshed = buildFromField();
+            if (refreshed != null)
+                dictionary = refreshed;
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (field != null) {
+            indicesLifecycle.removeListener(shardStartedListener);
+            if (scheduledRefresh != null)
+                scheduledRefresh.cancel(false);
+        }
+    }
+
+    private Dictionary buildFromField() {
+        IndexService indexService = injector.getInstance(IndexService.class);
+        for (IndexShard shard : indexService) {
+            if (shard.state() != IndexShardState.STARTED)
+                continue;
+            Engine.Searcher searcher = shard.acquireSearcher("across_variants_decompounder");
+            try {
+                long start = System.nanoTime();
+                AcrossVariantsDecompounder decompounder = AcrossVariantsDecompounder.build(
+                        MultiFields.getTerms(searcher.reader(), field), minDocFreq, minSubwordSize, maxParts);
+                logger.debug("built across_variants {} out of the terms of [{}] in {}", decompounder, field,
+                        TimeValue.timeValueNanos(System.nanoTime() - start));
+                return new Dictionary(decompounder);
+            } catch (IOException e) {
+                logger.warn("failed to build the across_variants decompounder out of the terms of [{}]", e, field);
+                return null;
+            } finally {
+                searcher.close();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A decompounder, and the analyzers it wraps,
+     * kept so that an analyzer is wrapped once and its token streams get reused.
+     */
+    private static class Dictionary {
+
+        final AcrossVariantsDecompounder decompounder;
+        final ConcurrentMap<Analyzer, Analyzer> analyzers = ConcurrentCollections.newConcurrentMap();
+
+        Dictionary(AcrossVariantsDecompounder decompounder) {
+            this.decompounder = decompounder;
+        }
+
+        Analyzer wrap(Analyzer analyzer) {
+            Analyzer rtn = analyzers.get(analyzer);
+            if (rtn == null) {
+                rtn = decompounder.wrap(analyzer);
+                Analyzer existing = analyzers.putIfAbsent(analyzer, rtn);
+                if (existing != null)
+                    rtn = existing;
+            }
+            return rtn;
+        }
+
+    }
+
+}
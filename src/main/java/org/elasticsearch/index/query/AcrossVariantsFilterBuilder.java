@@ -13,6 +13,12 @@ public class AcrossVariantsFilterBuilder extends BaseFilterBuilder {
     private Collection<String> fields = new ArrayList<String>();
     private String value;
     private String analyzer;
+    private Boolean decompound;
+    private Boolean glued;
+    private Boolean combined;
+    private String execution;
+    private Float cutoffFrequency;
+    private Boolean adjacentParts;
     private String lang;
     private String script;
     Map<String, Object> params;
@@ -79,6 +85,56 @@ public class AcrossVariantsFilterBuilder extends BaseFilterBuilder {
         return this;
     }
 
+    /**
+     * Whether to split glued tokens with the decompounder of the index, if it has one, defaults to {@code true}.
+     */
+    public AcrossVariantsFilterBuilder decompound(boolean decompound) {
+        this.decompound = decompound;
+        return this;
+    }
+
+    /**
+     * Whether to match a compound with its glued writing alone, when every field indexes glued forms, defaults to {@code true}.
+     */
+    public AcrossVariantsFilterBuilder glued(boolean glued) {
+        this.glued = glued;
+        return this;
+    }
+
+    /**
+     * Whether to match each writing out of the combined field of the index, when its mapping combines every field, defaults to {@code true}.
+     */
+    public AcrossVariantsFilterBuilder combined(boolean combined) {
+        this.combined = combined;
+        return this;
+    }
+
+    /**
+     * The engine to execute with: {@code rewrite}, {@code scorer} or {@code bitset},
+     * defaults to {@code auto}, which picks the cheapest one per segment.
+     */
+    public AcrossVariantsFilterBuilder execution(String execution) {
+        this.execution = execution;
+        return this;
+    }
+
+    /**
+     * The document frequency, as a fraction of the documents if below 1, as a number of documents otherwise,
+     * above which the nodes whose every writing is only get checked against the documents matched by the other nodes.
+     */
+    public AcrossVariantsFilterBuilder cutoffFrequency(float cutoffFrequency) {
+        this.cutoffFrequency = cutoffFrequency;
+        return this;
+    }
+
+    /**
+     * Whether the parts of a compound must appear adjacently, in order and within the same field.
+     */
+    public AcrossVariantsFilterBuilder adjacentParts(boolean adjacentParts) {
+        this.adjacentParts = adjacentParts;
+        return this;
+    }
+
     public AcrossVariantsFilterBuilder lang(String lang) {
         this.lang = lang;
         return this;
@@ -106,6 +162,18 @@ public class AcrossVariantsFilterBuilder extends BaseFilterBuilder {
         builder.endArray();
         if (analyzer != null)
             builder.field("analyzer", analyzer);
+        if (decompound != null)
+            builder.field("decompound", decompound);
+        if (glued != null)
+            builder.field("glued", glued);
+        if (combined != null)
+            builder.field("combined", combined);
+        if (execution != null)
+            builder.field("execution", execution);
+        if (cutoffFrequency != null)
+            builder.field("cutoff_frequency", cutoffFrequency);
+        if (adjacentParts != null)
+            builder.field("adjacent_parts", adjacentParts);
         if (lang != null)
             builder.field("lang", lang);
         if (script != null)
@@ -3,14 +3,25 @@ package org.elasticsearch.index.query;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.AcrossVariantsAndFilter;
+import org.apache.lucene.search.AcrossVariantsGlue;
+import org.apache.lucene.search.AcrossVariantsMemoryAccountant;
+import org.apache.lucene.search.AcrossVariantsPlanner;
+import org.apache.lucene.search.AcrossVariantsProfile;
+import org.apache.lucene.search.AcrossVariantsRamUsage;
 import org.apache.lucene.search.Filter;
 import org.elasticsearch.ElasticsearchIllegalArgumentException;
 import org.elasticsearch.common.collect.Maps;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.analysis.AcrossVariantsGlueTokenFilterFactory;
 import org.elasticsearch.index.analysis.AnalysisService;
 import org.elasticsearch.index.cache.filter.support.CacheKeyFilter;
 import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.index.mapper.acrossvariants.AcrossVariantsCombinedMapper;
+import org.elasticsearch.index.search.slowlog.AcrossVariantsSlowLog;
+import org.elasticsearch.indices.acrossvariants.AcrossVariantsCircuitBreakerService;
+import org.elasticsearch.indices.acrossvariants.AcrossVariantsParallelService;
+import org.elasticsearch.indices.acrossvariants.AcrossVariantsStatsService;
 import org.elasticsearch.script.ExecutableScript;
 import org.elasticsearch.script.ScriptService;
 
@@ -28,11 +39,25 @@ public class AcrossVariantsFilterParser implements FilterParser {
 
     private final AnalysisService analysisService;
     private final ScriptService scriptService;
+    private final AcrossVariantsSlowLog slowLog;
+    private final AcrossVariantsLimitsService limitsService;
+    private final AcrossVariantsStatsService statsService;
+    private final AcrossVariantsCircuitBreakerService breakerService;
+    private final AcrossVariantsDecompounderService decompounderService;
+    private final AcrossVariantsBloomFilterService bloomFilterService;
+    private final AcrossVariantsParallelService parallelService;
 
     @Inject
-    public AcrossVariantsFilterParser(AnalysisService analysisService, ScriptService scriptService) {
+    public AcrossVariantsFilterParser(AnalysisService analysisService, ScriptService scriptService, AcrossVariantsSlowLog slowLog, AcrossVariantsLimitsService limitsService, AcrossVariantsStatsService statsService, AcrossVariantsCircuitBreakerService breakerService, AcrossVariantsDecompounderService decompounderService, AcrossVariantsBloomFilterService bloomFilterService, AcrossVariantsParallelService parallelService) {
         this.analysisService = analysisService;
         this.scriptService = scriptService;
+        this.slowLog = slowLog;
+        this.limitsService = limitsService;
+        this.statsService = statsService;
+        this.breakerService = breakerService;
+        this.decompounderService = decompounderService;
+        this.bloomFilterService = bloomFilterService;
+        this.parallelService = parallelService;
     }
 
     @Override
@@ -48,11 +73,17 @@ public class AcrossVariantsFilterParser implements FilterParser {
         CacheKeyFilter.Key cacheKey = null;
         String value = null;
         Analyzer analyzer = analysisService.defaultSearchAnalyzer();
+        boolean decompound = AcrossVariantsQueryParser.DECOMPOUND_DEFAULT;
+        boolean glued = AcrossVariantsQueryParser.GLUED_DEFAULT;
+        boolean combined = AcrossVariantsQueryParser.COMBINED_DEFAULT;
+        String execution = AcrossVariantsQueryParser.EXECUTION_DEFAULT;
+        float cutoffFrequency = AcrossVariantsQueryParser.CUTOFF_FREQUENCY_DEFAULT;
+        boolean adjacentParts = AcrossVariantsQueryParser.ADJACENT_PARTS_DEFAULT;
         Collection<String> fields = new ArrayList<String>();
         String lang = null;
         String script = null;
         ScriptService.ScriptType scriptType = null;
-        Map<String, Object> params = Maps.newHashMap();
+        Map<String, Object> params = null;
 
         XContentParser.Token token;
         String filterName = null;
@@ -85,6 +116,20 @@ public class AcrossVariantsFilterParser implements FilterParser {
                     value = parser.text();
                 } else if ("analyzer".equals(currentFieldName)) {
                     analyzer = analysisService.analyzer(parser.text());
+                } else if ("decompound".equals(currentFieldName)) {
+                    decompound = parser.booleanValue();
+                } else if ("glued".equals(currentFieldName)) {
+                    glued = parser.booleanValue();
+                } else if ("combined".equals(currentFieldName)) {
+                    combined = parser.booleanValue();
+                } else if ("cutoff_frequency".equals(currentFieldName) || "cutoffFrequency".equals(currentFieldName)) {
+                    cutoffFrequency = parser.floatValue();
+                } else if ("adjacent_parts".equals(currentFieldName) || "adjacentParts".equals(currentFieldName)) {
+                    adjacentParts = parser.booleanValue();
+                } else if ("execution".equals(currentFieldName)) {
+                    execution = parser.text();
+                    if (!AcrossVariantsPlanner.isExecution(execution))
+                        throw new QueryParsingException(parseContext.index(), "["+NAME+"] filter does not support execution [" + execution + "]");
                 } else if ("lang".equals(currentFieldName)) {
                     lang = parser.text();
                 } else if ("script".equals(currentFieldName)) {
@@ -111,28 +156,59 @@ public class AcrossVariantsFilterParser implements FilterParser {
         if (analyzer == null) {
             throw new QueryParsingException(parseContext.index(), "No analyzer specified for "+NAME+" query");
         }
+        if (decompound) {
+            analyzer = decompounderService.wrap(analyzer);
+        }
 
         AcrossVariantsAndFilter.FilterProvider filterProvider = null;
         if (script != null) {
-            filterProvider = new ScriptFilterProvider(scriptService.executable(lang, script, scriptType, params));
+            filterProvider = new ScriptFilterProvider(scriptService.executable(lang, script, scriptType, params == null ? Maps.<String, Object>newHashMap() : params));
         }
 
 
         Collection<String> mappedFields = new ArrayList<String>(fields.size());
+        Map<String, AcrossVariantsGlue> glues = null;
         for (String fieldName : fields) {
             fieldName = fieldName.trim();
             MapperService.SmartNameFieldMappers smartNameFieldMappers = parseContext.smartFieldMappers(fieldName);
             if (smartNameFieldMappers != null && smartNameFieldMappers.hasMapper()) {
                 fieldName = smartNameFieldMappers.mapper().names().indexName();
+                AcrossVariantsGlue glue = glued ? AcrossVariantsGlueTokenFilterFactory.glue(smartNameFieldMappers.mapper().indexAnalyzer()) : null;
+                if (glue != null) {
+                    if (glues == null)
+                        glues = new HashMap<String, AcrossVariantsGlue>();
+                    glues.put(fieldName, glue);
+                }
             }
             mappedFields.add(fieldName);
         }
 
-        Filter filter = null;
-        if (filterProvider != null)
-            filter = new AcrossVariantsAndFilter(mappedFields, analyzer, value, filterProvider);
-        else
-            filter = new AcrossVariantsAndFilter(mappedFields, analyzer, value);
+        AcrossVariantsProfile profile = slowLog.newProfile();
+        long start = System.nanoTime();
+        AcrossVariantsAndFilter acrossVariantsFilter = new AcrossVariantsAndFilter(mappedFields, analyzer, value,
+                filterProvider != null ? filterProvider : AcrossVariantsAndFilter.TermFilterProvider.INSTANCE, limitsService.limits());
+        acrossVariantsFilter.setGlues(glues);
+        acrossVariantsFilter.setBloomFilters(bloomFilterService.bloomFilters());
+        acrossVariantsFilter.setSegmentExecutor(parallelService.executor());
+        parallelService.track(acrossVariantsFilter);
+        Map<String, Integer> combinedBits = combined && filterProvider == null
+                ? AcrossVariantsCombinedMapper.bits(parseContext.mapperService(), parseContext.queryTypes(), mappedFields) : null;
+        if (combinedBits != null)
+            acrossVariantsFilter.setCombinedField(AcrossVariantsCombinedMapper.NAME, combinedBits);
+        acrossVariantsFilter.setExecution(execution);
+        acrossVariantsFilter.setCutoffFrequency(cutoffFrequency);
+        acrossVariantsFilter.setAdjacentParts(adjacentParts);
+        if (profile != null) {
+            profile.addAnalysisNanos(System.nanoTime() - start);
+            acrossVariantsFilter.setProfile(profile);
+            slowLog.track(profile, "filter", acrossVariantsFilter.toString(), acrossVariantsFilter.getTermTree(), acrossVariantsFilter.getFields(), acrossVariantsFilter.getDegradation());
+        }
+        statsService.track(acrossVariantsFilter.getDegradation(), acrossVariantsFilter.getEngineUsage());
+        AcrossVariantsMemoryAccountant memoryAccountant = breakerService.accountant();
+        memoryAccountant.addEstimateBytes(AcrossVariantsRamUsage.sizeOf(acrossVariantsFilter.getTermTree()), "across_variants tree");
+        acrossVariantsFilter.setMemoryAccountant(memoryAccountant);
+
+        Filter filter = acrossVariantsFilter;
 
         if (cache) {
             filter = parseContext.cacheFilter(filter, cacheKey);
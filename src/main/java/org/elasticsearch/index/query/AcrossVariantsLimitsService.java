@@ -0,0 +1,65 @@
+package org.elasticsearch.index.query;
+
+import org.apache.lucene.search.AcrossVariantsLimits;
+import org.apache.lucene.search.BooleanQuery;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.AbstractIndexComponent;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.settings.IndexSettings;
+import org.elasticsearch.index.settings.IndexSettingsService;
+
+/**
+ * Holds the limits applied to the across variants queries and filters of an index,
+ * updatable through the index settings.
+ * A negative value disables a limit.
+ */
+public class AcrossVariantsLimitsService extends AbstractIndexComponent {
+
+    public static final String INDEX_ACROSS_VARIANTS_MAX_TOKENS = "index.across_variants.max_tokens";
+    public static final String INDEX_ACROSS_VARIANTS_MAX_WRITINGS = "index.across_variants.max_writings";
+    public static final String INDEX_ACROSS_VARIANTS_MAX_LEAVES = "index.across_variants.max_leaves";
+    public static final String INDEX_ACROSS_VARIANTS_ANALYSIS_TIMEOUT = "index.across_variants.analysis_timeout";
+
+    public static final int DEFAULT_MAX_TOKENS = 1024;
+    public static final int DEFAULT_MAX_WRITINGS = 1024;
+    public static final TimeValue DEFAULT_ANALYSIS_TIMEOUT = TimeValue.timeValueSeconds(1);
+
+    private volatile AcrossVariantsLimits limits;
+
+    @Inject
+    public AcrossVariantsLimitsService(Index index, @IndexSettings Settings indexSettings, IndexSettingsService indexSettingsService) {
+        super(index, indexSettings);
+
+        this.limits = new AcrossVariantsLimits(
+                indexSettings.getAsInt(INDEX_ACROSS_VARIANTS_MAX_TOKENS, DEFAULT_MAX_TOKENS),
+                indexSettings.getAsInt(INDEX_ACROSS_VARIANTS_MAX_WRITINGS, DEFAULT_MAX_WRITINGS),
+                // Past the maximum clause count, the rewrite would fail
+                indexSettings.getAsInt(INDEX_ACROSS_VARIANTS_MAX_LEAVES, BooleanQuery.getMaxClauseCount()),
+                indexSettings.getAsTime(INDEX_ACROSS_VARIANTS_ANALYSIS_TIMEOUT, DEFAULT_ANALYSIS_TIMEOUT).nanos());
+
+        indexSettingsService.addListener(new ApplySettings());
+    }
+
+    public AcrossVariantsLimits limits() {
+        return limits;
+    }
+
+    class ApplySettings implements IndexSettingsService.Listener {
+        @Override
+        public synchronized void onRefreshSettings(Settings settings) {
+            AcrossVariantsLimits current = limits;
+            AcrossVariantsLimits updated = new AcrossVariantsLimits(
+                    settings.getAsInt(INDEX_ACROSS_VARIANTS_MAX_TOKENS, current.getMaxTokens()),
+                    settings.getAsInt(INDEX_ACROSS_VARIANTS_MAX_WRITINGS, current.getMaxWritings()),
+                    settings.getAsInt(INDEX_ACROSS_VARIANTS_MAX_LEAVES, current.getMaxLeaves()),
+                    settings.getAsTime(INDEX_ACROSS_VARIANTS_ANALYSIS_TIMEOUT, TimeValue.timeValueNanos(current.getAnalysisTimeoutNanos())).nanos());
+            if (!updated.equals(current)) {
+                logger.info("updating across_variants limits from [{}] to [{}]", current, updated);
+                limits = updated;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+package org.elasticsearch.index.query;
+
+import org.apache.lucene.search.AcrossVariantsPrefixCache;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.index.AbstractIndexComponent;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.settings.IndexSettings;
+
+/**
+ * Holds the per segment documents of the short prefixes the type ahead across variants queries of an index match their last token with.
+ * Enabled by default, as a bitset per prefix and segment, bounded in total, is cheaper than expanding the prefix on every keystroke.
+ */
+public class AcrossVariantsPrefixCacheService extends AbstractIndexComponent {
+
+    public static final String INDEX_ACROSS_VARIANTS_PREFIX_CACHE = "index.across_variants.prefix_cache";
+    public static final String ENABLED = "enabled";
+    public static final String MAX_LENGTH = "max_length";
+    public static final String MAX_SIZE = "max_size";
+
+    public static final int DEFAULT_MAX_LENGTH = 3;
+    public static final ByteSizeValue DEFAULT_MAX_SIZE = new ByteSizeValue(10, ByteSizeUnit.MB);
+
+    private final AcrossVariantsPrefixCache prefixCache;
+
+    @Inject
+    public AcrossVariantsPrefixCacheService(Index index, @IndexSettings Settings indexSettings) {
+        super(index, indexSettings);
+
+        Settings settings = indexSettings.getByPrefix(INDEX_ACROSS_VARIANTS_PREFIX_CACHE + ".");
+        int maxLength = settings.getAsInt(MAX_LENGTH, DEFAULT_MAX_LENGTH);
+        if (maxLength < 0)
+            throw new ElasticsearchIllegalArgumentException("[" + INDEX_ACROSS_VARIANTS_PREFIX_CACHE + "." + MAX_LENGTH + "] must not be negative");
+        this.prefixCache = settings.getAsBoolean(ENABLED, true)
+                ? new AcrossVariantsPrefixCache(maxLength, settings.getAsBytesSize(MAX_SIZE, DEFAULT_MAX_SIZE).bytes()) : null;
+    }
+
+    /**
+     * @return The prefix cache of the index, {@code null} if disabled.
+     */
+    public AcrossVariantsPrefixCache prefixCache() {
+        return prefixCache;
+    }
+
+}
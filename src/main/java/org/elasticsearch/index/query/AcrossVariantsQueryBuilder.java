@@ -4,8 +4,10 @@ import org.elasticsearch.ElasticsearchIllegalArgumentException;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class AcrossVariantsQueryBuilder extends BaseQueryBuilder {
@@ -15,6 +17,21 @@ public class AcrossVariantsQueryBuilder extends BaseQueryBuilder {
     private boolean useDisMax;
     private float tieBreaker;
     private String analyzer;
+    private Boolean decompound;
+    private Boolean glued;
+    private Boolean combined;
+    private String execution;
+    private Float cutoffFrequency;
+    private String minimumShouldMatch;
+    private Integer topK;
+    private List<String> filterFields;
+    private Boolean scoring;
+    private Boolean existence;
+    private Boolean adjacentParts;
+    private Boolean phrase;
+    private Integer slop;
+    private Boolean typeAhead;
+    private String session;
     private String lang;
     private String script;
     Map<String, Object> params;
@@ -95,6 +112,14 @@ public class AcrossVariantsQueryBuilder extends BaseQueryBuilder {
         return clearFields().addFields(fields);
     }
 
+    /**
+     * Fields the tokens may also match in, without contributing to the score.
+     */
+    public AcrossVariantsQueryBuilder filterFields(String... filterFields) {
+        this.filterFields = Arrays.asList(filterFields);
+        return this;
+    }
+
     public AcrossVariantsQueryBuilder value(String value) {
         this.value = value;
         return this;
@@ -115,6 +140,122 @@ public class AcrossVariantsQueryBuilder extends BaseQueryBuilder {
         return this;
     }
 
+    /**
+     * Whether to split glued tokens with the decompounder of the index, if it has one, defaults to {@code true}.
+     */
+    public AcrossVariantsQueryBuilder decompound(boolean decompound) {
+        this.decompound = decompound;
+        return this;
+    }
+
+    /**
+     * Whether to match a compound with its glued writing alone, when every field indexes glued forms, defaults to {@code true}.
+     */
+    public AcrossVariantsQueryBuilder glued(boolean glued) {
+        this.glued = glued;
+        return this;
+    }
+
+    /**
+     * Whether to match each writing out of the combined field of the index, when its mapping combines every field, defaults to {@code true}.
+     */
+    public AcrossVariantsQueryBuilder combined(boolean combined) {
+        this.combined = combined;
+        return this;
+    }
+
+    /**
+     * The engine to execute with: {@code rewrite}, {@code scorer} or {@code bitset},
+     * defaults to {@code auto}, which picks the cheapest one per segment.
+     */
+    public AcrossVariantsQueryBuilder execution(String execution) {
+        this.execution = execution;
+        return this;
+    }
+
+    /**
+     * The document frequency, as a fraction of the documents if below 1, as a number of documents otherwise,
+     * above which the nodes whose every writing is only score the documents matched by the other nodes.
+     */
+    public AcrossVariantsQueryBuilder cutoffFrequency(float cutoffFrequency) {
+        this.cutoffFrequency = cutoffFrequency;
+        return this;
+    }
+
+    /**
+     * How many of the top level nodes must match, eg. "75%" or "3<-1", all of them by default.
+     */
+    public AcrossVariantsQueryBuilder minimumShouldMatch(String minimumShouldMatch) {
+        this.minimumShouldMatch = minimumShouldMatch;
+        return this;
+    }
+
+    /**
+     * The number of top hits the search collects, to skip the documents that cannot enter them while scoring.
+     * The total number of hits then becomes a lower bound.
+     */
+    public AcrossVariantsQueryBuilder topK(int topK) {
+        this.topK = topK;
+        return this;
+    }
+
+    /**
+     * Whether the matching documents need a score, otherwise they only get matched by doc ids.
+     * Defaults to false for count searches, true otherwise.
+     */
+    public AcrossVariantsQueryBuilder scoring(boolean scoring) {
+        this.scoring = scoring;
+        return this;
+    }
+
+    /**
+     * Whether to only tell if some document matches, stopping each shard segment at its first match.
+     */
+    public AcrossVariantsQueryBuilder existence(boolean existence) {
+        this.existence = existence;
+        return this;
+    }
+
+    /**
+     * Whether the parts of a compound must appear adjacently, in order and within the same field.
+     */
+    public AcrossVariantsQueryBuilder adjacentParts(boolean adjacentParts) {
+        this.adjacentParts = adjacentParts;
+        return this;
+    }
+
+    /**
+     * Whether the tokens must appear in order within the same field.
+     */
+    public AcrossVariantsQueryBuilder phrase(boolean phrase) {
+        this.phrase = phrase;
+        return this;
+    }
+
+    /**
+     * The number of positions the tokens of a phrase may be apart from each other, in total.
+     */
+    public AcrossVariantsQueryBuilder slop(int slop) {
+        this.slop = slop;
+        return this;
+    }
+
+    /**
+     * Whether the last token is still being typed, and matches as a prefix.
+     */
+    public AcrossVariantsQueryBuilder typeAhead(boolean typeAhead) {
+        this.typeAhead = typeAhead;
+        return this;
+    }
+
+    /**
+     * The id of the client session, eg. the keystrokes of a user, whose completed tokens get matched once.
+     */
+    public AcrossVariantsQueryBuilder session(String session) {
+        this.session = session;
+        return this;
+    }
+
     public AcrossVariantsQueryBuilder lang(String lang) {
         this.lang = lang;
         return this;
@@ -152,12 +293,46 @@ public class AcrossVariantsQueryBuilder extends BaseQueryBuilder {
                 builder.value(field);
             builder.endArray();
         }
+        if (filterFields != null) {
+            builder.startArray("filter_fields");
+            for (String field : filterFields)
+                builder.value(field);
+            builder.endArray();
+        }
         if (useDisMax != AcrossVariantsQueryParser.USE_DIS_MAX_DEFAULT)
             builder.field("use_dis_max", useDisMax);
         if (useDisMax && tieBreaker != AcrossVariantsQueryParser.TIE_BREAKER_DEFAULT)
             builder.field("tie_breaker", tieBreaker);
         if (analyzer != null)
             builder.field("analyzer", analyzer);
+        if (decompound != null)
+            builder.field("decompound", decompound);
+        if (glued != null)
+            builder.field("glued", glued);
+        if (combined != null)
+            builder.field("combined", combined);
+        if (execution != null)
+            builder.field("execution", execution);
+        if (cutoffFrequency != null)
+            builder.field("cutoff_frequency", cutoffFrequency);
+        if (minimumShouldMatch != null)
+            builder.field("minimum_should_match", minimumShouldMatch);
+        if (topK != null)
+            builder.field("top_k", topK);
+        if (scoring != null)
+            builder.field("scoring", scoring);
+        if (existence != null)
+            builder.field("existence", existence);
+        if (adjacentParts != null)
+            builder.field("adjacent_parts", adjacentParts);
+        if (phrase != null)
+            builder.field("phrase", phrase);
+        if (slop != null)
+            builder.field("slop", slop);
+        if (typeAhead != null)
+            builder.field("type_ahead", typeAhead);
+        if (session != null)
+            builder.field("session", session);
         if (lang != null)
             builder.field("lang", lang);
         if (script != null)
@@ -2,19 +2,42 @@ package org.elasticsearch.index.query;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.queries.TermFilter;
+import org.apache.lucene.search.AcrossVariantsAndFilter;
 import org.apache.lucene.search.AcrossVariantsAndQuery;
+import org.apache.lucene.search.AcrossVariantsGlue;
+import org.apache.lucene.search.AcrossVariantsMemoryAccountant;
+import org.apache.lucene.search.AcrossVariantsPlan;
+import org.apache.lucene.search.AcrossVariantsPlanner;
+import org.apache.lucene.search.AcrossVariantsProfile;
+import org.apache.lucene.search.AcrossVariantsRamUsage;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.FilteredQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
 import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.common.collect.Maps;
 import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.lucene.search.XFilteredQuery;
 import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.analysis.AcrossVariantsGlueTokenFilterFactory;
 import org.elasticsearch.index.analysis.AnalysisService;
 import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.index.mapper.acrossvariants.AcrossVariantsCombinedMapper;
+import org.elasticsearch.index.search.slowlog.AcrossVariantsSlowLog;
+import org.elasticsearch.indices.acrossvariants.AcrossVariantsCircuitBreakerService;
+import org.elasticsearch.indices.acrossvariants.AcrossVariantsStatsService;
 import org.elasticsearch.script.ExecutableScript;
 import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.search.internal.SearchContext;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class AcrossVariantsQueryParser implements QueryParser {
@@ -24,14 +47,41 @@ public class AcrossVariantsQueryParser implements QueryParser {
 
     public static final boolean USE_DIS_MAX_DEFAULT = false;
     public static final float TIE_BREAKER_DEFAULT = 0.0f;
+    public static final boolean DECOMPOUND_DEFAULT = true;
+    public static final boolean GLUED_DEFAULT = true;
+    public static final boolean COMBINED_DEFAULT = true;
+    public static final String EXECUTION_DEFAULT = AcrossVariantsPlan.ENGINE_REWRITE;
+    public static final float CUTOFF_FREQUENCY_DEFAULT = -1f;
+    public static final int TOP_K_DEFAULT = 0;
+    public static final boolean EXISTENCE_DEFAULT = false;
+    public static final boolean ADJACENT_PARTS_DEFAULT = false;
+    public static final boolean PHRASE_DEFAULT = false;
+    public static final int SLOP_DEFAULT = 0;
+    public static final boolean TYPE_AHEAD_DEFAULT = false;
 
     private final AnalysisService analysisService;
     private final ScriptService scriptService;
+    private final AcrossVariantsSlowLog slowLog;
+    private final AcrossVariantsLimitsService limitsService;
+    private final AcrossVariantsStatsService statsService;
+    private final AcrossVariantsCircuitBreakerService breakerService;
+    private final AcrossVariantsDecompounderService decompounderService;
+    private final AcrossVariantsBloomFilterService bloomFilterService;
+    private final AcrossVariantsPrefixCacheService prefixCacheService;
+    private final AcrossVariantsSessionCacheService sessionCacheService;
 
     @Inject
-    public AcrossVariantsQueryParser(AnalysisService analysisService, ScriptService scriptService) {
+    public AcrossVariantsQueryParser(AnalysisService analysisService, ScriptService scriptService, AcrossVariantsSlowLog slowLog, AcrossVariantsLimitsService limitsService, AcrossVariantsStatsService statsService, AcrossVariantsCircuitBreakerService breakerService, AcrossVariantsDecompounderService decompounderService, AcrossVariantsBloomFilterService bloomFilterService, AcrossVariantsPrefixCacheService prefixCacheService, AcrossVariantsSessionCacheService sessionCacheService) {
         this.analysisService = analysisService;
         this.scriptService = scriptService;
+        this.slowLog = slowLog;
+        this.limitsService = limitsService;
+        this.statsService = statsService;
+        this.breakerService = breakerService;
+        this.decompounderService = decompounderService;
+        this.bloomFilterService = bloomFilterService;
+        this.prefixCacheService = prefixCacheService;
+        this.sessionCacheService = sessionCacheService;
     }
 
     @Override
@@ -46,11 +96,28 @@ public class AcrossVariantsQueryParser implements QueryParser {
         String value = null;
         float boost = 1.0f;
         Analyzer analyzer = analysisService.defaultSearchAnalyzer();
+        boolean decompound = DECOMPOUND_DEFAULT;
+        boolean glued = GLUED_DEFAULT;
+        boolean combined = COMBINED_DEFAULT;
+        String execution = EXECUTION_DEFAULT;
+        float cutoffFrequency = CUTOFF_FREQUENCY_DEFAULT;
+        String minimumShouldMatch = null;
+        int topK = TOP_K_DEFAULT;
+        List<String> filterFields = null;
+        // A count search never asks for the scores
+        SearchContext searchContext = SearchContext.current();
+        boolean scoring = searchContext == null || searchContext.searchType() != SearchType.COUNT;
+        boolean existence = EXISTENCE_DEFAULT;
+        boolean adjacentParts = ADJACENT_PARTS_DEFAULT;
+        boolean phrase = PHRASE_DEFAULT;
+        int slop = SLOP_DEFAULT;
+        boolean typeAhead = TYPE_AHEAD_DEFAULT;
+        String session = null;
         Map<String,Float> fieldsBoost = new HashMap<String, Float>();
         String lang = null;
         String script = null;
         ScriptService.ScriptType scriptType = null;
-        Map<String, Object> params = Maps.newHashMap();
+        Map<String, Object> params = null;
         boolean use_dis_max = USE_DIS_MAX_DEFAULT;
         float tie_breaker = TIE_BREAKER_DEFAULT;
 
@@ -64,7 +131,7 @@ public class AcrossVariantsQueryParser implements QueryParser {
                     if (token == XContentParser.Token.VALUE_STRING) {
                         parseFields(fieldsBoost, parser.text());
                     } else if (token == XContentParser.Token.START_ARRAY) {
-                        fieldsBoost = new HashMap<String, Float>();
+                        fieldsBoost.clear();
                         while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
                             if (token == XContentParser.Token.VALUE_STRING) {
                                 parseFields(fieldsBoost, parser.text());
@@ -83,12 +150,61 @@ public class AcrossVariantsQueryParser implements QueryParser {
                             }
                         }
                     }
+                } else if ("filter_fields".equals(currentFieldName) || "filterFields".equals(currentFieldName)) {
+                    filterFields = new ArrayList<String>();
+                    if (token == XContentParser.Token.VALUE_STRING) {
+                        filterFields.addAll(Arrays.asList(parser.text().split(",")));
+                    } else if (token == XContentParser.Token.START_ARRAY) {
+                        while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+                            if (token == XContentParser.Token.VALUE_STRING) {
+                                filterFields.add(parser.text());
+                            } else {
+                                throw new QueryParsingException(parseContext.index(), "["+NAME+"] invalid value type in filter_fields array [" + token + "] only strings are supported");
+                            }
+                        }
+                    } else {
+                        throw new QueryParsingException(parseContext.index(), "["+NAME+"] invalid value type for filter_fields [" + token + "]");
+                    }
                 } else if ("text".equals(currentFieldName)) {
                     value = parser.text();
                 } else if ("value".equals(currentFieldName)) {
                     value = parser.text();
                 } else if ("analyzer".equals(currentFieldName)) {
                     analyzer = analysisService.analyzer(parser.text());
+                } else if ("decompound".equals(currentFieldName)) {
+                    decompound = parser.booleanValue();
+                } else if ("glued".equals(currentFieldName)) {
+                    glued = parser.booleanValue();
+                } else if ("combined".equals(currentFieldName)) {
+                    combined = parser.booleanValue();
+                } else if ("cutoff_frequency".equals(currentFieldName) || "cutoffFrequency".equals(currentFieldName)) {
+                    cutoffFrequency = parser.floatValue();
+                } else if ("minimum_should_match".equals(currentFieldName) || "minimumShouldMatch".equals(currentFieldName)) {
+                    minimumShouldMatch = parser.textOrNull();
+                } else if ("scoring".equals(currentFieldName)) {
+                    scoring = parser.booleanValue();
+                } else if ("existence".equals(currentFieldName)) {
+                    existence = parser.booleanValue();
+                } else if ("adjacent_parts".equals(currentFieldName) || "adjacentParts".equals(currentFieldName)) {
+                    adjacentParts = parser.booleanValue();
+                } else if ("phrase".equals(currentFieldName)) {
+                    phrase = parser.booleanValue();
+                } else if ("type_ahead".equals(currentFieldName) || "typeAhead".equals(currentFieldName)) {
+                    typeAhead = parser.booleanValue();
+                } else if ("session".equals(currentFieldName)) {
+                    session = parser.textOrNull();
+                } else if ("slop".equals(currentFieldName)) {
+                    slop = parser.intValue();
+                    if (slop < 0)
+                        throw new QueryParsingException(parseContext.index(), "["+NAME+"] query does not support a negative slop [" + slop + "]");
+                } else if ("top_k".equals(currentFieldName) || "topK".equals(currentFieldName)) {
+                    topK = parser.intValue();
+                    if (topK < 0)
+                        throw new QueryParsingException(parseContext.index(), "["+NAME+"] query does not support a negative top_k [" + topK + "]");
+                } else if ("execution".equals(currentFieldName)) {
+                    execution = parser.text();
+                    if (!AcrossVariantsPlanner.isExecution(execution))
+                        throw new QueryParsingException(parseContext.index(), "["+NAME+"] query does not support execution [" + execution + "]");
                 } else if ("lang".equals(currentFieldName)) {
                     lang = parser.text();
                 } else if ("script".equals(currentFieldName)) {
@@ -121,30 +237,85 @@ public class AcrossVariantsQueryParser implements QueryParser {
         if (analyzer == null) {
             throw new QueryParsingException(parseContext.index(), "No analyzer specified for "+NAME+" query");
         }
+        if (phrase && typeAhead) {
+            throw new QueryParsingException(parseContext.index(), "["+NAME+"] query does not support phrase along with type_ahead");
+        }
+        if (decompound) {
+            analyzer = decompounderService.wrap(analyzer);
+        }
 
         AcrossVariantsAndQuery.QueryProvider queryProvider = null;
         if (script != null) {
-            queryProvider = new ScriptQueryProvider(scriptService.executable(lang, script, scriptType, params));
+            queryProvider = new ScriptQueryProvider(scriptService.executable(lang, script, scriptType, params == null ? Maps.<String, Object>newHashMap() : params));
         }
 
         Map<String, Float> mappedFieldsBoost = new HashMap<String, Float>();
+        Map<String, AcrossVariantsGlue> glues = null;
         for (Map.Entry<String, Float> boostedField : fieldsBoost.entrySet()) {
             String fieldName = boostedField.getKey().trim();
             MapperService.SmartNameFieldMappers smartNameFieldMappers = parseContext.smartFieldMappers(fieldName);
             if (smartNameFieldMappers != null && smartNameFieldMappers.hasMapper()) {
                 fieldName = smartNameFieldMappers.mapper().names().indexName();
+                AcrossVariantsGlue glue = glued ? AcrossVariantsGlueTokenFilterFactory.glue(smartNameFieldMappers.mapper().indexAnalyzer()) : null;
+                if (glue != null) {
+                    if (glues == null)
+                        glues = new HashMap<String, AcrossVariantsGlue>();
+                    glues.put(fieldName, glue);
+                }
             }
             mappedFieldsBoost.put(fieldName, boostedField.getValue());
         }
 
-        AcrossVariantsAndQuery query;
-        if (queryProvider != null)
-            query = new AcrossVariantsAndQuery(mappedFieldsBoost, analyzer, value, queryProvider);
-        else
-            query = new AcrossVariantsAndQuery(mappedFieldsBoost, analyzer, value);
+        List<String> mappedFilterFields = null;
+        if (filterFields != null) {
+            mappedFilterFields = new ArrayList<String>(filterFields.size());
+            for (String filterField : filterFields) {
+                String fieldName = filterField.trim();
+                MapperService.SmartNameFieldMappers smartNameFieldMappers = parseContext.smartFieldMappers(fieldName);
+                if (smartNameFieldMappers != null && smartNameFieldMappers.hasMapper())
+                    fieldName = smartNameFieldMappers.mapper().names().indexName();
+                mappedFilterFields.add(fieldName);
+            }
+        }
+
+        AcrossVariantsProfile profile = slowLog.newProfile();
+        long start = System.nanoTime();
+        AcrossVariantsAndQuery query = new AcrossVariantsAndQuery(mappedFieldsBoost, analyzer, value,
+                queryProvider != null ? queryProvider : AcrossVariantsAndQuery.TermQueryProvider.INSTANCE, limitsService.limits());
         query.setBoost(boost);
         query.setUseDisMax(use_dis_max);
         query.setTieBreaker(tie_breaker);
+        query.setGlues(glues);
+        query.setBloomFilters(bloomFilterService.bloomFilters());
+        Map<String, Integer> combinedBits = combined && queryProvider == null
+                ? AcrossVariantsCombinedMapper.bits(parseContext.mapperService(), parseContext.queryTypes(), mappedFieldsBoost.keySet()) : null;
+        if (combinedBits != null)
+            query.setCombinedField(AcrossVariantsCombinedMapper.NAME, combinedBits);
+        query.setExecution(execution);
+        query.setCutoffFrequency(cutoffFrequency);
+        query.setMinimumShouldMatch(minimumShouldMatch);
+        query.setTopK(topK);
+        query.setTopKCheck(SearchContextCheck.INSTANCE);
+        query.setScoring(scoring);
+        query.setExistence(existence);
+        query.setExistenceCheck(SearchContextCheck.INSTANCE);
+        query.setAdjacentParts(adjacentParts);
+        query.setPhrase(phrase);
+        query.setSlop(slop);
+        query.setTypeAhead(typeAhead);
+        query.setPrefixCache(prefixCacheService.prefixCache());
+        query.setSession(session, sessionCacheService.sessionCache());
+        if (mappedFilterFields != null && !mappedFilterFields.isEmpty())
+            query.setFilterFields(mappedFilterFields, new CachedTermFilterProvider(parseContext));
+        if (profile != null) {
+            profile.addAnalysisNanos(System.nanoTime() - start);
+            query.setProfile(profile);
+            slowLog.track(profile, "query", query.toString(), query.getTermTree(), query.getFields(), query.getDegradation());
+        }
+        statsService.track(query.getDegradation(), query.getEngineUsage());
+        AcrossVariantsMemoryAccountant memoryAccountant = breakerService.accountant();
+        memoryAccountant.addEstimateBytes(AcrossVariantsRamUsage.sizeOf(query.getTermTree()), "across_variants tree");
+        query.setMemoryAccountant(memoryAccountant);
         return query;
     }
 
@@ -160,6 +331,72 @@ public class AcrossVariantsQueryParser implements QueryParser {
         }
     }
 
+    /**
+     * Provides the filters of the filter fields through the filter cache.
+     */
+    public static class CachedTermFilterProvider implements AcrossVariantsAndFilter.FilterProvider {
+
+        private final QueryParseContext parseContext;
+
+        public CachedTermFilterProvider(QueryParseContext parseContext) {
+            this.parseContext = parseContext;
+        }
+
+        @Override
+        public Filter filterTerm(String field, String text) {
+            return parseContext.cacheFilter(new TermFilter(new Term(field, text)), null);
+        }
+
+    }
+
+    /**
+     * Checks the search context, fully parsed by the time the query executes:
+     * the top k only skips documents when the query is the one of the search, only filtered,
+     * and the search collects the top hits by score and nothing else,
+     * without a sort, aggregations, facets, rescoring or post filter, and when the requested hits fit in the top k.
+     * The existence mode only skips documents when the query is the one of the search, only filtered,
+     * and no post filter nor minimum score drops some of its matches once collected.
+     */
+    public static class SearchContextCheck implements AcrossVariantsAndQuery.TopKCheck, AcrossVariantsAndQuery.ExistenceCheck {
+
+        public static final SearchContextCheck INSTANCE = new SearchContextCheck();
+
+        @Override
+        public boolean onlyTopHits(Query query, int topK) {
+            SearchContext context = SearchContext.current();
+            if (context == null || context.searchType() == SearchType.SCAN || rootQuery(context.query()) != query)
+                return false;
+            Sort sort = context.sort();
+            if (sort != null && (sort.getSort().length != 1 || sort.getSort()[0].getType() != SortField.Type.SCORE || sort.getSort()[0].getReverse()))
+                return false;
+            return context.aggregations() == null && context.facets() == null
+                    && (context.rescore() == null || context.rescore().isEmpty()) && context.parsedPostFilter() == null
+                    && context.from() + context.size() <= topK;
+        }
+
+        @Override
+        public boolean onlyMatches(Query query) {
+            SearchContext context = SearchContext.current();
+            return context != null && rootQuery(context.query()) == query
+                    && context.parsedPostFilter() == null && context.minimumScore() == null;
+        }
+
+        /**
+         * A filtered query only gives its inner query the documents of its filter, whose top hits stay the same.
+         */
+        private static Query rootQuery(Query query) {
+            while (true) {
+                if (query instanceof XFilteredQuery)
+                    query = ((XFilteredQuery) query).getQuery();
+                else if (query instanceof FilteredQuery)
+                    query = ((FilteredQuery) query).getQuery();
+                else
+                    return query;
+            }
+        }
+
+    }
+
     public static class ScriptQueryProvider implements AcrossVariantsAndQuery.QueryProvider {
 
         private ExecutableScript script;
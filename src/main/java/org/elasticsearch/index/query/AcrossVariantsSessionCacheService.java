@@ -0,0 +1,49 @@
+package org.elasticsearch.index.query;
+
+import org.apache.lucene.search.AcrossVariantsSessionCache;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.AbstractIndexComponent;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.settings.IndexSettings;
+
+/**
+ * Holds the per segment documents of the completed tokens of the client sessions of the across variants queries of an index.
+ * Sessions only live for a few seconds, the time between the keystrokes of a user.
+ */
+public class AcrossVariantsSessionCacheService extends AbstractIndexComponent {
+
+    public static final String INDEX_ACROSS_VARIANTS_SESSION_CACHE = "index.across_variants.session_cache";
+    public static final String ENABLED = "enabled";
+    public static final String TTL = "ttl";
+    public static final String MAX_SIZE = "max_size";
+
+    public static final TimeValue DEFAULT_TTL = TimeValue.timeValueSeconds(5);
+    public static final ByteSizeValue DEFAULT_MAX_SIZE = new ByteSizeValue(10, ByteSizeUnit.MB);
+
+    private final AcrossVariantsSessionCache sessionCache;
+
+    @Inject
+    public AcrossVariantsSessionCacheService(Index index, @IndexSettings Settings indexSettings) {
+        super(index, indexSettings);
+
+        Settings settings = indexSettings.getByPrefix(INDEX_ACROSS_VARIANTS_SESSION_CACHE + ".");
+        TimeValue ttl = settings.getAsTime(TTL, DEFAULT_TTL);
+        if (ttl.nanos() < 0)
+            throw new ElasticsearchIllegalArgumentException("[" + INDEX_ACROSS_VARIANTS_SESSION_CACHE + "." + TTL + "] must not be negative");
+        this.sessionCache = settings.getAsBoolean(ENABLED, true)
+                ? new AcrossVariantsSessionCache(ttl.nanos(), settings.getAsBytesSize(MAX_SIZE, DEFAULT_MAX_SIZE).bytes()) : null;
+    }
+
+    /**
+     * @return The session cache of the index, {@code null} if disabled.
+     */
+    public AcrossVariantsSessionCache sessionCache() {
+        return sessionCache;
+    }
+
+}
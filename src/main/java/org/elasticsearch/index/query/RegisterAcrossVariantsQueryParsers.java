@@ -6,7 +6,11 @@ import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.index.AbstractIndexComponent;
 import org.elasticsearch.index.Index;
 import org.elasticsearch.index.analysis.AnalysisService;
+import org.elasticsearch.index.search.slowlog.AcrossVariantsSlowLog;
 import org.elasticsearch.index.settings.IndexSettings;
+import org.elasticsearch.indices.acrossvariants.AcrossVariantsCircuitBreakerService;
+import org.elasticsearch.indices.acrossvariants.AcrossVariantsParallelService;
+import org.elasticsearch.indices.acrossvariants.AcrossVariantsStatsService;
 import org.elasticsearch.indices.query.IndicesQueriesRegistry;
 import org.elasticsearch.script.ScriptService;
 
@@ -18,8 +22,17 @@ public class RegisterAcrossVariantsQueryParsers extends AbstractIndexComponent {
 
         AnalysisService analysisService = injector.getInstance(AnalysisService.class);
         ScriptService scriptService = injector.getInstance(ScriptService.class);
+        AcrossVariantsSlowLog slowLog = injector.getInstance(AcrossVariantsSlowLog.class);
+        AcrossVariantsLimitsService limitsService = injector.getInstance(AcrossVariantsLimitsService.class);
+        AcrossVariantsStatsService statsService = injector.getInstance(AcrossVariantsStatsService.class);
+        AcrossVariantsCircuitBreakerService breakerService = injector.getInstance(AcrossVariantsCircuitBreakerService.class);
+        AcrossVariantsDecompounderService decompounderService = injector.getInstance(AcrossVariantsDecompounderService.class);
+        AcrossVariantsBloomFilterService bloomFilterService = injector.getInstance(AcrossVariantsBloomFilterService.class);
+        AcrossVariantsPrefixCacheService prefixCacheService = injector.getInstance(AcrossVariantsPrefixCacheService.class);
+        AcrossVariantsSessionCacheService sessionCacheService = injector.getInstance(AcrossVariantsSessionCacheService.class);
+        AcrossVariantsParallelService parallelService = injector.getInstance(AcrossVariantsParallelService.class);
 
-        indicesQueriesRegistry.addQueryParser(new AcrossVariantsQueryParser(analysisService, scriptService));
-        indicesQueriesRegistry.addFilterParser(new AcrossVariantsFilterParser(analysisService, scriptService));
+        indicesQueriesRegistry.addQueryParser(new AcrossVariantsQueryParser(analysisService, scriptService, slowLog, limitsService, statsService, breakerService, decompounderService, bloomFilterService, prefixCacheService, sessionCacheService));
+        indicesQueriesRegistry.addFilterParser(new AcrossVariantsFilterParser(analysisService, scriptService, slowLog, limitsService, statsService, breakerService, decompounderService, bloomFilterService, parallelService));
     }
 }
@@ -0,0 +1,198 @@
+package org.elasticsearch.index.search.slowlog;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.AcrossVariantsDegradation;
+import org.apache.lucene.search.AcrossVariantsProfile;
+import org.apache.lucene.search.AcrossVariantsTree.TermNode;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.lease.Releasable;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.AbstractIndexComponent;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.settings.IndexSettings;
+import org.elasticsearch.index.settings.IndexSettingsService;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Slow log dedicated to the across variants query and filter.
+ * Contrary to the regular search slow log, it explains why an execution was slow:
+ * it logs the variant tree, the number of clauses it expanded into,
+ * the document frequency of each leaf and the time spent in each phase.
+ * Only a sample of the executions is profiled, and the number of lines logged per second is capped.
+ */
+public class AcrossVariantsSlowLog extends AbstractIndexComponent {
+
+    public static final String INDEX_ACROSS_VARIANTS_SLOWLOG_THRESHOLD_WARN = "index.across_variants.slowlog.threshold.warn";
+    public static final String INDEX_ACROSS_VARIANTS_SLOWLOG_THRESHOLD_INFO = "index.across_variants.slowlog.threshold.info";
+    public static final String INDEX_ACROSS_VARIANTS_SLOWLOG_THRESHOLD_DEBUG = "index.across_variants.slowlog.threshold.debug";
+    public static final String INDEX_ACROSS_VARIANTS_SLOWLOG_THRESHOLD_TRACE = "index.across_variants.slowlog.threshold.trace";
+    public static final String INDEX_ACROSS_VARIANTS_SLOWLOG_SAMPLE_RATE = "index.across_variants.slowlog.sample_rate";
+    public static final String INDEX_ACROSS_VARIANTS_SLOWLOG_MAX_PER_SECOND = "index.across_variants.slowlog.max_per_second";
+
+    private volatile long warnThreshold;
+    private volatile long infoThreshold;
+    private volatile long debugThreshold;
+    private volatile long traceThreshold;
+    private volatile double sampleRate;
+    private volatile int maxPerSecond;
+
+    private final ESLogger slowLogger;
+
+    private long currentSecond;
+    private int loggedInCurrentSecond;
+
+    @Inject
+    public AcrossVariantsSlowLog(Index index, @IndexSettings Settings indexSettings, IndexSettingsService indexSettingsService) {
+        super(index, indexSettings);
+
+        this.slowLogger = Loggers.getLogger(logger, ".across_variants");
+        applySettings(indexSettings, true);
+
+        indexSettingsService.addListener(new ApplySettings());
+    }
+
+    private void applySettings(Settings settings, boolean initial) {
+        warnThreshold = settings.getAsTime(INDEX_ACROSS_VARIANTS_SLOWLOG_THRESHOLD_WARN, initial ? TimeValue.timeValueNanos(-1) : TimeValue.timeValueNanos(warnThreshold)).nanos();
+        infoThreshold = settings.getAsTime(INDEX_ACROSS_VARIANTS_SLOWLOG_THRESHOLD_INFO, initial ? TimeValue.timeValueNanos(-1) : TimeValue.timeValueNanos(infoThreshold)).nanos();
+        debugThreshold = settings.getAsTime(INDEX_ACROSS_VARIANTS_SLOWLOG_THRESHOLD_DEBUG, initial ? TimeValue.timeValueNanos(-1) : TimeValue.timeValueNanos(debugThreshold)).nanos();
+        traceThreshold = settings.getAsTime(INDEX_ACROSS_VARIANTS_SLOWLOG_THRESHOLD_TRACE, initial ? TimeValue.timeValueNanos(-1) : TimeValue.timeValueNanos(traceThreshold)).nanos();
+        sampleRate = settings.getAsDouble(INDEX_ACROSS_VARIANTS_SLOWLOG_SAMPLE_RATE, initial ? 1.0 : sampleRate);
+        maxPerSecond = settings.getAsInt(INDEX_ACROSS_VARIANTS_SLOWLOG_MAX_PER_SECOND, initial ? 10 : maxPerSecond);
+    }
+
+    public boolean enabled() {
+        return warnThreshold >= 0 || infoThreshold >= 0 || debugThreshold >= 0 || traceThreshold >= 0;
+    }
+
+    /**
+     * Starts profiling an execution, if the slow log is enabled
+     * and the execution is part of the sample.
+     * @return The profile to give to the query or filter, or {@code null}.
+     */
+    public AcrossVariantsProfile newProfile() {
+        if (!enabled() || SearchContext.current() == null)
+            return null;
+        double rate = sampleRate;
+        if (rate <= 0.0 || (rate < 1.0 && ThreadLocalRandom.current().nextDouble() >= rate))
+            return null;
+        return new AcrossVariantsProfile();
+    }
+
+    /**
+     * Logs the execution, if slow, at the end of the current search phase,
+     * out of the time spent in the clause itself rather than the whole lifetime of the search context,
+     * which includes the fetch phase and the keep-alive of scrolls.
+     */
+    public void track(final AcrossVariantsProfile profile, final String kind, final String description, final TermNode tree, final Collection<String> fields, final AcrossVariantsDegradation degradation) {
+        if (profile == null)
+            return;
+        SearchContext context = SearchContext.current();
+        if (context == null)
+            return;
+        context.addReleasable(new Releasable() {
+            @Override
+            public void close() throws ElasticsearchException {
+                profile.endPhase(System.nanoTime());
+                onDone(profile, kind, description, tree, fields, degradation, profile.getTookNanos());
+            }
+        }, SearchContext.Lifetime.PHASE);
+    }
+
+    void onDone(AcrossVariantsProfile profile, String kind, String description, TermNode tree, Collection<String> fields, AcrossVariantsDegradation degradation, long tookNanos) {
+        if (warnThreshold >= 0 && tookNanos > warnThreshold) {
+            if (acquire())
+                slowLogger.warn("{}", new SlowLogPrinter(profile, kind, description, tree, fields, degradation, tookNanos));
+        } else if (infoThreshold >= 0 && tookNanos > infoThreshold) {
+            if (acquire())
+                slowLogger.info("{}", new SlowLogPrinter(profile, kind, description, tree, fields, degradation, tookNanos));
+        } else if (debugThreshold >= 0 && tookNanos > debugThreshold) {
+            if (slowLogger.isDebugEnabled() && acquire())
+                slowLogger.debug("{}", new SlowLogPrinter(profile, kind, description, tree, fields, degradation, tookNanos));
+        } else if (traceThreshold >= 0 && tookNanos > traceThreshold) {
+            if (slowLogger.isTraceEnabled() && acquire())
+                slowLogger.trace("{}", new SlowLogPrinter(profile, kind, description, tree, fields, degradation, tookNanos));
+        }
+    }
+
+    /**
+     * Rate limits the logging to {@code max_per_second} lines per second.
+     */
+    private synchronized boolean acquire() {
+        long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        if (second != currentSecond) {
+            currentSecond = second;
+            loggedInCurrentSecond = 0;
+        }
+        if (loggedInCurrentSecond >= maxPerSecond)
+            return false;
+        loggedInCurrentSecond++;
+        return true;
+    }
+
+    static class SlowLogPrinter {
+
+        private final AcrossVariantsProfile profile;
+        private final String kind;
+        private final String description;
+        private final TermNode tree;
+        private final Collection<String> fields;
+        private final AcrossVariantsDegradation degradation;
+        private final long tookNanos;
+
+        SlowLogPrinter(AcrossVariantsProfile profile, String kind, String description, TermNode tree, Collection<String> fields, AcrossVariantsDegradation degradation, long tookNanos) {
+            this.profile = profile;
+            this.kind = kind;
+            this.description = description;
+            this.tree = tree;
+            this.fields = fields;
+            this.degradation = degradation;
+            this.tookNanos = tookNanos;
+        }
+
+        @Override
+        public String toString() {
+            AcrossVariantsProfile.TreeCounts counts = new AcrossVariantsProfile.TreeCounts(tree, fields.size());
+            StringBuilder sb = new StringBuilder();
+            sb.append(kind).append("[").append(description).append("], ");
+            sb.append("took[").append(TimeValue.timeValueNanos(tookNanos)).append("], ");
+            sb.append("took_millis[").append(TimeUnit.NANOSECONDS.toMillis(tookNanos)).append("], ");
+            sb.append("analysis[").append(TimeValue.timeValueNanos(profile.getAnalysisNanos())).append("], ");
+            sb.append("rewrite[").append(TimeValue.timeValueNanos(profile.getRewriteNanos())).append("], ");
+            sb.append("execution[").append(TimeValue.timeValueNanos(profile.getExecutionNanos())).append("], ");
+            sb.append("fields[").append(fields.size()).append("], ");
+            sb.append("nodes[").append(counts.nodes).append("], ");
+            sb.append("depth[").append(counts.depth).append("], ");
+            sb.append("writings[").append(counts.writings).append("], ");
+            sb.append("leaves[").append(counts.leaves).append("], ");
+            sb.append("clauses[").append(counts.clauses).append("], ");
+            sb.append("degradation[").append(degradation).append("], ");
+            sb.append("tree[").append(tree).append("], ");
+            sb.append("doc_freqs[");
+            boolean first = true;
+            for (Map.Entry<Term, Long> docFreq : profile.getDocFreqs().entrySet()) {
+                if (first) first = false;
+                else sb.append(", ");
+                sb.append(docFreq.getKey()).append('=').append(docFreq.getValue());
+            }
+            sb.append("]");
+            return sb.toString();
+        }
+    }
+
+    class ApplySettings implements IndexSettingsService.Listener {
+        @Override
+        public synchronized void onRefreshSettings(Settings settings) {
+            applySettings(settings, false);
+        }
+    }
+
+}
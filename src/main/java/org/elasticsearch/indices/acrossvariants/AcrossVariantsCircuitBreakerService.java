@@ -0,0 +1,136 @@
+package org.elasticsearch.indices.acrossvariants;
+
+import org.apache.lucene.search.AcrossVariantsMemoryAccountant;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.breaker.MemoryCircuitBreaker;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.lease.Releasable;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.node.settings.NodeSettingsService;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker for the memory held by the across variants trees and the queries they expand into.
+ * Elasticsearch only breaks on field data, the plugin hence owns its breaker,
+ * configured like the field data one, and updatable through the cluster settings.
+ * The charges are released with the search context.
+ */
+public class AcrossVariantsCircuitBreakerService extends AbstractComponent {
+
+    public static final String CIRCUIT_BREAKER_LIMIT_SETTING = "indices.across_variants.breaker.limit";
+    public static final String CIRCUIT_BREAKER_OVERHEAD_SETTING = "indices.across_variants.breaker.overhead";
+
+    public static final String DEFAULT_LIMIT = "10%";
+    public static final double DEFAULT_OVERHEAD = 1.0;
+
+    private volatile MemoryCircuitBreaker breaker;
+    private volatile long maxBytes;
+    private volatile double overhead;
+
+    @Inject
+    public AcrossVariantsCircuitBreakerService(Settings settings, NodeSettingsService nodeSettingsService) {
+        super(settings);
+        this.maxBytes = settings.getAsMemory(CIRCUIT_BREAKER_LIMIT_SETTING, DEFAULT_LIMIT).bytes();
+        this.overhead = settings.getAsDouble(CIRCUIT_BREAKER_OVERHEAD_SETTING, DEFAULT_OVERHEAD);
+        this.breaker = new MemoryCircuitBreaker(new ByteSizeValue(maxBytes), overhead, null, logger);
+        nodeSettingsService.addListener(new ApplySettings());
+    }
+
+    public MemoryCircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    /**
+     * @return An accountant releasing its charges with the current search context.
+     *         Without a search context, eg. when planning, a charge is released as soon as it got accepted.
+     */
+    public AcrossVariantsMemoryAccountant accountant() {
+        SearchContext context = SearchContext.current();
+        if (context == null)
+            return new Accountant(false);
+        final Accountant rtn = new Accountant(true);
+        context.addReleasable(new Releasable() {
+            @Override
+            public void close() throws ElasticsearchException {
+                rtn.release();
+            }
+        }, SearchContext.Lifetime.CONTEXT);
+        return rtn;
+    }
+
+    synchronized void resetBreaker() {
+        final MemoryCircuitBreaker oldBreaker = this.breaker;
+        // Carries the used bytes over, so that the pending releases still balance
+        this.breaker = new MemoryCircuitBreaker(new ByteSizeValue(maxBytes), overhead, oldBreaker, logger);
+    }
+
+    /**
+     * Charges may come from the segment executor after the search context got released, as its running tasks are not interrupted,
+     * such late charges are released right away.
+     */
+    private class Accountant implements AcrossVariantsMemoryAccountant {
+
+        private final boolean held;
+        private final AtomicLong charged = new AtomicLong();
+        private volatile boolean released;
+
+        Accountant(boolean held) {
+            this.held = held;
+        }
+
+        @Override
+        public void addEstimateBytes(long bytes, String label) {
+            breaker.addEstimateBytesAndMaybeBreak(bytes, label);
+            if (held) {
+                charged.addAndGet(bytes);
+                // Whoever takes the charges releases them, once
+                if (released)
+                    releaseCharged();
+            } else {
+                breaker.addWithoutBreaking(-bytes);
+            }
+        }
+
+        void release() {
+            released = true;
+            releaseCharged();
+        }
+
+        private void releaseCharged() {
+            long bytes = charged.getAndSet(0);
+            if (bytes != 0)
+                breaker.addWithoutBreaking(-bytes);
+        }
+
+    }
+
+    class ApplySettings implements NodeSettingsService.Listener {
+        @Override
+        public void onRefreshSettings(Settings settings) {
+            boolean breakerResetNeeded = false;
+
+            long newMaxBytes = settings.getAsMemory(CIRCUIT_BREAKER_LIMIT_SETTING, Long.toString(maxBytes)).bytes();
+            if (newMaxBytes != maxBytes) {
+                logger.info("updating [{}] from [{}] to [{}]", CIRCUIT_BREAKER_LIMIT_SETTING,
+                        new ByteSizeValue(maxBytes), new ByteSizeValue(newMaxBytes));
+                maxBytes = newMaxBytes;
+                breakerResetNeeded = true;
+            }
+
+            double newOverhead = settings.getAsDouble(CIRCUIT_BREAKER_OVERHEAD_SETTING, overhead);
+            if (newOverhead != overhead) {
+                logger.info("updating [{}] from [{}] to [{}]", CIRCUIT_BREAKER_OVERHEAD_SETTING, overhead, newOverhead);
+                overhead = newOverhead;
+                breakerResetNeeded = true;
+            }
+
+            if (breakerResetNeeded)
+                resetBreaker();
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package org.elasticsearch.indices.acrossvariants;
+
+import org.apache.lucene.search.AcrossVariantsAndFilter;
+import org.apache.lucene.search.AcrossVariantsSegmentExecutor;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.lease.Releasable;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.node.settings.NodeSettingsService;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Owns the pool the across variants filters compute the doc id sets of the segments of a shard on in parallel.
+ * Elasticsearch goes through the segments of a shard sequentially, on a single search thread,
+ * which leaves cores idle while a heavy filter goes through many segments.
+ * Disabled by default, and updatable through the cluster settings.
+ * The pool is shared by all the indices of the node, its threads get started on first use.
+ */
+public class AcrossVariantsParallelService extends AbstractLifecycleComponent<AcrossVariantsParallelService> {
+
+    public static final String PARALLEL_ENABLED_SETTING = "indices.across_variants.parallel.enabled";
+    public static final String PARALLEL_THREADS_SETTING = "indices.across_variants.parallel.threads";
+    public static final String PARALLEL_QUEUE_SIZE_SETTING = "indices.across_variants.parallel.queue_size";
+    public static final String PARALLEL_MIN_SEGMENTS_SETTING = "indices.across_variants.parallel.min_segments";
+
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+    public static final int DEFAULT_MIN_SEGMENTS = 4;
+
+    private final ForkJoinPool pool;
+    private final AcrossVariantsSegmentExecutor executor;
+    private volatile boolean enabled;
+
+    @Inject
+    public AcrossVariantsParallelService(final Settings settings, NodeSettingsService nodeSettingsService) {
+        super(settings);
+        this.enabled = settings.getAsBoolean(PARALLEL_ENABLED_SETTING, false);
+        int threads = settings.getAsInt(PARALLEL_THREADS_SETTING, EsExecutors.boundedNumberOfProcessors(settings));
+        int queueSize = settings.getAsInt(PARALLEL_QUEUE_SIZE_SETTING, DEFAULT_QUEUE_SIZE);
+        int minSegments = settings.getAsInt(PARALLEL_MIN_SEGMENTS_SETTING, DEFAULT_MIN_SEGMENTS);
+        if (threads < 1 || queueSize < 1)
+            throw new ElasticsearchIllegalArgumentException("[" + PARALLEL_THREADS_SETTING + "] and [" + PARALLEL_QUEUE_SIZE_SETTING + "] must be positive");
+        if (minSegments < 2)
+            throw new ElasticsearchIllegalArgumentException("[" + PARALLEL_MIN_SEGMENTS_SETTING + "] must be at least 2");
+
+        final String threadName = EsExecutors.threadName(settings, "across_variants_parallel");
+        this.pool = new ForkJoinPool(threads, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread rtn = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                rtn.setName(threadName + "[" + rtn.getPoolIndex() + "]");
+                return rtn;
+            }
+        }, null, false);
+        this.executor = new AcrossVariantsSegmentExecutor(pool, queueSize, minSegments);
+        nodeSettingsService.addListener(new ApplySettings());
+        logger.debug("computing the across_variants filters of readers with at least [{}] segments on [{}] threads, with up to [{}] queued segments",
+                minSegments, threads, queueSize);
+    }
+
+    /**
+     * @return The executor the filters compute their segments with, {@code null} if disabled.
+     */
+    public AcrossVariantsSegmentExecutor executor() {
+        return enabled ? executor : null;
+    }
+
+    /**
+     * Cancels the segments of the filter the search did not ask for once the search context gets released.
+     */
+    public void track(final AcrossVariantsAndFilter filter) {
+        SearchContext context = SearchContext.current();
+        if (context == null || filter.getSegmentExecutor() == null)
+            return;
+        context.addReleasable(new Releasable() {
+            @Override
+            public void close() throws ElasticsearchException {
+                filter.cancelPending();
+            }
+        }, SearchContext.Lifetime.CONTEXT);
+    }
+
+    @Override
+    protected void doStart() throws ElasticsearchException {
+    }
+
+    @Override
+    protected void doStop() throws ElasticsearchException {
+    }
+
+    @Override
+    protected void doClose() throws ElasticsearchException {
+        pool.shutdownNow();
+    }
+
+    class ApplySettings implements NodeSettingsService.Listener {
+        @Override
+        public void onRefreshSettings(Settings settings) {
+            boolean newEnabled = settings.getAsBoolean(PARALLEL_ENABLED_SETTING, enabled);
+            if (newEnabled != enabled) {
+                logger.info("updating [{}] from [{}] to [{}]", PARALLEL_ENABLED_SETTING, enabled, newEnabled);
+                enabled = newEnabled;
+            }
+        }
+    }
+
+}
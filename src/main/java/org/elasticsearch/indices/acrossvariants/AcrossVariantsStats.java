@@ -0,0 +1,194 @@
+package org.elasticsearch.indices.acrossvariants;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+
+/**
+ * Snapshot of the across variants statistics of a node.
+ */
+public class AcrossVariantsStats implements Streamable, ToXContent {
+
+    private long executions;
+    private long degraded;
+    private long tokensTruncated;
+    private long analysisTimedOut;
+    private long droppedWritings;
+    private long termsSets;
+    private long rewriteEngine;
+    private long scorerEngine;
+    private long bitsetEngine;
+    private long breakerLimit;
+    private long breakerEstimated;
+    private double breakerOverhead;
+    private long breakerTripped;
+
+    AcrossVariantsStats() {
+    }
+
+    public AcrossVariantsStats(long executions, long degraded, long tokensTruncated, long analysisTimedOut, long droppedWritings, long termsSets,
+                               long rewriteEngine, long scorerEngine, long bitsetEngine,
+                               long breakerLimit, long breakerEstimated, double breakerOverhead, long breakerTripped) {
+        this.executions = executions;
+        this.degraded = degraded;
+        this.tokensTruncated = tokensTruncated;
+        this.analysisTimedOut = analysisTimedOut;
+        this.droppedWritings = droppedWritings;
+        this.termsSets = termsSets;
+        this.rewriteEngine = rewriteEngine;
+        this.scorerEngine = scorerEngine;
+        this.bitsetEngine = bitsetEngine;
+        this.breakerLimit = breakerLimit;
+        this.breakerEstimated = breakerEstimated;
+        this.breakerOverhead = breakerOverhead;
+        this.breakerTripped = breakerTripped;
+    }
+
+    public static AcrossVariantsStats readAcrossVariantsStats(StreamInput in) throws IOException {
+        AcrossVariantsStats rtn = new AcrossVariantsStats();
+        rtn.readFrom(in);
+        return rtn;
+    }
+
+    /**
+     * @return Number of queries and filters executed within a search context.
+     */
+    public long getExecutions() {
+        return executions;
+    }
+
+    /**
+     * @return Number of executions that exceeded a limit and got degraded.
+     */
+    public long getDegraded() {
+        return degraded;
+    }
+
+    public long getTokensTruncated() {
+        return tokensTruncated;
+    }
+
+    public long getAnalysisTimedOut() {
+        return analysisTimedOut;
+    }
+
+    /**
+     * @return Total number of writings dropped, all executions together.
+     */
+    public long getDroppedWritings() {
+        return droppedWritings;
+    }
+
+    public long getTermsSets() {
+        return termsSets;
+    }
+
+    /**
+     * @return Number of executions that used the rewrite engine.
+     */
+    public long getRewriteEngine() {
+        return rewriteEngine;
+    }
+
+    /**
+     * @return Number of executions that used the scorer engine, on at least one segment.
+     */
+    public long getScorerEngine() {
+        return scorerEngine;
+    }
+
+    /**
+     * @return Number of executions that used the bitset engine, on at least one segment.
+     */
+    public long getBitsetEngine() {
+        return bitsetEngine;
+    }
+
+    public long getBreakerLimit() {
+        return breakerLimit;
+    }
+
+    /**
+     * @return Bytes currently charged to the breaker, by the search contexts still open.
+     */
+    public long getBreakerEstimated() {
+        return breakerEstimated;
+    }
+
+    public double getBreakerOverhead() {
+        return breakerOverhead;
+    }
+
+    /**
+     * @return Number of queries and filters rejected by the breaker.
+     */
+    public long getBreakerTripped() {
+        return breakerTripped;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        executions = in.readVLong();
+        degraded = in.readVLong();
+        tokensTruncated = in.readVLong();
+        analysisTimedOut = in.readVLong();
+        droppedWritings = in.readVLong();
+        termsSets = in.readVLong();
+        rewriteEngine = in.readVLong();
+        scorerEngine = in.readVLong();
+        bitsetEngine = in.readVLong();
+        breakerLimit = in.readLong();
+        breakerEstimated = in.readLong();
+        breakerOverhead = in.readDouble();
+        breakerTripped = in.readVLong();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeVLong(executions);
+        out.writeVLong(degraded);
+        out.writeVLong(tokensTruncated);
+        out.writeVLong(analysisTimedOut);
+        out.writeVLong(droppedWritings);
+        out.writeVLong(termsSets);
+        out.writeVLong(rewriteEngine);
+        out.writeVLong(scorerEngine);
+        out.writeVLong(bitsetEngine);
+        out.writeLong(breakerLimit);
+        out.writeLong(breakerEstimated);
+        out.writeDouble(breakerOverhead);
+        out.writeVLong(breakerTripped);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.field("executions", executions);
+        builder.startObject("degradation");
+        builder.field("degraded", degraded);
+        builder.field("tokens_truncated", tokensTruncated);
+        builder.field("analysis_timed_out", analysisTimedOut);
+        builder.field("dropped_writings", droppedWritings);
+        builder.field("terms_sets", termsSets);
+        builder.endObject();
+        builder.startObject("engines");
+        builder.field("rewrite", rewriteEngine);
+        builder.field("scorer", scorerEngine);
+        builder.field("bitset", bitsetEngine);
+        builder.endObject();
+        builder.startObject("breaker");
+        builder.field("limit_size_in_bytes", breakerLimit);
+        builder.field("limit_size", new ByteSizeValue(breakerLimit).toString());
+        builder.field("estimated_size_in_bytes", breakerEstimated);
+        builder.field("estimated_size", new ByteSizeValue(breakerEstimated).toString());
+        builder.field("overhead", breakerOverhead);
+        builder.field("tripped", breakerTripped);
+        builder.endObject();
+        return builder;
+    }
+
+}
@@ -0,0 +1,78 @@
+package org.elasticsearch.indices.acrossvariants;
+
+import org.apache.lucene.search.AcrossVariantsDegradation;
+import org.apache.lucene.search.AcrossVariantsEngineUsage;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.breaker.MemoryCircuitBreaker;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.lease.Releasable;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.search.internal.SearchContext;
+
+/**
+ * Counts, for the whole node, the across variants executions, how they got degraded and which engines they used.
+ * Executions are accounted for once their search context gets released,
+ * as the query is only degraded when rewritten.
+ */
+public class AcrossVariantsStatsService extends AbstractComponent {
+
+    private final CounterMetric executions = new CounterMetric();
+    private final CounterMetric degraded = new CounterMetric();
+    private final CounterMetric tokensTruncated = new CounterMetric();
+    private final CounterMetric analysisTimedOut = new CounterMetric();
+    private final CounterMetric droppedWritings = new CounterMetric();
+    private final CounterMetric termsSets = new CounterMetric();
+    private final CounterMetric rewriteEngine = new CounterMetric();
+    private final CounterMetric scorerEngine = new CounterMetric();
+    private final CounterMetric bitsetEngine = new CounterMetric();
+    private final AcrossVariantsCircuitBreakerService breakerService;
+
+    @Inject
+    public AcrossVariantsStatsService(Settings settings, AcrossVariantsCircuitBreakerService breakerService) {
+        super(settings);
+        this.breakerService = breakerService;
+    }
+
+    public void track(final AcrossVariantsDegradation degradation, final AcrossVariantsEngineUsage engineUsage) {
+        SearchContext context = SearchContext.current();
+        if (context == null)
+            return;
+        context.addReleasable(new Releasable() {
+            @Override
+            public void close() throws ElasticsearchException {
+                onDone(degradation, engineUsage);
+            }
+        }, SearchContext.Lifetime.CONTEXT);
+    }
+
+    void onDone(AcrossVariantsDegradation degradation, AcrossVariantsEngineUsage engineUsage) {
+        executions.inc();
+        if (engineUsage.isRewrite())
+            rewriteEngine.inc();
+        if (engineUsage.isScorer())
+            scorerEngine.inc();
+        if (engineUsage.isBitset())
+            bitsetEngine.inc();
+        if (!degradation.isDegraded())
+            return;
+        degraded.inc();
+        if (degradation.isTokensTruncated())
+            tokensTruncated.inc();
+        if (degradation.isAnalysisTimedOut())
+            analysisTimedOut.inc();
+        droppedWritings.inc(degradation.getDroppedWritings());
+        if (degradation.isTermsSets())
+            termsSets.inc();
+    }
+
+    public AcrossVariantsStats stats() {
+        MemoryCircuitBreaker breaker = breakerService.getBreaker();
+        return new AcrossVariantsStats(executions.count(), degraded.count(), tokensTruncated.count(),
+                analysisTimedOut.count(), droppedWritings.count(), termsSets.count(),
+                rewriteEngine.count(), scorerEngine.count(), bitsetEngine.count(),
+                breaker.getMaximum(), breaker.getUsed(), breaker.getOverhead(), breaker.getTrippedCount());
+    }
+
+}
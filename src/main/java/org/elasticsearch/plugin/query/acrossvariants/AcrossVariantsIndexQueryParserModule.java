@@ -1,12 +1,26 @@
 package org.elasticsearch.plugin.query.acrossvariants;
 
 import org.elasticsearch.common.inject.AbstractModule;
+import org.elasticsearch.index.mapper.acrossvariants.RegisterAcrossVariantsCombinedMapper;
+import org.elasticsearch.index.query.AcrossVariantsBloomFilterService;
+import org.elasticsearch.index.query.AcrossVariantsDecompounderService;
+import org.elasticsearch.index.query.AcrossVariantsLimitsService;
+import org.elasticsearch.index.query.AcrossVariantsPrefixCacheService;
+import org.elasticsearch.index.query.AcrossVariantsSessionCacheService;
 import org.elasticsearch.index.query.RegisterAcrossVariantsQueryParsers;
+import org.elasticsearch.index.search.slowlog.AcrossVariantsSlowLog;
 
 public class AcrossVariantsIndexQueryParserModule extends AbstractModule {
 
     @Override
     protected void configure() {
+        bind(AcrossVariantsSlowLog.class).asEagerSingleton();
+        bind(AcrossVariantsLimitsService.class).asEagerSingleton();
+        bind(AcrossVariantsDecompounderService.class).asEagerSingleton();
+        bind(AcrossVariantsBloomFilterService.class).asEagerSingleton();
+        bind(AcrossVariantsPrefixCacheService.class).asEagerSingleton();
+        bind(AcrossVariantsSessionCacheService.class).asEagerSingleton();
+        bind(RegisterAcrossVariantsCombinedMapper.class).asEagerSingleton();
         bind(RegisterAcrossVariantsQueryParsers.class).asEagerSingleton();
     }
 }
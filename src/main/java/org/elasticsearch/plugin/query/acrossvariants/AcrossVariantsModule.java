@@ -0,0 +1,16 @@
+package org.elasticsearch.plugin.query.acrossvariants;
+
+import org.elasticsearch.common.inject.AbstractModule;
+import org.elasticsearch.indices.acrossvariants.AcrossVariantsCircuitBreakerService;
+import org.elasticsearch.indices.acrossvariants.AcrossVariantsParallelService;
+import org.elasticsearch.indices.acrossvariants.AcrossVariantsStatsService;
+
+public class AcrossVariantsModule extends AbstractModule {
+
+    @Override
+    protected void configure() {
+        bind(AcrossVariantsCircuitBreakerService.class).asEagerSingleton();
+        bind(AcrossVariantsStatsService.class).asEagerSingleton();
+        bind(AcrossVariantsParallelService.class).asEagerSingleton();
+    }
+}
@@ -1,7 +1,27 @@
 package org.elasticsearch.plugin.query.acrossvariants;
 
+import org.elasticsearch.action.ActionModule;
+import org.elasticsearch.action.acrossvariants.plan.AcrossVariantsPlanAction;
+import org.elasticsearch.action.acrossvariants.plan.TransportAcrossVariantsPlanAction;
+import org.elasticsearch.action.acrossvariants.stats.AcrossVariantsStatsAction;
+import org.elasticsearch.action.acrossvariants.stats.TransportAcrossVariantsStatsAction;
+import org.elasticsearch.cluster.settings.ClusterDynamicSettingsModule;
+import org.elasticsearch.cluster.settings.Validator;
+import org.elasticsearch.common.component.LifecycleComponent;
 import org.elasticsearch.common.inject.Module;
+import org.elasticsearch.index.CloseableIndexComponent;
+import org.elasticsearch.index.analysis.AcrossVariantsGlueTokenFilterFactory;
+import org.elasticsearch.index.analysis.AnalysisModule;
+import org.elasticsearch.index.query.AcrossVariantsDecompounderService;
+import org.elasticsearch.index.query.AcrossVariantsLimitsService;
+import org.elasticsearch.index.search.slowlog.AcrossVariantsSlowLog;
+import org.elasticsearch.index.settings.IndexDynamicSettingsModule;
+import org.elasticsearch.indices.acrossvariants.AcrossVariantsCircuitBreakerService;
+import org.elasticsearch.indices.acrossvariants.AcrossVariantsParallelService;
 import org.elasticsearch.plugins.AbstractPlugin;
+import org.elasticsearch.rest.RestModule;
+import org.elasticsearch.rest.action.acrossvariants.RestAcrossVariantsPlanAction;
+import org.elasticsearch.rest.action.acrossvariants.RestAcrossVariantsStatsAction;
 
 import java.util.Collection;
 
@@ -19,10 +39,64 @@ public class QueryAcrossVariantsPlugin extends AbstractPlugin {
         return "Decompounding-variants aware, across fields, conjunctive query capabilities";
     }
 
+    @Override
+    public Collection<Class<? extends Module>> modules() {
+        Collection<Class<? extends Module>> modules = newArrayList();
+        modules.add(AcrossVariantsModule.class);
+        return modules;
+    }
+
+    @Override
+    public Collection<Class<? extends LifecycleComponent>> services() {
+        Collection<Class<? extends LifecycleComponent>> services = newArrayList();
+        services.add(AcrossVariantsParallelService.class);
+        return services;
+    }
+
     @Override
     public Collection<Class<? extends Module>> indexModules() {
         Collection<Class<? extends Module>> modules = newArrayList();
         modules.add(AcrossVariantsIndexQueryParserModule.class);
         return modules;
     }
+
+    @Override
+    public Collection<Class<? extends CloseableIndexComponent>> indexServices() {
+        Collection<Class<? extends CloseableIndexComponent>> services = newArrayList();
+        services.add(AcrossVariantsDecompounderService.class);
+        return services;
+    }
+
+    public void onModule(AnalysisModule module) {
+        module.addTokenFilter(AcrossVariantsGlueTokenFilterFactory.NAME, AcrossVariantsGlueTokenFilterFactory.class);
+    }
+
+    public void onModule(ClusterDynamicSettingsModule module) {
+        module.addDynamicSetting(AcrossVariantsCircuitBreakerService.CIRCUIT_BREAKER_LIMIT_SETTING, Validator.MEMORY_SIZE);
+        module.addDynamicSetting(AcrossVariantsCircuitBreakerService.CIRCUIT_BREAKER_OVERHEAD_SETTING, Validator.NON_NEGATIVE_DOUBLE);
+        module.addDynamicSetting(AcrossVariantsParallelService.PARALLEL_ENABLED_SETTING, Validator.BOOLEAN);
+    }
+
+    public void onModule(IndexDynamicSettingsModule module) {
+        module.addDynamicSetting(AcrossVariantsSlowLog.INDEX_ACROSS_VARIANTS_SLOWLOG_THRESHOLD_WARN, Validator.TIME);
+        module.addDynamicSetting(AcrossVariantsSlowLog.INDEX_ACROSS_VARIANTS_SLOWLOG_THRESHOLD_INFO, Validator.TIME);
+        module.addDynamicSetting(AcrossVariantsSlowLog.INDEX_ACROSS_VARIANTS_SLOWLOG_THRESHOLD_DEBUG, Validator.TIME);
+        module.addDynamicSetting(AcrossVariantsSlowLog.INDEX_ACROSS_VARIANTS_SLOWLOG_THRESHOLD_TRACE, Validator.TIME);
+        module.addDynamicSetting(AcrossVariantsSlowLog.INDEX_ACROSS_VARIANTS_SLOWLOG_SAMPLE_RATE, Validator.NON_NEGATIVE_DOUBLE);
+        module.addDynamicSetting(AcrossVariantsSlowLog.INDEX_ACROSS_VARIANTS_SLOWLOG_MAX_PER_SECOND, Validator.NON_NEGATIVE_INTEGER);
+        module.addDynamicSetting(AcrossVariantsLimitsService.INDEX_ACROSS_VARIANTS_MAX_TOKENS, Validator.INTEGER);
+        module.addDynamicSetting(AcrossVariantsLimitsService.INDEX_ACROSS_VARIANTS_MAX_WRITINGS, Validator.INTEGER);
+        module.addDynamicSetting(AcrossVariantsLimitsService.INDEX_ACROSS_VARIANTS_MAX_LEAVES, Validator.INTEGER);
+        module.addDynamicSetting(AcrossVariantsLimitsService.INDEX_ACROSS_VARIANTS_ANALYSIS_TIMEOUT, Validator.TIME);
+    }
+
+    public void onModule(ActionModule module) {
+        module.registerAction(AcrossVariantsPlanAction.INSTANCE, TransportAcrossVariantsPlanAction.class);
+        module.registerAction(AcrossVariantsStatsAction.INSTANCE, TransportAcrossVariantsStatsAction.class);
+    }
+
+    public void onModule(RestModule module) {
+        module.addRestAction(RestAcrossVariantsPlanAction.class);
+        module.addRestAction(RestAcrossVariantsStatsAction.class);
+    }
 }
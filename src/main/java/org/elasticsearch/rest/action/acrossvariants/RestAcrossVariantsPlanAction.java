@@ -0,0 +1,81 @@
+package org.elasticsearch.rest.action.acrossvariants;
+
+import org.elasticsearch.action.acrossvariants.plan.AcrossVariantsPlanAction;
+import org.elasticsearch.action.acrossvariants.plan.AcrossVariantsPlanRequest;
+import org.elasticsearch.action.acrossvariants.plan.AcrossVariantsPlanResponse;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.query.AcrossVariantsQueryParser;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.rest.action.support.RestActions;
+import org.elasticsearch.rest.action.support.RestBuilderListener;
+
+import java.io.IOException;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+import static org.elasticsearch.rest.RestStatus.OK;
+
+/**
+ * Explains how an across variants query would run, without executing it.
+ * The body is either the query, {@code {"across_variants": {...}}}, or directly its content.
+ */
+public class RestAcrossVariantsPlanAction extends BaseRestHandler {
+
+    @Inject
+    public RestAcrossVariantsPlanAction(Settings settings, Client client, RestController controller) {
+        super(settings, client);
+        controller.registerHandler(GET, "/_across_variants/_plan", this);
+        controller.registerHandler(POST, "/_across_variants/_plan", this);
+        controller.registerHandler(GET, "/{index}/_across_variants/_plan", this);
+        controller.registerHandler(POST, "/{index}/_across_variants/_plan", this);
+    }
+
+    @Override
+    protected void handleRequest(final RestRequest request, final RestChannel channel, final Client client) throws Exception {
+        AcrossVariantsPlanRequest planRequest = new AcrossVariantsPlanRequest(Strings.splitStringByCommaToArray(request.param("index")));
+        planRequest.listenerThreaded(false);
+        planRequest.indicesOptions(IndicesOptions.fromRequest(request, planRequest.indicesOptions()));
+        BytesReference content = RestActions.getRestContent(request);
+        if (content != null)
+            planRequest.source(wrapQuery(content));
+        client.admin().indices().execute(AcrossVariantsPlanAction.INSTANCE, planRequest, new RestBuilderListener<AcrossVariantsPlanResponse>(channel) {
+            @Override
+            public RestResponse buildResponse(AcrossVariantsPlanResponse response, XContentBuilder builder) throws Exception {
+                builder.startObject();
+                RestActions.buildBroadcastShardsHeader(builder, response);
+                response.toXContent(builder, request);
+                builder.endObject();
+                return new BytesRestResponse(OK, builder);
+            }
+        });
+    }
+
+    private static BytesReference wrapQuery(BytesReference content) throws IOException {
+        XContentParser parser = XContentFactory.xContent(content).createParser(content);
+        try {
+            parser.nextToken();
+            if (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+                for (String name : AcrossVariantsQueryParser.NAMES) {
+                    if (name.equals(parser.currentName()))
+                        return content;
+                }
+            }
+        } finally {
+            parser.close();
+        }
+        return XContentFactory.jsonBuilder().startObject().rawField(AcrossVariantsQueryParser.NAME, content).endObject().bytes();
+    }
+}
@@ -0,0 +1,48 @@
+package org.elasticsearch.rest.action.acrossvariants;
+
+import org.elasticsearch.action.acrossvariants.stats.AcrossVariantsStatsAction;
+import org.elasticsearch.action.acrossvariants.stats.AcrossVariantsStatsRequest;
+import org.elasticsearch.action.acrossvariants.stats.AcrossVariantsStatsResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.rest.action.support.RestBuilderListener;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestStatus.OK;
+
+/**
+ * Across variants statistics of each node.
+ */
+public class RestAcrossVariantsStatsAction extends BaseRestHandler {
+
+    @Inject
+    public RestAcrossVariantsStatsAction(Settings settings, Client client, RestController controller) {
+        super(settings, client);
+        controller.registerHandler(GET, "/_across_variants/_stats", this);
+        controller.registerHandler(GET, "/_nodes/{nodeId}/_across_variants/_stats", this);
+    }
+
+    @Override
+    protected void handleRequest(final RestRequest request, final RestChannel channel, final Client client) throws Exception {
+        AcrossVariantsStatsRequest statsRequest = new AcrossVariantsStatsRequest(Strings.splitStringByCommaToArray(request.param("nodeId")));
+        statsRequest.listenerThreaded(false);
+        client.admin().cluster().execute(AcrossVariantsStatsAction.INSTANCE, statsRequest, new RestBuilderListener<AcrossVariantsStatsResponse>(channel) {
+            @Override
+            public RestResponse buildResponse(AcrossVariantsStatsResponse response, XContentBuilder builder) throws Exception {
+                builder.startObject();
+                response.toXContent(builder, request);
+                builder.endObject();
+                return new BytesRestResponse(OK, builder);
+            }
+        });
+    }
+}
@@ -8,6 +8,7 @@ import org.elasticsearch.action.admin.indices.analyze.AnalyzeResponse;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
 import org.elasticsearch.client.Requests;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.io.BytesStream;
@@ -73,6 +74,14 @@ public class BaseESTest {
         node.close();
     }
 
+    protected Client client() {
+        return node.client();
+    }
+
+    protected Node node() {
+        return node;
+    }
+
     protected String getSettings() {
         try {
             return Streams.copyToStringFromClasspath("/" + this.getClass().getSimpleName() + "-settings.json");
@@ -0,0 +1,31 @@
+package org.elasticsearch.test.integration.acrossvariants;
+
+import org.elasticsearch.index.query.AcrossVariantsFilterBuilder;
+import org.elasticsearch.index.query.AcrossVariantsQueryBuilder;
+import org.elasticsearch.test.integration.BaseESTest;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+@Test
+public class AcrossVariantsAdjacentPartsTest extends BaseESTest {
+
+    @Test
+    public void testAdjacentParts() throws IOException {
+        indexDoc(doc("1", "field1", "wi fi"));
+        indexDoc(doc("2", "field1", "fi wi"));
+        indexDoc(doc("3", "field1", "wi", "field2", "fi"));
+        indexDoc(doc("4", "field1", "wi monitoring fi"));
+        indexDoc(doc("5", "field1", "wifi"));
+        commit();
+
+        assertDocs(new AcrossVariantsFilterBuilder().fields("field1", "field2").value("wifi").analyzer("whitespace"), "1", "2", "3", "4", "5");
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("wifi").analyzer("whitespace").adjacentParts(true), "5", "1");
+        assertDocs(new AcrossVariantsFilterBuilder().fields("field1", "field2").value("wifi").analyzer("whitespace").adjacentParts(true), "1", "5");
+        // The parts of the parts as well
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("wifimonitoring").analyzer("whitespace"), "4");
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("wifimonitoring").analyzer("whitespace").adjacentParts(true));
+        assertDocs(new AcrossVariantsFilterBuilder().fields("field1", "field2").value("fiwi").analyzer("whitespace").adjacentParts(true), "2");
+    }
+
+}
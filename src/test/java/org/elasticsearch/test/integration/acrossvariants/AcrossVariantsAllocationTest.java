@@ -0,0 +1,174 @@
+package org.elasticsearch.test.integration.acrossvariants;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.AcrossVariantsAndFilter;
+import org.apache.lucene.search.AcrossVariantsAndQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.Query;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.query.AcrossVariantsFilterBuilder;
+import org.elasticsearch.index.query.AcrossVariantsQueryBuilder;
+import org.elasticsearch.index.query.IndexQueryParserService;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.service.IndexService;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.node.internal.InternalNode;
+import org.elasticsearch.test.integration.BaseESTest;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Allocation budgets of the query construction path:
+ * bytes allocated per parse, per rewrite and per getDocIdSet, for a few representative inputs,
+ * as counted by the thread allocation counters.
+ * A change allocating more than the budgets recorded in {@code AcrossVariantsAllocationTest-budgets.json} fails the build.
+ * When a change legitimately moves them, record the measured values logged by this test, with some headroom.
+ */
+@Test
+public class AcrossVariantsAllocationTest extends BaseESTest {
+
+    private static final int WARMUP = 2000;
+    private static final int ITERATIONS = 500;
+
+    private final ESLogger logger = Loggers.getLogger(getClass());
+
+    private Object sink;
+
+    @Test
+    public void testSimple() throws Exception {
+        check("simple",
+                new AcrossVariantsQueryBuilder().fields("field1", "field2").value("a b c").analyzer("whitespace"),
+                new AcrossVariantsFilterBuilder().fields("field1", "field2").value("a b c").analyzer("whitespace"));
+    }
+
+    @Test
+    public void testBoostedFields() throws Exception {
+        check("boosted_fields",
+                new AcrossVariantsQueryBuilder().field("field1", 2.0f).field("field2").field("field3", 0.5f).field("field4").value("a b c").analyzer("whitespace"),
+                new AcrossVariantsFilterBuilder().fields("field1", "field2", "field3", "field4").value("a b c").analyzer("whitespace"));
+    }
+
+    @Test
+    public void testCompound() throws Exception {
+        check("compound",
+                new AcrossVariantsQueryBuilder().fields("field1", "field2").value("wi-fi net-work monitoring-tool").analyzer("compound"),
+                new AcrossVariantsFilterBuilder().fields("field1", "field2").value("wi-fi net-work monitoring-tool").analyzer("compound"));
+    }
+
+    @Test
+    public void testDisMax() throws Exception {
+        check("dis_max",
+                new AcrossVariantsQueryBuilder().fields("field1", "field2").value("wi-fi net-work monitoring-tool").analyzer("compound").useDisMax(true).tieBreaker(0.1f),
+                null);
+    }
+
+    private void check(String name, AcrossVariantsQueryBuilder queryBuilder, AcrossVariantsFilterBuilder filterBuilder) throws Exception {
+        final com.sun.management.ThreadMXBean threadMXBean = threadMXBean();
+        Map<String, Object> budgets = budgets();
+
+        indexDoc(doc("1", "field1", "wifi network", "field2", "monitoring tool"));
+        indexDoc(doc("2", "field1", "wi fi net work", "field2", "monitoringtool"));
+        indexDoc(doc("3", "field1", "a b", "field2", "c"));
+        indexDoc(doc("4", "field1", "a", "field2", "b c"));
+        commit();
+
+        IndexService indexService = ((InternalNode) node()).injector().getInstance(IndicesService.class).indexServiceSafe(INDEX);
+        final IndexQueryParserService queryParserService = indexService.queryParserService();
+        final Engine.Searcher searcher = indexService.shardSafe(0).acquireSearcher("allocation_test");
+        try {
+            final BytesReference querySource = queryBuilder.buildAsBytes();
+            final Query query = queryParserService.parse(querySource).query();
+            assertThat(query, instanceOf(AcrossVariantsAndQuery.class));
+
+            check(name + ".parse", budgets, measure(threadMXBean, new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return queryParserService.parse(querySource);
+                }
+            }));
+            check(name + ".rewrite", budgets, measure(threadMXBean, new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return query.rewrite(searcher.reader());
+                }
+            }));
+
+            if (filterBuilder == null)
+                return;
+            final BytesReference filterSource = QueryBuilders.constantScoreQuery(filterBuilder).buildAsBytes();
+            Query filterQuery = queryParserService.parse(filterSource).query();
+            assertThat(filterQuery, instanceOf(ConstantScoreQuery.class));
+            final AcrossVariantsAndFilter filter = (AcrossVariantsAndFilter) ((ConstantScoreQuery) filterQuery).getFilter();
+
+            check(name + ".filter_parse", budgets, measure(threadMXBean, new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return queryParserService.parse(filterSource);
+                }
+            }));
+            check(name + ".doc_id_set", budgets, measure(threadMXBean, new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    Object rtn = null;
+                    for (AtomicReaderContext context : searcher.reader().leaves())
+                        rtn = filter.getDocIdSet(context, context.reader().getLiveDocs());
+                    return rtn;
+                }
+            }));
+        } finally {
+            searcher.close();
+        }
+    }
+
+    private void check(String key, Map<String, Object> budgets, long allocated) {
+        logger.info("{} allocated [{}] bytes", key, allocated);
+        Object budget = budgets.get(key);
+        assertThat("No allocation budget recorded for " + key + ", measured " + allocated + " bytes", budget, notNullValue());
+        assertThat(key + " allocated " + allocated + " bytes, over its budget of " + budget + " bytes",
+                allocated <= ((Number) budget).longValue());
+    }
+
+    /**
+     * @return The average number of bytes allocated by an operation, once warmed up.
+     */
+    private long measure(com.sun.management.ThreadMXBean threadMXBean, Callable<Object> operation) throws Exception {
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < WARMUP; i++)
+            sink = operation.call();
+        long start = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++)
+            sink = operation.call();
+        return (threadMXBean.getThreadAllocatedBytes(threadId) - start) / ITERATIONS;
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+            throw new SkipException("Thread allocation counters are not available on this JVM");
+        com.sun.management.ThreadMXBean rtn = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!rtn.isThreadAllocatedMemorySupported())
+            throw new SkipException("Thread allocation counters are not supported on this JVM");
+        if (!rtn.isThreadAllocatedMemoryEnabled())
+            rtn.setThreadAllocatedMemoryEnabled(true);
+        return rtn;
+    }
+
+    private Map<String, Object> budgets() throws IOException {
+        String json = Streams.copyToStringFromClasspath("/" + getClass().getSimpleName() + "-budgets.json");
+        return XContentFactory.xContent(json).createParser(json).mapAndClose();
+    }
+
+}
@@ -0,0 +1,149 @@
+package org.elasticsearch.test.integration.acrossvariants;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.AcrossVariantsBloomFilters;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.elasticsearch.index.query.AcrossVariantsFilterBuilder;
+import org.elasticsearch.index.query.AcrossVariantsQueryBuilder;
+import org.elasticsearch.test.integration.BaseESTest;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Test
+public class AcrossVariantsBloomFilterTest extends BaseESTest {
+
+    @Test
+    public void testBloomFilters() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_4_9, new WhitespaceAnalyzer(Version.LUCENE_4_9)));
+        writer.addDocument(document("a b"));
+        writer.commit();
+        writer.addDocument(document("c"));
+        writer.close();
+
+        AcrossVariantsBloomFilters bloomFilters = new AcrossVariantsBloomFilters(1000, 0.01);
+        DirectoryReader reader = DirectoryReader.open(directory);
+        assertThat(reader.leaves().size(), equalTo(2));
+        AtomicReader first = reader.leaves().get(0).reader();
+        AtomicReader second = reader.leaves().get(1).reader();
+        assertThat(bloomFilters.mightContain(first, new Term("field", "a")), equalTo(true));
+        assertThat(bloomFilters.mightContain(first, new Term("field", "c")), equalTo(false));
+        assertThat(bloomFilters.mightContain(second, new Term("field", "a")), equalTo(false));
+        assertThat(bloomFilters.mightContain(second, new Term("other", "a")), equalTo(false));
+        assertThat(bloomFilters.size(), equalTo(2));
+        assertThat("Bloom filters accounted", bloomFilters.sizeInBytes() > 0);
+
+        assertThat(new IndexSearcher(reader).search(bloomFilters.termQuery(new Term("field", "c")), 10).totalHits, equalTo(1));
+
+        // Evicted with the segments
+        reader.close();
+        assertThat(bloomFilters.size(), equalTo(0));
+        assertThat(bloomFilters.sizeInBytes(), equalTo(0L));
+    }
+
+    @Test
+    public void testMaxTerms() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_4_9, new WhitespaceAnalyzer(Version.LUCENE_4_9)));
+        writer.addDocument(document("a b c"));
+        writer.close();
+
+        AcrossVariantsBloomFilters bloomFilters = new AcrossVariantsBloomFilters(2, 0.01);
+        DirectoryReader reader = DirectoryReader.open(directory);
+        // Too many terms, always seeked
+        assertThat(bloomFilters.mightContain(reader.leaves().get(0).reader(), new Term("field", "d")), equalTo(true));
+        assertThat(bloomFilters.sizeInBytes(), equalTo(0L));
+        reader.close();
+    }
+
+    @Test
+    public void testMaxSize() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_4_9, new WhitespaceAnalyzer(Version.LUCENE_4_9)));
+        writer.addDocument(document("a b c"));
+        writer.close();
+
+        AcrossVariantsBloomFilters bloomFilters = new AcrossVariantsBloomFilters(1000, 0.01, 1, null);
+        DirectoryReader reader = DirectoryReader.open(directory);
+        // Over the budget, always seeked
+        assertThat(bloomFilters.mightContain(reader.leaves().get(0).reader(), new Term("field", "d")), equalTo(true));
+        assertThat(bloomFilters.mightContain(reader.leaves().get(0).reader(), new Term("field", "d")), equalTo(true));
+        assertThat(bloomFilters.sizeInBytes(), equalTo(0L));
+        reader.close();
+        assertThat(bloomFilters.size(), equalTo(0));
+    }
+
+    @Test
+    public void testExecutor() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_4_9, new WhitespaceAnalyzer(Version.LUCENE_4_9)));
+        writer.addDocument(document("a b c"));
+        writer.close();
+
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        AcrossVariantsBloomFilters bloomFilters = new AcrossVariantsBloomFilters(1000, 0.01, Long.MAX_VALUE, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        DirectoryReader reader = DirectoryReader.open(directory);
+        AtomicReader segment = reader.leaves().get(0).reader();
+        // Seeked as usual until built, built once
+        assertThat(bloomFilters.mightContain(segment, new Term("field", "d")), equalTo(true));
+        assertThat(bloomFilters.mightContain(segment, new Term("field", "d")), equalTo(true));
+        assertThat(tasks.size(), equalTo(1));
+        tasks.get(0).run();
+        assertThat(bloomFilters.mightContain(segment, new Term("field", "d")), equalTo(false));
+        assertThat(bloomFilters.mightContain(segment, new Term("field", "a")), equalTo(true));
+        assertThat(tasks.size(), equalTo(1));
+
+        // The segment is held open while its Bloom filter is pending
+        bloomFilters.mightContain(segment, new Term("other", "a"));
+        assertThat(tasks.size(), equalTo(2));
+        reader.close();
+        assertThat(bloomFilters.size(), equalTo(1));
+        tasks.get(1).run();
+        assertThat(bloomFilters.size(), equalTo(0));
+        assertThat(bloomFilters.sizeInBytes(), equalTo(0L));
+    }
+
+    @Test
+    public void testQuery() throws IOException {
+        indexDoc(doc("1", "field1", "wifi", "field2", "monitoring"));
+        commit();
+        indexDoc(doc("2", "field1", "wi fi", "field2", "monitoring tools"));
+        commit();
+        indexDoc(doc("3", "field1", "monitoring"));
+        commit();
+
+        // Each term is absent from some segments
+        assertDocs(new AcrossVariantsFilterBuilder().fields("field1", "field2").value("wi-fi monitoring").analyzer("standard"), "2");
+        assertDocs(new AcrossVariantsFilterBuilder().fields("field1", "field2").value("monitoring").analyzer("standard"), "1", "2", "3");
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("wi-fi tools").analyzer("standard"), "2");
+    }
+
+    private static Document document(String value) {
+        Document rtn = new Document();
+        rtn.add(new TextField("field", value, Field.Store.NO));
+        return rtn;
+    }
+
+}
@@ -0,0 +1,107 @@
+package org.elasticsearch.test.integration.acrossvariants;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.search.AcrossVariantsAndQuery;
+import org.apache.lucene.search.AcrossVariantsMemoryAccountant;
+import org.apache.lucene.search.AcrossVariantsRamUsage;
+import org.apache.lucene.search.AcrossVariantsTree;
+import org.apache.lucene.util.Version;
+import org.elasticsearch.action.acrossvariants.stats.AcrossVariantsStatsAction;
+import org.elasticsearch.action.acrossvariants.stats.AcrossVariantsStatsRequest;
+import org.elasticsearch.action.search.SearchPhaseExecutionException;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.index.query.AcrossVariantsFilterBuilder;
+import org.elasticsearch.index.query.AcrossVariantsQueryBuilder;
+import org.elasticsearch.indices.acrossvariants.AcrossVariantsCircuitBreakerService;
+import org.elasticsearch.indices.acrossvariants.AcrossVariantsStats;
+import org.elasticsearch.test.integration.BaseESTest;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Test
+public class AcrossVariantsCircuitBreakerTest extends BaseESTest {
+
+    @Test
+    public void testEstimates() throws IOException {
+        WhitespaceAnalyzer analyzer = new WhitespaceAnalyzer(Version.LUCENE_4_9);
+        long small = AcrossVariantsRamUsage.sizeOf(AcrossVariantsTree.build(analyzer, new StringReader("a b")));
+        long large = AcrossVariantsRamUsage.sizeOf(AcrossVariantsTree.build(analyzer, new StringReader("a b c d")));
+        long longer = AcrossVariantsRamUsage.sizeOf(AcrossVariantsTree.build(analyzer, new StringReader("aaaaaaaa b")));
+        assertThat("Positive estimate", small > 0L);
+        assertThat("More nodes, larger estimate", large > small);
+        assertThat("Longer writings, larger estimate", longer > small);
+
+        final List<Long> charges = new ArrayList<Long>();
+        AcrossVariantsAndQuery query = new AcrossVariantsAndQuery(Arrays.asList("field1", "field2"), analyzer, "a b c d");
+        query.setMemoryAccountant(new AcrossVariantsMemoryAccountant() {
+            @Override
+            public void addEstimateBytes(long bytes, String label) {
+                charges.add(bytes);
+            }
+        });
+        query.rewrite(null);
+        query.rewrite(null);
+        // Built the same way twice, charged once
+        assertThat(charges.size(), equalTo(1));
+        // 8 leaves, their clauses and 5 boolean queries
+        assertThat("Query larger than its tree", charges.get(0) > large);
+    }
+
+    @Test
+    public void testBreaker() throws IOException {
+        indexDoc(doc("1", "field1", "a b", "field2", "c"));
+        indexDoc(doc("2", "field1", "a", "field2", "d"));
+        commit();
+
+        AcrossVariantsStats before = stats();
+        assertThat(before.getBreakerEstimated(), equalTo(0L));
+
+        setLimit("1b");
+        try {
+            try {
+                assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("a c").analyzer("whitespace"), "1");
+                throw new AssertionError("The query should have been rejected");
+            } catch (SearchPhaseExecutionException e) {
+                assertThat(e.getMessage(), containsString("across_variants tree"));
+            }
+            try {
+                assertDocs(new AcrossVariantsFilterBuilder().fields("field1", "field2").value("a c").analyzer("whitespace"), "1");
+                throw new AssertionError("The filter should have been rejected");
+            } catch (SearchPhaseExecutionException e) {
+                assertThat(e.getMessage(), containsString("across_variants tree"));
+            }
+        } finally {
+            setLimit(AcrossVariantsCircuitBreakerService.DEFAULT_LIMIT);
+        }
+
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("a c").analyzer("whitespace"), "1");
+        assertDocs(new AcrossVariantsFilterBuilder().fields("field1", "field2").value("a c").analyzer("whitespace"), "1");
+
+        AcrossVariantsStats after = stats();
+        assertThat(after.getBreakerTripped() - before.getBreakerTripped(), equalTo(2L));
+        // Everything got released with the search contexts
+        assertThat(after.getBreakerEstimated(), equalTo(0L));
+        assertThat("Positive limit", after.getBreakerLimit() > 0L);
+    }
+
+    private void setLimit(String limit) {
+        client().admin().cluster().prepareUpdateSettings()
+                .setTransientSettings(ImmutableSettings.settingsBuilder().put(AcrossVariantsCircuitBreakerService.CIRCUIT_BREAKER_LIMIT_SETTING, limit))
+                .execute().actionGet();
+    }
+
+    private AcrossVariantsStats stats() {
+        return client().admin().cluster().execute(AcrossVariantsStatsAction.INSTANCE, new AcrossVariantsStatsRequest()).actionGet()
+                .getNodes()[0].getStats();
+    }
+
+}
@@ -0,0 +1,70 @@
+package org.elasticsearch.test.integration.acrossvariants;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.search.AcrossVariantsAndQuery;
+import org.apache.lucene.util.Version;
+import org.elasticsearch.index.mapper.acrossvariants.AcrossVariantsCombinedMapper;
+import org.elasticsearch.index.query.AcrossVariantsFilterBuilder;
+import org.elasticsearch.index.query.AcrossVariantsQueryBuilder;
+import org.elasticsearch.test.integration.BaseESTest;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Test
+public class AcrossVariantsCombinedTest extends BaseESTest {
+
+    @Test
+    public void testCombined() throws IOException {
+        indexDoc(doc("1", "field1", "a b"));
+        indexDoc(doc("2", "field1", "a", "field2", "b"));
+        indexDoc(doc("3", "field3", "a b"));
+        indexDoc(doc("4", "field1", "c", "field2", "b c", "field3", "a"));
+        commit();
+
+        assertDocs(new AcrossVariantsFilterBuilder().fields("field1", "field2").value("a b").analyzer("whitespace"), "1", "2");
+        assertDocs(new AcrossVariantsFilterBuilder().fields("field1", "field2").value("a b").analyzer("whitespace").combined(false), "1", "2");
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("b c").analyzer("whitespace"), "4");
+        // A field out of the combined ones falls back to a query per field
+        assertDocs(new AcrossVariantsFilterBuilder().fields("field1", "field3").value("a b").analyzer("whitespace"), "1", "3");
+    }
+
+    @Test
+    public void testMask() throws IOException {
+        indexDoc(doc("1", "field1", "a b"));
+        indexDoc(doc("2", "field1", "a", "field2", "b"));
+        indexDoc(doc("3", "field2", "b b"));
+        commit();
+
+        // The term is in the combined field of the 3 documents, but only in field1 for the first one
+        assertDocs(new AcrossVariantsFilterBuilder().fields("field1").value("b").analyzer("whitespace"), "1");
+        // More occurrences first
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field2").value("b").analyzer("whitespace"), "3", "2");
+        String explanation = client().prepareSearch(INDEX).setQuery(new AcrossVariantsQueryBuilder().fields("field2").value("b").analyzer("whitespace"))
+                .setExplain(true).get().getHits().getAt(0).explanation().toString();
+        assertThat(explanation, explanation.contains(AcrossVariantsCombinedMapper.NAME + ":b{1}"));
+    }
+
+    @Test
+    public void testQuery() throws IOException {
+        Map<String, Integer> bits = new HashMap<String, Integer>();
+        bits.put("field1", 0);
+        bits.put("field2", 1);
+        AcrossVariantsAndQuery query = new AcrossVariantsAndQuery(Arrays.asList("field2"), new WhitespaceAnalyzer(Version.LUCENE_4_9), "a");
+        query.setCombinedField(AcrossVariantsCombinedMapper.NAME, bits);
+        assertThat(query.rewrite(null).toString(), equalTo("_across_variants:a{1}"));
+    }
+
+    @Test
+    public void testMapping() throws IOException {
+        Map<String, Object> mapping = client().admin().indices().prepareGetMappings(INDEX).get().mappings().get(INDEX).get(TYPE).sourceAsMap();
+        assertThat(String.valueOf(mapping.get(AcrossVariantsCombinedMapper.NAME)), equalTo("{fields=[field1, field2]}"));
+    }
+
+}
@@ -0,0 +1,89 @@
+package org.elasticsearch.test.integration.acrossvariants;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.AcrossVariantsAndFilter;
+import org.apache.lucene.search.AcrossVariantsPostFilter;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.elasticsearch.index.query.AcrossVariantsFilterBuilder;
+import org.elasticsearch.index.query.AcrossVariantsQueryBuilder;
+import org.elasticsearch.test.integration.BaseESTest;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Test
+public class AcrossVariantsCutoffFrequencyTest extends BaseESTest {
+
+    private void indexDocs() throws IOException {
+        indexDoc(doc("1", "field1", "usb cable"));
+        indexDoc(doc("2", "field1", "usb hub"));
+        indexDoc(doc("3", "field1", "usb stick"));
+        indexDoc(doc("4", "field1", "usb mouse"));
+        indexDoc(doc("5", "field1", "cable adapter"));
+        commit();
+    }
+
+    @Test
+    public void testQuery() throws IOException {
+        indexDocs();
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1").value("usb cable").analyzer("whitespace"), "1");
+        // "usb" is in 4 documents out of 5, it only scores the documents "cable" matches
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1").value("usb cable").analyzer("whitespace").cutoffFrequency(0.5f), "1", "5");
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1").value("usb cable").analyzer("whitespace").cutoffFrequency(4), "1");
+        // Nothing left to drive the conjunction
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1").value("usb hub").analyzer("whitespace").cutoffFrequency(0.1f), "2");
+    }
+
+    @Test
+    public void testFilter() throws IOException {
+        indexDocs();
+        // Post filtering matches the same documents
+        assertDocs(new AcrossVariantsFilterBuilder().fields("field1").value("usb cable").analyzer("whitespace").cutoffFrequency(0.5f), "1");
+        assertDocs(new AcrossVariantsFilterBuilder().fields("field1").value("usb hub").analyzer("whitespace").cutoffFrequency(0.5f), "2");
+        assertDocs(new AcrossVariantsFilterBuilder().fields("field1").value("usb").analyzer("whitespace").cutoffFrequency(0.5f), "1", "2", "3", "4");
+    }
+
+    @Test
+    public void testPostFilter() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_4_9, new WhitespaceAnalyzer(Version.LUCENE_4_9)));
+        for (int i = 0; i < 100; i++) {
+            Document document = new Document();
+            document.add(new TextField("field1", (i % 3 == 0 ? "a " : "") + (i % 10 == 0 ? "b" : "c"), Field.Store.NO));
+            writer.addDocument(document);
+        }
+        writer.close();
+        DirectoryReader reader = DirectoryReader.open(directory);
+
+        AcrossVariantsAndFilter filter = new AcrossVariantsAndFilter(Arrays.asList("field1"), new WhitespaceAnalyzer(Version.LUCENE_4_9), "c a b");
+        filter.setCutoffFrequency(0.2f);
+        assertThat(filter.rewrite(reader), instanceOf(AcrossVariantsPostFilter.class));
+        AcrossVariantsAndFilter unfiltered = new AcrossVariantsAndFilter(Arrays.asList("field1"), new WhitespaceAnalyzer(Version.LUCENE_4_9), "c a b");
+        IndexSearcher searcher = new IndexSearcher(reader);
+        // No document has both "b" and "c"
+        assertThat(searcher.search(new ConstantScoreQuery(filter), 1).totalHits, equalTo(0));
+        assertThat(searcher.search(new ConstantScoreQuery(unfiltered), 1).totalHits, equalTo(0));
+
+        filter = new AcrossVariantsAndFilter(Arrays.asList("field1"), new WhitespaceAnalyzer(Version.LUCENE_4_9), "c a");
+        filter.setCutoffFrequency(0.5f);
+        unfiltered = new AcrossVariantsAndFilter(Arrays.asList("field1"), new WhitespaceAnalyzer(Version.LUCENE_4_9), "c a");
+        assertThat(searcher.search(new ConstantScoreQuery(filter), 1).totalHits, equalTo(searcher.search(new ConstantScoreQuery(unfiltered), 1).totalHits));
+        assertThat(searcher.search(new ConstantScoreQuery(filter), 1).totalHits, equalTo(30));
+        reader.close();
+    }
+
+}
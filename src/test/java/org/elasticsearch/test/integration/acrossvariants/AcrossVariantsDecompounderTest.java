@@ -0,0 +1,134 @@
+package org.elasticsearch.test.integration.acrossvariants;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.search.AcrossVariantsDecompounder;
+import org.apache.lucene.search.AcrossVariantsTree;
+import org.apache.lucene.search.AcrossVariantsTree.TermNode;
+import org.apache.lucene.util.Version;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.index.query.AcrossVariantsDecompounderService;
+import org.elasticsearch.index.query.AcrossVariantsFilterBuilder;
+import org.elasticsearch.index.query.AcrossVariantsQueryBuilder;
+import org.elasticsearch.test.integration.BaseESTest;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Test
+public class AcrossVariantsDecompounderTest extends BaseESTest {
+
+    private static final String FIELD_DICTIONARY_INDEX = "field_dictionary_index";
+
+    @Test
+    public void testDecompose() throws IOException {
+        AcrossVariantsDecompounder decompounder = AcrossVariantsDecompounder.build(
+                Arrays.asList("wifi", "wi", "fi", "monitoring", "monitor", "ring", "a"), 2, 4);
+        assertThat(decompounder.size(), equalTo(6));
+        assertThat(decompounder.contains("wifi"), equalTo(true));
+        assertThat(decompounder.contains("wif"), equalTo(false));
+        assertThat(decompounder.contains("a"), equalTo(false));
+
+        // Fewest parts first, then the parts themselves
+        assertThat(parts(decompounder, "wifimonitoring"), equalTo(Arrays.asList("wifi", "monitoring", "wi", "fi")));
+        // Longest first part on ties, "monitoring" is not split as "monitorin" is no word
+        assertThat(parts(decompounder, "monitoringwifi"), equalTo(Arrays.asList("monitoring", "wifi", "wi", "fi")));
+        // Unknown parts prevent splitting
+        assertThat(parts(decompounder, "wifixmonitoring"), equalTo(Collections.<String>emptyList()));
+        assertThat(parts(decompounder, "monitorring"), equalTo(Arrays.asList("monitor", "ring")));
+    }
+
+    @Test
+    public void testMaxParts() throws IOException {
+        AcrossVariantsDecompounder decompounder = AcrossVariantsDecompounder.build(Arrays.asList("wi", "fi"), 2, 2);
+        assertThat(parts(decompounder, "wifi"), equalTo(Arrays.asList("wi", "fi")));
+        assertThat(parts(decompounder, "wifiwi"), equalTo(Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void testTree() throws IOException {
+        AcrossVariantsDecompounder decompounder = AcrossVariantsDecompounder.build(Arrays.asList("wifi", "wi", "fi", "monitoring"), 2, 4);
+        TermNode root = AcrossVariantsTree.build(decompounder.wrap(new WhitespaceAnalyzer(Version.LUCENE_4_9)), new StringReader("wifimonitoring tool"));
+
+        assertThat(root.getChildren().size(), equalTo(2));
+        TermNode compound = root.getChildren().get(0);
+        assertThat(compound.writings(), equalTo(Arrays.asList("wifimonitoring")));
+        assertThat(compound.getChildren().size(), equalTo(2));
+        TermNode wifi = compound.getChildren().get(0);
+        assertThat(wifi.writings(), equalTo(Arrays.asList("wifi")));
+        assertThat(wifi.getTerm().startOffset, equalTo(0));
+        assertThat(wifi.getTerm().endOffset, equalTo(4));
+        assertThat(wifi.getChildren().size(), equalTo(2));
+        assertThat(wifi.getChildren().get(1).writings(), equalTo(Arrays.asList("fi")));
+        TermNode monitoring = compound.getChildren().get(1);
+        assertThat(monitoring.writings(), equalTo(Arrays.asList("monitoring")));
+        assertThat(monitoring.getTerm().startOffset, equalTo(4));
+        assertThat(monitoring.getTerm().endOffset, equalTo(14));
+        assertThat(root.getChildren().get(1).writings(), equalTo(Arrays.asList("tool")));
+        assertThat(root.getChildren().get(1).getTerm().position, equalTo(2));
+    }
+
+    @Test
+    public void testWordList() throws IOException {
+        indexDoc(doc("1", "field1", "wifimonitoring"));
+        indexDoc(doc("2", "field1", "wifi monitoring"));
+        indexDoc(doc("3", "field1", "wi fi", "field2", "monitoring tool"));
+        indexDoc(doc("4", "field1", "wifi"));
+        commit();
+
+        assertDocs(new AcrossVariantsFilterBuilder().fields("field1", "field2").value("wifimonitoring").analyzer("whitespace"), "1", "2", "3");
+        assertDocs(new AcrossVariantsFilterBuilder().fields("field1", "field2").value("wifimonitoring").analyzer("whitespace").decompound(false), "1");
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("wifimonitoring tool").analyzer("whitespace"), "3");
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("wifimonitoring").analyzer("whitespace").decompound(false), "1");
+    }
+
+    @Test
+    public void testFieldDictionary() throws IOException, InterruptedException {
+        String prefix = AcrossVariantsDecompounderService.INDEX_ACROSS_VARIANTS_DECOMPOUNDER + ".";
+        client().admin().indices().prepareCreate(FIELD_DICTIONARY_INDEX)
+                .setSettings(ImmutableSettings.settingsBuilder()
+                        .put(prefix + AcrossVariantsDecompounderService.FIELD, "field1")
+                        .put(prefix + AcrossVariantsDecompounderService.MIN_DOC_FREQ, 2)
+                        .put(prefix + AcrossVariantsDecompounderService.REFRESH_INTERVAL, "100ms"))
+                .addMapping(TYPE, getMapping())
+                .execute().actionGet();
+        try {
+            client().admin().cluster().prepareHealth(FIELD_DICTIONARY_INDEX).setWaitForGreenStatus().execute().actionGet();
+            client().prepareIndex(FIELD_DICTIONARY_INDEX, TYPE, "1").setSource("field1", "wifi monitoring").execute().actionGet();
+            client().prepareIndex(FIELD_DICTIONARY_INDEX, TYPE, "2").setSource("field1", "wifi monitoring tool").execute().actionGet();
+            client().prepareIndex(FIELD_DICTIONARY_INDEX, TYPE, "3").setSource("field1", "wifi").execute().actionGet();
+            client().admin().indices().prepareRefresh(FIELD_DICTIONARY_INDEX).execute().actionGet();
+
+            // Rebuilt in the background, the queries using the dictionary of the empty shard meanwhile
+            long deadline = System.currentTimeMillis() + 10000;
+            while (count(new AcrossVariantsQueryBuilder().fields("field1").value("wifimonitoring").analyzer("whitespace")) != 2
+                    && System.currentTimeMillis() < deadline)
+                Thread.sleep(50);
+
+            // "tool" is too rare to be part of the dictionary
+            assertThat(count(new AcrossVariantsQueryBuilder().fields("field1").value("wifimonitoring").analyzer("whitespace")), equalTo(2L));
+            assertThat(count(new AcrossVariantsQueryBuilder().fields("field1").value("wifitool").analyzer("whitespace")), equalTo(0L));
+        } finally {
+            client().admin().indices().prepareDelete(FIELD_DICTIONARY_INDEX).execute().actionGet();
+        }
+    }
+
+    private long count(AcrossVariantsQueryBuilder query) {
+        return client().prepareSearch(FIELD_DICTIONARY_INDEX).setQuery(query).execute().actionGet().getHits().getTotalHits();
+    }
+
+    private static List<String> parts(AcrossVariantsDecompounder decompounder, String text) throws IOException {
+        List<String> rtn = new ArrayList<String>();
+        for (int[] part : decompounder.decompose(text.toCharArray(), 0, text.length()))
+            rtn.add(text.substring(part[0], part[1]));
+        return rtn;
+    }
+
+}
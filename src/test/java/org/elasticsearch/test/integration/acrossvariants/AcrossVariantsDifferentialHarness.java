@@ -0,0 +1,1126 @@
+package org.elasticsearch.test.integration.acrossvariants;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.analysis.MockTokenizer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.AcrossVariantsAndFilter;
+import org.apache.lucene.search.AcrossVariantsAndQuery;
+import org.apache.lucene.search.AcrossVariantsLimits;
+import org.apache.lucene.search.AcrossVariantsPlan;
+import org.apache.lucene.search.AcrossVariantsPlanner;
+import org.apache.lucene.search.AcrossVariantsPrefixCache;
+import org.apache.lucene.search.AcrossVariantsPrefixFilter;
+import org.apache.lucene.search.AcrossVariantsSessionCache;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.FilteredQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.DefaultSimilarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.LuceneTestCase;
+import org.elasticsearch.test.integration.ReplayAnalyzer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Differential test of the across variants query and filter, without any node.
+ * Random variant trees are replayed through a {@link ReplayAnalyzer},
+ * against random multi-field documents indexed with a {@link RandomIndexWriter}.
+ * Every execution mode, including each engine, must match the same documents as the reference
+ * (the rewrite into a boolean query), and scoring modes must give the same scores,
+ * within a tolerance.
+ * The reference itself is checked against an oracle computed straight from the postings.
+ * The modes of the query changing which documents it matches get checked against oracles of their own instead.
+ * <p>
+ * This is a {@link LuceneTestCase}, so as to benefit from the randomized codecs,
+ * readers and searchers, it is run by {@link AcrossVariantsDifferentialTest}.
+ * Failures print the seed to reproduce them with, using {@code -Dtests.seed=...}.
+ */
+public class AcrossVariantsDifferentialHarness extends LuceneTestCase {
+
+    private static final float SCORE_TOLERANCE = 1e-4f;
+    private static final int MAX_DEPTH = 3;
+
+    /**
+     * A way of executing a case, to be compared with the reference.
+     */
+    public static interface ExecutionMode {
+        public String name();
+        /**
+         * @return Whether the scores are to be compared too, or only the matching documents.
+         */
+        public boolean scores();
+        public Query query(Case c) throws IOException;
+    }
+
+    public static final List<ExecutionMode> MODES = Collections.unmodifiableList(Arrays.<ExecutionMode>asList(
+            new ExecutionMode() {
+                @Override
+                public String name() {
+                    return "query";
+                }
+                @Override
+                public boolean scores() {
+                    return true;
+                }
+                @Override
+                public Query query(Case c) throws IOException {
+                    return c.newQuery();
+                }
+            },
+            new ExecutionMode() {
+                @Override
+                public String name() {
+                    return "filter";
+                }
+                @Override
+                public boolean scores() {
+                    return false;
+                }
+                @Override
+                public Query query(Case c) throws IOException {
+                    return new ConstantScoreQuery(c.newFilter());
+                }
+            },
+            new ExecutionMode() {
+                @Override
+                public String name() {
+                    return "filter_rewrite";
+                }
+                @Override
+                public boolean scores() {
+                    return false;
+                }
+                @Override
+                public Query query(Case c) throws IOException {
+                    return new ConstantScoreQuery(c.newFilter().rewrite());
+                }
+            },
+            new ExecutionMode() {
+                @Override
+                public String name() {
+                    return "filter_terms_sets";
+                }
+                @Override
+                public boolean scores() {
+                    return false;
+                }
+                @Override
+                public Query query(Case c) throws IOException {
+                    return new ConstantScoreQuery(c.newFilter(new AcrossVariantsLimits(-1, -1, 0, -1)));
+                }
+            },
+            new ExecutionMode() {
+                @Override
+                public String name() {
+                    return "filtered_query";
+                }
+                @Override
+                public boolean scores() {
+                    return false;
+                }
+                @Override
+                public Query query(Case c) throws IOException {
+                    return new FilteredQuery(new MatchAllDocsQuery(), c.newFilter());
+                }
+            },
+            new EngineMode(AcrossVariantsPlan.ENGINE_REWRITE, EngineMode.UNSCORED_QUERY),
+            new EngineMode(AcrossVariantsPlan.ENGINE_SCORER, EngineMode.QUERY),
+            new EngineMode(AcrossVariantsPlan.ENGINE_SCORER, EngineMode.UNSCORED_QUERY),
+            new EngineMode(AcrossVariantsPlan.ENGINE_SCORER, EngineMode.FILTER),
+            new EngineMode(AcrossVariantsPlan.ENGINE_BITSET, EngineMode.QUERY),
+            new EngineMode(AcrossVariantsPlan.ENGINE_BITSET, EngineMode.UNSCORED_QUERY),
+            new EngineMode(AcrossVariantsPlan.ENGINE_BITSET, EngineMode.FILTER),
+            new EngineMode(AcrossVariantsPlanner.EXECUTION_AUTO, EngineMode.QUERY),
+            new EngineMode(AcrossVariantsPlanner.EXECUTION_AUTO, EngineMode.UNSCORED_QUERY),
+            new EngineMode(AcrossVariantsPlanner.EXECUTION_AUTO, EngineMode.FILTER)
+    ));
+
+    /**
+     * Executes the query, scored or not, or the filter, with the given engine or {@value AcrossVariantsPlanner#EXECUTION_AUTO}.
+     */
+    static class EngineMode implements ExecutionMode {
+
+        static final int QUERY = 0;
+        static final int UNSCORED_QUERY = 1;
+        static final int FILTER = 2;
+
+        private final String execution;
+        private final int kind;
+
+        EngineMode(String execution, int kind) {
+            this.execution = execution;
+            this.kind = kind;
+        }
+
+        @Override
+        public String name() {
+            return (kind == FILTER ? "filter_" : kind == UNSCORED_QUERY ? "unscored_query_" : "query_") + execution;
+        }
+
+        @Override
+        public boolean scores() {
+            return kind == QUERY;
+        }
+
+        @Override
+        public Query query(Case c) throws IOException {
+            if (kind == FILTER) {
+                AcrossVariantsAndFilter filter = c.newFilter();
+                filter.setExecution(execution);
+                return new ConstantScoreQuery(filter);
+            }
+            AcrossVariantsAndQuery query = c.newQuery();
+            query.setExecution(execution);
+            query.setScoring(kind == QUERY);
+            return query;
+        }
+
+    }
+
+    private static final String[] EXECUTIONS = { AcrossVariantsPlan.ENGINE_REWRITE, AcrossVariantsPlan.ENGINE_SCORER,
+            AcrossVariantsPlan.ENGINE_BITSET, AcrossVariantsPlanner.EXECUTION_AUTO };
+
+    /**
+     * A mode of the query changing which documents it matches, checked against an oracle of its own
+     * with every execution, scored or not, the scores being compared to the ones of the rewrite engine.
+     */
+    public static abstract class QueryMode {
+
+        public abstract String name();
+
+        /**
+         * @return Whether the mode applies to the case.
+         */
+        public boolean applies(Case c) {
+            return true;
+        }
+
+        public abstract void set(AcrossVariantsAndQuery query, Case c);
+
+        /**
+         * @return The documents the query matches in this mode, computed straight from the postings.
+         */
+        public abstract Set<Integer> oracle(IndexSearcher searcher, Case c) throws IOException;
+
+        /**
+         * Checks the documents an execution matched.
+         * @param reference The hits of the scored rewrite engine, in this mode.
+         */
+        public void check(String message, Case c, Set<Integer> oracle, Map<Integer, Float> reference, Map<Integer, Float> hits) {
+            assertEquals(message, oracle, hits.keySet());
+        }
+
+    }
+
+    public static final List<QueryMode> QUERY_MODES = Collections.unmodifiableList(Arrays.<QueryMode>asList(
+            new QueryMode() {
+                @Override
+                public String name() {
+                    return "minimum_should_match";
+                }
+                @Override
+                public void set(AcrossVariantsAndQuery query, Case c) {
+                    query.setMinimumShouldMatch(c.minimumShouldMatch);
+                }
+                @Override
+                public Set<Integer> oracle(IndexSearcher searcher, Case c) throws IOException {
+                    IndexReader reader = searcher.getIndexReader();
+                    List<Span> nodes = c.topLevelNodes();
+                    int spans = nodes.size();
+                    int minimum;
+                    if (c.minimumShouldMatch.endsWith("%"))
+                        minimum = spans * Integer.parseInt(c.minimumShouldMatch.substring(0, c.minimumShouldMatch.length() - 1)) / 100;
+                    else if (c.minimumShouldMatch.startsWith("-"))
+                        minimum = spans + Integer.parseInt(c.minimumShouldMatch);
+                    else
+                        minimum = Math.min(spans, Integer.parseInt(c.minimumShouldMatch));
+                    minimum = Math.max(1, minimum);
+                    int[] matching = new int[reader.maxDoc()];
+                    for (Span span : nodes) {
+                        FixedBitSet spanMatches = AcrossVariantsDifferentialHarness.oracle(reader, c.fields.keySet(), span);
+                        for (int doc = 0; doc < matching.length; doc++) {
+                            if (spanMatches.get(doc))
+                                matching[doc]++;
+                        }
+                    }
+                    Set<Integer> rtn = new TreeSet<Integer>();
+                    for (int doc = 0; doc < matching.length; doc++) {
+                        if (matching[doc] >= minimum)
+                            rtn.add(doc);
+                    }
+                    return rtn;
+                }
+            },
+            new QueryMode() {
+                @Override
+                public String name() {
+                    return "top_k";
+                }
+                @Override
+                public void set(AcrossVariantsAndQuery query, Case c) {
+                    query.setTopK(c.topK);
+                }
+                @Override
+                public Set<Integer> oracle(IndexSearcher searcher, Case c) throws IOException {
+                    return AcrossVariantsDifferentialHarness.oracle(searcher.getIndexReader(), c);
+                }
+                /**
+                 * Only the documents that cannot enter the top hits may be skipped.
+                 */
+                @Override
+                public void check(String message, Case c, Set<Integer> oracle, Map<Integer, Float> reference, Map<Integer, Float> hits) {
+                    assertTrue(message, oracle.containsAll(hits.keySet()));
+                    if (hits.size() == oracle.size())
+                        return;
+                    List<Float> scores = new ArrayList<Float>(reference.values());
+                    assertTrue(message + ", fewer matches than the top hits", scores.size() > c.topK);
+                    Collections.sort(scores, Collections.reverseOrder());
+                    float lowest = scores.get(c.topK - 1);
+                    float tolerance = SCORE_TOLERANCE * Math.max(1.0f, Math.abs(lowest));
+                    for (Map.Entry<Integer, Float> hit : reference.entrySet()) {
+                        if (hit.getValue() > lowest + tolerance)
+                            assertTrue(message + ", doc " + hit.getKey() + " is a top hit", hits.containsKey(hit.getKey()));
+                    }
+                    int topHits = 0;
+                    for (float score : hits.values()) {
+                        if (score >= lowest - tolerance)
+                            topHits++;
+                    }
+                    assertTrue(message + ", only " + topHits + " top hits", topHits >= c.topK);
+                }
+            },
+            new QueryMode() {
+                @Override
+                public String name() {
+                    return "existence";
+                }
+                @Override
+                public void set(AcrossVariantsAndQuery query, Case c) {
+                    query.setExistence(true);
+                }
+                /**
+                 * The first matching document of each segment.
+                 */
+                @Override
+                public Set<Integer> oracle(IndexSearcher searcher, Case c) throws IOException {
+                    Set<Integer> matches = AcrossVariantsDifferentialHarness.oracle(searcher.getIndexReader(), c);
+                    Set<Integer> rtn = new TreeSet<Integer>();
+                    for (AtomicReaderContext context : searcher.getTopReaderContext().leaves()) {
+                        for (int doc = context.docBase; doc < context.docBase + context.reader().maxDoc(); doc++) {
+                            if (matches.contains(doc)) {
+                                rtn.add(doc);
+                                break;
+                            }
+                        }
+                    }
+                    return rtn;
+                }
+            },
+            new QueryMode() {
+                @Override
+                public String name() {
+                    return "adjacent_parts";
+                }
+                @Override
+                public void set(AcrossVariantsAndQuery query, Case c) {
+                    query.setAdjacentParts(true);
+                }
+                /**
+                 * Each top level node appears through any of its writings, or its parts adjacently within a same field.
+                 */
+                @Override
+                public Set<Integer> oracle(IndexSearcher searcher, Case c) throws IOException {
+                    IndexReader reader = searcher.getIndexReader();
+                    List<Map<Integer, Map<Integer, String>>> fieldsTokens = new ArrayList<Map<Integer, Map<Integer, String>>>();
+                    for (String field : c.fields.keySet())
+                        fieldsTokens.add(tokens(reader, field));
+                    Set<Integer> rtn = new TreeSet<Integer>();
+                    candidates:
+                    for (int doc : AcrossVariantsDifferentialHarness.oracle(reader, c)) {
+                        nodes:
+                        for (Span node : c.topLevelNodes()) {
+                            for (Map<Integer, Map<Integer, String>> fieldTokens : fieldsTokens) {
+                                Map<Integer, String> tokens = fieldTokens.get(doc);
+                                if (tokens == null)
+                                    continue;
+                                for (int start : tokens.keySet()) {
+                                    if (!ends(node, start, tokens).isEmpty())
+                                        continue nodes;
+                                }
+                            }
+                            continue candidates;
+                        }
+                        rtn.add(doc);
+                    }
+                    return rtn;
+                }
+            },
+            new QueryMode() {
+                @Override
+                public String name() {
+                    return "phrase";
+                }
+                @Override
+                public void set(AcrossVariantsAndQuery query, Case c) {
+                    query.setPhrase(true);
+                    query.setSlop(c.slop);
+                }
+                /**
+                 * The top level nodes appear in order within a same field, the positions they skip using the slop.
+                 */
+                @Override
+                public Set<Integer> oracle(IndexSearcher searcher, Case c) throws IOException {
+                    IndexReader reader = searcher.getIndexReader();
+                    Set<Integer> candidates = AcrossVariantsDifferentialHarness.oracle(reader, c);
+                    List<Span> nodes = c.topLevelNodes();
+                    if (nodes.size() < 2)
+                        return candidates;
+                    List<Map<Integer, Map<Integer, String>>> fieldsTokens = new ArrayList<Map<Integer, Map<Integer, String>>>();
+                    for (String field : c.fields.keySet())
+                        fieldsTokens.add(tokens(reader, field));
+                    Set<Integer> rtn = new TreeSet<Integer>();
+                    for (int doc : candidates) {
+                        for (Map<Integer, Map<Integer, String>> fieldTokens : fieldsTokens) {
+                            Map<Integer, String> tokens = fieldTokens.get(doc);
+                            if (tokens != null && !phraseEnds(nodes, c.slop, tokens).isEmpty()) {
+                                rtn.add(doc);
+                                break;
+                            }
+                        }
+                    }
+                    return rtn;
+                }
+            },
+            new QueryMode() {
+                /**
+                 * Shared by every case, small enough that some prefixes exceed its budget.
+                 */
+                private final AcrossVariantsPrefixCache prefixCache = new AcrossVariantsPrefixCache(2, 1 << 12);
+                @Override
+                public String name() {
+                    return "type_ahead";
+                }
+                @Override
+                public void set(AcrossVariantsAndQuery query, Case c) {
+                    query.setTypeAhead(true);
+                    if (random().nextBoolean())
+                        query.setPrefixCache(prefixCache);
+                }
+                @Override
+                public Set<Integer> oracle(IndexSearcher searcher, Case c) throws IOException {
+                    return typeAheadOracle(searcher.getIndexReader(), c);
+                }
+            },
+            new SessionMode(false),
+            new SessionMode(true)
+    ));
+
+    /**
+     * Queries of a few sessions sharing a cache across every case, small enough that some documents exceed its budget,
+     * typing their last top level node or not.
+     */
+    static class SessionMode extends QueryMode {
+
+        private static final AcrossVariantsSessionCache SESSION_CACHE = new AcrossVariantsSessionCache(TimeUnit.MINUTES.toNanos(1), 1 << 12);
+
+        private final boolean typeAhead;
+
+        SessionMode(boolean typeAhead) {
+            this.typeAhead = typeAhead;
+        }
+
+        @Override
+        public String name() {
+            return typeAhead ? "type_ahead session" : "session";
+        }
+
+        @Override
+        public void set(AcrossVariantsAndQuery query, Case c) {
+            query.setTypeAhead(typeAhead);
+            query.setSession("session" + random().nextInt(3), SESSION_CACHE);
+        }
+
+        @Override
+        public Set<Integer> oracle(IndexSearcher searcher, Case c) throws IOException {
+            return typeAhead ? typeAheadOracle(searcher.getIndexReader(), c) : AcrossVariantsDifferentialHarness.oracle(searcher.getIndexReader(), c);
+        }
+
+    }
+
+    public void testRandomCases() throws IOException {
+        int indexes = atLeast(5);
+        for (int i = 0; i < indexes; i++) {
+            String[] vocabulary = randomVocabulary();
+            String[] fields = new String[1 + random().nextInt(3)];
+            for (int f = 0; f < fields.length; f++)
+                fields[f] = "field" + f;
+
+            Directory directory = newDirectory();
+            RandomIndexWriter writer = new RandomIndexWriter(random(), directory, new MockAnalyzer(random(), MockTokenizer.WHITESPACE, false));
+            int docs = atLeast(50);
+            for (int d = 0; d < docs; d++) {
+                Document doc = new Document();
+                doc.add(new StringField("id", Integer.toString(d), Field.Store.NO));
+                for (String field : fields) {
+                    if (random().nextInt(4) != 0)
+                        doc.add(newTextField(field, randomText(vocabulary), Field.Store.NO));
+                }
+                writer.addDocument(doc);
+            }
+            int deletes = random().nextInt(docs / 10 + 1);
+            for (int d = 0; d < deletes; d++)
+                writer.deleteDocuments(new Term("id", Integer.toString(random().nextInt(docs))));
+            IndexReader reader = writer.getReader();
+            writer.close();
+
+            try {
+                IndexSearcher searcher = newSearcher(reader);
+                int cases = atLeast(100);
+                for (int c = 0; c < cases; c++)
+                    check(searcher, randomCase(vocabulary, fields));
+            } finally {
+                reader.close();
+                directory.close();
+            }
+        }
+    }
+
+    /**
+     * Two sets of prefixes that read the same once joined: the second one must not reuse the cached documents of the first one.
+     */
+    public void testPrefixCacheKey() throws IOException {
+        Directory directory = newDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(TEST_VERSION_CURRENT, new MockAnalyzer(random(), MockTokenizer.WHITESPACE, false)));
+        for (String text : new String[] { "a*|bc", "bz" }) {
+            Document doc = new Document();
+            doc.add(newTextField("field0", text, Field.Store.NO));
+            writer.addDocument(doc);
+        }
+        IndexReader reader = DirectoryReader.open(writer, true);
+        writer.close();
+        try {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            AcrossVariantsPrefixCache prefixCache = new AcrossVariantsPrefixCache(4, 1 << 20);
+            AcrossVariantsPrefixFilter joined = new AcrossVariantsPrefixFilter("field0", Collections.singleton("a*|b"), prefixCache);
+            assertEquals(1, searcher.search(new ConstantScoreQuery(joined), 2).totalHits);
+            AcrossVariantsPrefixFilter split = new AcrossVariantsPrefixFilter("field0", Arrays.asList("a", "b"), prefixCache);
+            assertEquals(2, searcher.search(new ConstantScoreQuery(split), 2).totalHits);
+        } finally {
+            reader.close();
+            directory.close();
+        }
+    }
+
+    /**
+     * Two queries of a session whose completed nodes read the same, but get matched differently:
+     * the second one must not reuse the documents of the first one.
+     */
+    public void testSessionKey() throws IOException {
+        Directory directory = newDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(TEST_VERSION_CURRENT, new MockAnalyzer(random(), MockTokenizer.WHITESPACE, false)));
+        Document lower = new Document();
+        lower.add(newTextField("field0", "a b", Field.Store.NO));
+        writer.addDocument(lower);
+        Document upper = new Document();
+        upper.add(newTextField("field0", "A B", Field.Store.NO));
+        writer.addDocument(upper);
+        IndexReader reader = DirectoryReader.open(writer, true);
+        writer.close();
+        try {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            AcrossVariantsSessionCache sessionCache = new AcrossVariantsSessionCache(TimeUnit.MINUTES.toNanos(1), 1 << 20);
+            AcrossVariantsAndQuery query = new AcrossVariantsAndQuery(Collections.singleton("field0"), new MockAnalyzer(random(), MockTokenizer.WHITESPACE, false), "a b");
+            query.setSession("session", sessionCache);
+            TopDocs topDocs = searcher.search(query, 2);
+            assertEquals(1, topDocs.totalHits);
+            assertEquals(0, topDocs.scoreDocs[0].doc);
+            query = new AcrossVariantsAndQuery(Collections.singleton("field0"), new MockAnalyzer(random(), MockTokenizer.WHITESPACE, false), "a b",
+                    new AcrossVariantsAndQuery.QueryProvider() {
+                        @Override
+                        public Query queryTerm(String field, String term) {
+                            return new TermQuery(new Term(field, term.toUpperCase(Locale.ROOT)));
+                        }
+                    });
+            query.setSession("session", sessionCache);
+            topDocs = searcher.search(query, 2);
+            assertEquals(1, topDocs.totalHits);
+            assertEquals(1, topDocs.scoreDocs[0].doc);
+        } finally {
+            reader.close();
+            directory.close();
+        }
+    }
+
+    /**
+     * The documents of a session get dropped when their segment closes, and a session once it expires.
+     */
+    public void testSessionCacheEviction() throws IOException {
+        Directory directory = newDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(TEST_VERSION_CURRENT, new MockAnalyzer(random(), MockTokenizer.WHITESPACE, false)));
+        Document doc = new Document();
+        doc.add(newTextField("field0", "a b", Field.Store.NO));
+        writer.addDocument(doc);
+        IndexReader reader = DirectoryReader.open(writer, true);
+        writer.close();
+        AcrossVariantsSessionCache expiring = new AcrossVariantsSessionCache(0, 1 << 20);
+        try {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            for (String session : new String[] { "session1", "session2" }) {
+                AcrossVariantsAndQuery query = new AcrossVariantsAndQuery(Collections.singleton("field0"), new MockAnalyzer(random(), MockTokenizer.WHITESPACE, false), "a b");
+                query.setSession(session, expiring);
+                assertEquals(1, searcher.search(query, 1).totalHits);
+                assertEquals(1, expiring.size());
+                assertTrue(expiring.sizeInBytes() > 0);
+            }
+        } finally {
+            reader.close();
+            directory.close();
+        }
+        assertEquals(0, expiring.sizeInBytes());
+    }
+
+    /**
+     * A document whose index time boost lifts its rarely scoring terms above the top hits,
+     * after the top hits were collected: bounds that ignore the boost would skip it.
+     */
+    public void testTopKIndexTimeBoost() throws IOException {
+        Directory directory = newDirectory();
+        IndexWriterConfig config = new IndexWriterConfig(TEST_VERSION_CURRENT, new MockAnalyzer(random(), MockTokenizer.WHITESPACE, false));
+        config.setSimilarity(new DefaultSimilarity());
+        IndexWriter writer = new IndexWriter(directory, config);
+        Document first = new Document();
+        first.add(newTextField("field0", "a b", Field.Store.NO));
+        first.add(newTextField("field1", "a b", Field.Store.NO));
+        writer.addDocument(first);
+        for (int d = 0; d < 100; d++) {
+            Document doc = new Document();
+            doc.add(newTextField("field1", "a b x", Field.Store.NO));
+            writer.addDocument(doc);
+        }
+        Document boosted = new Document();
+        Field field = newTextField("field1", "a b", Field.Store.NO);
+        field.setBoost(100f);
+        boosted.add(field);
+        writer.addDocument(boosted);
+        IndexReader reader = DirectoryReader.open(writer, true);
+        writer.close();
+        try {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            searcher.setSimilarity(new DefaultSimilarity());
+            Map<String, Float> fields = new LinkedHashMap<String, Float>();
+            fields.put("field0", 1.0f);
+            fields.put("field1", 1.0f);
+            AcrossVariantsAndQuery query = new AcrossVariantsAndQuery(fields, new MockAnalyzer(random(), MockTokenizer.WHITESPACE, false), "a b");
+            TopDocs expected = searcher.search(query, 1);
+            assertEquals(reader.maxDoc() - 1, expected.scoreDocs[0].doc);
+            query.setExecution(AcrossVariantsPlan.ENGINE_SCORER);
+            query.setTopK(1);
+            TopDocs actual = searcher.search(query, 1);
+            assertEquals(expected.scoreDocs[0].doc, actual.scoreDocs[0].doc);
+            assertEquals(expected.scoreDocs[0].score, actual.scoreDocs[0].score, SCORE_TOLERANCE);
+        } finally {
+            reader.close();
+            directory.close();
+        }
+    }
+
+    private void check(IndexSearcher searcher, Case c) throws IOException {
+        Query reference = c.newQuery().rewrite(searcher.getIndexReader());
+        Map<Integer, Float> expected = search(searcher, reference);
+        assertEquals("reference of " + c, oracle(searcher.getIndexReader(), c), expected.keySet());
+
+        for (ExecutionMode mode : MODES) {
+            Map<Integer, Float> actual = search(searcher, mode.query(c));
+            String message = mode.name() + " of " + c;
+            assertEquals(message, expected.keySet(), actual.keySet());
+            if (mode.scores())
+                assertScores(message, expected, actual);
+        }
+
+        for (QueryMode mode : QUERY_MODES) {
+            if (!mode.applies(c))
+                continue;
+            Set<Integer> oracle = mode.oracle(searcher, c);
+            Map<Integer, Float> modeReference = null;
+            for (String execution : EXECUTIONS) {
+                for (boolean scoring : new boolean[] { true, false }) {
+                    AcrossVariantsAndQuery query = c.newQuery();
+                    query.setExecution(execution);
+                    query.setScoring(scoring);
+                    mode.set(query, c);
+                    Map<Integer, Float> actual = search(searcher, query);
+                    String message = mode.name() + (scoring ? " " : " unscored ") + execution + " of " + c;
+                    if (modeReference == null)
+                        modeReference = actual;
+                    mode.check(message, c, oracle, modeReference, actual);
+                    if (scoring && !actual.isEmpty()) {
+                        assertScores(message, modeReference, actual);
+                        Map.Entry<Integer, Float> hit = actual.entrySet().iterator().next();
+                        Explanation explanation = searcher.explain(query, hit.getKey());
+                        assertTrue(message + ", explained doc " + hit.getKey(), explanation.isMatch());
+                        assertEquals(message + ", explained doc " + hit.getKey(), hit.getValue(), explanation.getValue(),
+                                SCORE_TOLERANCE * Math.max(1.0f, Math.abs(hit.getValue())));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the score of each actual hit against the expected one.
+     */
+    private static void assertScores(String message, Map<Integer, Float> expected, Map<Integer, Float> actual) {
+        for (Map.Entry<Integer, Float> hit : actual.entrySet()) {
+            float expectedScore = expected.get(hit.getKey());
+            float actualScore = hit.getValue();
+            assertEquals(message + ", doc " + hit.getKey(), expectedScore, actualScore, SCORE_TOLERANCE * Math.max(1.0f, Math.abs(expectedScore)));
+        }
+    }
+
+    private static Map<Integer, Float> search(IndexSearcher searcher, Query query) throws IOException {
+        AllHitsCollector collector = new AllHitsCollector();
+        searcher.search(query, collector);
+        return collector.hits;
+    }
+
+    /**
+     * Evaluates the generated spans directly against the postings,
+     * independently of the tree building and of the rewrite.
+     */
+    private static Set<Integer> oracle(IndexReader reader, Case c) throws IOException {
+        FixedBitSet matches = null;
+        for (Span span : c.spans) {
+            FixedBitSet spanMatches = oracle(reader, c.fields.keySet(), span);
+            if (matches == null)
+                matches = spanMatches;
+            else
+                matches.and(spanMatches);
+        }
+        Set<Integer> rtn = new TreeSet<Integer>();
+        if (matches != null) {
+            for (int doc = matches.nextSetBit(0); doc >= 0; doc = doc + 1 < matches.length() ? matches.nextSetBit(doc + 1) : -1)
+                rtn.add(doc);
+        }
+        return rtn;
+    }
+
+    private static FixedBitSet oracle(IndexReader reader, Collection<String> fields, Span span) throws IOException {
+        FixedBitSet rtn = new FixedBitSet(reader.maxDoc());
+        for (String field : fields) {
+            for (String writing : span.writings) {
+                DocsEnum docs = MultiFields.getTermDocsEnum(reader, MultiFields.getLiveDocs(reader), field, new BytesRef(writing));
+                if (docs == null)
+                    continue;
+                for (int doc = docs.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docs.nextDoc())
+                    rtn.set(doc);
+            }
+        }
+        if (!span.subspans.isEmpty()) {
+            FixedBitSet subspansMatches = null;
+            for (Span subspan : span.subspans) {
+                FixedBitSet subspanMatches = oracle(reader, fields, subspan);
+                if (subspansMatches == null)
+                    subspansMatches = subspanMatches;
+                else
+                    subspansMatches.and(subspanMatches);
+            }
+            rtn.or(subspansMatches);
+        }
+        return rtn;
+    }
+
+    /**
+     * The writings of the last top level node match as prefixes of the tokens of any field,
+     * its subspans and every other node matching exactly.
+     */
+    private static Set<Integer> typeAheadOracle(IndexReader reader, Case c) throws IOException {
+        List<Span> nodes = c.topLevelNodes();
+        FixedBitSet matches = new FixedBitSet(reader.maxDoc());
+        Span typed = nodes.get(nodes.size() - 1);
+        for (String field : c.fields.keySet())
+            prefixes(reader, field, typed.writings, matches);
+        if (!typed.subspans.isEmpty()) {
+            FixedBitSet subspansMatches = new FixedBitSet(reader.maxDoc());
+            subspansMatches.set(0, reader.maxDoc());
+            for (Span subspan : typed.subspans)
+                subspansMatches.and(oracle(reader, c.fields.keySet(), subspan));
+            matches.or(subspansMatches);
+        }
+        for (Span node : nodes.subList(0, nodes.size() - 1))
+            matches.and(oracle(reader, c.fields.keySet(), node));
+        Set<Integer> rtn = new TreeSet<Integer>();
+        for (int doc = matches.nextSetBit(0); doc >= 0; doc = doc + 1 < matches.length() ? matches.nextSetBit(doc + 1) : -1)
+            rtn.add(doc);
+        return rtn;
+    }
+
+    /**
+     * Marks the live documents holding a term of the field that starts with any of the prefixes.
+     */
+    private static void prefixes(IndexReader reader, String field, Collection<String> prefixes, FixedBitSet matches) throws IOException {
+        Terms terms = MultiFields.getTerms(reader, field);
+        if (terms == null)
+            return;
+        TermsEnum termsEnum = terms.iterator(null);
+        DocsEnum docs = null;
+        for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+            String text = term.utf8ToString();
+            for (String prefix : prefixes) {
+                if (text.startsWith(prefix)) {
+                    docs = termsEnum.docs(MultiFields.getLiveDocs(reader), docs, DocsEnum.FLAG_NONE);
+                    for (int doc = docs.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docs.nextDoc())
+                        matches.set(doc);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The token at each position of the field, per live document.
+     */
+    private static Map<Integer, Map<Integer, String>> tokens(IndexReader reader, String field) throws IOException {
+        Map<Integer, Map<Integer, String>> rtn = new HashMap<Integer, Map<Integer, String>>();
+        Terms terms = MultiFields.getTerms(reader, field);
+        if (terms == null)
+            return rtn;
+        TermsEnum termsEnum = terms.iterator(null);
+        for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+            DocsAndPositionsEnum positions = termsEnum.docsAndPositions(MultiFields.getLiveDocs(reader), null);
+            for (int doc = positions.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = positions.nextDoc()) {
+                Map<Integer, String> tokens = rtn.get(doc);
+                if (tokens == null) {
+                    tokens = new HashMap<Integer, String>();
+                    rtn.put(doc, tokens);
+                }
+                for (int freq = positions.freq(); freq > 0; freq--)
+                    tokens.put(positions.nextPosition(), term.utf8ToString());
+            }
+        }
+        return rtn;
+    }
+
+    /**
+     * @return The positions following the span when it starts at the given one, through a writing, or its subspans adjacently.
+     */
+    private static Set<Integer> ends(Span span, int start, Map<Integer, String> tokens) {
+        Set<Integer> rtn = new TreeSet<Integer>();
+        String token = tokens.get(start);
+        if (token != null && span.writings.contains(token))
+            rtn.add(start + 1);
+        if (!span.subspans.isEmpty()) {
+            Set<Integer> starts = Collections.singleton(start);
+            for (Span subspan : span.subspans) {
+                Set<Integer> subspanEnds = new TreeSet<Integer>();
+                for (int subspanStart : starts)
+                    subspanEnds.addAll(ends(subspan, subspanStart, tokens));
+                starts = subspanEnds;
+            }
+            rtn.addAll(starts);
+        }
+        return rtn;
+    }
+
+    /**
+     * @return The least slop used to reach each position following the nodes, in order.
+     */
+    private static Map<Integer, Integer> phraseEnds(List<Span> nodes, int slop, Map<Integer, String> tokens) {
+        Map<Integer, Integer> rtn = null;
+        for (Span node : nodes) {
+            Map<Integer, Integer> nodeEnds = new HashMap<Integer, Integer>();
+            for (int start : tokens.keySet()) {
+                int used = Integer.MAX_VALUE;
+                if (rtn == null) {
+                    used = 0;
+                } else {
+                    for (Map.Entry<Integer, Integer> end : rtn.entrySet()) {
+                        if (end.getKey() <= start)
+                            used = Math.min(used, end.getValue() + start - end.getKey());
+                    }
+                }
+                if (used > slop)
+                    continue;
+                for (int end : ends(node, start, tokens)) {
+                    Integer previous = nodeEnds.get(end);
+                    if (previous == null || previous > used)
+                        nodeEnds.put(end, used);
+                }
+            }
+            rtn = nodeEnds;
+        }
+        return rtn;
+    }
+
+    private static String[] randomVocabulary() {
+        String[] rtn = new String[5 + random().nextInt(30)];
+        for (int i = 0; i < rtn.length; i++)
+            rtn[i] = "w" + i;
+        return rtn;
+    }
+
+    /**
+     * @return A skewed pick, so that some writings are frequent and others rare.
+     */
+    private static String randomWord(String[] vocabulary) {
+        return vocabulary[random().nextInt(random().nextInt(vocabulary.length) + 1)];
+    }
+
+    private static String randomText(String[] vocabulary) {
+        StringBuilder sb = new StringBuilder();
+        int words = random().nextInt(8);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(randomWord(vocabulary));
+        }
+        return sb.toString();
+    }
+
+    private static Case randomCase(String[] vocabulary, String[] fields) {
+        Map<String, Float> boostedFields = new LinkedHashMap<String, Float>();
+        for (String field : fields) {
+            if (boostedFields.isEmpty() || random().nextBoolean())
+                boostedFields.put(field, random().nextBoolean() ? 1.0f : 0.5f + random().nextInt(8) * 0.5f);
+        }
+        List<Span> spans = new ArrayList<Span>();
+        int words = 1 + random().nextInt(4);
+        for (int i = 0; i < words; i++)
+            spans.add(randomSpan(vocabulary, 0));
+        Case rtn = new Case(boostedFields, spans);
+        rtn.boost = random().nextBoolean() ? 1.0f : 0.5f + random().nextInt(4);
+        rtn.useDisMax = random().nextBoolean();
+        rtn.tieBreaker = random().nextBoolean() ? 0.0f : random().nextFloat();
+        switch (random().nextInt(3)) {
+            case 0:
+                rtn.minimumShouldMatch = Integer.toString(random().nextInt(words + 2));
+                break;
+            case 1:
+                rtn.minimumShouldMatch = Integer.toString(-random().nextInt(words + 1));
+                break;
+            default:
+                rtn.minimumShouldMatch = (25 * (1 + random().nextInt(3))) + "%";
+        }
+        rtn.topK = 1 + random().nextInt(10);
+        rtn.slop = random().nextInt(4);
+        return rtn;
+    }
+
+    /**
+     * A span of the query text: its writings, or two or more consecutive subspans, or both.
+     * Some writings are never indexed.
+     */
+    private static Span randomSpan(String[] vocabulary, int depth) {
+        Span rtn = new Span();
+        if (depth < MAX_DEPTH && random().nextInt(3) == 0) {
+            int subspans = 2 + random().nextInt(2);
+            for (int i = 0; i < subspans; i++) {
+                Span subspan = randomSpan(vocabulary, depth + 1);
+                rtn.subspans.add(subspan);
+                rtn.width += subspan.width;
+            }
+            rtn.width += subspans - 1;
+        } else {
+            rtn.width = 2 + random().nextInt(3);
+        }
+        int writings = rtn.subspans.isEmpty() ? 1 + random().nextInt(3) : random().nextInt(3);
+        for (int i = 0; i < writings; i++)
+            rtn.writings.add(random().nextInt(10) == 0 ? "missing" + i : randomWord(vocabulary));
+        return rtn;
+    }
+
+    static class Span {
+        final List<String> writings = new ArrayList<String>();
+        final List<Span> subspans = new ArrayList<Span>();
+        int width;
+    }
+
+    public static class Case {
+
+        final Map<String, Float> fields;
+        final List<Span> spans;
+        final String[] tokens;
+        final int[] positionIncrements;
+        final int[] startOffsets;
+        final int[] endOffsets;
+        float boost = 1.0f;
+        boolean useDisMax;
+        float tieBreaker;
+        String minimumShouldMatch;
+        int topK;
+        int slop;
+
+        Case(Map<String, Float> fields, List<Span> spans) {
+            this.fields = fields;
+            this.spans = spans;
+            // Tokens of a same position are shuffled, the tree must not depend on their order
+            List<List<Object[]>> positions = new ArrayList<List<Object[]>>();
+            int offset = 0;
+            for (Span span : spans) {
+                List<Object[]> position = new ArrayList<Object[]>();
+                emit(span, offset, position);
+                Collections.shuffle(position, random());
+                positions.add(position);
+                offset += span.width + 1;
+            }
+            List<Object[]> all = new ArrayList<Object[]>();
+            for (List<Object[]> position : positions)
+                all.addAll(position);
+            tokens = new String[all.size()];
+            positionIncrements = new int[all.size()];
+            startOffsets = new int[all.size()];
+            endOffsets = new int[all.size()];
+            int i = 0;
+            for (List<Object[]> position : positions) {
+                boolean first = true;
+                for (Object[] token : position) {
+                    tokens[i] = (String) token[0];
+                    startOffsets[i] = (Integer) token[1];
+                    endOffsets[i] = (Integer) token[2];
+                    // Skipped positions, like removed stopwords, must not matter
+                    positionIncrements[i] = first ? (random().nextInt(5) == 0 ? 2 : 1) : 0;
+                    first = false;
+                    i++;
+                }
+            }
+        }
+
+        private static void emit(Span span, int startOffset, List<Object[]> output) {
+            for (String writing : span.writings)
+                output.add(new Object[] { writing, startOffset, startOffset + span.width });
+            int offset = startOffset;
+            for (Span subspan : span.subspans) {
+                emit(subspan, offset, output);
+                offset += subspan.width + 1;
+            }
+        }
+
+        /**
+         * @return The spans the top level nodes of the tree match: a span without writings is only the conjunction of its subspans.
+         */
+        public List<Span> topLevelNodes() {
+            List<Span> rtn = new ArrayList<Span>();
+            topLevelNodes(spans, rtn);
+            return rtn;
+        }
+
+        private static void topLevelNodes(List<Span> spans, List<Span> output) {
+            for (Span span : spans) {
+                if (span.writings.isEmpty())
+                    topLevelNodes(span.subspans, output);
+                else
+                    output.add(span);
+            }
+        }
+
+        public Analyzer analyzer() {
+            return new ReplayAnalyzer(tokens, positionIncrements, startOffsets, endOffsets);
+        }
+
+        public Map<String, Float> fields() {
+            return fields;
+        }
+
+        public AcrossVariantsAndQuery newQuery() throws IOException {
+            AcrossVariantsAndQuery rtn = new AcrossVariantsAndQuery(fields, analyzer(), "random");
+            rtn.setBoost(boost);
+            rtn.setUseDisMax(useDisMax);
+            rtn.setTieBreaker(tieBreaker);
+            return rtn;
+        }
+
+        public AcrossVariantsAndFilter newFilter() throws IOException {
+            return newFilter(AcrossVariantsLimits.UNLIMITED);
+        }
+
+        public AcrossVariantsAndFilter newFilter(AcrossVariantsLimits limits) throws IOException {
+            return new AcrossVariantsAndFilter(fields.keySet(), analyzer(), "random", AcrossVariantsAndFilter.TermFilterProvider.INSTANCE, limits);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(fields);
+            sb.append(" boost=").append(boost);
+            if (useDisMax)
+                sb.append(" dis_max tie_breaker=").append(tieBreaker);
+            sb.append(" minimum_should_match=").append(minimumShouldMatch);
+            sb.append(" top_k=").append(topK);
+            sb.append(" slop=").append(slop);
+            sb.append(" tokens=[");
+            for (int i = 0; i < tokens.length; i++) {
+                if (i > 0) sb.append(", ");
+                sb.append(tokens[i]).append(":+").append(positionIncrements[i])
+                        .append(',').append(startOffsets[i]).append(':').append(endOffsets[i]);
+            }
+            sb.append(']');
+            return sb.toString();
+        }
+
+    }
+
+    static class AllHitsCollector extends Collector {
+
+        final Map<Integer, Float> hits = new TreeMap<Integer, Float>();
+        private Scorer scorer;
+        private int docBase;
+
+        @Override
+        public void setScorer(Scorer scorer) throws IOException {
+            this.scorer = scorer;
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+            hits.put(docBase + doc, scorer.score());
+        }
+
+        @Override
+        public void setNextReader(AtomicReaderContext context) throws IOException {
+            this.docBase = context.docBase;
+        }
+
+        @Override
+        public boolean acceptsDocsOutOfOrder() {
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,29 @@
+package org.elasticsearch.test.integration.acrossvariants;
+
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import org.testng.annotations.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Runs the {@link AcrossVariantsDifferentialHarness}.
+ * The randomized index writers, readers and searchers of the Lucene test framework
+ * need its own JUnit runner, hence the bridge.
+ */
+@Test
+public class AcrossVariantsDifferentialTest {
+
+    @Test
+    public void testDifferential() {
+        Result result = JUnitCore.runClasses(AcrossVariantsDifferentialHarness.class);
+        StringBuilder failures = new StringBuilder();
+        for (Failure failure : result.getFailures())
+            failures.append(failure.getTrace()).append('\n');
+        assertThat(failures.toString(), result.getFailureCount(), equalTo(0));
+        assertThat(result.getRunCount() > 0, equalTo(true));
+    }
+
+}
@@ -0,0 +1,78 @@
+package org.elasticsearch.test.integration.acrossvariants;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.AcrossVariantsAndQuery;
+import org.apache.lucene.search.AcrossVariantsPlan;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.elasticsearch.index.query.AcrossVariantsQueryBuilder;
+import org.elasticsearch.test.integration.BaseESTest;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Test
+public class AcrossVariantsFilterFieldsTest extends BaseESTest {
+
+    @Test
+    public void testFilterFields() throws IOException {
+        indexDoc(doc("1", "name", "usb cable", "tags", "misc"));
+        indexDoc(doc("2", "name", "usb", "tags", "cable"));
+        indexDoc(doc("3", "name", "adapter", "tags", "usb cable"));
+        commit();
+
+        assertDocs(new AcrossVariantsQueryBuilder().fields("name").value("usb cable").analyzer("whitespace"), "1");
+        // The tags only match, the more tokens matching the name the higher the score
+        assertDocs(new AcrossVariantsQueryBuilder().fields("name").filterFields("tags").value("usb cable").analyzer("whitespace"), "1", "2", "3");
+    }
+
+    @Test
+    public void testNoScore() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_4_9, new WhitespaceAnalyzer(Version.LUCENE_4_9)));
+        for (int i = 0; i < 100; i++) {
+            Document document = new Document();
+            document.add(new TextField("name", i % 2 == 0 ? "a b" : "a", Field.Store.NO));
+            document.add(new TextField("tags", i % 3 == 0 ? "a b c" : "c", Field.Store.NO));
+            writer.addDocument(document);
+        }
+        writer.close();
+        DirectoryReader reader = DirectoryReader.open(directory);
+        IndexSearcher searcher = new IndexSearcher(reader);
+
+        for (String engine : new String[] { AcrossVariantsPlan.ENGINE_REWRITE, AcrossVariantsPlan.ENGINE_SCORER, AcrossVariantsPlan.ENGINE_BITSET }) {
+            AcrossVariantsAndQuery query = new AcrossVariantsAndQuery(Collections.singleton("name"), new WhitespaceAnalyzer(Version.LUCENE_4_9), "a b");
+            query.setExecution(engine);
+            TopDocs expected = searcher.search(query, 100);
+            query = new AcrossVariantsAndQuery(Collections.singleton("name"), new WhitespaceAnalyzer(Version.LUCENE_4_9), "a b");
+            query.setFilterFields(Arrays.asList("tags"));
+            query.setExecution(engine);
+            TopDocs actual = searcher.search(query, 100);
+            // "b" also matches the tags of the odd multiples of 3
+            assertThat(engine, expected.totalHits, equalTo(50));
+            assertThat(engine, actual.totalHits, equalTo(67));
+            // The documents matching "b" in the name score the same
+            for (int i = 0; i < expected.scoreDocs.length; i++) {
+                assertThat(engine, actual.scoreDocs[i].doc, equalTo(expected.scoreDocs[i].doc));
+                assertThat(engine, actual.scoreDocs[i].score, equalTo(expected.scoreDocs[i].score));
+            }
+            float explained = searcher.explain(query, actual.scoreDocs[actual.scoreDocs.length - 1].doc).getValue();
+            assertThat(engine, explained, equalTo(actual.scoreDocs[actual.scoreDocs.length - 1].score));
+        }
+        reader.close();
+    }
+
+}
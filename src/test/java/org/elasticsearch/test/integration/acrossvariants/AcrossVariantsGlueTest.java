@@ -0,0 +1,103 @@
+package org.elasticsearch.test.integration.acrossvariants;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.apache.lucene.search.AcrossVariantsDecompounder;
+import org.apache.lucene.search.AcrossVariantsGlue;
+import org.apache.lucene.search.AcrossVariantsTree;
+import org.apache.lucene.search.AcrossVariantsTree.TermNode;
+import org.apache.lucene.util.Version;
+import org.elasticsearch.index.query.AcrossVariantsFilterBuilder;
+import org.elasticsearch.index.query.AcrossVariantsQueryBuilder;
+import org.elasticsearch.test.integration.BaseESTest;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Test
+public class AcrossVariantsGlueTest extends BaseESTest {
+
+    @Test
+    public void testFilter() throws IOException {
+        assertThat(tokens(new AcrossVariantsGlue(null, 3), "a b c"),
+                equalTo(Arrays.asList("a:1:0-1", "ab:0:0-3", "abc:0:0-5", "b:1:2-3", "bc:0:2-5", "c:1:4-5")));
+        assertThat(tokens(new AcrossVariantsGlue(null, 2), "a b c"),
+                equalTo(Arrays.asList("a:1:0-1", "ab:0:0-3", "b:1:2-3", "bc:0:2-5", "c:1:4-5")));
+        CharArraySet words = new CharArraySet(Version.LUCENE_4_9, Arrays.asList("bc"), false);
+        assertThat(tokens(new AcrossVariantsGlue(words, 3), "a b c"),
+                equalTo(Arrays.asList("a:1:0-1", "b:1:2-3", "bc:0:2-5", "c:1:4-5")));
+    }
+
+    @Test
+    public void testCovers() throws IOException {
+        AcrossVariantsDecompounder decompounder = AcrossVariantsDecompounder.build(Arrays.asList("wi", "fi", "wifi", "monitoring"), 2, 4);
+        TermNode root = AcrossVariantsTree.build(decompounder.wrap(new WhitespaceAnalyzer(Version.LUCENE_4_9)), new StringReader("wifimonitoring"));
+        TermNode compound = root.getChildren().get(0);
+        TermNode wifi = compound.getChildren().get(0);
+
+        AcrossVariantsGlue glue = new AcrossVariantsGlue(null, 2);
+        assertThat(glue.covers(wifi), equalTo(true));
+        // A part with subspans may not be glued as is
+        assertThat(glue.covers(compound), equalTo(false));
+        assertThat(glue.covers(compound.getChildren().get(1)), equalTo(false));
+        assertThat(new AcrossVariantsGlue(new CharArraySet(Version.LUCENE_4_9, Arrays.asList("monitoring"), false), 2).covers(wifi), equalTo(false));
+    }
+
+    @Test
+    public void testGlued() throws IOException {
+        indexDoc(doc("1", "field1", "Wi Fi"));
+        indexDoc(doc("2", "field1", "wi x fi"));
+        indexDoc(doc("3", "field1", "WiFi"));
+        indexDoc(doc("4", "field1", "wi", "field2", "fi"));
+        commit();
+
+        // Adjacent parts only, with a single term
+        assertDocs(new AcrossVariantsFilterBuilder().fields("field1").value("wifi").analyzer("whitespace"), "1", "3");
+        assertDocs(new AcrossVariantsFilterBuilder().fields("field1").value("wifi").analyzer("whitespace").glued(false), "1", "2", "3");
+        // Score order, the glued term alone in the shorter field
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1").value("wifi").analyzer("whitespace"), "3", "1");
+        // Not every field indexes the glued forms
+        assertDocs(new AcrossVariantsFilterBuilder().fields("field1", "field2").value("wifi").analyzer("whitespace"), "1", "2", "3", "4");
+    }
+
+    @Test
+    public void testWordList() throws IOException {
+        indexDoc(doc("1", "field3", "wi fi"));
+        indexDoc(doc("2", "field3", "wi x fi"));
+        indexDoc(doc("3", "field3", "fi wi"));
+        commit();
+
+        assertDocs(new AcrossVariantsFilterBuilder().fields("field3").value("wifi").analyzer("whitespace"), "1");
+        assertThat(client().admin().indices().prepareAnalyze(INDEX, "fi wi").setAnalyzer("glued_words").execute().actionGet().getTokens().size(), equalTo(2));
+    }
+
+    private static List<String> tokens(AcrossVariantsGlue glue, String text) throws IOException {
+        List<String> rtn = new ArrayList<String>();
+        TokenStream stream = glue.filter(new WhitespaceTokenizer(Version.LUCENE_4_9, new StringReader(text)));
+        CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+        PositionIncrementAttribute posIncAtt = stream.addAttribute(PositionIncrementAttribute.class);
+        OffsetAttribute offsetAtt = stream.addAttribute(OffsetAttribute.class);
+        try {
+            stream.reset();
+            while (stream.incrementToken())
+                rtn.add(termAtt + ":" + posIncAtt.getPositionIncrement() + ":" + offsetAtt.startOffset() + "-" + offsetAtt.endOffset());
+            stream.end();
+        } finally {
+            stream.close();
+        }
+        return rtn;
+    }
+
+}
@@ -0,0 +1,203 @@
+package org.elasticsearch.test.integration.acrossvariants;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.AcrossVariantsAndQuery;
+import org.apache.lucene.search.AcrossVariantsDegradation;
+import org.apache.lucene.search.AcrossVariantsLimits;
+import org.apache.lucene.search.AcrossVariantsTree;
+import org.apache.lucene.search.AcrossVariantsTree.TermNode;
+import org.apache.lucene.search.AcrossVariantsTermsFilter;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.elasticsearch.action.acrossvariants.plan.AcrossVariantsPlanAction;
+import org.elasticsearch.action.acrossvariants.plan.AcrossVariantsPlanRequest;
+import org.elasticsearch.action.acrossvariants.plan.ShardAcrossVariantsPlanResponse;
+import org.elasticsearch.action.acrossvariants.stats.AcrossVariantsStatsAction;
+import org.elasticsearch.action.acrossvariants.stats.AcrossVariantsStatsRequest;
+import org.elasticsearch.action.acrossvariants.stats.AcrossVariantsStatsResponse;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.index.query.AcrossVariantsFilterBuilder;
+import org.elasticsearch.index.query.AcrossVariantsQueryBuilder;
+import org.elasticsearch.indices.acrossvariants.AcrossVariantsStats;
+import org.elasticsearch.test.integration.BaseESTest;
+import org.elasticsearch.test.integration.ReplayAnalyzer;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Test
+public class AcrossVariantsLimitsTest extends BaseESTest {
+
+    @Test
+    public void testTokensTruncated() throws IOException {
+        AcrossVariantsDegradation degradation = new AcrossVariantsDegradation();
+        TermNode root = AcrossVariantsTree.build(
+                new ReplayAnalyzer(
+                        new String[]{"a", "wi-fi", "wi", "fi"},
+                        new int[]   {  1,       1,    0,    0},
+                        new int[]   {  0,       2,    2,    5},
+                        new int[]   {  1,       7,    4,    7}
+                ),
+                new StringReader("a wi-fi"),
+                new AcrossVariantsLimits(3, -1, -1, -1),
+                degradation);
+
+        // The partially collected second position is dropped altogether
+        assertThat(root.getChildren().size(), equalTo(1));
+        assertThat(root.getChildren().get(0).writings(), equalTo(Arrays.asList("a")));
+        assertThat(degradation.isTokensTruncated(), equalTo(true));
+        assertThat(degradation.isDegraded(), equalTo(true));
+        assertThat(degradation.toString(), equalTo("tokens_truncated"));
+    }
+
+    @Test
+    public void testAnalysisTimedOut() throws IOException {
+        AcrossVariantsDegradation degradation = new AcrossVariantsDegradation();
+        TermNode root = AcrossVariantsTree.build(new WhitespaceAnalyzer(Version.LUCENE_4_9), new StringReader("a b"),
+                new AcrossVariantsLimits(-1, -1, -1, 0), degradation);
+
+        assertThat(root.getChildren().isEmpty(), equalTo(true));
+        assertThat(degradation.isAnalysisTimedOut(), equalTo(true));
+    }
+
+    @Test
+    public void testDroppedWritings() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_4_9, new WhitespaceAnalyzer(Version.LUCENE_4_9)));
+        for (String value : new String[]{"wifi", "wifi", "wifi", "wlan"}) {
+            Document document = new Document();
+            document.add(new TextField("field1", value, Field.Store.NO));
+            writer.addDocument(document);
+        }
+        writer.close();
+        DirectoryReader reader = DirectoryReader.open(directory);
+        try {
+            AcrossVariantsAndQuery query = new AcrossVariantsAndQuery(
+                    fields("field1"),
+                    new ReplayAnalyzer(
+                            new String[]{"wifi", "wlan"},
+                            new int[]   {     1,      0},
+                            new int[]   {     0,      0},
+                            new int[]   {     4,      4}
+                    ),
+                    "wifi",
+                    AcrossVariantsAndQuery.TermQueryProvider.INSTANCE,
+                    new AcrossVariantsLimits(-1, 1, -1, -1));
+            Query rewritten = query.rewrite(reader);
+
+            // The most frequent, hence least selective, writing goes first
+            assertThat(rewritten, instanceOf(TermQuery.class));
+            assertThat(((TermQuery) rewritten).getTerm().text(), equalTo("wlan"));
+            assertThat(query.getDegradation().getDroppedWritings(), equalTo(1));
+            assertThat(new IndexSearcher(reader).search(query, 10).totalHits, equalTo(1));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testQueryTermsSets() throws IOException {
+        AcrossVariantsAndQuery query = new AcrossVariantsAndQuery(
+                fields("field1", "field2"),
+                new ReplayAnalyzer(
+                        new String[]{"wifi", "wlan"},
+                        new int[]   {     1,      0},
+                        new int[]   {     0,      0},
+                        new int[]   {     4,      4}
+                ),
+                "wifi",
+                AcrossVariantsAndQuery.TermQueryProvider.INSTANCE,
+                new AcrossVariantsLimits(-1, -1, 2, -1));
+        Query rewritten = query.rewrite(null);
+
+        assertThat(rewritten, instanceOf(BooleanQuery.class));
+        for (BooleanClause clause : ((BooleanQuery) rewritten).clauses()) {
+            assertThat(clause.getQuery(), instanceOf(ConstantScoreQuery.class));
+            assertThat(((ConstantScoreQuery) clause.getQuery()).getFilter(), instanceOf(AcrossVariantsTermsFilter.class));
+        }
+        assertThat(query.getDegradation().isTermsSets(), equalTo(true));
+    }
+
+    @Test
+    public void testDynamicLimits() throws IOException {
+        indexDoc(doc("1", "field1", "a b", "field2", "c"));
+        indexDoc(doc("2", "field1", "a", "field2", "d"));
+        commit();
+
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("a c").analyzer("whitespace"), "1");
+
+        client().admin().indices().prepareUpdateSettings(INDEX)
+                .setSettings(ImmutableSettings.settingsBuilder().put("index.across_variants.max_tokens", 1))
+                .execute().actionGet();
+
+        AcrossVariantsStats before = stats();
+        // Only "a" remains, that scores higher in the shorter field of the second document
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("a c").analyzer("whitespace"), "2", "1");
+        assertDocs(new AcrossVariantsFilterBuilder().fields("field1", "field2").value("a c").analyzer("whitespace"), "1", "2");
+        AcrossVariantsStats after = stats();
+
+        assertThat(after.getExecutions() - before.getExecutions(), equalTo(2L));
+        assertThat(after.getDegraded() - before.getDegraded(), equalTo(2L));
+        assertThat(after.getTokensTruncated() - before.getTokensTruncated(), equalTo(2L));
+
+        ShardAcrossVariantsPlanResponse plan = client().admin().indices().execute(AcrossVariantsPlanAction.INSTANCE,
+                new AcrossVariantsPlanRequest(INDEX).source(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("a c").analyzer("whitespace")))
+                .actionGet().getShardPlans().get(0);
+        assertThat(plan.getDegradation(), containsString("tokens_truncated"));
+    }
+
+    @Test
+    public void testMaxLeaves() throws IOException {
+        indexDoc(doc("1", "field1", "a b", "field2", "c"));
+        indexDoc(doc("2", "field1", "a", "field2", "d"));
+        commit();
+
+        client().admin().indices().prepareUpdateSettings(INDEX)
+                .setSettings(ImmutableSettings.settingsBuilder().put("index.across_variants.max_leaves", 1))
+                .execute().actionGet();
+
+        // Same matches, through terms sets
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("a c").analyzer("whitespace"), "1");
+        assertDocs(new AcrossVariantsFilterBuilder().fields("field1", "field2").value("a c").analyzer("whitespace"), "1");
+
+        ShardAcrossVariantsPlanResponse plan = client().admin().indices().execute(AcrossVariantsPlanAction.INSTANCE,
+                new AcrossVariantsPlanRequest(INDEX).source(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("a c").analyzer("whitespace")))
+                .actionGet().getShardPlans().get(0);
+        assertThat(plan.getDegradation(), equalTo("terms_sets"));
+    }
+
+    private static Map<String, Float> fields(String... fields) {
+        Map<String, Float> rtn = new HashMap<String, Float>();
+        for (String field : fields)
+            rtn.put(field, 1.0f);
+        return rtn;
+    }
+
+    private AcrossVariantsStats stats() {
+        AcrossVariantsStatsResponse response = client().admin().cluster().execute(AcrossVariantsStatsAction.INSTANCE, new AcrossVariantsStatsRequest()).actionGet();
+        assertThat(response.getNodes().length, equalTo(1));
+        return response.getNodes()[0].getStats();
+    }
+
+}
@@ -0,0 +1,30 @@
+package org.elasticsearch.test.integration.acrossvariants;
+
+import org.elasticsearch.index.query.AcrossVariantsQueryBuilder;
+import org.elasticsearch.test.integration.BaseESTest;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+@Test
+public class AcrossVariantsMinimumShouldMatchTest extends BaseESTest {
+
+    @Test
+    public void testMinimumShouldMatch() throws IOException {
+        // Same length everywhere, the more matching nodes the higher the score
+        indexDoc(doc("1", "field1", "a b c d"));
+        indexDoc(doc("2", "field1", "a b c x"));
+        indexDoc(doc("3", "field1", "a b x y"));
+        indexDoc(doc("4", "field1", "a x y z"));
+        commit();
+
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1").value("a b c d").analyzer("whitespace"), "1");
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1").value("a b c d").analyzer("whitespace").minimumShouldMatch("75%"), "1", "2");
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1").value("a b c d").analyzer("whitespace").minimumShouldMatch("2<-1"), "1", "2");
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1").value("a b c d").analyzer("whitespace").minimumShouldMatch("2"), "1", "2", "3");
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1").value("a b c d").analyzer("whitespace").minimumShouldMatch("0"), "1", "2", "3", "4");
+        // Short queries stay strict
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1").value("a d").analyzer("whitespace").minimumShouldMatch("2<-1"), "1");
+    }
+
+}
@@ -0,0 +1,166 @@
+package org.elasticsearch.test.integration.acrossvariants;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.AcrossVariantsAndFilter;
+import org.apache.lucene.search.AcrossVariantsSegmentExecutor;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.index.query.AcrossVariantsFilterBuilder;
+import org.elasticsearch.indices.acrossvariants.AcrossVariantsParallelService;
+import org.elasticsearch.test.integration.BaseESTest;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Test
+public class AcrossVariantsParallelTest extends BaseESTest {
+
+    @Test
+    public void testParallel() throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            DirectoryReader reader = segments(6);
+            AcrossVariantsSegmentExecutor executor = new AcrossVariantsSegmentExecutor(pool, 100, 2);
+            // The deleted documents stay out
+            assertThat(count(reader, executor), equalTo(6));
+            assertThat(executor.getParallel(), equalTo(1L));
+            assertThat(executor.getSaturated(), equalTo(0L));
+            // Every task released its permit
+            assertThat(executor.getAvailablePermits(), equalTo(100));
+
+            // Not enough segments
+            executor = new AcrossVariantsSegmentExecutor(pool, 100, 10);
+            assertThat(count(reader, executor), equalTo(count(reader, null)));
+            assertThat(executor.getParallel(), equalTo(0L));
+            reader.close();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSaturated() throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            DirectoryReader reader = segments(6);
+            // Less permits than the other segments, computed sequentially
+            AcrossVariantsSegmentExecutor executor = new AcrossVariantsSegmentExecutor(pool, 3, 2);
+            assertThat(count(reader, executor), equalTo(count(reader, null)));
+            assertThat(executor.getParallel(), equalTo(0L));
+            assertThat(executor.getSaturated(), equalTo(1L));
+            assertThat(executor.getAvailablePermits(), equalTo(3));
+            reader.close();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testCancel() throws IOException {
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        try {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        blocked.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            DirectoryReader reader = segments(6);
+            AcrossVariantsSegmentExecutor executor = new AcrossVariantsSegmentExecutor(pool, 100, 2);
+            AcrossVariantsAndFilter filter = filter(executor);
+            // The other segments stay queued behind the blocked task
+            filter.getDocIdSet(reader.leaves().get(0), null);
+            assertThat(executor.getAvailablePermits(), equalTo(95));
+            filter.cancelPending();
+            assertThat(executor.getAvailablePermits(), equalTo(100));
+            // Asked for again, the segments get submitted anew
+            blocked.countDown();
+            assertThat(new IndexSearcher(reader).search(new ConstantScoreQuery(filter), 100).totalHits, equalTo(6));
+            assertThat(executor.getParallel(), equalTo(2L));
+            reader.close();
+        } finally {
+            blocked.countDown();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testFilter() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            indexDoc(doc(Integer.toString(2 * i), "field1", "wi fi", "field2", "monitoring"));
+            indexDoc(doc(Integer.toString(2 * i + 1), "field1", "wi", "field2", "tools"));
+            commit();
+        }
+        setEnabled(true);
+        try {
+            assertDocs(new AcrossVariantsFilterBuilder().fields("field1", "field2").value("wi monitoring").analyzer("whitespace"), "0", "2", "4", "6", "8");
+        } finally {
+            setEnabled(false);
+        }
+    }
+
+    private void setEnabled(boolean enabled) {
+        client().admin().cluster().prepareUpdateSettings()
+                .setTransientSettings(ImmutableSettings.settingsBuilder().put(AcrossVariantsParallelService.PARALLEL_ENABLED_SETTING, enabled))
+                .execute().actionGet();
+    }
+
+    private static int count(DirectoryReader reader, AcrossVariantsSegmentExecutor executor) throws IOException {
+        return new IndexSearcher(reader).search(new ConstantScoreQuery(filter(executor)), 100).totalHits;
+    }
+
+    private static AcrossVariantsAndFilter filter(AcrossVariantsSegmentExecutor executor) throws IOException {
+        AcrossVariantsAndFilter rtn = new AcrossVariantsAndFilter(Arrays.asList("field1", "field2"), new WhitespaceAnalyzer(Version.LUCENE_4_9), "a b");
+        rtn.setSegmentExecutor(executor);
+        return rtn;
+    }
+
+    private static DirectoryReader segments(int segments) throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_4_9, new WhitespaceAnalyzer(Version.LUCENE_4_9));
+        config.setMergePolicy(NoMergePolicy.INSTANCE);
+        IndexWriter writer = new IndexWriter(directory, config);
+        for (int i = 0; i < segments; i++) {
+            writer.addDocument(document("a b", "c"));
+            writer.addDocument(document("a", "b"));
+            writer.addDocument(document("a", "c"));
+            writer.deleteDocuments(new Term("field2", "b"));
+            writer.commit();
+        }
+        writer.close();
+        DirectoryReader rtn = DirectoryReader.open(directory);
+        assertThat(rtn.leaves().size(), equalTo(segments));
+        return rtn;
+    }
+
+    private static Document document(String field1, String field2) {
+        Document rtn = new Document();
+        rtn.add(new TextField("field1", field1, Field.Store.NO));
+        rtn.add(new TextField("field2", field2, Field.Store.NO));
+        return rtn;
+    }
+
+}
@@ -0,0 +1,37 @@
+package org.elasticsearch.test.integration.acrossvariants;
+
+import org.elasticsearch.action.search.SearchPhaseExecutionException;
+import org.elasticsearch.index.query.AcrossVariantsQueryBuilder;
+import org.elasticsearch.test.integration.BaseESTest;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Test
+public class AcrossVariantsPhraseTest extends BaseESTest {
+
+    @Test
+    public void testPhrase() throws IOException {
+        indexDoc(doc("1", "field1", "wifi monitor"));
+        indexDoc(doc("2", "field1", "wi fi monitor"));
+        indexDoc(doc("3", "field1", "monitor wifi"));
+        indexDoc(doc("4", "field1", "wifi usb monitor"));
+        indexDoc(doc("5", "field1", "wifi", "field2", "monitor"));
+        commit();
+
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("wifi monitor").analyzer("whitespace").scoring(false), "1", "2", "3", "4", "5");
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("wifi monitor").analyzer("whitespace").scoring(false).phrase(true), "1", "2");
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("wifi monitor").analyzer("whitespace").scoring(false).phrase(true).slop(1), "1", "2", "4");
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("monitor wifi").analyzer("whitespace").phrase(true), "3");
+        try {
+            assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("wifi monitor").analyzer("whitespace").phrase(true).slop(-1));
+            throw new AssertionError("The slop should have been rejected");
+        } catch (SearchPhaseExecutionException e) {
+            assertThat(e.getMessage(), containsString("negative slop [-1]"));
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package org.elasticsearch.test.integration.acrossvariants;
+
+import org.apache.lucene.search.AcrossVariantsPlan;
+import org.elasticsearch.action.acrossvariants.plan.AcrossVariantsPlanAction;
+import org.elasticsearch.action.acrossvariants.plan.AcrossVariantsPlanRequest;
+import org.elasticsearch.action.acrossvariants.plan.AcrossVariantsPlanResponse;
+import org.elasticsearch.action.acrossvariants.plan.ShardAcrossVariantsPlanResponse;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.query.AcrossVariantsQueryBuilder;
+import org.elasticsearch.test.integration.BaseESTest;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Test
+public class AcrossVariantsPlanTest extends BaseESTest {
+
+    @Test
+    public void testPlan() throws IOException {
+        indexDoc(doc("1", "field1", "a b", "field2", "c"));
+        indexDoc(doc("2", "field1", "a", "field2", "a"));
+        commit();
+
+        AcrossVariantsPlanResponse response = client().admin().indices().execute(AcrossVariantsPlanAction.INSTANCE,
+                new AcrossVariantsPlanRequest(INDEX).source(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("a c").analyzer("whitespace").execution("auto")))
+                .actionGet();
+
+        assertThat(response.getFailedShards(), equalTo(0));
+        assertThat(response.getShardPlans().size(), equalTo(1));
+        ShardAcrossVariantsPlanResponse plan = response.getShardPlans().get(0);
+        assertThat(plan.getMaxDoc(), equalTo(2));
+        assertThat(plan.getLeaves(), equalTo(4));
+        assertThat(plan.getDocFreqs().get("field1").get("a"), equalTo(2));
+        assertThat(plan.getDocFreqs().get("field2").get("a"), equalTo(1));
+        assertThat(plan.getDocFreqs().get("field2").get("c"), equalTo(1));
+        assertThat(plan.getEstimatedCost(), equalTo(4L));
+        // min(2 + 1, 0 + 1)
+        assertThat(plan.getEstimatedMatches(), equalTo(1L));
+        // Rare terms on a tiny index: leapfrogging beats a pass over bitsets
+        assertThat(plan.getEngine(), equalTo(AcrossVariantsPlan.ENGINE_SCORER));
+        assertThat(plan.getEngineCosts().get(AcrossVariantsPlan.ENGINE_SCORER) < plan.getEngineCosts().get(AcrossVariantsPlan.ENGINE_REWRITE), equalTo(true));
+        assertThat(plan.getExecutedQuery(), containsString("field2:c"));
+        assertThat(plan.getTree().getChildren().size(), equalTo(2));
+
+        XContentBuilder builder = jsonBuilder().startObject();
+        response.toXContent(builder, ToXContent.EMPTY_PARAMS);
+        String json = builder.endObject().string();
+        assertThat(json, containsString("\"writings\":[\"a\"]"));
+        assertThat(json, containsString("\"doc_freqs\":{"));
+        assertThat(json, containsString("\"engine_costs\":{"));
+    }
+
+    @Test
+    public void testNotAnAcrossVariantsQuery() throws IOException {
+        indexDoc(doc("1", "field1", "a"));
+        commit();
+
+        AcrossVariantsPlanResponse response = client().admin().indices().execute(AcrossVariantsPlanAction.INSTANCE,
+                new AcrossVariantsPlanRequest(INDEX).source(jsonBuilder().startObject().startObject("match_all").endObject().endObject().bytes()))
+                .actionGet();
+
+        assertThat(response.getFailedShards(), equalTo(1));
+        assertThat(response.getShardPlans().size(), equalTo(0));
+    }
+
+}
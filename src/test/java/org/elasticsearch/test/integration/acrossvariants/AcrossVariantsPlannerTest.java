@@ -0,0 +1,170 @@
+package org.elasticsearch.test.integration.acrossvariants;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.AcrossVariantsAndFilter;
+import org.apache.lucene.search.AcrossVariantsAndQuery;
+import org.apache.lucene.search.AcrossVariantsPlan;
+import org.apache.lucene.search.AcrossVariantsPlanner;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.elasticsearch.action.acrossvariants.stats.AcrossVariantsStatsAction;
+import org.elasticsearch.action.acrossvariants.stats.AcrossVariantsStatsRequest;
+import org.elasticsearch.action.search.SearchPhaseExecutionException;
+import org.elasticsearch.index.query.AcrossVariantsFilterBuilder;
+import org.elasticsearch.index.query.AcrossVariantsQueryBuilder;
+import org.elasticsearch.indices.acrossvariants.AcrossVariantsStats;
+import org.elasticsearch.test.integration.BaseESTest;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Test
+public class AcrossVariantsPlannerTest extends BaseESTest {
+
+    private static final String[] ENGINES = { AcrossVariantsPlan.ENGINE_REWRITE, AcrossVariantsPlan.ENGINE_SCORER, AcrossVariantsPlan.ENGINE_BITSET };
+
+    @Test
+    public void testSameScores() throws IOException {
+        DirectoryReader reader = reader();
+        IndexSearcher searcher = new IndexSearcher(reader);
+        for (String text : new String[] { "a b", "b c", "a b c", "c" }) {
+            TopDocs expected = searcher.search(query(text, AcrossVariantsPlan.ENGINE_REWRITE), 1000);
+            assertThat(text, expected.totalHits > 0);
+            for (String engine : ENGINES) {
+                AcrossVariantsAndQuery query = query(text, engine);
+                TopDocs actual = searcher.search(query, 1000);
+                assertThat(text + " with " + engine, actual.totalHits, equalTo(expected.totalHits));
+                for (int i = 0; i < actual.scoreDocs.length; i++) {
+                    assertThat(text + " with " + engine, actual.scoreDocs[i].doc, equalTo(expected.scoreDocs[i].doc));
+                    assertThat(text + " with " + engine, Math.abs(actual.scoreDocs[i].score - expected.scoreDocs[i].score) < 1e-5f);
+                }
+                float explained = searcher.explain(query, actual.scoreDocs[0].doc).getValue();
+                assertThat(text + " explained with " + engine, Math.abs(explained - actual.scoreDocs[0].score) < 1e-5f);
+                assertThat(text + " with " + engine, query.getEngineUsage().toString(), equalTo(engine));
+            }
+        }
+        reader.close();
+    }
+
+    @Test
+    public void testSameFilterMatches() throws IOException {
+        DirectoryReader reader = reader();
+        IndexSearcher searcher = new IndexSearcher(reader);
+        for (String text : new String[] { "a b", "b c", "a b c", "c" }) {
+            int expected = searcher.search(new ConstantScoreQuery(filter(text, AcrossVariantsPlan.ENGINE_REWRITE)), 1).totalHits;
+            for (String engine : ENGINES) {
+                AcrossVariantsAndFilter filter = filter(text, engine);
+                assertThat(text + " with " + engine, searcher.search(new ConstantScoreQuery(filter), 1).totalHits, equalTo(expected));
+                assertThat(text + " with " + engine, filter.getEngineUsage().toString(), equalTo(engine));
+            }
+        }
+        reader.close();
+    }
+
+    @Test
+    public void testAuto() throws IOException {
+        DirectoryReader reader = reader();
+        IndexSearcher searcher = new IndexSearcher(reader);
+
+        // "a" is in every document, a pass over the bitsets is cheaper than a heap operation per posting
+        AcrossVariantsAndQuery query = query("a b", AcrossVariantsPlanner.EXECUTION_AUTO);
+        searcher.search(query, 10);
+        assertThat(query.getEngineUsage().toString(), equalTo(AcrossVariantsPlan.ENGINE_BITSET));
+        AcrossVariantsAndFilter filter = filter("a b", AcrossVariantsPlanner.EXECUTION_AUTO);
+        searcher.search(new ConstantScoreQuery(filter), 10);
+        assertThat(filter.getEngineUsage().toString(), equalTo(AcrossVariantsPlan.ENGINE_BITSET));
+
+        // Rare terms get leapfrogged
+        query = query("b c", AcrossVariantsPlanner.EXECUTION_AUTO);
+        searcher.search(query, 10);
+        assertThat(query.getEngineUsage().toString(), equalTo(AcrossVariantsPlan.ENGINE_SCORER));
+        filter = filter("b c", AcrossVariantsPlanner.EXECUTION_AUTO);
+        searcher.search(new ConstantScoreQuery(filter), 10);
+        assertThat(filter.getEngineUsage().toString(), equalTo(AcrossVariantsPlan.ENGINE_SCORER));
+
+        // A single term query does not compile into a native tree
+        query = new AcrossVariantsAndQuery(Collections.singleton("field2"), new WhitespaceAnalyzer(Version.LUCENE_4_9), "c");
+        query.setExecution(AcrossVariantsPlanner.EXECUTION_AUTO);
+        searcher.search(query, 10);
+        assertThat(query.getEngineUsage().toString(), equalTo(AcrossVariantsPlan.ENGINE_REWRITE));
+        reader.close();
+    }
+
+    @Test
+    public void testStats() throws IOException {
+        indexDoc(doc("1", "field1", "a b", "field2", "c"));
+        indexDoc(doc("2", "field1", "a", "field2", "d"));
+        commit();
+
+        AcrossVariantsStats before = stats();
+        // The rewrite engine is the default
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("a c").analyzer("whitespace"), "1");
+        assertDocs(new AcrossVariantsFilterBuilder().fields("field1", "field2").value("a c").analyzer("whitespace").execution("bitset"), "1");
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("a c").analyzer("whitespace").execution("auto"), "1");
+        AcrossVariantsStats after = stats();
+        assertThat(after.getRewriteEngine() - before.getRewriteEngine(), equalTo(1L));
+        assertThat(after.getScorerEngine() - before.getScorerEngine(), equalTo(1L));
+        assertThat(after.getBitsetEngine() - before.getBitsetEngine(), equalTo(1L));
+
+        try {
+            assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("a c").analyzer("whitespace").execution("fastest"), "1");
+            throw new AssertionError("The execution should have been rejected");
+        } catch (SearchPhaseExecutionException e) {
+            assertThat(e.getMessage(), containsString("execution [fastest]"));
+        }
+    }
+
+    private static AcrossVariantsAndQuery query(String text, String execution) throws IOException {
+        Map<String, Float> fields = new HashMap<String, Float>();
+        fields.put("field1", 2.0f);
+        fields.put("field2", 1.0f);
+        AcrossVariantsAndQuery rtn = new AcrossVariantsAndQuery(fields, new WhitespaceAnalyzer(Version.LUCENE_4_9), text);
+        rtn.setExecution(execution);
+        return rtn;
+    }
+
+    private static AcrossVariantsAndFilter filter(String text, String execution) throws IOException {
+        AcrossVariantsAndFilter rtn = new AcrossVariantsAndFilter(Arrays.asList("field1", "field2"), new WhitespaceAnalyzer(Version.LUCENE_4_9), text);
+        rtn.setExecution(execution);
+        return rtn;
+    }
+
+    /**
+     * "a" in every document, "b" and "c" in a few ones.
+     */
+    private static DirectoryReader reader() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_4_9, new WhitespaceAnalyzer(Version.LUCENE_4_9)));
+        for (int i = 0; i < 2000; i++) {
+            Document document = new Document();
+            document.add(new TextField("field1", i % 100 == 0 ? "a b" : "a", Field.Store.NO));
+            document.add(new TextField("field2", i % 150 == 0 ? "a c c" : i % 70 == 0 ? "b a" : "a", Field.Store.NO));
+            writer.addDocument(document);
+        }
+        writer.close();
+        return DirectoryReader.open(directory);
+    }
+
+    private AcrossVariantsStats stats() {
+        return client().admin().cluster().execute(AcrossVariantsStatsAction.INSTANCE, new AcrossVariantsStatsRequest()).actionGet()
+                .getNodes()[0].getStats();
+    }
+
+}
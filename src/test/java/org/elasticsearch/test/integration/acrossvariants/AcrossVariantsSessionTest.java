@@ -0,0 +1,28 @@
+package org.elasticsearch.test.integration.acrossvariants;
+
+import org.elasticsearch.index.query.AcrossVariantsQueryBuilder;
+import org.elasticsearch.test.integration.BaseESTest;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+@Test
+public class AcrossVariantsSessionTest extends BaseESTest {
+
+    @Test
+    public void testSession() throws IOException {
+        indexDoc(doc("1", "field1", "wifi monitor"));
+        indexDoc(doc("2", "field1", "wifi", "field2", "mouse"));
+        indexDoc(doc("3", "field1", "wifo monitor"));
+        indexDoc(doc("4", "field1", "monitor"));
+        commit();
+
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("wifi mo").analyzer("whitespace").typeAhead(true).scoring(false).session("s1"), "1", "2");
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("wifi mon").analyzer("whitespace").typeAhead(true).session("s1"), "1");
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("wifi mou").analyzer("whitespace").typeAhead(true).scoring(false).session("s1"), "2");
+        // The completed tokens changed
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("wifo mon").analyzer("whitespace").typeAhead(true).session("s1"), "3");
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("monitor").analyzer("whitespace").scoring(false).session("s1"), "1", "3", "4");
+    }
+
+}
@@ -0,0 +1,104 @@
+package org.elasticsearch.test.integration.acrossvariants;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.lucene.search.AcrossVariantsProfile;
+import org.elasticsearch.index.query.AcrossVariantsFilterBuilder;
+import org.elasticsearch.index.query.AcrossVariantsQueryBuilder;
+import org.elasticsearch.test.integration.BaseESTest;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Test
+public class AcrossVariantsSlowLogTest extends BaseESTest {
+
+    private final CapturingAppender appender = new CapturingAppender();
+
+    @BeforeMethod
+    protected void addAppender() {
+        appender.messages.clear();
+        Logger.getLogger("index.search.slowlog.across_variants").addAppender(appender);
+    }
+
+    @AfterMethod
+    protected void removeAppender() {
+        Logger.getLogger("index.search.slowlog.across_variants").removeAppender(appender);
+    }
+
+    @Test
+    public void testQuery() throws IOException {
+        indexDoc(doc("1", "field1", "a b", "field2", "c"));
+        commit();
+
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("a c").analyzer("whitespace"),
+                "1");
+
+        assertThat(appender.messages.size(), equalTo(1));
+        String message = appender.messages.get(0);
+        assertThat(message, containsString("query[[field"));
+        assertThat(message, containsString("leaves[4]"));
+        assertThat(message, containsString("tree[<null>[<\"a\":[1,0:1]>[], <\"c\":[2,2:3]>[]]]"));
+        assertThat(message, containsString("field1:a=1"));
+        assertThat(message, containsString("field2:a=0"));
+        assertThat(message, containsString("field2:c=1"));
+    }
+
+    @Test
+    public void testFilter() throws IOException {
+        indexDoc(doc("1", "field1", "a b", "field2", "c"));
+        commit();
+
+        assertDocs(new AcrossVariantsFilterBuilder().fields("field1", "field2").value("b").analyzer("whitespace"),
+                "1");
+
+        assertThat(appender.messages.size(), equalTo(1));
+        String message = appender.messages.get(0);
+        assertThat(message, containsString("filter[[field"));
+        assertThat(message, containsString("leaves[2]"));
+        assertThat(message, containsString("field1:b=1"));
+    }
+
+    @Test
+    public void testTook() {
+        AcrossVariantsProfile profile = new AcrossVariantsProfile();
+        profile.addAnalysisNanos(1);
+        profile.addRewriteNanos(2);
+        profile.startExecution(10);
+        profile.endPhase(14);
+        assertThat(profile.getExecutionNanos(), equalTo(4L));
+        assertThat(profile.getTookNanos(), equalTo(7L));
+        // The time after the phase, eg. the fetch phase, does not count
+        profile.endPhase(1000);
+        assertThat(profile.getTookNanos(), equalTo(7L));
+    }
+
+    private static class CapturingAppender extends AppenderSkeleton {
+
+        private final List<String> messages = new ArrayList<String>();
+
+        @Override
+        protected synchronized void append(LoggingEvent event) {
+            messages.add(event.getRenderedMessage());
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean requiresLayout() {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+package org.elasticsearch.test.integration.acrossvariants;
+
+import org.elasticsearch.action.search.SearchPhaseExecutionException;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.index.query.AcrossVariantsQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.elasticsearch.test.integration.BaseESTest;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Test
+public class AcrossVariantsTopKTest extends BaseESTest {
+
+    @Test
+    public void testQuery() throws IOException {
+        // The first document is the top hit, the others only match through the frequent writings and get skipped
+        indexDoc(doc("1", "field1", "a b", "field2", "a b"));
+        for (int i = 2; i <= 40; i++)
+            indexDoc(doc(Integer.toString(i), "field2", "a b x"));
+        commit();
+
+        AcrossVariantsQueryBuilder query = new AcrossVariantsQueryBuilder().fields("field1", "field2").value("a b").analyzer("whitespace")
+                .execution("scorer").topK(1);
+        assertThat(totalHits(search(query).setSize(1)) < 40, equalTo(true));
+        // Every document gets scored unless the search only collects the top hits by score
+        assertThat(totalHits(search(query).setSize(2)), equalTo(40L));
+        assertThat(totalHits(search(query).setSize(1).addSort("_uid", SortOrder.ASC)), equalTo(40L));
+        assertThat(totalHits(search(query).setSize(1).addAggregation(AggregationBuilders.terms("terms").field("field2"))), equalTo(40L));
+        // Nor when the query is nested, the outer query needing all of its matches
+        assertThat(totalHits(search(QueryBuilders.constantScoreQuery(query)).setSize(1)), equalTo(40L));
+        assertThat(totalHits(search(QueryBuilders.boolQuery().should(query).should(QueryBuilders.termQuery("field2", "x"))).setSize(1)), equalTo(40L));
+        assertThat(totalHits(search(QueryBuilders.boolQuery().should(QueryBuilders.termQuery("field2", "x")).mustNot(query)).setSize(1)), equalTo(0L));
+
+        try {
+            assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("a b").analyzer("whitespace").topK(-1), "1");
+            throw new AssertionError("The top k should have been rejected");
+        } catch (SearchPhaseExecutionException e) {
+            assertThat(e.getMessage(), containsString("negative top_k [-1]"));
+        }
+    }
+
+    private SearchRequestBuilder search(QueryBuilder query) {
+        return client().prepareSearch(INDEX).setQuery(query);
+    }
+
+    private static long totalHits(SearchRequestBuilder search) {
+        return search.execute().actionGet().getHits().getTotalHits();
+    }
+
+}
@@ -0,0 +1,28 @@
+package org.elasticsearch.test.integration.acrossvariants;
+
+import org.elasticsearch.index.query.AcrossVariantsQueryBuilder;
+import org.elasticsearch.test.integration.BaseESTest;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+@Test
+public class AcrossVariantsTypeAheadTest extends BaseESTest {
+
+    @Test
+    public void testTypeAhead() throws IOException {
+        indexDoc(doc("1", "field1", "wifi monitor"));
+        indexDoc(doc("2", "field1", "wifi", "field2", "mouse"));
+        indexDoc(doc("3", "field1", "wifo monitor"));
+        indexDoc(doc("4", "field1", "monitor"));
+        commit();
+
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("wifi mo").analyzer("whitespace"));
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("wifi mo").analyzer("whitespace").typeAhead(true).scoring(false), "1", "2");
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("wifi moni").analyzer("whitespace").typeAhead(true), "1");
+        // Only the last token is a prefix
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("wif monitor").analyzer("whitespace").typeAhead(true));
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("wi").analyzer("whitespace").typeAhead(true).scoring(false), "1", "2", "3");
+    }
+
+}
@@ -0,0 +1,50 @@
+package org.elasticsearch.test.integration.acrossvariants;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.index.query.AcrossVariantsQueryBuilder;
+import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.test.integration.BaseESTest;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Test
+public class AcrossVariantsUnscoredTest extends BaseESTest {
+
+    @Test
+    public void testCount() throws IOException {
+        indexDoc(doc("1", "field1", "a b", "field2", "c"));
+        indexDoc(doc("2", "field1", "a", "field2", "b"));
+        indexDoc(doc("3", "field1", "a", "field2", "d"));
+        commit();
+
+        assertThat(count(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("a b").analyzer("whitespace")), equalTo(2L));
+        assertThat(count(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("a").analyzer("whitespace")), equalTo(3L));
+        assertThat(count(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("a b").analyzer("whitespace").existence(true)), equalTo(1L));
+        assertThat(count(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("a e").analyzer("whitespace").existence(true)), equalTo(0L));
+        // Nested, or with a post filter, every document is matched
+        QueryBuilder exists = new AcrossVariantsQueryBuilder().fields("field1", "field2").value("a").analyzer("whitespace").existence(true);
+        assertThat(count(QueryBuilders.boolQuery().must(QueryBuilders.constantScoreQuery(exists)).must(QueryBuilders.termQuery("field2", "d"))), equalTo(1L));
+        assertThat(count(QueryBuilders.boolQuery().should(QueryBuilders.termQuery("field2", "c")).mustNot(exists)), equalTo(0L));
+        assertThat(client().prepareSearch(INDEX).setTypes(TYPE).setQuery(exists).setPostFilter(FilterBuilders.termFilter("field2", "d")).get().getHits().getTotalHits(), equalTo(1L));
+
+        // Constant scores, in doc id order
+        assertDocs(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("a b").analyzer("whitespace").scoring(false), "1", "2");
+        SearchResponse response = client().prepareSearch(INDEX).setTypes(TYPE)
+                .setQuery(new AcrossVariantsQueryBuilder().fields("field1", "field2").value("a b").analyzer("whitespace").scoring(false)).get();
+        assertThat(response.getHits().getAt(0).score(), equalTo(response.getHits().getAt(1).score()));
+    }
+
+    private long count(QueryBuilder queryBuilder) {
+        SearchResponse response = client().prepareSearch(INDEX).setTypes(TYPE).setSearchType(SearchType.COUNT).setQuery(queryBuilder).get();
+        assertThat("successful search", response.getFailedShards(), equalTo(0));
+        return response.getHits().getTotalHits();
+    }
+
+}